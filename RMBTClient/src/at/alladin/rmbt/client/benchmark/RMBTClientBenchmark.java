@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.client.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import at.alladin.rmbt.client.RMBTClient;
+import at.alladin.rmbt.client.RMBTTestParameter;
+import at.alladin.rmbt.client.TotalTestResult;
+import at.alladin.rmbt.client.helper.TestStatus;
+
+/**
+ * Runs {@link RMBTClient} against a {@link RMBTLoopbackServer} (in process or external) for a list of thread counts
+ * and reports throughput, client cpu usage per Gbit/s and the duration of each test phase.
+ *
+ * @author lb
+ */
+public class RMBTClientBenchmark
+{
+    private static final TestStatus[] PHASES = { TestStatus.INIT, TestStatus.PING, TestStatus.DOWN, TestStatus.INIT_UP, TestStatus.UP };
+
+    private final String host;
+    private final int port;
+    private final RMBTLoopbackServer server;
+    private final int duration;
+    private final int numPings;
+    private final PrintStream report;
+    private final boolean verbose;
+
+    /**
+     * result of a single client run
+     */
+    public static class BenchmarkResult
+    {
+        int threads;
+        boolean success;
+        double downBitPerSec;
+        double upBitPerSec;
+        double pingMs;
+        long wallNs;
+        long clientCpuNs = -1;
+        long serverCpuNs = -1;
+        long totalBytes;
+        final Map<TestStatus, Long> phaseNs = new EnumMap<TestStatus, Long>(TestStatus.class);
+
+        /**
+         * @return client cpu seconds per transferred Gbit (= cpu cores needed per Gbit/s), -1 if unknown
+         */
+        public double getCpuPerGbit()
+        {
+            if (clientCpuNs < 0 || totalBytes == 0)
+                return -1;
+            return (clientCpuNs / 1e9) / (totalBytes * 8 / 1e9);
+        }
+    }
+
+    public RMBTClientBenchmark(final String host, final int port, final RMBTLoopbackServer server, final int duration,
+            final int numPings, final PrintStream report, final boolean verbose)
+    {
+        this.host = host;
+        this.port = port;
+        this.server = server;
+        this.duration = duration;
+        this.numPings = numPings;
+        this.report = report;
+        this.verbose = verbose;
+    }
+
+    /**
+     * @return process cpu time (ns) or -1 if not supported by the jvm
+     */
+    private static long getProcessCpuTime()
+    {
+        final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+        return -1;
+    }
+
+    /**
+     * runs a single test with the given number of threads
+     *
+     * @param threads
+     * @return
+     * @throws InterruptedException
+     */
+    public BenchmarkResult run(final int threads) throws InterruptedException
+    {
+        final BenchmarkResult result = new BenchmarkResult();
+        result.threads = threads;
+
+        final String token = UUID.randomUUID().toString() + "_" + (System.currentTimeMillis() / 1000) + "_benchmark";
+        final RMBTTestParameter params = new RMBTTestParameter(host, port, false, token, duration, threads, numPings,
+                System.currentTimeMillis());
+        final RMBTClient client = RMBTClient.getInstance(params);
+
+        final long[] phaseStart = new long[TestStatus.values().length];
+        final Thread monitor = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                TestStatus last = null;
+                while (!Thread.currentThread().isInterrupted())
+                {
+                    final TestStatus status = client.getStatus();
+                    if (status != last)
+                    {
+                        phaseStart[status.ordinal()] = System.nanoTime();
+                        last = status;
+                    }
+                    try
+                    {
+                        Thread.sleep(1);
+                    }
+                    catch (final InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+            }
+        }, "RMBTClientBenchmark-monitor");
+
+        final PrintStream stdout = System.out;
+        if (!verbose)
+            System.setOut(new PrintStream(new OutputStream()
+            {
+                @Override
+                public void write(final int b) throws IOException
+                {
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException
+                {
+                }
+            }));
+
+        final long serverCpuStart = server != null ? server.getCpuTimeNs() : -1;
+        final long cpuStart = getProcessCpuTime();
+        final long timeStart = System.nanoTime();
+        monitor.start();
+
+        final TotalTestResult testResult;
+        try
+        {
+            testResult = (TotalTestResult) client.runTest();
+        }
+        finally
+        {
+            final long timeEnd = System.nanoTime();
+            monitor.interrupt();
+            monitor.join();
+            client.shutdown();
+            System.setOut(stdout);
+
+            result.wallNs = timeEnd - timeStart;
+            phaseStart[TestStatus.SPEEDTEST_END.ordinal()] = timeEnd;
+        }
+
+        // connections are closed by the client at the end of the test, wait for the server to account them
+        if (server != null)
+            for (int i = 0; i < 100 && server.getActiveConnections() > 0; i++)
+                Thread.sleep(10);
+
+        final long cpuEnd = getProcessCpuTime();
+        if (server != null)
+            result.serverCpuNs = server.getCpuTimeNs() - serverCpuStart;
+        if (cpuStart >= 0)
+            result.clientCpuNs = cpuEnd - cpuStart - Math.max(0, result.serverCpuNs);
+
+        for (int i = 0; i < PHASES.length; i++)
+        {
+            final long start = phaseStart[PHASES[i].ordinal()];
+            final long end = i < PHASES.length - 1 ? phaseStart[PHASES[i + 1].ordinal()] : phaseStart[TestStatus.SPEEDTEST_END.ordinal()];
+            if (start > 0 && end > start)
+                result.phaseNs.put(PHASES[i], end - start);
+        }
+
+        if (testResult != null)
+        {
+            result.success = true;
+            result.downBitPerSec = testResult.getDownloadSpeedBitPerSec();
+            result.upBitPerSec = testResult.getUploadSpeedBitPerSec();
+            result.pingMs = testResult.ping_shortest / 1e6;
+            result.totalBytes = testResult.totalDownBytes + testResult.totalUpBytes;
+        }
+
+        return result;
+    }
+
+    public void printHeader()
+    {
+        report.println(String.format(Locale.US, "%7s %11s %11s %8s %7s %9s %9s %10s %8s %8s %8s %8s %8s",
+                "threads", "down Mbit/s", "up Mbit/s", "ping ms", "wall s", "cli cpu s", "srv cpu s", "cpu/Gbit/s",
+                "init ms", "ping ms", "down ms", "initup ms", "up ms"));
+    }
+
+    public void print(final BenchmarkResult r)
+    {
+        if (!r.success)
+        {
+            report.println(String.format(Locale.US, "%7d  test failed", r.threads));
+            return;
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%7d %11.1f %11.1f %8.3f %7.2f %9.2f %9.2f %10.3f",
+                r.threads, r.downBitPerSec / 1e6, r.upBitPerSec / 1e6, r.pingMs, r.wallNs / 1e9,
+                r.clientCpuNs / 1e9, r.serverCpuNs / 1e9, r.getCpuPerGbit()));
+        for (final TestStatus phase : PHASES)
+        {
+            final Long ns = r.phaseNs.get(phase);
+            sb.append(String.format(Locale.US, " %8d", ns != null ? ns / 1000000L : -1));
+        }
+        report.println(sb);
+    }
+
+    /**
+     * @param args
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException
+    {
+        final OptionParser parser = new OptionParser()
+        {
+            {
+                acceptsAll(Arrays.asList("?", "help"), "show help");
+
+                acceptsAll(Arrays.asList("h", "host"), "external RMBT server (default: in process loopback server)").withRequiredArg()
+                        .ofType(String.class);
+
+                acceptsAll(Arrays.asList("p", "port"), "port of the external RMBT server").withRequiredArg().ofType(Integer.class);
+
+                acceptsAll(Arrays.asList("t", "threads"), "comma separated list of thread counts (default: 1,2,4,8,16,32,64)")
+                        .withRequiredArg().ofType(String.class);
+
+                acceptsAll(Arrays.asList("d", "duration"), "download/upload duration in seconds (default: 5)")
+                        .withRequiredArg().ofType(Integer.class);
+
+                acceptsAll(Arrays.asList("r", "repeat"), "runs per thread count (default: 1)").withRequiredArg().ofType(Integer.class);
+
+                acceptsAll(Arrays.asList("n", "pings"), "number of pings (default: 10)").withRequiredArg().ofType(Integer.class);
+
+                acceptsAll(Arrays.asList("c", "chunksize"), "chunk size of the loopback server (default: " + RMBTLoopbackServer.DEFAULT_CHUNK_SIZE + ")")
+                        .withRequiredArg().ofType(Integer.class);
+
+                acceptsAll(Arrays.asList("rate"), "rate limit of the loopback server per connection and direction in kbit/s")
+                        .withRequiredArg().ofType(Long.class);
+
+                acceptsAll(Arrays.asList("v", "verbose"), "show client output");
+            }
+        };
+
+        OptionSet options;
+        try
+        {
+            options = parser.parse(args);
+        }
+        catch (final OptionException e)
+        {
+            System.out.println(String.format("error while parsing command line options: %s", e.getLocalizedMessage()));
+            System.exit(1);
+            return;
+        }
+
+        if (options.has("?") || options.has("h") != options.has("p"))
+        {
+            parser.printHelpOn(System.out);
+            System.exit(1);
+            return;
+        }
+
+        final List<Integer> threadList = new ArrayList<Integer>();
+        for (final String t : (options.has("t") ? (String) options.valueOf("t") : "1,2,4,8,16,32,64").split(","))
+            threadList.add(Integer.parseInt(t.trim()));
+
+        final int duration = options.has("d") ? (Integer) options.valueOf("d") : 5;
+        final int repeat = options.has("r") ? (Integer) options.valueOf("r") : 1;
+        final int numPings = options.has("n") ? (Integer) options.valueOf("n") : 10;
+
+        RMBTLoopbackServer server = null;
+        final String host;
+        final int port;
+        if (options.has("h"))
+        {
+            host = (String) options.valueOf("h");
+            port = (Integer) options.valueOf("p");
+        }
+        else
+        {
+            final int chunkSize = options.has("c") ? (Integer) options.valueOf("c") : RMBTLoopbackServer.DEFAULT_CHUNK_SIZE;
+            final long rate = options.has("rate") ? (Long) options.valueOf("rate") * 1000L / 8L : 0;
+            host = "127.0.0.1";
+            server = new RMBTLoopbackServer(0, InetAddress.getByName(host), chunkSize, rate, false);
+            port = server.start();
+            System.out.println(server);
+        }
+
+        final RMBTClientBenchmark benchmark = new RMBTClientBenchmark(host, port, server, duration, numPings, System.out,
+                options.has("v"));
+
+        System.out.println(String.format(Locale.US, "RMBT client benchmark: %s:%d, duration: %ds, cpus: %d",
+                host, port, duration, Runtime.getRuntime().availableProcessors()));
+        benchmark.printHeader();
+
+        for (final int threads : threadList)
+            for (int i = 0; i < repeat; i++)
+                benchmark.print(benchmark.run(threads));
+
+        if (server != null)
+        {
+            server.stop();
+            System.out.println(server);
+        }
+
+        // the common thread pool of the client is not a daemon pool
+        System.exit(0);
+    }
+}
@@ -0,0 +1,584 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.client.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ServerSocketFactory;
+import javax.net.ssl.SSLServerSocketFactory;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import at.alladin.rmbt.client.helper.Config;
+
+/**
+ * Java implementation of the server side of the RMBT protocol (stand-in for rmbtd).<br>
+ * Supports the token handshake, GETCHUNKS, GETTIME, PUT, PUTNORESULT, PING and QUIT. The token is not validated.
+ * Chunk size and a per connection rate limit can be configured, so client changes can be benchmarked in a plain JVM.
+ *
+ * @author lb
+ */
+public class RMBTLoopbackServer implements Runnable
+{
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+    public static final int MIN_CHUNK_SIZE = 4096;
+    public static final int MAX_CHUNK_SIZE = 4194304;
+
+    private static final String ACCEPT_TOKEN = "ACCEPT TOKEN QUIT\n";
+    private static final String ACCEPT_COMMANDS = "ACCEPT GETCHUNKS GETTIME PUT PUTNORESULT PING QUIT\n";
+
+    private static final byte CHUNK_CONTINUE = (byte) 0x00;
+    private static final byte CHUNK_TERMINATE = (byte) 0xff;
+
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    /**
+     * time between two "TIME x BYTES y" lines of a PUT test
+     */
+    private static final long PUT_RESULT_INTERVAL_NS = 1000000L;
+
+    private final int port;
+    private final InetAddress bindAddress;
+    private final int chunkSize;
+    private final long rateLimitBytesPerSec;
+    private final boolean ssl;
+
+    private final ExecutorService connectionPool;
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicLong cpuTimeNs = new AtomicLong();
+
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     *
+     * @param port listening port, 0 for an ephemeral port
+     * @param bindAddress address to bind to, null for the wildcard address
+     * @param chunkSize default chunk size
+     * @param rateLimitBytesPerSec rate limit of each connection and direction, 0 for no limit
+     * @param ssl use the default {@link SSLServerSocketFactory} (key store set via javax.net.ssl.keyStore)
+     */
+    public RMBTLoopbackServer(final int port, final InetAddress bindAddress, final int chunkSize,
+            final long rateLimitBytesPerSec, final boolean ssl)
+    {
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("invalid chunk size: " + chunkSize);
+
+        this.port = port;
+        this.bindAddress = bindAddress;
+        this.chunkSize = chunkSize;
+        this.rateLimitBytesPerSec = rateLimitBytesPerSec;
+        this.ssl = ssl;
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+        this.connectionPool = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            public Thread newThread(final Runnable r)
+            {
+                final Thread t = new Thread(r, "RMBTLoopbackServer-" + threadCounter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * binds the server socket and starts the accept thread
+     *
+     * @return the bound port
+     * @throws IOException
+     */
+    public int start() throws IOException
+    {
+        final ServerSocketFactory factory = ssl ? SSLServerSocketFactory.getDefault() : ServerSocketFactory.getDefault();
+        final ServerSocket ss = factory.createServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(new InetSocketAddress(bindAddress, port), 128);
+        serverSocket = ss;
+        running = true;
+
+        final Thread acceptThread = new Thread(this, "RMBTLoopbackServer-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        return ss.getLocalPort();
+    }
+
+    /**
+     * closes the server socket; open connections are closed by the clients or once their threads finish
+     */
+    public void stop()
+    {
+        running = false;
+        final ServerSocket ss = serverSocket;
+        if (ss != null)
+            try
+            {
+                ss.close();
+            }
+            catch (final IOException e)
+            {
+                // ignore
+            }
+        connectionPool.shutdown();
+    }
+
+    public void run()
+    {
+        while (running)
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                connectionPool.execute(new ConnectionHandler(socket));
+            }
+            catch (final SocketException e)
+            {
+                // server socket closed
+                break;
+            }
+            catch (final IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    public long getBytesSent()
+    {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived()
+    {
+        return bytesReceived.get();
+    }
+
+    public long getConnections()
+    {
+        return connections.get();
+    }
+
+    public int getActiveConnections()
+    {
+        return activeConnections.get();
+    }
+
+    /**
+     * @return cpu time consumed by connections that have been closed (ns)
+     */
+    public long getCpuTimeNs()
+    {
+        return cpuTimeNs.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RMBTLoopbackServer [port=" + (serverSocket != null ? serverSocket.getLocalPort() : port) + ", chunkSize=" + chunkSize
+                + ", rateLimitBytesPerSec=" + rateLimitBytesPerSec + ", ssl=" + ssl + ", connections=" + connections
+                + ", activeConnections=" + activeConnections + ", bytesSent=" + bytesSent + ", bytesReceived=" + bytesReceived + "]";
+    }
+
+    /**
+     * token bucket rate limiter (one per connection and direction)
+     */
+    private static class RateShaper
+    {
+        private final long bytesPerSec;
+        private final long startNs = System.nanoTime();
+        private long bytes;
+
+        RateShaper(final long bytesPerSec)
+        {
+            this.bytesPerSec = bytesPerSec;
+        }
+
+        /**
+         * blocks until the given number of bytes may be transferred
+         *
+         * @param len
+         * @throws IOException
+         */
+        void acquire(final int len) throws IOException
+        {
+            if (bytesPerSec <= 0)
+                return;
+
+            bytes += len;
+            final long dueNs = startNs + bytes * 1000000000L / bytesPerSec;
+            final long waitNs = dueNs - System.nanoTime();
+            if (waitNs > 0)
+                try
+                {
+                    Thread.sleep(waitNs / 1000000L, (int) (waitNs % 1000000L));
+                }
+                catch (final InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+        }
+    }
+
+    /**
+     * handles a single test connection
+     */
+    private class ConnectionHandler implements Runnable
+    {
+        private final Socket socket;
+        private final Random random = new Random();
+        private InputStream in;
+        private OutputStream out;
+        private byte[] chunk;
+        private byte[] lineBuf = new byte[MAX_LINE_LENGTH];
+
+        ConnectionHandler(final Socket socket)
+        {
+            this.socket = socket;
+        }
+
+        public void run()
+        {
+            activeConnections.incrementAndGet();
+            // pool threads are reused, so only the cpu time of this connection is accounted
+            final long cpuStart = threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0;
+            try
+            {
+                socket.setTcpNoDelay(true);
+                in = new BufferedInputStream(socket.getInputStream(), 65536);
+                out = new BufferedOutputStream(socket.getOutputStream(), 65536);
+
+                writeLine(Config.RMBT_VERSION_STRING + "\n" + ACCEPT_TOKEN);
+
+                String line = readLine();
+                if (line == null || !line.startsWith("TOKEN "))
+                {
+                    if (line != null && line.equals("QUIT"))
+                        writeLine("BYE\n");
+                    return;
+                }
+
+                writeLine(String.format(Locale.US, "OK\nCHUNKSIZE %d %d %d\n", chunkSize, MIN_CHUNK_SIZE, MAX_CHUNK_SIZE));
+
+                while (running)
+                {
+                    writeLine(ACCEPT_COMMANDS);
+
+                    line = readLine();
+                    if (line == null)
+                        return;
+
+                    final String[] cmd = line.split(" ");
+
+                    if (cmd[0].equals("GETCHUNKS") && cmd.length >= 2)
+                        getChunks(Integer.parseInt(cmd[1]), getChunkSize(cmd, 2));
+                    else if (cmd[0].equals("GETTIME") && cmd.length >= 2)
+                        getTime(Integer.parseInt(cmd[1]), getChunkSize(cmd, 2));
+                    else if (cmd[0].equals("PUT"))
+                        put(true, getChunkSize(cmd, 1));
+                    else if (cmd[0].equals("PUTNORESULT"))
+                        put(false, getChunkSize(cmd, 1));
+                    else if (cmd[0].equals("PING"))
+                        ping();
+                    else if (cmd[0].equals("QUIT"))
+                    {
+                        writeLine("BYE\n");
+                        return;
+                    }
+                    else
+                        writeLine("ERR\n");
+                }
+            }
+            catch (final NumberFormatException e)
+            {
+                // invalid command, close connection
+            }
+            catch (final IOException e)
+            {
+                // connection closed by the client (e.g. download test aborted)
+            }
+            finally
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch (final IOException e)
+                {
+                    // ignore
+                }
+                activeConnections.decrementAndGet();
+                if (threadBean.isCurrentThreadCpuTimeSupported())
+                    cpuTimeNs.addAndGet(threadBean.getCurrentThreadCpuTime() - cpuStart);
+            }
+        }
+
+        private int getChunkSize(final String[] cmd, final int index)
+        {
+            if (cmd.length <= index)
+                return chunkSize;
+            final int size = Integer.parseInt(cmd[index]);
+            if (size < MIN_CHUNK_SIZE || size > MAX_CHUNK_SIZE)
+                throw new NumberFormatException("invalid chunk size: " + size);
+            return size;
+        }
+
+        /**
+         * @param size
+         * @return random payload of the given size; the last byte is set by the caller
+         */
+        private byte[] getChunk(final int size)
+        {
+            if (chunk == null || chunk.length != size)
+            {
+                chunk = new byte[size];
+                random.nextBytes(chunk);
+            }
+            return chunk;
+        }
+
+        private void getChunks(final int chunks, final int size) throws IOException
+        {
+            if (chunks < 1)
+                throw new NumberFormatException("invalid number of chunks: " + chunks);
+
+            final RateShaper shaper = new RateShaper(rateLimitBytesPerSec);
+            final byte[] buf = getChunk(size);
+            final long timeStart = System.nanoTime();
+            for (int i = 0; i < chunks; i++)
+            {
+                buf[size - 1] = i == chunks - 1 ? CHUNK_TERMINATE : CHUNK_CONTINUE;
+                shaper.acquire(size);
+                write(buf, size);
+            }
+            out.flush();
+
+            expectOk();
+            writeLine(String.format(Locale.US, "TIME %d\n", System.nanoTime() - timeStart));
+        }
+
+        private void getTime(final int seconds, final int size) throws IOException
+        {
+            if (seconds < 1)
+                throw new NumberFormatException("invalid duration: " + seconds);
+
+            final RateShaper shaper = new RateShaper(rateLimitBytesPerSec);
+            final byte[] buf = getChunk(size);
+            final long timeStart = System.nanoTime();
+            final long timeEnd = timeStart + seconds * 1000000000L;
+            buf[size - 1] = CHUNK_CONTINUE;
+            while (System.nanoTime() < timeEnd)
+            {
+                shaper.acquire(size);
+                write(buf, size);
+            }
+            buf[size - 1] = CHUNK_TERMINATE;
+            write(buf, size);
+            out.flush();
+
+            expectOk();
+            writeLine(String.format(Locale.US, "TIME %d\n", System.nanoTime() - timeStart));
+        }
+
+        private void put(final boolean sendResults, final int size) throws IOException
+        {
+            writeLine("OK\n");
+
+            final RateShaper shaper = new RateShaper(rateLimitBytesPerSec);
+            final byte[] buf = new byte[Math.max(size, 65536)];
+            final long timeStart = System.nanoTime();
+            long lastResultNs = 0;
+            long totalRead = 0;
+            byte lastByte = CHUNK_CONTINUE;
+            do
+            {
+                final int read = in.read(buf);
+                if (read < 0)
+                    throw new IOException("connection closed");
+
+                // check the last byte of every chunk that ends within this read
+                final int posLast = size - 1 - (int) (totalRead % size);
+                for (int pos = posLast; pos < read; pos += size)
+                    lastByte = buf[pos];
+
+                totalRead += read;
+                bytesReceived.addAndGet(read);
+                shaper.acquire(read);
+
+                if (sendResults)
+                {
+                    final long nsec = System.nanoTime() - timeStart;
+                    if (nsec - lastResultNs >= PUT_RESULT_INTERVAL_NS)
+                    {
+                        lastResultNs = nsec;
+                        writeLine(String.format(Locale.US, "TIME %d BYTES %d\n", nsec, totalRead));
+                    }
+                }
+            }
+            while (lastByte != CHUNK_TERMINATE);
+
+            writeLine(String.format(Locale.US, "TIME %d\n", System.nanoTime() - timeStart));
+        }
+
+        private void ping() throws IOException
+        {
+            final long timeStart = System.nanoTime();
+            writeLine("PONG\n");
+            expectOk();
+            writeLine(String.format(Locale.US, "TIME %d\n", System.nanoTime() - timeStart));
+        }
+
+        private void expectOk() throws IOException
+        {
+            final String line = readLine();
+            if (!"OK".equals(line))
+                throw new IOException("expected OK, got: " + line);
+        }
+
+        private void write(final byte[] buf, final int len) throws IOException
+        {
+            out.write(buf, 0, len);
+            bytesSent.addAndGet(len);
+        }
+
+        private void writeLine(final String line) throws IOException
+        {
+            out.write(line.getBytes("US-ASCII"));
+            out.flush();
+        }
+
+        /**
+         * reads a line from the (binary) input stream
+         *
+         * @return line without line terminator or null if the connection has been closed
+         * @throws IOException
+         */
+        private String readLine() throws IOException
+        {
+            int len = 0;
+            for (;;)
+            {
+                final int b = in.read();
+                if (b < 0)
+                    return null;
+                if (b == '\n')
+                    break;
+                if (len == lineBuf.length)
+                    throw new IOException("line too long");
+                lineBuf[len++] = (byte) b;
+            }
+            if (len > 0 && lineBuf[len - 1] == '\r')
+                len--;
+            final byte[] line = new byte[len];
+            System.arraycopy(lineBuf, 0, line, 0, len);
+            return new String(line, "US-ASCII");
+        }
+    }
+
+    /**
+     * @param args
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException
+    {
+        final OptionParser parser = new OptionParser()
+        {
+            {
+                acceptsAll(Arrays.asList("?", "help"), "show help");
+
+                acceptsAll(Arrays.asList("p", "port"), "listening port (default: 5231)").withRequiredArg()
+                        .ofType(Integer.class);
+
+                acceptsAll(Arrays.asList("b", "bind"), "bind address (default: all addresses)").withRequiredArg()
+                        .ofType(String.class);
+
+                acceptsAll(Arrays.asList("c", "chunksize"), "chunk size in bytes (default: " + DEFAULT_CHUNK_SIZE + ")")
+                        .withRequiredArg().ofType(Integer.class);
+
+                acceptsAll(Arrays.asList("r", "rate"), "rate limit per connection and direction in kbit/s (default: unlimited)")
+                        .withRequiredArg().ofType(Long.class);
+
+                acceptsAll(Arrays.asList("s", "ssl"), "use SSL/TLS (key store set via -Djavax.net.ssl.keyStore)");
+            }
+        };
+
+        OptionSet options;
+        try
+        {
+            options = parser.parse(args);
+        }
+        catch (final OptionException e)
+        {
+            System.out.println(String.format("error while parsing command line options: %s", e.getLocalizedMessage()));
+            System.exit(1);
+            return;
+        }
+
+        if (options.has("?"))
+        {
+            parser.printHelpOn(System.out);
+            return;
+        }
+
+        final int port = options.has("p") ? (Integer) options.valueOf("p") : 5231;
+        final InetAddress bindAddress = options.has("b") ? InetAddress.getByName((String) options.valueOf("b")) : null;
+        final int chunkSize = options.has("c") ? (Integer) options.valueOf("c") : DEFAULT_CHUNK_SIZE;
+        final long rate = options.has("r") ? (Long) options.valueOf("r") * 1000L / 8L : 0;
+
+        final RMBTLoopbackServer server = new RMBTLoopbackServer(port, bindAddress, chunkSize, rate, options.has("s"));
+        server.start();
+        System.out.println(server);
+
+        for (;;)
+        {
+            Thread.sleep(10000);
+            System.out.println(server);
+        }
+    }
+}
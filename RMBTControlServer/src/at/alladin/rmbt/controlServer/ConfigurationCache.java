@@ -0,0 +1,430 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+
+import at.alladin.rmbt.db.QoSTestTypeDesc;
+import at.alladin.rmbt.db.dao.QoSTestTypeDescDao;
+import at.alladin.rmbt.shared.ResourceManager;
+
+/**
+ * caches the configuration that is sent to the clients: settings, news, selectable test servers and qos test type descriptions.<br>
+ * All values are kept in an immutable, versioned {@link Snapshot}. The snapshot is reloaded if the fingerprint of the
+ * underlying tables has changed, the fingerprint is checked at most every {@link #CHECK_INTERVAL_MS} ms.
+ * If the database cannot be reached the last snapshot is used.
+ * @author lb
+ *
+ */
+public class ConfigurationCache {
+
+	/**
+	 *
+	 */
+	public final static long CHECK_INTERVAL_MS = 10000;
+
+	private final static String SQL_FINGERPRINT = "SELECT md5(concat_ws('|',"
+			+ " (SELECT string_agg(s::text, ',' ORDER BY s.uid) FROM settings s),"
+			+ " (SELECT string_agg(n::text, ',' ORDER BY n.uid) FROM news n),"
+			+ " (SELECT string_agg(ts::text, ',' ORDER BY ts.uid) FROM test_server ts),"
+			+ " (SELECT string_agg(ttd::text, ',' ORDER BY ttd.uid) FROM qos_test_type_desc ttd),"
+			+ " (SELECT string_agg(td::text, ',' ORDER BY td.uid) FROM qos_test_desc td))) AS fingerprint";
+
+	private final static String SQL_SETTINGS = "SELECT key, lang, value FROM settings ORDER BY uid";
+
+	private final static String SQL_NEWS = "SELECT uid, title_en, title_de, text_en, text_de, force, plattform,"
+			+ " max_software_version_code, min_software_version_code, uuid::TEXT AS uuid"
+			+ " FROM news WHERE active = true ORDER BY time ASC";
+
+	private final static String SQL_TEST_SERVERS = "SELECT name, uuid::TEXT AS uuid, server_type, active"
+			+ " FROM test_server WHERE selectable ORDER BY uid";
+
+	private final static ConfigurationCache INSTANCE = new ConfigurationCache();
+
+	/**
+	 * an active news entry
+	 * @author lb
+	 *
+	 */
+	public static class NewsItem {
+		private final long uid;
+		private final String titleEn;
+		private final String titleDe;
+		private final String textEn;
+		private final String textDe;
+		private final boolean force;
+		private final String plattform;
+		private final Integer maxSoftwareVersionCode;
+		private final Integer minSoftwareVersionCode;
+		private final String uuid;
+
+		NewsItem(final long uid, final String titleEn, final String titleDe, final String textEn, final String textDe,
+				final boolean force, final String plattform, final Integer maxSoftwareVersionCode, final Integer minSoftwareVersionCode,
+				final String uuid) {
+			this.uid = uid;
+			this.titleEn = titleEn;
+			this.titleDe = titleDe;
+			this.textEn = textEn;
+			this.textDe = textDe;
+			this.force = force;
+			this.plattform = plattform;
+			this.maxSoftwareVersionCode = maxSoftwareVersionCode;
+			this.minSoftwareVersionCode = minSoftwareVersionCode;
+			this.uuid = uuid;
+		}
+
+		NewsItem(final ResultSet rs) throws SQLException {
+			this(rs.getLong("uid"), rs.getString("title_en"), rs.getString("title_de"), rs.getString("text_en"), rs.getString("text_de"),
+					rs.getBoolean("force"), rs.getString("plattform"), getInteger(rs, "max_software_version_code"),
+					getInteger(rs, "min_software_version_code"), rs.getString("uuid"));
+		}
+
+		private static Integer getInteger(final ResultSet rs, final String column) throws SQLException {
+			final int value = rs.getInt(column);
+			return rs.wasNull() ? null : value;
+		}
+
+		/**
+		 * same conditions as the former news query
+		 * @param lastNewsUid
+		 * @param plattform
+		 * @param softwareVersionCode
+		 * @param uuid
+		 * @return
+		 */
+		boolean matches(final long lastNewsUid, final String plattform, final int softwareVersionCode, final String uuid) {
+			return (uid > lastNewsUid || force)
+					&& (this.plattform == null || this.plattform.equals(plattform))
+					&& (maxSoftwareVersionCode == null || softwareVersionCode <= maxSoftwareVersionCode)
+					&& (minSoftwareVersionCode == null || softwareVersionCode >= minSoftwareVersionCode)
+					&& (this.uuid == null || this.uuid.equals(uuid));
+		}
+
+		public long getUid() {
+			return uid;
+		}
+
+		/**
+		 *
+		 * @param lang "de" or "en"
+		 * @return
+		 */
+		public String getTitle(final String lang) {
+			return "de".equals(lang) ? titleDe : titleEn;
+		}
+
+		/**
+		 *
+		 * @param lang "de" or "en"
+		 * @return
+		 */
+		public String getText(final String lang) {
+			return "de".equals(lang) ? textDe : textEn;
+		}
+	}
+
+	/**
+	 * a selectable test server
+	 * @author lb
+	 *
+	 */
+	public static class TestServer {
+		private final String name;
+		private final String uuid;
+		private final String serverType;
+		private final boolean active;
+
+		TestServer(final ResultSet rs) throws SQLException {
+			this.name = rs.getString("name");
+			this.uuid = rs.getString("uuid");
+			this.serverType = rs.getString("server_type");
+			this.active = rs.getBoolean("active");
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getUuid() {
+			return uuid;
+		}
+
+		public String getServerType() {
+			return serverType;
+		}
+
+		public boolean isActive() {
+			return active;
+		}
+	}
+
+	/**
+	 * immutable snapshot of the configuration
+	 * @author lb
+	 *
+	 */
+	public static class Snapshot {
+		private final long version;
+		private final String fingerprint;
+		private final long checkedAt;
+
+		/**
+		 * key -&gt; lang -&gt; value, settings without language are stored with the language ""
+		 */
+		private final Map<String, Map<String, String>> settings;
+		private final List<NewsItem> news;
+		private final List<TestServer> testServers;
+
+		/**
+		 * lang -&gt; descriptions
+		 */
+		private final Map<String, List<QoSTestTypeDesc>> qosTestTypeDescs;
+
+		Snapshot(final long version, final String fingerprint, final long checkedAt, final Map<String, Map<String, String>> settings,
+				final List<NewsItem> news, final List<TestServer> testServers, final Map<String, List<QoSTestTypeDesc>> qosTestTypeDescs) {
+			this.version = version;
+			this.fingerprint = fingerprint;
+			this.checkedAt = checkedAt;
+			this.settings = settings;
+			this.news = news;
+			this.testServers = testServers;
+			this.qosTestTypeDescs = qosTestTypeDescs;
+		}
+
+		Snapshot withCheckedAt(final long checkedAt) {
+			return new Snapshot(version, fingerprint, checkedAt, settings, news, testServers, qosTestTypeDescs);
+		}
+
+		/**
+		 * adds a setting unless the key already has a value for the language
+		 * @param settings key -&gt; lang -&gt; value
+		 * @param key
+		 * @param lang null for settings without language
+		 * @param value
+		 */
+		static void addSetting(final Map<String, Map<String, String>> settings, final String key, final String lang, final String value) {
+			Map<String, String> values = settings.get(key);
+			if (values == null) {
+				values = new HashMap<>();
+				settings.put(key, values);
+			}
+			final String langKey = lang == null ? "" : lang.trim();
+			if (!values.containsKey(langKey)) {
+				values.put(langKey, value);
+			}
+		}
+
+		/**
+		 *
+		 * @return the version of the snapshot, incremented on each reload
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * returns a setting, a language specific value is preferred
+		 * @param key
+		 * @param lang
+		 * @return the value or null if the setting does not exist
+		 */
+		public String getSetting(final String key, final String lang) {
+			final Map<String, String> values = settings.get(key);
+			if (values == null) {
+				return null;
+			}
+			if (lang != null && values.containsKey(lang)) {
+				return values.get(lang);
+			}
+			return values.get("");
+		}
+
+		/**
+		 * returns the news for a client
+		 * @param lastNewsUid
+		 * @param plattform
+		 * @param softwareVersionCode
+		 * @param uuid
+		 * @return the matching news ordered by time
+		 */
+		public List<NewsItem> getNews(final long lastNewsUid, final String plattform, final int softwareVersionCode, final String uuid) {
+			final List<NewsItem> result = new ArrayList<>();
+			for (final NewsItem item : news) {
+				if (item.matches(lastNewsUid, plattform, softwareVersionCode, uuid)) {
+					result.add(item);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 * @param serverType the server type, e.g. RMBT, RMBTws or QoS
+		 * @param activeOnly
+		 * @return the selectable servers of this type
+		 */
+		public List<TestServer> getSelectableServers(final String serverType, final boolean activeOnly) {
+			final List<TestServer> result = new ArrayList<>();
+			for (final TestServer server : testServers) {
+				if (serverType.equals(server.serverType) && (server.active || !activeOnly)) {
+					result.add(server);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 * @param lang
+		 * @return the qos test type descriptions or null if the language has not been loaded
+		 */
+		public List<QoSTestTypeDesc> getQoSTestTypeDescs(final String lang) {
+			return qosTestTypeDescs.get(lang);
+		}
+	}
+
+	private volatile Snapshot snapshot;
+
+	private final Set<String> languages;
+
+	private ConfigurationCache() {
+		final ResourceBundle settings = ResourceManager.getCfgBundle();
+		languages = new LinkedHashSet<>(Arrays.asList(settings.getString("RMBT_SUPPORTED_LANGUAGES").split(",\\s*")));
+		languages.add(settings.getString("RMBT_DEFAULT_LANGUAGE"));
+	}
+
+	public static ConfigurationCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * returns the current snapshot, it is (re)loaded if necessary
+	 * @param conn the connection used for a reload, may be null if the last snapshot should be used
+	 * @return
+	 * @throws SQLException if no snapshot is available
+	 */
+	public Snapshot getSnapshot(final Connection conn) throws SQLException {
+		final Snapshot current = snapshot;
+		if (current != null && (conn == null || current.checkedAt + CHECK_INTERVAL_MS > System.currentTimeMillis())) {
+			return current;
+		}
+		if (conn == null) {
+			throw new SQLException("no database connection");
+		}
+
+		synchronized (this) {
+			//another thread may have refreshed the snapshot in the meantime
+			Snapshot s = snapshot;
+			final long now = System.currentTimeMillis();
+			if (s != null && s.checkedAt + CHECK_INTERVAL_MS > now) {
+				return s;
+			}
+
+			try {
+				final String fingerprint = getFingerprint(conn);
+				if (s != null && s.fingerprint.equals(fingerprint)) {
+					s = s.withCheckedAt(now);
+				}
+				else {
+					s = load(conn, s != null ? s.version + 1 : 1, fingerprint, now);
+					System.out.println("configuration loaded, version " + s.version + ": " + s.settings.size() + " settings, "
+							+ s.news.size() + " news, " + s.testServers.size() + " test servers");
+				}
+			}
+			catch (SQLException e) {
+				if (s == null) {
+					throw e;
+				}
+				//keep the last snapshot and try again later
+				e.printStackTrace();
+				s = s.withCheckedAt(now);
+			}
+
+			snapshot = s;
+			return s;
+		}
+	}
+
+	/**
+	 * forces a reload on the next request
+	 */
+	public void invalidate() {
+		snapshot = null;
+	}
+
+	private static String getFingerprint(final Connection conn) throws SQLException {
+		try (PreparedStatement ps = conn.prepareStatement(SQL_FINGERPRINT);
+				ResultSet rs = ps.executeQuery())
+		{
+			if (rs.next()) {
+				return String.valueOf(rs.getString("fingerprint"));
+			}
+			throw new SQLException("empty result set");
+		}
+	}
+
+	private Snapshot load(final Connection conn, final long version, final String fingerprint, final long now) throws SQLException {
+		final Map<String, Map<String, String>> settings = new HashMap<>();
+		try (PreparedStatement ps = conn.prepareStatement(SQL_SETTINGS);
+				ResultSet rs = ps.executeQuery())
+		{
+			while (rs.next()) {
+				Snapshot.addSetting(settings, rs.getString("key"), rs.getString("lang"), rs.getString("value"));
+			}
+		}
+
+		final List<NewsItem> news = new ArrayList<>();
+		try (PreparedStatement ps = conn.prepareStatement(SQL_NEWS);
+				ResultSet rs = ps.executeQuery())
+		{
+			while (rs.next()) {
+				news.add(new NewsItem(rs));
+			}
+		}
+
+		final List<TestServer> testServers = new ArrayList<>();
+		try (PreparedStatement ps = conn.prepareStatement(SQL_TEST_SERVERS);
+				ResultSet rs = ps.executeQuery())
+		{
+			while (rs.next()) {
+				testServers.add(new TestServer(rs));
+			}
+		}
+
+		final Map<String, List<QoSTestTypeDesc>> qosTestTypeDescs = new HashMap<>();
+		for (final String lang : languages) {
+			final Collection<QoSTestTypeDesc> descs = new QoSTestTypeDescDao(conn, new Locale(lang)).getAll();
+			qosTestTypeDescs.put(lang, Collections.unmodifiableList(new ArrayList<>(descs)));
+		}
+
+		return new Snapshot(version, fingerprint, now, settings, Collections.unmodifiableList(news),
+				Collections.unmodifiableList(testServers), qosTestTypeDescs);
+	}
+}
@@ -47,75 +47,79 @@ public class ControlServer extends Application
         
         final Router router = new Router(getContext());
         
-        router.attach("/version", VersionResource.class);
+        attach(router, "/version", VersionResource.class);
         
         // test request
-        router.attach("/", RegistrationResource.class); // old URL, for backwards compatibility
-        router.attach("/testRequest", RegistrationResource.class);
+        attach(router, "/", RegistrationResource.class); // old URL, for backwards compatibility
+        attach(router, "/testRequest", RegistrationResource.class);
         
         // test result is submitted, will be called once only
-        router.attach("/result", ResultResource.class);
+        attach(router, "/result", ResultResource.class);
         
-        router.attach("/resultQoS", QualityOfServiceResultResource.class);
+        attach(router, "/resultQoS", QualityOfServiceResultResource.class);
         
         // plz is submitted (optional additional resource for browser)
-        router.attach("/resultUpdate", ResultUpdateResource.class);
+        attach(router, "/resultUpdate", ResultUpdateResource.class);
         
         // ndt test results are submitted (optional, after /result)
-        router.attach("/ndtResult", NdtResultResource.class);
+        attach(router, "/ndtResult", NdtResultResource.class);
         
-        router.attach("/news", NewsResource.class);
+        attach(router, "/news", NewsResource.class);
         
-        router.attach("/ip", IpResource.class);
+        attach(router, "/ip", IpResource.class);
         
-        router.attach("/status", StatusResource.class);
+        attach(router, "/status", StatusResource.class);
         
         
         // send history list to client
-        router.attach("/history", HistoryResource.class);
+        attach(router, "/history", HistoryResource.class);
         
         // send brief summary of test results to client
-        router.attach("/testresult", TestResultResource.class);
+        attach(router, "/testresult", TestResultResource.class);
         
         // send detailed test results to client
-        router.attach("/testresultdetail", TestResultDetailResource.class);
+        attach(router, "/testresultdetail", TestResultDetailResource.class);
         
         // was just used for migration
-//        router.attach("/migrateTestSpeed", MigrateTestSpeed.class);
+//        attach(router, "/migrateTestSpeed", MigrateTestSpeed.class);
 
-        router.attach("/sync", SyncResource.class);
+        attach(router, "/sync", SyncResource.class);
         
-        router.attach("/settings", SettingsResource.class);
+        attach(router, "/settings", SettingsResource.class);
         // collection of UserAgent etc.for IE (via server)  
-        router.attach("/requestDataCollector", RequestDataCollector.class);
+        attach(router, "/requestDataCollector", RequestDataCollector.class);
         
-        router.attach("/opentests/O{open_test_uuid}&sender={sender}", OpenTestResource.class);
-        router.attach("/opentests/O{open_test_uuid}", OpenTestResource.class);
+        attach(router, "/opentests/O{open_test_uuid}&sender={sender}", OpenTestResource.class);
+        attach(router, "/opentests/O{open_test_uuid}", OpenTestResource.class);
 
-        router.attach("/v2/opentests/O{open_test_uuid}&sender={sender}", at.alladin.rmbt.controlServer.v2.OpenTestResource.class);
-        router.attach("/v2/opentests/O{open_test_uuid}", at.alladin.rmbt.controlServer.v2.OpenTestResource.class);
+        attach(router, "/v2/opentests/O{open_test_uuid}&sender={sender}", at.alladin.rmbt.controlServer.v2.OpenTestResource.class);
+        attach(router, "/v2/opentests/O{open_test_uuid}", at.alladin.rmbt.controlServer.v2.OpenTestResource.class);
         
-        router.attach("/qos/O{open_test_uuid}", OpenTestQoSResource.class);
-        router.attach("/qos/O{open_test_uuid}/{lang}", OpenTestQoSResource.class);
+        attach(router, "/qos/O{open_test_uuid}", OpenTestQoSResource.class);
+        attach(router, "/qos/O{open_test_uuid}/{lang}", OpenTestQoSResource.class);
 
-        router.attach("/qosTestRequest", QoSTestRequestResource.class);
-        router.attach("/qosTestResult", QoSResultResource.class);
+        attach(router, "/qosTestRequest", QoSTestRequestResource.class);
+        attach(router, "/qosTestResult", QoSResultResource.class);
         
         // administrative resources (access restrictions might be applied to /admin/ 
-        router.attach("/admin/qosObjectives", QualityOfServiceExportResource.class);
-        router.attach("/admin/setImplausible", ImplausibilityHelperResource.class);
+        attach(router, "/admin/qosObjectives", QualityOfServiceExportResource.class);
+        attach(router, "/admin/setImplausible", ImplausibilityHelperResource.class);
 
-        /*
-         * 
-         * use for request time measurements:
-
-	        TimerFilter filter = new TimerFilter();
-	        filter.setNext(router);
-	        
-	        return filter;
-        */
+        // metrics of all routes (json or prometheus text format)
+        router.attach("/admin/metrics", MetricsResource.class);
         
         return router;
     }
     
+    /**
+     * attaches a resource, the requests are measured by a {@link TimerFilter}
+     * @param router
+     * @param path
+     * @param resourceClass
+     */
+    private void attach(final Router router, final String path, final Class<?> resourceClass)
+    {
+        router.attach(path, new TimerFilter(getContext(), path, resourceClass));
+    }
+    
 }
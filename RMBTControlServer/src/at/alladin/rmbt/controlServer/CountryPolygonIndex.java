@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.HashSet;
+import java.util.Set;
+
+import at.alladin.rmbt.shared.geo.Envelope;
+import at.alladin.rmbt.shared.geo.Polygon;
+import at.alladin.rmbt.shared.geo.RTree;
+import at.alladin.rmbt.shared.geo.WktReader;
+
+/**
+ * in-memory index of the country polygons of <code>ne_50m_admin_0_countries</code> (SRID 900913), used for the home country check
+ * of the {@link StatusResource} instead of a <code>st_contains</code> query.<br>
+ * The polygons are prefiltered with an R-tree of their bounding boxes and tested exactly afterwards.
+ * @author lb
+ *
+ */
+public class CountryPolygonIndex {
+
+	/**
+	 * see GeoCalc of the map server
+	 */
+	public final static double MAX_EXTENT = 20037508.342789244;
+
+	private final static String SQL = "SELECT wb_a2, ST_AsText(the_geom) AS wkt FROM ne_50m_admin_0_countries "
+			+ " WHERE wb_a2 IS NOT NULL AND the_geom IS NOT NULL";
+
+	private static volatile CountryPolygonIndex instance;
+
+	/**
+	 * a single polygon of a country
+	 */
+	private static class CountryPolygon {
+		final String countryCode;
+		final Polygon polygon;
+
+		CountryPolygon(String countryCode, Polygon polygon) {
+			this.countryCode = countryCode;
+			this.polygon = polygon;
+		}
+	}
+
+	private final RTree<CountryPolygon> tree;
+
+	private final Set<String> countryCodes;
+
+	private CountryPolygonIndex(RTree<CountryPolygon> tree, Set<String> countryCodes) {
+		this.tree = tree;
+		this.countryCodes = countryCodes;
+	}
+
+	/**
+	 * returns the index, it is loaded from the database on the first call
+	 * @param conn
+	 * @return
+	 * @throws SQLException
+	 */
+	public static CountryPolygonIndex getInstance(Connection conn) throws SQLException {
+		CountryPolygonIndex index = instance;
+		if (index == null) {
+			synchronized (CountryPolygonIndex.class) {
+				index = instance;
+				if (index == null) {
+					index = load(conn);
+					instance = index;
+					System.out.println("country polygon index loaded: " + index.countryCodes.size() + " countries, " + index.tree.size() + " polygons");
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * loads all country polygons from the database
+	 * @param conn
+	 * @return
+	 * @throws SQLException
+	 */
+	public static CountryPolygonIndex load(Connection conn) throws SQLException {
+		final Loader loader = new Loader();
+		try (PreparedStatement ps = conn.prepareStatement(SQL);
+				ResultSet rs = ps.executeQuery())
+		{
+			while (rs.next()) {
+				loader.add(rs.getString("wb_a2"), rs.getString("wkt"));
+			}
+		}
+		catch (ParseException e) {
+			throw new SQLException(e);
+		}
+		return loader.build();
+	}
+
+	/**
+	 * loads the country polygons from a file, each line contains the country code (wb_a2) and the WKT geometry (SRID 900913)
+	 * separated by a semicolon. Empty lines and lines starting with # are ignored.
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static CountryPolygonIndex load(Reader reader) throws IOException, ParseException {
+		final Loader loader = new Loader();
+		final BufferedReader br = new BufferedReader(reader);
+		String line;
+		while ((line = br.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			final int separator = line.indexOf(';');
+			if (separator < 0) {
+				throw new ParseException("country code expected: " + line, 0);
+			}
+			loader.add(line.substring(0, separator).trim(), line.substring(separator + 1));
+		}
+		return loader.build();
+	}
+
+	private static class Loader {
+		final RTree.Builder<CountryPolygon> builder = new RTree.Builder<>();
+		final Set<String> countryCodes = new HashSet<>();
+
+		void add(String countryCode, String wkt) throws ParseException {
+			countryCodes.add(countryCode);
+			for (Polygon p : WktReader.readPolygons(wkt)) {
+				builder.add(p.getEnvelope(), new CountryPolygon(countryCode, p));
+			}
+		}
+
+		CountryPolygonIndex build() {
+			return new CountryPolygonIndex(builder.build(), countryCodes);
+		}
+	}
+
+	/**
+	 * checks if a location is within a country
+	 * @param countryCode the country code (wb_a2)
+	 * @param lat WGS84
+	 * @param lon WGS84
+	 * @return null if the country is unknown or the location cannot be projected, otherwise true if the location is within the country
+	 */
+	public Boolean contains(final String countryCode, double lat, double lon) {
+		if (!countryCodes.contains(countryCode)) {
+			return null;
+		}
+
+		final double x = lonToMeters(lon);
+		final double y = latToMeters(lat);
+		if (Double.isNaN(x) || Double.isInfinite(x) || Double.isNaN(y) || Double.isInfinite(y)) {
+			return null;
+		}
+
+		final boolean[] result = new boolean[1];
+		tree.search(x, y, new RTree.Visitor<CountryPolygon>() {
+			@Override
+			public boolean visit(CountryPolygon item, Envelope envelope) {
+				if (item.countryCode.equals(countryCode) && item.polygon.contains(x, y)) {
+					result[0] = true;
+					return false;
+				}
+				return true;
+			}
+		});
+		return result[0];
+	}
+
+	/**
+	 *
+	 * @param countryCode
+	 * @return true if the index contains polygons of this country
+	 */
+	public boolean hasCountry(String countryCode) {
+		return countryCodes.contains(countryCode);
+	}
+
+	/**
+	 * spherical mercator (SRID 900913)
+	 * @param lat
+	 * @return
+	 */
+	public static double latToMeters(final double lat) {
+		return Math.log(Math.tan((90.0 + lat) * Math.PI / 360.0)) / (Math.PI / 180.0) * MAX_EXTENT / 180.0;
+	}
+
+	/**
+	 * spherical mercator (SRID 900913)
+	 * @param lon
+	 * @return
+	 */
+	public static double lonToMeters(final double lon) {
+		return lon * MAX_EXTENT / 180.0;
+	}
+}
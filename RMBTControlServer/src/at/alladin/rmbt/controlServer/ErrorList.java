@@ -24,6 +24,7 @@ import java.util.Set;
 import org.json.JSONArray;
 import org.json.JSONException;
 
+import at.alladin.rmbt.controlServer.metrics.RequestMetrics;
 import at.alladin.rmbt.shared.ResourceManager;
 import at.alladin.rmbt.util.model.shared.exception.ErrorStatus;
 
@@ -44,6 +45,7 @@ public class ErrorList
     
     public void addError(final String errorLabel)
     {
+        RequestMetrics.countError(errorLabel);
         try
         {
             final String errorText = labels.getString(errorLabel);
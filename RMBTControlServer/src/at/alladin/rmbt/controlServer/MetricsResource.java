@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer;
+
+import org.json.JSONException;
+import org.restlet.data.MediaType;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+
+import at.alladin.rmbt.controlServer.metrics.MetricsRegistry;
+
+/**
+ * exposes the request metrics of all routes, as JSON or (with <code>?format=prometheus</code>) in the Prometheus text format
+ * @author lb
+ *
+ */
+public class MetricsResource extends ServerResource
+{
+    @Get
+    public Representation request(final String entity)
+    {
+        final MetricsRegistry registry = MetricsRegistry.getInstance();
+        if ("prometheus".equals(getQueryValue("format")))
+            return new StringRepresentation(registry.toPrometheus(), MediaType.TEXT_PLAIN);
+        
+        try
+        {
+            return new StringRepresentation(registry.toJson().toString(), MediaType.APPLICATION_JSON);
+        }
+        catch (JSONException e)
+        {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
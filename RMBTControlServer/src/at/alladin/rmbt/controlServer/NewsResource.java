@@ -15,8 +15,6 @@
  ******************************************************************************/
 package at.alladin.rmbt.controlServer;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.util.Arrays;
@@ -29,6 +27,8 @@ import org.json.JSONObject;
 import org.restlet.resource.Get;
 import org.restlet.resource.Post;
 
+import at.alladin.rmbt.controlServer.ConfigurationCache.NewsItem;
+import at.alladin.rmbt.controlServer.ConfigurationCache.Snapshot;
 import at.alladin.rmbt.shared.ResourceManager;
 
 public class NewsResource extends ServerResource
@@ -81,41 +81,17 @@ public class NewsResource extends ServerResource
                     
                     try
                     {
-                        
-                        final PreparedStatement st = conn
-                                .prepareStatement("SELECT uid,title_" + sqlLang + 
-                                        " AS title, text_" + sqlLang +
-                                        " AS text FROM news " +
-                                        " WHERE" +
-                                        " (uid > ? OR force = true)" +
-                                        " AND active = true" +
-                                        " AND (plattform IS NULL OR plattform = ?)" +
-                                        " AND (max_software_version_code IS NULL OR ? <= max_software_version_code)" +
-                                        " AND (min_software_version_code IS NULL OR ? >= min_software_version_code)" +
-                                        " AND (uuid IS NULL OR uuid::TEXT = ?)" + //convert to text so that empty uuid-strings are tolerated
-                                        " ORDER BY time ASC");
-                        st.setLong(1, lastNewsUid);
-                        st.setString(2, plattform);
-                        st.setInt(3, softwareVersionCode);
-                        st.setInt(4, softwareVersionCode);
-                        st.setString(5, uuid);
-                        
-                        final ResultSet rs = st.executeQuery();
-                        
-                        while (rs.next())
+                        final Snapshot configuration = ConfigurationCache.getInstance().getSnapshot(conn);
+                        for (final NewsItem item : configuration.getNews(lastNewsUid, plattform, softwareVersionCode, uuid))
                         {
                             final JSONObject jsonItem = new JSONObject();
                             
-                            jsonItem.put("uid", rs.getInt("uid"));
-                            jsonItem.put("title", rs.getString("title"));
-                            jsonItem.put("text", rs.getString("text"));
-
+                            jsonItem.put("uid", item.getUid());
+                            jsonItem.put("title", item.getTitle(sqlLang));
+                            jsonItem.put("text", item.getText(sqlLang));
                             
                             newsList.put(jsonItem);
                         }
-                        
-                        rs.close();
-                        st.close();
                     }
                     catch (final SQLException e)
                     {
@@ -21,7 +21,6 @@ import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -30,9 +29,8 @@ import org.json.JSONObject;
 import org.restlet.resource.Get;
 import org.restlet.resource.Post;
 
-import at.alladin.rmbt.db.QoSTestObjective;
-import at.alladin.rmbt.db.dao.QoSTestObjectiveDao;
-import at.alladin.rmbt.qos.testscript.TestScriptInterpreter;
+import at.alladin.rmbt.qos.QoSObjectiveTemplateCache;
+import at.alladin.rmbt.qos.QoSObjectiveTemplateCache.ObjectiveTemplate;
 
 import com.google.common.net.InetAddresses;
 
@@ -66,54 +64,19 @@ public class QoSTestRequestResource extends ServerResource {
             {
                 request = new JSONObject(entity);                
                 
-                List<QoSTestObjective> listTestParams = new ArrayList<>();                
-                QoSTestObjectiveDao testObjectiveDao = new QoSTestObjectiveDao(conn);
-                listTestParams = testObjectiveDao.getByTestClass(1);
-                //listTestParams.add(testObjectiveDao.getById(1));
-                Map<String, List<JSONObject>> tests = new HashMap<>();
+                final boolean isIpv6 = clientAddress instanceof Inet6Address;
+                final Map<String, List<JSONObject>> tests = new HashMap<>();
                 
-                for (QoSTestObjective o : listTestParams) {
-                	List<JSONObject> testList;
-                	
-                	if (tests.containsKey(o.getTestType())) {
-                		testList = tests.get(o.getTestType()); 
-                	}
-                	else {
+                for (ObjectiveTemplate o : QoSObjectiveTemplateCache.getInstance().getTemplates(conn)) {
+                	List<JSONObject> testList = tests.get(o.getTestType());
+                	if (testList == null) {
                 		testList = new ArrayList<>();
                 		tests.put(o.getTestType(), testList);
                 	}
                 	
-                	JSONObject params = new JSONObject(o.getObjective());
-                	                	
-                	Iterator<String> keys = params.keys();
-                	boolean testInvalid = false;
-                	
-                	//iterate through all keys and interprete their values if necessary;
-                	while (keys.hasNext()) {
-                		String key = keys.next();
-                		Object scriptResult = TestScriptInterpreter.interprete(params.getString(key), null);
-                		if (scriptResult != null) {
-                       		params.put(key, String.valueOf(scriptResult));
-                		}
-                		else {
-                			testInvalid = true;
-                			break;
-                		}
-                	}
-                	
-                	//add test uid to the params object
-                	params.put("qos_test_uid", String.valueOf(o.getUid()));
-                	params.put("concurrency_group", String.valueOf(o.getConcurrencyGroup()));
-                	if (clientAddress instanceof Inet6Address) {
-                    	params.put("server_addr", String.valueOf(o.getTestServerIpv6()));                		
-                	}
-                	else {
-                		params.put("server_addr", String.valueOf(o.getTestServerIpv4()));
-                	}
-                	params.put("server_port", String.valueOf(o.getPort()));
-
-                	
-                	if (!testInvalid) {
+                	//only parameters containing test script commands are interpreted here
+                	final JSONObject params = o.toJson(isIpv6);
+                	if (params != null) {
                 		testList.add(params);
                 	}
                 }
@@ -15,11 +15,12 @@
  ******************************************************************************/
 package at.alladin.rmbt.controlServer;
 
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -33,9 +34,11 @@ import org.json.JSONObject;
 import org.restlet.resource.Get;
 import org.restlet.resource.Post;
 
+import at.alladin.rmbt.db.QoSTestObjective;
 import at.alladin.rmbt.db.QoSTestResult;
 import at.alladin.rmbt.db.QoSTestResult.TestType;
 import at.alladin.rmbt.db.Test;
+import at.alladin.rmbt.db.dao.QoSTestObjectiveDao;
 import at.alladin.rmbt.db.dao.QoSTestResultDao;
 import at.alladin.rmbt.qos.AbstractResult;
 import at.alladin.rmbt.qos.QoSUtil;
@@ -43,7 +46,6 @@ import at.alladin.rmbt.qos.ResultDesc;
 import at.alladin.rmbt.qos.ResultOptions;
 import at.alladin.rmbt.shared.Helperfunctions;
 import at.alladin.rmbt.shared.ResourceManager;
-import at.alladin.rmbt.shared.hstoreparser.HstoreParseException;
 
 public class QualityOfServiceResultResource extends ServerResource
 {
@@ -130,6 +132,10 @@ public class QualityOfServiceResultResource extends ServerResource
                                         	excludeTestTypeKeys.add("test_type");
                                         	excludeTestTypeKeys.add("qos_test_uid");
                                         	
+                                        	final List<QoSTestResult> testResultList = new ArrayList<>();
+                                        	final List<JSONObject> resultJsonList = new ArrayList<>();
+                                        	final Set<Long> objectiveIds = new HashSet<>();
+                                        	
                                         	for (int i = 0; i < qosResult.length(); i++) {
                                         		JSONObject testObject = qosResult.optJSONObject(i);
                                         		//String hstore = Helperfunctions.json2hstore(testObject, excludeTestTypeKeys);
@@ -144,54 +150,20 @@ public class QualityOfServiceResultResource extends ServerResource
                                         		testResult.setTestUid(test.getUid());
                                         		long qosTestId = testObject.optLong("qos_test_uid", Long.MIN_VALUE);
                                                 testResult.setQoSTestObjectiveId(qosTestId);
-                                        		resultDao.save(testResult);
+                                                
+                                                testResultList.add(testResult);
+                                                resultJsonList.add(resultJson);
+                                                objectiveIds.add(qosTestId);
                                         	}
-                                        }
-                                        
-                                        QoSTestResultDao resultDao = new QoSTestResultDao(conn);
-                                        PreparedStatement updateCounterPs = resultDao.getUpdateCounterPreparedStatement();
-                                        List<QoSTestResult> testResultList = resultDao.getByTestUid(test.getUid());
-                                        //map that contains all test types and their result descriptions determined by the test result <-> test objectives comparison
-                                    	Map<TestType,TreeSet<ResultDesc>> resultKeys = new HashMap<>();
-                                    	
-                                    	//test description set:
-                                    	Set<String> testDescSet = new TreeSet<>();
-                                    	//test summary set:
-                                    	Set<String> testSummarySet = new TreeSet<>();
-                                    	
-                                        //iterate through all result entries
-                                        for (QoSTestResult testResult : testResultList) {
                                         	
-                                        	//reset test counters
-                                        	testResult.setFailureCounter(0);
-                                        	testResult.setSuccessCounter(0);
+                                        	//load all objectives of the submitted results with a single query
+                                        	final Map<Long, QoSTestObjective> objectiveMap = new QoSTestObjectiveDao(conn).getByUids(objectiveIds);
                                         	
-                                        	//get the correct class of the result;
-                                        	TestType testType = TestType.valueOf(testResult.getTestType().toUpperCase());
-                                        	Class<? extends AbstractResult<?>> clazz = testType.getClazz();
-                                        	//parse hstore data
-                                        	final JSONObject resultJson = new JSONObject(testResult.getResults());
-                                        	AbstractResult<?> result = QoSUtil.HSTORE_PARSER.fromJSON(resultJson, clazz);
-                                        	result.setResultJson(resultJson);
-                                        	
-                                        	if (result != null) {
-                                        		//add each test description key to the testDescSet (to fetch it later from the db)
-                                        		if (testResult.getTestDescription() != null) {
-                                            		testDescSet.add(testResult.getTestDescription());	
-                                        		}
-                                        		if (testResult.getTestSummary() != null) {
-                                        			testSummarySet.add(testResult.getTestSummary());
-                                        		}
-                                        		testResult.setResult(result);
-
-                                        	}
-                                        	//compare test results with expected results 
-                                        	QoSUtil.compareTestResults(testResult, result, resultKeys, testType, resultOptions);
-                                        	//resultList.put(testResult.toJson());
+                                        	//evaluate all results from the request data (results without a known objective are stored but not evaluated)
+                                        	evaluate(testResultList, resultJsonList, objectiveMap, resultOptions);
                                         	
-                                            //update all test results after the success and failure counters have been set
-                                        	resultDao.updateCounter(testResult, updateCounterPs);
-                                        	//System.out.println("UPDATING: " + testResult.toString());
+                                        	//insert all results together with their success and failure counters using a single batch
+                                        	resultDao.saveAll(testResultList);
                                         }
                                     }
                                     else
@@ -204,13 +176,7 @@ public class QualityOfServiceResultResource extends ServerResource
                         {
                             e.printStackTrace();
                             errorList.addError("ERROR_TEST_TOKEN_MALFORMED");
-                        } catch (HstoreParseException e) {
-                            e.printStackTrace();
-                            errorList.addError("ERROR_DB_CONNECTION");
-						} catch (IllegalAccessException e) {
-							e.printStackTrace();
-							errorList.addError("ERROR_TEST_TOKEN_MALFORMED");
-						}
+                        }
                         
                     }
                     else
@@ -249,6 +215,56 @@ public class QualityOfServiceResultResource extends ServerResource
         return answer.toString();
     }
     
+    /**
+     * evaluates the submitted results with their objectives and sets their success and failure counters.
+     * A result that cannot be evaluated (e.g. due to an unknown test type or a malformed value) keeps zero counters,
+     * so it is stored like the other results
+     * @param testResultList
+     * @param resultJsonList the result data of each result
+     * @param objectiveMap objective uid -&gt; objective
+     * @param resultOptions
+     */
+    static void evaluate(final List<QoSTestResult> testResultList, final List<JSONObject> resultJsonList,
+            final Map<Long, QoSTestObjective> objectiveMap, final ResultOptions resultOptions)
+    {
+        //map that contains all test types and their result descriptions determined by the test result <-> test objectives comparison
+        final Map<TestType,TreeSet<ResultDesc>> resultKeys = new HashMap<>();
+        
+        for (int i = 0; i < testResultList.size(); i++)
+        {
+            final QoSTestResult testResult = testResultList.get(i);
+            final QoSTestObjective objective = objectiveMap.get(testResult.getQoSTestObjectiveId());
+            if (objective == null)
+                continue;
+            
+            testResult.setTestType(objective.getTestType());
+            testResult.setTestDescription(objective.getTestDescription());
+            testResult.setTestSummary(objective.getTestSummary());
+            try
+            {
+                testResult.setExpectedResults(objective.getResults() != null ? new JSONArray(objective.getResults()) : null);
+                
+                //get the correct class of the result;
+                final TestType testType = TestType.valueOf(testResult.getTestType().toUpperCase());
+                final Class<? extends AbstractResult<?>> clazz = testType.getClazz();
+                //parse result data
+                final JSONObject resultJson = resultJsonList.get(i);
+                final AbstractResult<?> result = QoSUtil.HSTORE_PARSER.fromJSON(resultJson, clazz);
+                result.setResultJson(resultJson);
+                testResult.setResult(result);
+                
+                //compare test results with expected results 
+                QoSUtil.compareTestResults(testResult, result, resultKeys, testType, resultOptions);
+            }
+            catch (final Exception e)
+            {
+                e.printStackTrace();
+                testResult.setSuccessCounter(0);
+                testResult.setFailureCounter(0);
+            }
+        }
+    }
+    
     @Get("json")
     public String retrieve(final String entity)
     {
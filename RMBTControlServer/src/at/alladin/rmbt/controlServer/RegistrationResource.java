@@ -30,6 +30,7 @@ import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -412,69 +413,56 @@ public class RegistrationResource extends ServerResource
                                         if (provider != null)
                                             answer.put("provider", provider);
                                         
-                                        final PreparedStatement testSlotStatement = conn
-                                                .prepareStatement("SELECT rmbt_get_next_test_slot(?)");
-                                        testSlotStatement.setLong(1, key);
-                                        int testSlot = -1;
-                                        if (testSlotStatement.execute())
-                                        {
-                                            final ResultSet rs2 = testSlotStatement.getResultSet();
-                                            if (rs2.next())
-                                                testSlot = rs2.getInt(1);
-                                        }
+                                        final int testSlot = TestSlotScheduler.getInstance().nextSlot(conn, server.id);
+                                        
+                                        final String data = testUuid + "_" + testSlot;
+                                        final String hmac = Helperfunctions.calculateHMAC(server.key, data);
+                                        if (hmac.length() == 0)
+                                            errorList.addError("ERROR_TEST_TOKEN");
+                                        final String token = data + "_" + hmac;
+                                        
+                                        final PreparedStatement updateSt = conn
+                                                .prepareStatement("UPDATE test SET test_slot = ?, token = ? WHERE uid = ?");
+                                        updateSt.setInt(1, testSlot);
+                                        updateSt.setString(2, token);
+                                        updateSt.setLong(3, key);
+                                        updateSt.executeUpdate();
                                         
-                                        if (testSlot < 0)
-                                            errorList.addError("ERROR_DB_STORE_GENERAL");
-                                        else
+                                        answer.put("test_token", token);
+                                        
+                                        answer.put("test_uuid", testUuid);
+                                        answer.put("test_id", key);
+                                        
+                                        final long now = System.currentTimeMillis();
+                                        int wait = testSlot - (int) (now / 1000);
+                                        if (wait < 0)
+                                            wait = 0;
+                                        
+                                        answer.put("test_wait", wait);
+                                        
+                                        if (geotime != 0 && geolat != 0 && geolong != 0)
                                         {
-                                            final String data = testUuid + "_" + testSlot;
-                                            final String hmac = Helperfunctions.calculateHMAC(server.key, data);
-                                            if (hmac.length() == 0)
-                                                errorList.addError("ERROR_TEST_TOKEN");
-                                            final String token = data + "_" + hmac;
                                             
-                                            final PreparedStatement updateSt = conn
-                                                    .prepareStatement("UPDATE test SET token = ? WHERE uid = ?");
-                                            updateSt.setString(1, token);
-                                            updateSt.setLong(2, key);
-                                            updateSt.executeUpdate();
+                                            final GeoLocation clientLocation = new GeoLocation(conn);
                                             
-                                            answer.put("test_token", token);
+                                            clientLocation.setTest_id(key);
                                             
-                                            answer.put("test_uuid", testUuid);
-                                            answer.put("test_id", key);
+                                            final Timestamp geotstamp = java.sql.Timestamp.valueOf(new Timestamp(
+                                                    geotime).toString());
+                                            clientLocation.setTime(geotstamp, timeZoneId);
                                             
-                                            final long now = System.currentTimeMillis();
-                                            int wait = testSlot - (int) (now / 1000);
-                                            if (wait < 0)
-                                                wait = 0;
+                                            clientLocation.setAccuracy(geoaccuracy);
+                                            clientLocation.setAltitude(geoaltitude);
+                                            clientLocation.setBearing(geobearing);
+                                            clientLocation.setSpeed(geospeed);
+                                            clientLocation.setProvider(geoprovider);
+                                            clientLocation.setGeo_lat(geolat);
+                                            clientLocation.setGeo_long(geolong);
                                             
-                                            answer.put("test_wait", wait);
+                                            clientLocation.storeLocation();
                                             
-                                            if (geotime != 0 && geolat != 0 && geolong != 0)
-                                            {
-                                                
-                                                final GeoLocation clientLocation = new GeoLocation(conn);
-                                                
-                                                clientLocation.setTest_id(key);
-                                                
-                                                final Timestamp geotstamp = java.sql.Timestamp.valueOf(new Timestamp(
-                                                        geotime).toString());
-                                                clientLocation.setTime(geotstamp, timeZoneId);
-                                                
-                                                clientLocation.setAccuracy(geoaccuracy);
-                                                clientLocation.setAltitude(geoaltitude);
-                                                clientLocation.setBearing(geobearing);
-                                                clientLocation.setSpeed(geospeed);
-                                                clientLocation.setProvider(geoprovider);
-                                                clientLocation.setGeo_lat(geolat);
-                                                clientLocation.setGeo_long(geolong);
-                                                
-                                                clientLocation.storeLocation();
-                                                
-                                                if (clientLocation.hasError())
-                                                    errorList.addError(clientLocation.getError());
-                                            }
+                                            if (clientLocation.hasError())
+                                                errorList.addError(clientLocation.getError());
                                         }
                                     }
                                     
@@ -544,20 +532,12 @@ public class RegistrationResource extends ServerResource
     
     private TestServer getPreferredServer(final String uuid, final boolean ssl, final Boolean ipv6)
     {
-        final String sql = "SELECT * FROM test_server"
-                + " WHERE active"
-                + " AND uuid = ?::uuid"
-                + " LIMIT 1";
-        
-        try (PreparedStatement ps = conn.prepareStatement(sql))
+        try
         {
-            ps.setString(1, uuid);
-            try (ResultSet rs = ps.executeQuery())
-            {
-                if (!rs.next())
-                    return null;
-                return toTestServer(rs, ssl, ipv6);
-            }
+            final TestServerRegistry.Server server = TestServerRegistry.getInstance().getServerByUuid(conn, uuid);
+            if (server == null)
+                return null;
+            return toTestServer(server, ssl, ipv6);
         }
         catch (SQLException e)
         {
@@ -570,41 +550,18 @@ public class RegistrationResource extends ServerResource
             final long geotime, final String clientIp, final String asCountry, final String geoIpCountry, final String serverType,
             final boolean ssl, final Boolean ipv6)
     {
+        // use geoIP with fallback to AS
+        String country = asCountry;
+        if (! Strings.isNullOrEmpty(geoIpCountry))
+            country = geoIpCountry;
         
-        final String sql = "SELECT * FROM test_server"
-                + " WHERE active"
-                + " AND server_type = ?"
-                // country column obsolete, replaced by countries array
-//                + " AND (country = ? OR country = 'any' OR country IS NULL)"
-//                + " ORDER BY"
-//                + " (country != 'any' AND country IS NOT NULL) DESC,"
-                + " AND ( ? = ANY (countries) OR 'any' = ANY (countries)) "
-                + " ORDER BY 'any' != ANY (countries) DESC,"
-                + " priority,"
-                + " random() * weight DESC"
-                + " LIMIT 1";
-                
-                //+ " ST_Distance(ST_TRANSFORM(ST_SetSRID(ST_Point(?, ?), 4326), 900913))";??
-        
-        try (PreparedStatement ps = conn.prepareStatement(sql))
+        try
         {
-            
-            // use geoIP with fallback to AS
-            String country = asCountry;
-            if (! Strings.isNullOrEmpty(geoIpCountry))
-                country = geoIpCountry;
-            
-            int i = 1;
-            ps.setString(i++, serverType);
-            
-            ps.setString(i++, country);
-            
-            try (ResultSet rs = ps.executeQuery())
-            {
-                if (! rs.next())
-                    return null;
-                return toTestServer(rs, ssl, ipv6);
-            }
+            final TestServerRegistry.Server server = TestServerRegistry.getInstance().selectServer(conn, serverType, country,
+                    ThreadLocalRandom.current());
+            if (server == null)
+                return null;
+            return toTestServer(server, ssl, ipv6);
         }
         catch (SQLException e)
         {
@@ -613,23 +570,15 @@ public class RegistrationResource extends ServerResource
         }
     }
     
-    private static TestServer toTestServer(final ResultSet rs, final boolean ssl, final Boolean ipv6) throws SQLException
+    private static TestServer toTestServer(final TestServerRegistry.Server server, final boolean ssl, final Boolean ipv6)
     {
-        final String address;
-        if (ipv6 == null)
-            address = rs.getString("web_address");
-        else if (ipv6)
-            address = rs.getString("web_address_ipv6");
-        else
-            address = rs.getString("web_address_ipv4");
-        
         final TestServer result = new TestServer();
         
-        result.id = rs.getInt("uid");
-        result.address = address;
-        result.port = rs.getInt(ssl ? "port_ssl" : "port");
-        result.name = rs.getString("name") + " (" + rs.getString("city") + ")";
-        result.key = rs.getString("key").getBytes();
+        result.id = server.getId();
+        result.address = server.getAddress(ipv6);
+        result.port = server.getPort(ssl);
+        result.name = server.getName() + " (" + server.getCity() + ")";
+        result.key = server.getKey().getBytes();
         
         return result;
     }
@@ -17,8 +17,6 @@ package at.alladin.rmbt.controlServer;
 
 import java.lang.reflect.Type;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Locale;
 import java.util.ResourceBundle;
@@ -181,27 +179,9 @@ public class ServerResource extends org.restlet.resource.ServerResource
     
     protected String getSetting(String key, String lang)
     {
-        if (conn == null)
-            return null;
-        
-
-        try (final PreparedStatement st = conn.prepareStatement(
-                        "SELECT value"
-                        + " FROM settings"
-                        + " WHERE key=? AND (lang IS NULL OR lang = ?)"
-                        + " ORDER BY lang NULLS LAST LIMIT 1");)
+        try
         {
-                    
-            st.setString(1, key);
-            st.setString(2, lang);
-            
-            try (final ResultSet rs = st.executeQuery();)
-            {
-            
-                if (rs != null && rs.next())
-                    return rs.getString("value");
-            }
-            return null;
+            return ConfigurationCache.getInstance().getSnapshot(conn).getSetting(key, lang);
         }
         catch (SQLException e)
         {
@@ -32,6 +32,8 @@ import org.json.JSONObject;
 import org.restlet.resource.Get;
 import org.restlet.resource.Post;
 
+import at.alladin.rmbt.controlServer.ConfigurationCache.Snapshot;
+import at.alladin.rmbt.controlServer.ConfigurationCache.TestServer;
 import at.alladin.rmbt.db.Client;
 import at.alladin.rmbt.db.QoSTestTypeDesc;
 import at.alladin.rmbt.db.dao.QoSTestTypeDescDao;
@@ -87,6 +89,16 @@ public class SettingsResource extends ServerResource
                 if (conn != null)
                 {
                     
+                    Snapshot configuration = null;
+                    try
+                    {
+                        configuration = ConfigurationCache.getInstance().getSnapshot(conn);
+                    }
+                    catch (SQLException e)
+                    {
+                        e.printStackTrace();
+                    }
+                    
                     final Client client = new Client(conn);
                     int typeId = 0;
                     
@@ -255,19 +267,20 @@ public class SettingsResource extends ServerResource
                         // It returns false if there is no such key, or if the value is not Boolean.TRUE or the String "true". 
                         if (userServerSelection)
                         {
-                        	jsonItem.put("servers", getServers());
-                        	jsonItem.put("servers_ws", getServersWs());
-                        	jsonItem.put("servers_qos", getServersQos());
+                        	jsonItem.put("servers", getServers(configuration, "RMBT", true));
+                        	jsonItem.put("servers_ws", getServers(configuration, "RMBTws", false));
+                        	jsonItem.put("servers_qos", getServers(configuration, "QoS", false));
                         	
                         }
                         
                         /// qos
                         
                         try {
-                            final Locale locale = new Locale(lang);
-                            final QoSTestTypeDescDao testTypeDao = new QoSTestTypeDescDao(conn, locale);
+                            List<QoSTestTypeDesc> testTypeDescs = configuration != null ? configuration.getQoSTestTypeDescs(lang) : null;
+                            if (testTypeDescs == null)
+                                testTypeDescs = new QoSTestTypeDescDao(conn, new Locale(lang)).getAll();
                             final JSONArray testTypeDescArray = new JSONArray();
-                            for (QoSTestTypeDesc desc : testTypeDao.getAll()) {
+                            for (QoSTestTypeDesc desc : testTypeDescs) {
                             	if (desc.getTestType()!=null) {
                             		//in case a qos module is not included but the entry hasn't beed removed from the db
 	                            	JSONObject json = new JSONObject();
@@ -364,77 +377,20 @@ public class SettingsResource extends ServerResource
         requestAndroidPermissions.put(requestObj);
     }
 
-    private JSONArray getServers() throws JSONException
-    {
-        final String sql = "SELECT * FROM test_server WHERE active AND selectable AND server_type = 'RMBT'";
-        final JSONArray result = new JSONArray();
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-            ResultSet rs = ps.executeQuery())
-        {
-            while (rs.next())
-            {
-                final JSONObject obj = new JSONObject();
-                
-                obj.put("name", rs.getString("name"));
-                obj.put("uuid", rs.getString("uuid"));
-                
-                result.put(obj);
-            }
-        }
-        catch (SQLException e)
-        {
-            e.printStackTrace();
-        }
-        return result;
-    }
-    
-// ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-    
-    private JSONArray getServersWs() throws JSONException
-    {
-        final String sql = "SELECT * FROM test_server WHERE selectable AND server_type = 'RMBTws'";
-        final JSONArray result = new JSONArray();
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-            ResultSet rs = ps.executeQuery())
-        {
-            while (rs.next())
-            {
-                final JSONObject obj = new JSONObject();
-                
-                obj.put("name", rs.getString("name"));
-                obj.put("uuid", rs.getString("uuid"));
-                
-                result.put(obj);
-            }
-        }
-        catch (SQLException e)
-        {
-            e.printStackTrace();
-        }
-        return result;
-    }
-// ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-    
-    private JSONArray getServersQos() throws JSONException
+    private JSONArray getServers(final Snapshot configuration, final String serverType, final boolean activeOnly) throws JSONException
     {
-        final String sql = "SELECT * FROM test_server WHERE selectable AND server_type = 'QoS'";
         final JSONArray result = new JSONArray();
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-            ResultSet rs = ps.executeQuery())
-        {
-            while (rs.next())
-            {
-                final JSONObject obj = new JSONObject();
-                
-                obj.put("name", rs.getString("name"));
-                obj.put("uuid", rs.getString("uuid"));
-                
-                result.put(obj);
-            }
-        }
-        catch (SQLException e)
+        if (configuration == null)
+            return result;
+        
+        for (final TestServer server : configuration.getSelectableServers(serverType, activeOnly))
         {
-            e.printStackTrace();
+            final JSONObject obj = new JSONObject();
+            
+            obj.put("name", server.getName());
+            obj.put("uuid", server.getUuid());
+            
+            result.put(obj);
         }
         return result;
     }
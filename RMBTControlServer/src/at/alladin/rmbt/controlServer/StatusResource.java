@@ -16,8 +16,6 @@
 package at.alladin.rmbt.controlServer;
 
 import java.net.InetAddress;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.MessageFormat;
 
@@ -111,38 +109,18 @@ public class StatusResource extends ServerResource
         else {
             errorList.addErrorString("Expected request is missing.");
         }
-/*
- * 
- * wb_a2 = 'AT' (2 digit country code)
- * ne_50m_admin_0_countries (SRID 900913 Mercator)
- * lat/long (SRID 4326 WGS84)
- * 
- * SELECT st_contains(the_geom, ST_transform(ST_GeomFromText('POINT(56.391944 48.218056)',4326),900913)) home_country
- * FROM  ne_50m_admin_0_countries 
- * WHERE wb_a2='AT';
- * 
- *
- * */
+        /*
+         * home country check: is the location within the country (wb_a2) of the sim card?
+         * replaces the query (ne_50m_admin_0_countries has the SRID 900913, lat/long are WGS84):
+         * 
+         * SELECT st_contains(the_geom, ST_TRANSFORM(ST_GeomFromText('POINT(long lat)', 4326), 900913)) home_country
+         * FROM ne_50m_admin_0_countries WHERE wb_a2 = ?
+         */
         try
         {
-        	PreparedStatement st;
-        	st = conn
-        			.prepareStatement(
-        					" SELECT st_contains(the_geom, ST_TRANSFORM(ST_GeomFromText( ? ,4326),900913)) home_country " +
-        					" FROM  ne_50m_admin_0_countries " +
-        					" WHERE wb_a2 = ? ");
-        	int i = 1;   
-        	final String point = "POINT(" + String.valueOf(geolong) + " " + String.valueOf(geolat) +  ")";
-        	st.setObject(i++, point);    	
-        	st.setObject(i++,telephonyNetworkSimCountry.toUpperCase());
-    	
-        	//debug query
-        	System.out.println(st.toString());
-            final ResultSet rs = st.executeQuery();
-           
-            if (rs.next()) // result only available if country (wb_a2) is found in ne_50_admmin_0_countries
-            	homeCountry = rs.getBoolean("home_country");
-
+        	final Boolean contains = CountryPolygonIndex.getInstance(conn).contains(telephonyNetworkSimCountry.toUpperCase(), geolat, geolong);
+        	if (contains != null) // result only available if country (wb_a2) is found in ne_50m_admin_0_countries
+        		homeCountry = contains;
         }
         catch (final SQLException e)
         {
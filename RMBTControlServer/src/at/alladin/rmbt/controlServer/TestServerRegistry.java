@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * in-memory registry of the active test servers, used for the server selection of the {@link RegistrationResource}.<br>
+ * The servers are reloaded if the fingerprint of the test_server table has changed, the fingerprint is checked at most
+ * every {@link #CHECK_INTERVAL_MS} ms.
+ * @author lb
+ *
+ */
+public class TestServerRegistry {
+
+	/**
+	 *
+	 */
+	public final static long CHECK_INTERVAL_MS = 10000;
+
+	/**
+	 * servers with this entry in their country list accept clients from all countries
+	 */
+	public final static String ANY_COUNTRY = "any";
+
+	private final static String SQL_FINGERPRINT = "SELECT count(*) || ':' || md5(string_agg(ts::text, ',' ORDER BY ts.uid)) AS fingerprint"
+			+ " FROM test_server ts WHERE active";
+
+	private final static String SQL_SERVERS = "SELECT uid, uuid::TEXT AS uuid, name, city, web_address, web_address_ipv4, web_address_ipv6,"
+			+ " port, port_ssl, key, server_type, priority, weight, countries"
+			+ " FROM test_server WHERE active ORDER BY uid";
+
+	private final static TestServerRegistry INSTANCE = new TestServerRegistry();
+
+	/**
+	 * an active test server
+	 * @author lb
+	 *
+	 */
+	public static class Server {
+		private final int id;
+		private final String uuid;
+		private final String name;
+		private final String city;
+		private final String webAddress;
+		private final String webAddressIpv4;
+		private final String webAddressIpv6;
+		private final int port;
+		private final int portSsl;
+		private final String key;
+		private final String serverType;
+		private final int priority;
+		private final int weight;
+		private final Set<String> countries;
+
+		/**
+		 * true if the server is dedicated to specific countries (the country list contains an entry other than "any")
+		 */
+		private final boolean countrySpecific;
+
+		Server(final int id, final String uuid, final String name, final String city, final String webAddress,
+				final String webAddressIpv4, final String webAddressIpv6, final int port, final int portSsl, final String key,
+				final String serverType, final int priority, final int weight, final Set<String> countries) {
+			this.id = id;
+			this.uuid = uuid;
+			this.name = name;
+			this.city = city;
+			this.webAddress = webAddress;
+			this.webAddressIpv4 = webAddressIpv4;
+			this.webAddressIpv6 = webAddressIpv6;
+			this.port = port;
+			this.portSsl = portSsl;
+			this.key = key;
+			this.serverType = serverType;
+			this.priority = priority;
+			this.weight = weight;
+			this.countries = countries;
+
+			boolean countrySpecific = false;
+			for (final String country : countries) {
+				if (!ANY_COUNTRY.equals(country)) {
+					countrySpecific = true;
+				}
+			}
+			this.countrySpecific = countrySpecific;
+		}
+
+		Server(final ResultSet rs) throws SQLException {
+			this(rs.getInt("uid"), rs.getString("uuid"), rs.getString("name"), rs.getString("city"), rs.getString("web_address"),
+					rs.getString("web_address_ipv4"), rs.getString("web_address_ipv6"), rs.getInt("port"), rs.getInt("port_ssl"),
+					rs.getString("key"), rs.getString("server_type"), rs.getInt("priority"), rs.getInt("weight"),
+					getCountries(rs.getArray("countries")));
+		}
+
+		private static Set<String> getCountries(final Array array) throws SQLException {
+			if (array == null) {
+				return Collections.emptySet();
+			}
+			final Set<String> countries = new HashSet<>();
+			for (final Object country : (Object[]) array.getArray()) {
+				if (country != null) {
+					countries.add(country.toString());
+				}
+			}
+			return countries;
+		}
+
+		/**
+		 *
+		 * @param country
+		 * @return true if the server accepts clients of this country
+		 */
+		boolean accepts(final String country) {
+			return countries.contains(ANY_COUNTRY) || (country != null && countries.contains(country));
+		}
+
+		/**
+		 * compares the preference of two servers, without the random part
+		 * @param other
+		 * @return &lt; 0 if this server is preferred
+		 */
+		int comparePreference(final Server other) {
+			if (countrySpecific != other.countrySpecific) {
+				return countrySpecific ? -1 : 1;
+			}
+			return priority < other.priority ? -1 : (priority == other.priority ? 0 : 1);
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getUuid() {
+			return uuid;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getCity() {
+			return city;
+		}
+
+		/**
+		 *
+		 * @param ipv6 null if the ip version is unknown
+		 * @return
+		 */
+		public String getAddress(final Boolean ipv6) {
+			if (ipv6 == null) {
+				return webAddress;
+			}
+			return ipv6 ? webAddressIpv6 : webAddressIpv4;
+		}
+
+		public int getPort(final boolean ssl) {
+			return ssl ? portSsl : port;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getServerType() {
+			return serverType;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+	}
+
+	/**
+	 * immutable snapshot of the servers
+	 */
+	private static class Snapshot {
+		final String fingerprint;
+		final long checkedAt;
+		final Map<String, List<Server>> serversByType;
+		final Map<String, Server> serversByUuid;
+
+		Snapshot(final String fingerprint, final long checkedAt, final Map<String, List<Server>> serversByType,
+				final Map<String, Server> serversByUuid) {
+			this.fingerprint = fingerprint;
+			this.checkedAt = checkedAt;
+			this.serversByType = serversByType;
+			this.serversByUuid = serversByUuid;
+		}
+	}
+
+	private volatile Snapshot snapshot;
+
+	public static TestServerRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * selects a server for a client
+	 * @param conn the connection used for a reload, may be null if the last snapshot should be used
+	 * @param serverType
+	 * @param country the country of the client, may be null
+	 * @param random
+	 * @return the server or null if there is no server for this client
+	 * @throws SQLException
+	 */
+	public Server selectServer(final Connection conn, final String serverType, final String country, final Random random) throws SQLException {
+		final List<Server> servers = getSnapshot(conn).serversByType.get(serverType);
+		if (servers == null) {
+			return null;
+		}
+		return select(servers, country, random);
+	}
+
+	/**
+	 *
+	 * @param conn the connection used for a reload, may be null if the last snapshot should be used
+	 * @param uuid
+	 * @return the active server with this uuid or null
+	 * @throws SQLException
+	 */
+	public Server getServerByUuid(final Connection conn, final String uuid) throws SQLException {
+		final String key;
+		try {
+			key = UUID.fromString(uuid).toString();
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+		return getSnapshot(conn).serversByUuid.get(key);
+	}
+
+	/**
+	 * selects a server with the semantics of the former query:<br>
+	 * <code>WHERE (country = ANY (countries) OR 'any' = ANY (countries)) ORDER BY 'any' != ANY (countries) DESC, priority, random() * weight DESC LIMIT 1</code>
+	 * <br>i.e. among the most preferred servers the one with the highest random number multiplied with its weight is chosen.
+	 * @param servers
+	 * @param country
+	 * @param random
+	 * @return the server or null if no server accepts the client
+	 */
+	static Server select(final List<Server> servers, final String country, final Random random) {
+		Server best = null;
+		double bestScore = 0;
+		for (final Server server : servers) {
+			if (!server.accepts(country)) {
+				continue;
+			}
+			final int preference = best == null ? -1 : server.comparePreference(best);
+			if (preference > 0) {
+				continue;
+			}
+			final double score = random.nextDouble() * server.weight;
+			if (preference < 0 || score > bestScore) {
+				best = server;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * forces a reload on the next request
+	 */
+	public void invalidate() {
+		snapshot = null;
+	}
+
+	private Snapshot getSnapshot(final Connection conn) throws SQLException {
+		final Snapshot current = snapshot;
+		if (current != null && (conn == null || current.checkedAt + CHECK_INTERVAL_MS > System.currentTimeMillis())) {
+			return current;
+		}
+		if (conn == null) {
+			throw new SQLException("no database connection");
+		}
+
+		synchronized (this) {
+			//another thread may have refreshed the snapshot in the meantime
+			Snapshot s = snapshot;
+			final long now = System.currentTimeMillis();
+			if (s != null && s.checkedAt + CHECK_INTERVAL_MS > now) {
+				return s;
+			}
+
+			try {
+				final String fingerprint = getFingerprint(conn);
+				if (s != null && s.fingerprint.equals(fingerprint)) {
+					s = new Snapshot(s.fingerprint, now, s.serversByType, s.serversByUuid);
+				}
+				else {
+					s = load(conn, fingerprint, now);
+					System.out.println("test servers loaded: " + s.serversByUuid.size());
+				}
+			}
+			catch (SQLException e) {
+				if (s == null) {
+					throw e;
+				}
+				//keep the last snapshot and try again later
+				e.printStackTrace();
+				s = new Snapshot(s.fingerprint, now, s.serversByType, s.serversByUuid);
+			}
+
+			snapshot = s;
+			return s;
+		}
+	}
+
+	private static String getFingerprint(final Connection conn) throws SQLException {
+		try (PreparedStatement ps = conn.prepareStatement(SQL_FINGERPRINT);
+				ResultSet rs = ps.executeQuery())
+		{
+			if (rs.next()) {
+				return String.valueOf(rs.getString("fingerprint"));
+			}
+			throw new SQLException("empty result set");
+		}
+	}
+
+	private static Snapshot load(final Connection conn, final String fingerprint, final long now) throws SQLException {
+		final Map<String, List<Server>> serversByType = new HashMap<>();
+		final Map<String, Server> serversByUuid = new HashMap<>();
+		try (PreparedStatement ps = conn.prepareStatement(SQL_SERVERS);
+				ResultSet rs = ps.executeQuery())
+		{
+			while (rs.next()) {
+				final Server server = new Server(rs);
+				List<Server> servers = serversByType.get(server.serverType);
+				if (servers == null) {
+					servers = new ArrayList<>();
+					serversByType.put(server.serverType, servers);
+				}
+				servers.add(server);
+				serversByUuid.put(server.uuid, server);
+			}
+		}
+		for (final Map.Entry<String, List<Server>> e : serversByType.entrySet()) {
+			e.setValue(Collections.unmodifiableList(e.getValue()));
+		}
+		return new Snapshot(fingerprint, now, serversByType, serversByUuid);
+	}
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * assigns the test slots (start time in seconds since epoch) of the tests, with the semantics of the former
+ * database function <code>rmbt_get_next_test_slot</code>: the first slot starting one second ago that has less than
+ * {@link #TESTS_PER_SLOT} tests on the server.<br>
+ * The slots are counted in memory. Every {@link #RECONCILE_INTERVAL_MS} ms the counts are merged with the slots stored
+ * in the database, so that the tests registered by other control servers are respected.
+ * @author lb
+ *
+ */
+public class TestSlotScheduler {
+
+	/**
+	 * max. number of tests per server and slot
+	 */
+	public final static int TESTS_PER_SLOT = 5;
+
+	/**
+	 *
+	 */
+	public final static long RECONCILE_INTERVAL_MS = 10000;
+
+	private final static String SQL_RECONCILE = "SELECT server_id, test_slot, count(uid) AS count FROM test"
+			+ " WHERE test_slot >= ? AND server_id IS NOT NULL GROUP BY server_id, test_slot";
+
+	private final static TestSlotScheduler INSTANCE = new TestSlotScheduler();
+
+	/**
+	 * server id -&gt; slot -&gt; number of tests
+	 */
+	private final Map<Integer, TreeMap<Integer, Integer>> slots = new HashMap<>();
+
+	private final AtomicLong lastReconcile = new AtomicLong();
+
+	public static TestSlotScheduler getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * assigns the next free slot of a server, the slot counts are reconciled with the database if necessary
+	 * @param conn
+	 * @param serverId
+	 * @return the slot
+	 */
+	public int nextSlot(final Connection conn, final int serverId) {
+		final long now = System.currentTimeMillis();
+		final long last = lastReconcile.get();
+		//only one thread reconciles, the others use the counts in memory
+		if (conn != null && last + RECONCILE_INTERVAL_MS <= now && lastReconcile.compareAndSet(last, now)) {
+			try {
+				reconcile(conn, (int) (now / 1000));
+			}
+			catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return nextSlot(serverId, (int) (now / 1000));
+	}
+
+	/**
+	 * assigns the next free slot of a server
+	 * @param serverId
+	 * @param now current time in seconds since epoch
+	 * @return the slot
+	 */
+	synchronized int nextSlot(final int serverId, final int now) {
+		TreeMap<Integer, Integer> counts = slots.get(serverId);
+		if (counts == null) {
+			counts = new TreeMap<>();
+			slots.put(serverId, counts);
+		}
+		counts.headMap(now - 1).clear();
+
+		int slot = now - 1;
+		Integer count;
+		while ((count = counts.get(slot)) != null && count >= TESTS_PER_SLOT) {
+			slot++;
+		}
+		counts.put(slot, count == null ? 1 : count + 1);
+		return slot;
+	}
+
+	/**
+	 * merges the number of tests of a slot stored in the database, the higher count is kept
+	 * @param serverId
+	 * @param slot
+	 * @param count
+	 */
+	synchronized void merge(final int serverId, final int slot, final int count) {
+		TreeMap<Integer, Integer> counts = slots.get(serverId);
+		if (counts == null) {
+			counts = new TreeMap<>();
+			slots.put(serverId, counts);
+		}
+		final Integer current = counts.get(slot);
+		if (current == null || current < count) {
+			counts.put(slot, count);
+		}
+	}
+
+	private void reconcile(final Connection conn, final int now) throws SQLException {
+		try (PreparedStatement ps = conn.prepareStatement(SQL_RECONCILE))
+		{
+			ps.setInt(1, now - 1);
+			try (ResultSet rs = ps.executeQuery())
+			{
+				while (rs.next()) {
+					merge(rs.getInt("server_id"), rs.getInt("test_slot"), rs.getInt("count"));
+				}
+			}
+		}
+	}
+}
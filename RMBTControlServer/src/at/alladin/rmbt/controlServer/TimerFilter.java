@@ -15,23 +15,47 @@
  *******************************************************************************/
 package at.alladin.rmbt.controlServer;
 
+import org.restlet.Context;
 import org.restlet.Request;
 import org.restlet.Response;
+import org.restlet.data.Status;
 import org.restlet.routing.Filter;
 
+import at.alladin.rmbt.controlServer.metrics.MetricsRegistry;
+import at.alladin.rmbt.controlServer.metrics.RequestMetrics;
+import at.alladin.rmbt.controlServer.metrics.RouteMetrics;
+
+/**
+ * measures the requests of a single route, see {@link MetricsRegistry}
+ * @author lb
+ *
+ */
 public class TimerFilter extends Filter {
 
-	ThreadLocal<Long> timestamp = new ThreadLocal<>();
+	private final RouteMetrics metrics;
+	
+	/**
+	 * 
+	 * @param context
+	 * @param route the route template
+	 * @param next the resource class
+	 */
+	public TimerFilter(Context context, String route, Class<?> next) {
+		super(context);
+		this.metrics = MetricsRegistry.getInstance().getRoute(route);
+		setNext(next);
+	}
 	
 	@Override
 	protected int beforeHandle(Request request, Response response) {
-		timestamp.set(System.currentTimeMillis());
+		RequestMetrics.begin(metrics);
 		return super.beforeHandle(request, response);
 	}
 	
 	@Override
 	protected void afterHandle(Request request, Response response) {
-		System.out.println(request.getResourceRef().getIdentifier() + " Time needed: " + (System.currentTimeMillis() - timestamp.get()) + "ms");
+		final Status status = response.getStatus();
+		RequestMetrics.end(status != null ? status.getCode() : 0);
 		super.afterHandle(request, response);
 	}
 }
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import at.alladin.rmbt.shared.metrics.LatencyHistogram;
+
+/**
+ * registry of the metrics of all routes, renders them as JSON or in the Prometheus text format
+ * @author lb
+ *
+ */
+public class MetricsRegistry {
+
+	/**
+	 * route of errors that occur outside of a measured request
+	 */
+	public final static String NO_ROUTE = "none";
+
+	private final static double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	private final static MetricsRegistry INSTANCE = new MetricsRegistry();
+
+	private final ConcurrentMap<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+	private final long startTime = System.currentTimeMillis();
+
+	public static MetricsRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 *
+	 * @param route
+	 * @return the metrics of the route, created if necessary
+	 */
+	public RouteMetrics getRoute(String route) {
+		RouteMetrics metrics = routes.get(route);
+		if (metrics == null) {
+			final RouteMetrics newMetrics = new RouteMetrics(route);
+			metrics = routes.putIfAbsent(route, newMetrics);
+			if (metrics == null) {
+				metrics = newMetrics;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 *
+	 * @return route -&gt; metrics, ordered by route
+	 */
+	public Map<String, RouteMetrics> getRoutes() {
+		return new TreeMap<>(routes);
+	}
+
+	/**
+	 *
+	 * @return
+	 * @throws JSONException
+	 */
+	public JSONObject toJson() throws JSONException {
+		final JSONObject json = new JSONObject();
+		json.put("uptime_s", (System.currentTimeMillis() - startTime) / 1000);
+
+		final JSONObject routesJson = new JSONObject();
+		for (RouteMetrics route : getRoutes().values()) {
+			final JSONObject routeJson = new JSONObject();
+			routeJson.put("requests", route.getDuration().getCount());
+			routeJson.put("duration_ms", toJson(route.getDuration()));
+			routeJson.put("db_ms", toJson(route.getDbTime()));
+			routeJson.put("connection_wait_ms", toJson(route.getConnectionWait()));
+			routeJson.put("status", new JSONObject(route.getStatusCounts()));
+			routeJson.put("errors", new JSONObject(route.getErrorCounts()));
+			routesJson.put(route.getRoute(), routeJson);
+		}
+		json.put("routes", routesJson);
+		return json;
+	}
+
+	private static JSONObject toJson(LatencyHistogram histogram) throws JSONException {
+		final JSONObject json = new JSONObject();
+		json.put("count", histogram.getCount());
+		json.put("mean", histogram.getMean() / 1000);
+		json.put("p50", histogram.getValueAtPercentile(50) / 1000d);
+		json.put("p90", histogram.getValueAtPercentile(90) / 1000d);
+		json.put("p99", histogram.getValueAtPercentile(99) / 1000d);
+		json.put("p999", histogram.getValueAtPercentile(99.9) / 1000d);
+		json.put("max", histogram.getMax() / 1000d);
+		return json;
+	}
+
+	/**
+	 * renders the metrics in the Prometheus text format (version 0.0.4)
+	 * @return
+	 */
+	public String toPrometheus() {
+		final Map<String, RouteMetrics> routes = getRoutes();
+		final StringBuilder sb = new StringBuilder(4096);
+
+		appendSummary(sb, routes, "rmbt_control_request_duration_seconds", "request duration", 0);
+		appendSummary(sb, routes, "rmbt_control_request_db_seconds", "database time per request", 1);
+		appendSummary(sb, routes, "rmbt_control_request_connection_wait_seconds", "time per request waiting for a database connection", 2);
+
+		sb.append("# HELP rmbt_control_responses_total responses by http status\n");
+		sb.append("# TYPE rmbt_control_responses_total counter\n");
+		for (RouteMetrics route : routes.values()) {
+			for (Map.Entry<Integer, Long> e : route.getStatusCounts().entrySet()) {
+				sb.append("rmbt_control_responses_total{route=\"").append(escape(route.getRoute()))
+					.append("\",status=\"").append(e.getKey()).append("\"} ").append(e.getValue()).append('\n');
+			}
+		}
+
+		sb.append("# HELP rmbt_control_errors_total errors by error label\n");
+		sb.append("# TYPE rmbt_control_errors_total counter\n");
+		for (RouteMetrics route : routes.values()) {
+			for (Map.Entry<String, Long> e : route.getErrorCounts().entrySet()) {
+				sb.append("rmbt_control_errors_total{route=\"").append(escape(route.getRoute()))
+					.append("\",error=\"").append(escape(e.getKey())).append("\"} ").append(e.getValue()).append('\n');
+			}
+		}
+
+		sb.append("# HELP rmbt_control_uptime_seconds time since the metrics have been started\n");
+		sb.append("# TYPE rmbt_control_uptime_seconds gauge\n");
+		sb.append("rmbt_control_uptime_seconds ").append((System.currentTimeMillis() - startTime) / 1000).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 *
+	 * @param sb
+	 * @param routes
+	 * @param name
+	 * @param help
+	 * @param type 0: duration, 1: db time, 2: connection wait
+	 */
+	private static void appendSummary(StringBuilder sb, Map<String, RouteMetrics> routes, String name, String help, int type) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" summary\n");
+		for (RouteMetrics route : routes.values()) {
+			final LatencyHistogram histogram = type == 0 ? route.getDuration() : (type == 1 ? route.getDbTime() : route.getConnectionWait());
+			if (histogram.getCount() == 0) {
+				continue;
+			}
+			final String label = "route=\"" + escape(route.getRoute()) + "\"";
+			for (double q : QUANTILES) {
+				sb.append(name).append('{').append(label).append(",quantile=\"").append(q).append("\"} ")
+					.append(toSeconds(histogram.getValueAtPercentile(q * 100))).append('\n');
+			}
+			sb.append(name).append("_sum{").append(label).append("} ").append(toSeconds(histogram.getSum())).append('\n');
+			sb.append(name).append("_count{").append(label).append("} ").append(histogram.getCount()).append('\n');
+		}
+	}
+
+	private static String toSeconds(long micros) {
+		return String.format(Locale.US, "%.6f", micros / 1e6);
+	}
+
+	/**
+	 * escapes a label value
+	 * @param value
+	 * @return
+	 */
+	static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer.metrics;
+
+/**
+ * collects the metrics of the request that is handled by the current thread.<br>
+ * One instance per thread is reused for all requests, so measuring a request does not allocate memory.
+ * @author lb
+ *
+ */
+public final class RequestMetrics {
+
+	private final static ThreadLocal<RequestMetrics> CURRENT = new ThreadLocal<RequestMetrics>() {
+		@Override
+		protected RequestMetrics initialValue() {
+			return new RequestMetrics();
+		}
+	};
+
+	private RouteMetrics route;
+
+	private long start;
+
+	private long dbNanos;
+
+	private long connectionWaitNanos;
+
+	private RequestMetrics() {
+	}
+
+	/**
+	 * starts the measurement of a request on the current thread
+	 * @param route
+	 */
+	public static void begin(RouteMetrics route) {
+		final RequestMetrics metrics = CURRENT.get();
+		metrics.route = route;
+		metrics.dbNanos = 0;
+		metrics.connectionWaitNanos = 0;
+		metrics.start = System.nanoTime();
+	}
+
+	/**
+	 * finishes the measurement of the request on the current thread
+	 * @param status http status or 0 if unknown
+	 */
+	public static void end(int status) {
+		final RequestMetrics metrics = CURRENT.get();
+		if (metrics.route != null) {
+			metrics.route.record(System.nanoTime() - metrics.start, metrics.dbNanos, metrics.connectionWaitNanos, status);
+			metrics.route = null;
+		}
+	}
+
+	/**
+	 * adds database time to the current request
+	 * @param nanos
+	 */
+	public static void addDbTime(long nanos) {
+		CURRENT.get().dbNanos += nanos;
+	}
+
+	/**
+	 * adds time waiting for a database connection to the current request
+	 * @param nanos
+	 */
+	public static void addConnectionWait(long nanos) {
+		CURRENT.get().connectionWaitNanos += nanos;
+	}
+
+	/**
+	 * counts an error of the current request
+	 * @param errorLabel
+	 */
+	public static void countError(String errorLabel) {
+		final RouteMetrics route = CURRENT.get().route;
+		(route != null ? route : MetricsRegistry.getInstance().getRoute(MetricsRegistry.NO_ROUTE)).countError(errorLabel);
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import at.alladin.rmbt.shared.metrics.LatencyHistogram;
+
+/**
+ * the metrics of a single route: request duration, database time and connection wait time (in microseconds),
+ * responses by http status and errors by error label
+ * @author lb
+ *
+ */
+public class RouteMetrics {
+
+	private final static int MAX_STATUS = 600;
+
+	private final String route;
+
+	private final LatencyHistogram duration = new LatencyHistogram();
+
+	private final LatencyHistogram dbTime = new LatencyHistogram();
+
+	private final LatencyHistogram connectionWait = new LatencyHistogram();
+
+	private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS);
+
+	private final ConcurrentMap<String, AtomicLong> errorCounts = new ConcurrentHashMap<>();
+
+	RouteMetrics(String route) {
+		this.route = route;
+	}
+
+	/**
+	 *
+	 * @param durationNanos
+	 * @param dbNanos
+	 * @param connectionWaitNanos
+	 * @param status http status or 0 if unknown
+	 */
+	void record(long durationNanos, long dbNanos, long connectionWaitNanos, int status) {
+		duration.record(durationNanos / 1000);
+		dbTime.record(dbNanos / 1000);
+		connectionWait.record(connectionWaitNanos / 1000);
+		if (status > 0 && status < MAX_STATUS) {
+			statusCounts.incrementAndGet(status);
+		}
+	}
+
+	/**
+	 *
+	 * @param errorLabel
+	 */
+	void countError(String errorLabel) {
+		AtomicLong counter = errorCounts.get(errorLabel);
+		if (counter == null) {
+			final AtomicLong newCounter = new AtomicLong();
+			counter = errorCounts.putIfAbsent(errorLabel, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+	public String getRoute() {
+		return route;
+	}
+
+	/**
+	 *
+	 * @return request durations in microseconds
+	 */
+	public LatencyHistogram getDuration() {
+		return duration;
+	}
+
+	/**
+	 *
+	 * @return database time per request in microseconds
+	 */
+	public LatencyHistogram getDbTime() {
+		return dbTime;
+	}
+
+	/**
+	 *
+	 * @return time per request waiting for a database connection in microseconds
+	 */
+	public LatencyHistogram getConnectionWait() {
+		return connectionWait;
+	}
+
+	/**
+	 *
+	 * @return http status -&gt; number of responses
+	 */
+	public Map<Integer, Long> getStatusCounts() {
+		final Map<Integer, Long> result = new TreeMap<>();
+		for (int i = 0; i < MAX_STATUS; i++) {
+			final long count = statusCounts.get(i);
+			if (count > 0) {
+				result.put(i, count);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return error label -&gt; number of errors
+	 */
+	public Map<String, Long> getErrorCounts() {
+		final Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<String, AtomicLong> e : errorCounts.entrySet()) {
+			result.put(e.getKey(), e.getValue().get());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * wraps a database connection and adds the time spent in the execution of statements, commits and rollbacks
+ * to the {@link RequestMetrics} of the current request
+ * @author lb
+ *
+ */
+public class TimedConnection implements InvocationHandler {
+
+	private final Connection connection;
+
+	private TimedConnection(Connection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 *
+	 * @param connection
+	 * @return the wrapped connection
+	 */
+	public static Connection wrap(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+				new TimedConnection(connection));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		final String name = method.getName();
+		if ("commit".equals(name) || "rollback".equals(name)) {
+			return invokeTimed(connection, method, args);
+		}
+
+		final Object result = invokeTarget(connection, method, args);
+		if (result instanceof CallableStatement) {
+			return wrap((Statement) result, CallableStatement.class);
+		}
+		else if (result instanceof PreparedStatement) {
+			return wrap((Statement) result, PreparedStatement.class);
+		}
+		else if (result instanceof Statement) {
+			return wrap((Statement) result, Statement.class);
+		}
+		return result;
+	}
+
+	private static Object wrap(final Statement statement, Class<? extends Statement> type) {
+		return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().startsWith("execute")) {
+					return invokeTimed(statement, method, args);
+				}
+				return invokeTarget(statement, method, args);
+			}
+		});
+	}
+
+	private static Object invokeTimed(Object target, Method method, Object[] args) throws Throwable {
+		final long start = System.nanoTime();
+		try {
+			return invokeTarget(target, method, args);
+		}
+		finally {
+			RequestMetrics.addDbTime(System.nanoTime() - start);
+		}
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		}
+		catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -1,12 +1,12 @@
 /*******************************************************************************
  * Copyright 2013-2014 alladin-IT GmbH
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *   http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -15,48 +15,137 @@
  ******************************************************************************/
 package at.alladin.rmbt.controlServer.server;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 
+ * echo server for the non transparent proxy test: for each request the requested port is opened, a single connection
+ * is accepted and the first message received is sent back.<br>
+ * All connections are handled by a single selector thread. Each request has a deadline: the connection must be accepted
+ * within the timeout of the request, the message must be received and sent back within another timeout.
  * @author lb
  *
  */
 public class ProxyEchoService extends Thread {
-	
+
 	//eager initialization -> makes synchronization of getInstance() unnecessary
 	private static ProxyEchoService instance = new ProxyEchoService();
-	
-	private final static int MAX_THREADS = 20;
 
-	private final ExecutorService serverSocketPool;
-	
-	private final Queue<ProxyEchoRequest> requests;
-	
+	/**
+	 * max. number of concurrent requests, further requests fail immediately
+	 */
+	public final static int MAX_CONNECTIONS = 1024;
+
+	private final static int BUFFER_SIZE = 8192;
+
+	private final static Charset CHARSET = Charset.defaultCharset();
+
+	/**
+	 * a single request and its connection
+	 */
+	private static class Probe implements Callable<ProxyEchoResult> {
+		final ProxyEchoRequest request;
+		final ProxyEchoResult result = new ProxyEchoResult();
+		final FutureTask<ProxyEchoResult> future = new FutureTask<>(this);
+
+		/**
+		 * System.nanoTime()
+		 */
+		long deadline;
+		ServerSocketChannel server;
+		SocketChannel channel;
+		ByteBuffer buffer;
+		boolean done;
+
+		Probe(ProxyEchoRequest request) {
+			this.request = request;
+		}
+
+		@Override
+		public ProxyEchoResult call() {
+			return result;
+		}
+
+		/**
+		 * sets the deadline to now + timeout of the request
+		 * @return false if the request has no timeout
+		 */
+		boolean resetDeadline() {
+			if (request.getTimeout() <= 0) {
+				return false;
+			}
+			deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(request.getTimeout());
+			return true;
+		}
+	}
+
+	private final static Comparator<Probe> DEADLINE_COMPARATOR = new Comparator<Probe>() {
+		@Override
+		public int compare(Probe o1, Probe o2) {
+			return Long.compare(o1.deadline, o2.deadline);
+		}
+	};
+
+	private final Selector selector;
+
+	/**
+	 * new requests, registered by the selector thread
+	 */
+	private final Queue<Probe> requests;
+
+	/**
+	 * the requests with a deadline, only used by the selector thread
+	 */
+	private final PriorityQueue<Probe> deadlines;
+
+	private final AtomicInteger connections = new AtomicInteger();
+
 	private volatile boolean run = true;
 
 	/**
-	 * 
+	 *
 	 * @return
 	 */
 	public static ProxyEchoService getInstance() {
 		return instance;
 	}
-	
+
 	/**
-	 * 
-	 * @param maxThreads
+	 *
 	 */
-	private ProxyEchoService() {
-		super();
-		serverSocketPool = Executors.newFixedThreadPool(MAX_THREADS);
+	ProxyEchoService() {
+		super("ProxyEchoService");
+		try {
+			selector = Selector.open();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("could not open selector", e);
+		}
 		requests = new ConcurrentLinkedQueue<>();
+		deadlines = new PriorityQueue<>(16, DEADLINE_COMPARATOR);
 		start();
 	}
-	
+
 	/*
 	 * (non-Javadoc)
 	 * @see java.lang.Thread#run()
@@ -64,31 +153,223 @@ public class ProxyEchoService extends Thread {
 	@Override
 	public void run() {
 		System.out.println("PROXY ECHO SERVER: starting");
-		while (run) {
-			if (!requests.isEmpty()) {
-				serverSocketPool.submit(new ProxyEchoServerSocket(requests.poll()));
-			}								
+		try {
+			while (run) {
+				registerRequests();
+				final long timeout = expire();
+				//blocks until a channel is ready, a new request arrives or the next deadline is reached
+				selector.select(timeout);
+
+				final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					final SelectionKey key = it.next();
+					it.remove();
+					final Probe probe = (Probe) key.attachment();
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept(probe);
+						}
+						else if (key.isReadable()) {
+							read(probe, key);
+						}
+						else if (key.isWritable()) {
+							write(probe);
+						}
+					}
+					catch (IOException e) {
+						System.out.println("PROXY ECHO SERVER: could not send msg");
+						e.printStackTrace();
+						finish(probe, false);
+					}
+				}
+			}
+		}
+		catch (IOException | ClosedSelectorException e) {
+			e.printStackTrace();
+		}
+		finally {
+			shutdown();
 		}
-		serverSocketPool.shutdownNow();
 		System.out.println("PROXY ECHO SERVER: stopping");
 	}
-	
+
 	/**
-	 * 
+	 *
 	 */
 	public void terminate() {
 		run = false;
+		selector.wakeup();
 	}
-	
+
 	/**
-	 * 
-	 * @param port
-	 * @return
+	 *
+	 * @param request
+	 * @return the result, available after the message has been sent back or the request has failed
 	 */
-	public synchronized void listen(final ProxyEchoRequest request) {
-		System.out.println("PROXY ECHO SERVER: adding new request to queue on port: " + request.getPort());
-		requests.add(request);
-	}	
-	
-	
+	public Future<ProxyEchoResult> listen(final ProxyEchoRequest request) {
+		final Probe probe = new Probe(request);
+		if (!run) {
+			probe.future.run();
+			return probe.future;
+		}
+		if (connections.incrementAndGet() > MAX_CONNECTIONS) {
+			connections.decrementAndGet();
+			System.out.println("PROXY ECHO SERVER: too many requests, rejecting port: " + request.getPort());
+			probe.future.run();
+			return probe.future;
+		}
+		requests.add(probe);
+		if (!run && requests.remove(probe)) {
+			//terminated concurrently, the selector thread may already have failed the pending requests
+			connections.decrementAndGet();
+			probe.future.run();
+			return probe.future;
+		}
+		selector.wakeup();
+		return probe.future;
+	}
+
+	/**
+	 *
+	 * @return the number of requests in progress
+	 */
+	public int getConnectionCount() {
+		return connections.get();
+	}
+
+	private void registerRequests() {
+		Probe probe;
+		while ((probe = requests.poll()) != null) {
+			try {
+				final ServerSocketChannel server = ServerSocketChannel.open();
+				probe.server = server;
+				server.configureBlocking(false);
+				server.socket().setReuseAddress(true);
+				server.socket().bind(new InetSocketAddress(probe.request.getPort()));
+				server.register(selector, SelectionKey.OP_ACCEPT, probe);
+				if (probe.resetDeadline()) {
+					deadlines.add(probe);
+				}
+			}
+			catch (IOException e) {
+				System.out.println("PROXY ECHO SERVER: could not listen to port: " + probe.request.getPort());
+				e.printStackTrace();
+				finish(probe, false);
+			}
+		}
+	}
+
+	/**
+	 * fails all requests whose deadline has been reached
+	 * @return the time until the next deadline in ms or 0 if there is none
+	 */
+	private long expire() {
+		final long now = System.nanoTime();
+		Probe probe;
+		while ((probe = deadlines.peek()) != null) {
+			if (probe.done) {
+				deadlines.poll();
+			}
+			else if (probe.deadline - now <= 0) {
+				deadlines.poll();
+				finish(probe, false);
+			}
+			else {
+				return Math.max(1, TimeUnit.NANOSECONDS.toMillis(probe.deadline - now + 999999));
+			}
+		}
+		return 0;
+	}
+
+	private void accept(final Probe probe) throws IOException {
+		final SocketChannel channel = probe.server.accept();
+		if (channel == null) {
+			return;
+		}
+		//only a single connection is accepted
+		close(probe.server);
+		probe.server = null;
+		probe.channel = channel;
+		probe.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		channel.configureBlocking(false);
+		channel.register(selector, SelectionKey.OP_READ, probe);
+
+		//the connection gets its own deadline
+		deadlines.remove(probe);
+		if (probe.resetDeadline()) {
+			deadlines.add(probe);
+		}
+	}
+
+	private void read(final Probe probe, final SelectionKey key) throws IOException {
+		final int length = probe.channel.read(probe.buffer);
+		if (length < 0) {
+			System.out.println("PROXY ECHO SERVER: connection closed. nothing received...");
+			finish(probe, false);
+			return;
+		}
+		if (length == 0) {
+			return;
+		}
+
+		final String msg = new String(probe.buffer.array(), 0, probe.buffer.position(), CHARSET);
+		probe.result.setMessage(msg);
+		probe.buffer = CHARSET.encode(msg + System.lineSeparator());
+		key.interestOps(SelectionKey.OP_WRITE);
+		write(probe);
+	}
+
+	private void write(final Probe probe) throws IOException {
+		probe.channel.write(probe.buffer);
+		if (!probe.buffer.hasRemaining()) {
+			finish(probe, true);
+		}
+	}
+
+	private void finish(final Probe probe, final boolean success) {
+		if (probe.done) {
+			return;
+		}
+		probe.done = true;
+		probe.result.setSuccess(success);
+		close(probe.server);
+		close(probe.channel);
+		probe.server = null;
+		probe.channel = null;
+		probe.buffer = null;
+		connections.decrementAndGet();
+		probe.future.run();
+	}
+
+	private void shutdown() {
+		final List<Probe> probes = new ArrayList<>(deadlines);
+		Probe probe;
+		while ((probe = requests.poll()) != null) {
+			probes.add(probe);
+		}
+		try {
+			for (SelectionKey key : selector.keys()) {
+				probes.add((Probe) key.attachment());
+			}
+		}
+		catch (ClosedSelectorException e) {
+		}
+		for (Probe p : probes) {
+			finish(p, false);
+		}
+		close(selector);
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			}
+			catch (IOException e) {
+			}
+		}
+	}
 }
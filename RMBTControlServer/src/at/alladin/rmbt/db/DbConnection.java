@@ -22,6 +22,9 @@ import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
+import at.alladin.rmbt.controlServer.metrics.RequestMetrics;
+import at.alladin.rmbt.controlServer.metrics.TimedConnection;
+
 public class DbConnection
 {
     
@@ -42,8 +45,10 @@ public class DbConnection
     
     public static Connection getConnection() throws NamingException, SQLException
     {
+        final long start = System.nanoTime();
         final Connection connection = ds.getConnection();
+        RequestMetrics.addConnectionWait(System.nanoTime() - start);
         connection.setAutoCommit(true);
-        return connection;
+        return TimedConnection.wrap(connection);
     }
 }
@@ -20,6 +20,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -81,6 +82,62 @@ public class QoSTestObjectiveDao implements PrimaryKeyDao<QoSTestObjective, Inte
 		return resultList;
 	}
 	
+	/**
+	 * loads all objectives with the given uids using a single query
+	 * @param uids
+	 * @return map of uid -&gt; objective
+	 * @throws SQLException
+	 */
+	public Map<Long, QoSTestObjective> getByUids(Collection<Long> uids) throws SQLException {
+		final Map<Long, QoSTestObjective> resultMap = new HashMap<>();
+		if (uids.isEmpty()) {
+			return resultMap;
+		}
+		
+		String sql = "SELECT nnto.uid, test_class, test, param AS param, results as results, concurrency_group, test_desc, "
+				+ " test_summary, ts.web_address_ipv4 as ipv4, ts.web_address_ipv6 as ipv6, ts.port_ssl as port "
+				+ " FROM qos_test_objective nnto LEFT JOIN test_server ts ON ts.uid = nnto.test_server WHERE nnto.uid = ANY(?)";
+		
+		try (PreparedStatement ps = conn.prepareStatement(sql))
+		{
+			ps.setArray(1, conn.createArrayOf("int8", uids.toArray()));
+			try (ResultSet rs = ps.executeQuery())
+			{
+				while (rs.next()) {
+					final QoSTestObjective objective = instantiateItem(rs);
+					resultMap.put((long) objective.getUid(), objective);
+				}
+			}
+		}
+		
+		return resultMap;
+	}
+	
+	/**
+	 * returns a fingerprint of all objectives of the given test classes (including their test server data).<br>
+	 * The fingerprint changes whenever one of these objectives or test servers is added, removed or modified.
+	 * @param testClass
+	 * @return
+	 * @throws SQLException
+	 */
+	public String getFingerprintByTestClass(Integer... testClass) throws SQLException {
+		String whereClause = "WHERE test_class = " + Helperfunctions.join(" OR test_class = ", testClass);
+		String sql = "SELECT count(*) || ':' || coalesce(md5(string_agg(concat_ws('|', nnto.uid, nnto.test, nnto.concurrency_group, nnto.param, "
+				+ " ts.web_address_ipv4, ts.web_address_ipv6, ts.port_ssl), ',' ORDER BY nnto.uid)), '') AS fingerprint "
+				+ " FROM qos_test_objective nnto LEFT JOIN test_server ts ON ts.uid = nnto.test_server " + whereClause;
+
+		try (PreparedStatement ps = conn.prepareStatement(sql);
+				ResultSet rs = ps.executeQuery())
+		{
+			if (rs.next()) {
+				return rs.getString("fingerprint");
+			}
+			else {
+				throw new SQLException("empty result set");
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see at.alladin.rmbt.db.dao.PrimaryKeyDao#getById(java.lang.Object)
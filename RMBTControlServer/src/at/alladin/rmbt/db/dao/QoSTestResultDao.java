@@ -175,13 +175,39 @@ public class QoSTestResultDao implements CrudPrimaryKeyDao<QoSTestResult, Long>
 	}
 	
 	/**
-	 * 
+	 * inserts all new results (and updates all existing results) with a single batch per statement
 	 * @param resultCollection
 	 * @throws SQLException
 	 */
 	public void saveAll(Collection<QoSTestResult> resultCollection) throws SQLException {
-		for (QoSTestResult result : resultCollection) {
-			save(result);
+		try (PreparedStatement psInsert = conn.prepareStatement("INSERT INTO qos_test_result (test_uid, result, qos_test_uid, success_count, failure_count) VALUES (?,?::json,?,?,?)");
+				PreparedStatement psUpdate = conn.prepareStatement("UPDATE qos_test_result SET test_uid = ?, result = ?::json, qos_test_uid = ?, success_count = ?, failure_count = ? WHERE uid = ?"))
+		{
+			int inserts = 0;
+			int updates = 0;
+			for (QoSTestResult result : resultCollection) {
+				final PreparedStatement ps = result.getUid() == null ? psInsert : psUpdate;
+				ps.setLong(1, result.getTestUid());
+				ps.setObject(2, result.getResults());
+				ps.setLong(3, result.getQoSTestObjectiveId());
+				ps.setInt(4, result.getSuccessCounter());
+				ps.setInt(5, result.getFailureCounter());
+				if (result.getUid() == null) {
+					inserts++;
+				}
+				else {
+					ps.setLong(6, result.getUid());
+					updates++;
+				}
+				ps.addBatch();
+			}
+			
+			if (inserts > 0) {
+				psInsert.executeBatch();
+			}
+			if (updates > 0) {
+				psUpdate.executeBatch();
+			}
 		}
 	}
 
@@ -222,17 +248,23 @@ public class QoSTestResultDao implements CrudPrimaryKeyDao<QoSTestResult, Long>
 	}
 	
 	/**
-	 * 
+	 * updates the counters of all results with a single batch
 	 * @param resultCollection
-	 * @param columnNames
 	 * @throws SQLException
 	 */
 	public void updateCounterAll(Collection<QoSTestResult> resultCollection) throws SQLException {
-		String sql = "UPDATE qos_test_result SET success_count = ?, failure_count = ? WHERE uid = ?";
-		PreparedStatement ps = conn.prepareStatement(sql);
-
-		for (QoSTestResult result : resultCollection) {
-			updateCounter(result, ps);
+		try (PreparedStatement ps = getUpdateCounterPreparedStatement())
+		{
+			for (QoSTestResult result : resultCollection) {
+				ps.setInt(1, result.getSuccessCounter());
+				ps.setInt(2, result.getFailureCounter());
+				ps.setLong(3, result.getUid());
+				ps.addBatch();
+			}
+			
+			if (!resultCollection.isEmpty()) {
+				ps.executeBatch();
+			}
 		}
 	}
 
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.qos;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import at.alladin.rmbt.db.QoSTestObjective;
+import at.alladin.rmbt.db.dao.QoSTestObjectiveDao;
+import at.alladin.rmbt.qos.testscript.CompiledTestScript;
+import at.alladin.rmbt.qos.testscript.TestScriptCompiler;
+import at.alladin.rmbt.qos.testscript.TestScriptInterpreter;
+
+/**
+ * caches the parsed qos test objectives (templates) that are sent to the clients.<br>
+ * Parameters without a test script command are interpreted once when the template is built, only the remaining
+ * (dynamic) parameters, e.g. %RANDOM ...%, are compiled once and executed for each request.<br>
+ * The templates are rebuilt if the fingerprint of the qos_test_objective table (and the referenced test servers) has changed.
+ * The fingerprint is checked at most every {@link #CHECK_INTERVAL_MS} ms.
+ * @author lb
+ *
+ */
+public class QoSObjectiveTemplateCache {
+
+	/**
+	 *
+	 */
+	public final static long CHECK_INTERVAL_MS = 10000;
+
+	/**
+	 * objectives of this test class are sent to the clients
+	 */
+	public final static int TEST_CLASS = 1;
+
+	private final static QoSObjectiveTemplateCache INSTANCE = new QoSObjectiveTemplateCache();
+
+	/**
+	 * a precompiled objective
+	 * @author lb
+	 *
+	 */
+	public static class ObjectiveTemplate {
+		private final String testType;
+		private final Map<String, Object> staticParamsIpv4;
+		private final Map<String, Object> staticParamsIpv6;
+		private final Map<String, CompiledTestScript> dynamicParams;
+
+		/**
+		 *
+		 * @param o
+		 * @throws JSONException
+		 */
+		public ObjectiveTemplate(final QoSTestObjective o) throws JSONException {
+			this.testType = o.getTestType();
+
+			final Map<String, Object> staticParams = new LinkedHashMap<>();
+			final Map<String, CompiledTestScript> dynamicParams = new LinkedHashMap<>();
+
+			final JSONObject params = new JSONObject(o.getObjective());
+			@SuppressWarnings("unchecked")
+			final Iterator<String> keys = params.keys();
+			while (keys.hasNext()) {
+				final String key = keys.next();
+				final String value = params.getString(key);
+				if (isDynamic(value)) {
+					dynamicParams.put(key, TestScriptCompiler.compile(value, false));
+				}
+				else {
+					staticParams.put(key, String.valueOf(TestScriptInterpreter.interprete(value, null)));
+				}
+			}
+
+			staticParams.put("qos_test_uid", String.valueOf(o.getUid()));
+			staticParams.put("concurrency_group", String.valueOf(o.getConcurrencyGroup()));
+			staticParams.put("server_port", String.valueOf(o.getPort()));
+
+			this.staticParamsIpv4 = new HashMap<>(staticParams);
+			this.staticParamsIpv4.put("server_addr", String.valueOf(o.getTestServerIpv4()));
+			this.staticParamsIpv6 = new HashMap<>(staticParams);
+			this.staticParamsIpv6.put("server_addr", String.valueOf(o.getTestServerIpv6()));
+			this.dynamicParams = dynamicParams;
+		}
+
+		/**
+		 * a parameter is dynamic if it contains a (non escaped) test script command
+		 * @param value
+		 * @return
+		 */
+		public static boolean isDynamic(final String value) {
+			return value.replace("\\%", "").indexOf('%') >= 0;
+		}
+
+		/**
+		 * creates the objective parameters for a single request
+		 * @param ipv6 true if the client uses ipv6
+		 * @return the parameters or null if one of the dynamic parameters could not be interpreted
+		 * @throws JSONException
+		 */
+		public JSONObject toJson(final boolean ipv6) throws JSONException {
+			final JSONObject json = new JSONObject(ipv6 ? staticParamsIpv6 : staticParamsIpv4);
+			for (final Entry<String, CompiledTestScript> e : dynamicParams.entrySet()) {
+				final Object scriptResult = e.getValue().execute(null);
+				if (scriptResult == null) {
+					return null;
+				}
+				json.put(e.getKey(), String.valueOf(scriptResult));
+			}
+			return json;
+		}
+
+		public String getTestType() {
+			return testType;
+		}
+
+		public boolean hasDynamicParams() {
+			return !dynamicParams.isEmpty();
+		}
+	}
+
+	/**
+	 * immutable snapshot of the templates
+	 */
+	private static class Snapshot {
+		final String fingerprint;
+		final List<ObjectiveTemplate> templateList;
+		final long checkedAt;
+
+		Snapshot(final String fingerprint, final List<ObjectiveTemplate> templateList, final long checkedAt) {
+			this.fingerprint = fingerprint;
+			this.templateList = templateList;
+			this.checkedAt = checkedAt;
+		}
+	}
+
+	private volatile Snapshot snapshot;
+
+	public static QoSObjectiveTemplateCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * returns the current templates, the templates are (re)loaded if necessary
+	 * @param conn
+	 * @return
+	 * @throws SQLException
+	 * @throws JSONException
+	 */
+	public List<ObjectiveTemplate> getTemplates(final Connection conn) throws SQLException, JSONException {
+		final Snapshot current = snapshot;
+		if (current != null && current.checkedAt + CHECK_INTERVAL_MS > System.currentTimeMillis()) {
+			return current.templateList;
+		}
+
+		synchronized (this) {
+			//another thread may have refreshed the snapshot in the meantime
+			Snapshot s = snapshot;
+			final long now = System.currentTimeMillis();
+			if (s != null && s.checkedAt + CHECK_INTERVAL_MS > now) {
+				return s.templateList;
+			}
+
+			final QoSTestObjectiveDao dao = new QoSTestObjectiveDao(conn);
+			final String fingerprint = dao.getFingerprintByTestClass(TEST_CLASS);
+			if (s != null && s.fingerprint.equals(fingerprint)) {
+				s = new Snapshot(s.fingerprint, s.templateList, now);
+			}
+			else {
+				final List<ObjectiveTemplate> templateList = new ArrayList<>();
+				for (final QoSTestObjective o : dao.getByTestClass(TEST_CLASS)) {
+					templateList.add(new ObjectiveTemplate(o));
+				}
+				s = new Snapshot(fingerprint, Collections.unmodifiableList(templateList), now);
+				System.out.println("QoS objective templates loaded: " + templateList.size());
+			}
+
+			snapshot = s;
+			return s.templateList;
+		}
+	}
+
+	/**
+	 * forces a reload on the next request
+	 */
+	public void invalidate() {
+		snapshot = null;
+	}
+}
@@ -41,7 +41,7 @@ import at.alladin.rmbt.db.Test;
 import at.alladin.rmbt.db.dao.QoSTestDescDao;
 import at.alladin.rmbt.db.dao.QoSTestResultDao;
 import at.alladin.rmbt.db.dao.QoSTestTypeDescDao;
-import at.alladin.rmbt.qos.testscript.TestScriptInterpreter;
+import at.alladin.rmbt.qos.testscript.TestScriptCompiler;
 import at.alladin.rmbt.shared.hstoreparser.Hstore;
 import at.alladin.rmbt.shared.hstoreparser.HstoreParseException;
 import at.alladin.rmbt.util.capability.QualityOfServiceCapability;
@@ -239,7 +239,7 @@ public class QoSUtil {
                     //and set the test results + put each one to the result list json array
                 	String preParsedDesc = testDescMap.get(testResult.getTestDescription());
                 	if (preParsedDesc != null) {
-                    	String description = String.valueOf(TestScriptInterpreter.interprete(testDescMap.get(testResult.getTestDescription()), 
+                    	String description = String.valueOf(TestScriptCompiler.execute(testDescMap.get(testResult.getTestDescription()), 
                     			QoSUtil.HSTORE_PARSER, testResult.getResult(), true, resultOptions));
                     	testResult.setTestDescription(description);
                 	}
@@ -247,7 +247,7 @@ public class QoSUtil {
                 	//do the same for the test summary:
                 	String preParsedSummary = testDescMap.get(testResult.getTestSummary());
                 	if (preParsedSummary != null) {
-                    	String description = String.valueOf(TestScriptInterpreter.interprete(testDescMap.get(testResult.getTestSummary()), 
+                    	String description = String.valueOf(TestScriptCompiler.execute(testDescMap.get(testResult.getTestSummary()), 
                     			QoSUtil.HSTORE_PARSER, testResult.getResult(), true, resultOptions));
                     	testResult.setTestSummary(description);
                 	}
@@ -15,12 +15,17 @@
  ******************************************************************************/
 package at.alladin.rmbt.qos;
 
-import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import at.alladin.rmbt.qos.annotations.NonComparableField;
-import at.alladin.rmbt.qos.testscript.TestScriptInterpreter;
+import at.alladin.rmbt.qos.testscript.TestScriptCompiler;
 import at.alladin.rmbt.qos.testscript.TestScriptInterpreter.EvalResult;
+import at.alladin.rmbt.shared.hstoreparser.FieldAccessor;
 import at.alladin.rmbt.shared.hstoreparser.Hstore;
 import at.alladin.rmbt.shared.hstoreparser.HstoreParser;
 
@@ -35,6 +40,11 @@ public class ResultComparer {
 	public final static int RESULT_FAILURE = 0;
 	public final static int RESULT_SUCCESS = 1;
 	public final static int RESULT_INFO = 2;
+	
+	/**
+	 * the annotated fields of each result class that are evaluated by the test script interpreter before the comparison
+	 */
+	private final static ConcurrentMap<Class<?>, List<FieldAccessor>> COMPARABLE_FIELDS = new ConcurrentHashMap<>();
 
 	/**
 	 * 
@@ -52,12 +62,13 @@ public class ResultComparer {
 			System.out.println("could not compare: " + result1.getClass() + " <-> " + result2.getClass());
 			return null;
 		}
+		
+		final List<FieldAccessor> comparableFields = getComparableFields(result1.getClass(), parser);
 
 		if ((result1.getOperator()!=null || result1.getEvaluate()!=null) && result2.getOperator()==null) {
-			for (Field f : parser.getAnnotatedFields()) {
-				f.setAccessible(true);
-				if (!f.isAnnotationPresent(NonComparableField.class) && f.get(result1) != null && !Collection.class.isAssignableFrom(f.getType())) {
-					Object r = TestScriptInterpreter.interprete(String.valueOf(f.get(result1)), hstore, result2, false, options);
+			for (FieldAccessor f : comparableFields) {
+				if (f.get(result1) != null) {
+					Object r = TestScriptCompiler.execute(String.valueOf(f.get(result1)), hstore, result2, false, options);
 					f.set(result2, (r instanceof EvalResult) ? r : String.valueOf(r));
 				}
 			}
@@ -65,10 +76,9 @@ public class ResultComparer {
 			return getResultDescription(result1, result2, hstore, options);			
 		}
 		else if ((result2.getOperator()!=null || result2.getEvaluate()!=null) && result1.getOperator()==null) {
-			for (Field f : parser.getAnnotatedFields()) {
-				f.setAccessible(true);
-				if (!f.isAnnotationPresent(NonComparableField.class) && f.get(result2) != null && !Collection.class.isAssignableFrom(f.getType())) {
-					Object r = TestScriptInterpreter.interprete(String.valueOf(f.get(result2)), hstore, result1, false, options);
+			for (FieldAccessor f : comparableFields) {
+				if (f.get(result2) != null) {
+					Object r = TestScriptCompiler.execute(String.valueOf(f.get(result2)), hstore, result1, false, options);
 					f.set(result2, (r instanceof EvalResult) ? r : String.valueOf(r));	
 				}
 			}
@@ -80,6 +90,27 @@ public class ResultComparer {
 		return null;
 	}
 	
+	/**
+	 * returns the annotated fields of the result class that are neither collections nor annotated with {@link NonComparableField}
+	 * @param clazz
+	 * @param parser
+	 * @return
+	 */
+	private static List<FieldAccessor> getComparableFields(Class<?> clazz, HstoreParser<?> parser) {
+		List<FieldAccessor> fields = COMPARABLE_FIELDS.get(clazz);
+		if (fields == null) {
+			fields = new ArrayList<>();
+			for (FieldAccessor f : parser.getFieldAccessors()) {
+				if (!f.getField().isAnnotationPresent(NonComparableField.class) && !f.isCollection()) {
+					fields.add(f);
+				}
+			}
+			fields = Collections.unmodifiableList(fields);
+			COMPARABLE_FIELDS.putIfAbsent(clazz, fields);
+		}
+		return fields;
+	}
+	
 	/**
 	 * 
 	 * @param result1
@@ -169,8 +200,7 @@ public class ResultComparer {
 	private static int runCompare(String operator, boolean controlFlag, Object result, Object expectedResult) {
 		try {
 			//try to compare each field if the expected result's field is not null
-			for (Field f: result.getClass().getDeclaredFields()) {
-				f.setAccessible(true);
+			for (FieldAccessor f : FieldAccessor.getDeclaredFields(result.getClass())) {
 				if (f.get(expectedResult) != null) {
 					int compareResult = compareFields(f, operator, controlFlag, result, expectedResult);
 					if (compareResult != ResultComparer.RESULT_SUCCESS) {
@@ -195,17 +225,14 @@ public class ResultComparer {
 	 * @param expectedResult
 	 * @return
 	 */
-	private static int compareFields(Field f, String operator, boolean controlFlag, Object result, Object expectedResult) {
+	private static int compareFields(FieldAccessor f, String operator, boolean controlFlag, Object result, Object expectedResult) {
 		//System.out.println("comparing: " + f.getName() + " operator: " + operator  + " result: " + result + " expectedResult: " + expectedResult);
 		
 		int resultOfCompare = ResultComparer.RESULT_SUCCESS;
 		
 		try {
-			//make sure also private fields can be compared:
-			f.setAccessible(true);
-			
 			//check if field is a collection... if true, then it will get a bit complicated here:
-			if (Collection.class.isAssignableFrom(f.getType())) {
+			if (f.isCollection()) {
 				int compareResult = ResultComparer.RESULT_SUCCESS;
 				//for each item on the right side (= expected test result) there must be (at least) one item on the left side (= test result),
 				//that fulfills the requirements of the equation to return TRUE
@@ -261,7 +288,7 @@ public class ResultComparer {
 		}
 		catch (Throwable t) {
 			t.printStackTrace();
-			System.out.println("Field: " + f.toString() + ", " + t.getClass().getCanonicalName() + ": " + t.getLocalizedMessage());
+			System.out.println("Field: " + f.getField().toString() + ", " + t.getClass().getCanonicalName() + ": " + t.getLocalizedMessage());
 			return ResultComparer.RESULT_COULD_NOT_COMPARE;
 		}
 		
@@ -23,7 +23,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import at.alladin.rmbt.db.QoSTestResult.TestType;
-import at.alladin.rmbt.qos.testscript.TestScriptInterpreter;
+import at.alladin.rmbt.qos.testscript.TestScriptCompiler;
 import at.alladin.rmbt.shared.hstoreparser.Hstore;
 
 
@@ -141,7 +141,7 @@ public class ResultDesc implements Comparable<ResultDesc> {
 	}
 	
 	public String getParsedValue() {
-		return (parsedValue != null ? parsedValue : (parsedValue = String.valueOf(TestScriptInterpreter.interprete(value, hstore, resultObject, true, options))));
+		return (parsedValue != null ? parsedValue : (parsedValue = String.valueOf(TestScriptCompiler.execute(value, hstore, resultObject, true, options))));
 	}
 
 	public TestType getTestType() {
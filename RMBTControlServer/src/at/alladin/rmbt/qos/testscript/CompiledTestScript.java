@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.qos.testscript;
+
+import at.alladin.rmbt.qos.AbstractResult;
+import at.alladin.rmbt.qos.ResultOptions;
+import at.alladin.rmbt.shared.hstoreparser.Hstore;
+
+/**
+ * a test script that has been compiled by the {@link TestScriptCompiler}.<br>
+ * Compiled scripts are immutable and can be executed by several threads at the same time.
+ * @author lb
+ *
+ */
+public abstract class CompiledTestScript {
+
+	private final String source;
+
+	/**
+	 *
+	 * @param source
+	 */
+	protected CompiledTestScript(final String source) {
+		this.source = source;
+	}
+
+	/**
+	 * executes the script, the result is the same as the result of
+	 * {@link TestScriptInterpreter#interprete(String, Hstore, AbstractResult, boolean, ResultOptions)}
+	 * @param hstore
+	 * @param object
+	 * @param options
+	 * @return
+	 */
+	public abstract Object execute(Hstore hstore, AbstractResult<?> object, ResultOptions options);
+
+	/**
+	 *
+	 * @param options
+	 * @return
+	 */
+	public Object execute(final ResultOptions options) {
+		return execute(null, null, options);
+	}
+
+	/**
+	 * true if the script always returns the same value
+	 * @return
+	 */
+	public boolean isConstant() {
+		return false;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [source=" + source + "]";
+	}
+}
@@ -0,0 +1,419 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.qos.testscript;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+
+import at.alladin.rmbt.qos.AbstractResult;
+import at.alladin.rmbt.qos.ResultOptions;
+import at.alladin.rmbt.shared.hstoreparser.Hstore;
+
+/**
+ * compiles test scripts into {@link CompiledTestScript}s and caches them.<br>
+ * The built-in commands RANDOM, RANDOMURL and PARAM are parsed once and executed without the script engine,
+ * EVAL scripts are precompiled by the engine (if the engine supports it). Scripts with control commands (IF, SWITCH)
+ * or invalid arguments are passed on to the {@link TestScriptInterpreter}.
+ * @author lb
+ *
+ */
+public class TestScriptCompiler {
+
+	/**
+	 * scripts are not cached any more if the cache has reached this size
+	 */
+	public final static int MAX_CACHE_SIZE = 10000;
+
+	private final static String PERCENT_PLACEHOLDER = "{PERCENT}";
+
+	private final static ConcurrentMap<String, CompiledTestScript> CACHE = new ConcurrentHashMap<>();
+
+	private final static ConcurrentMap<String, CompiledTestScript> RECURSIVE_CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * compiles (or returns the cached) script
+	 * @param command
+	 * @param useRecursion see {@link TestScriptInterpreter#interprete(String, Hstore, AbstractResult, boolean, ResultOptions)}
+	 * @return
+	 */
+	public static CompiledTestScript compile(final String command, final boolean useRecursion) {
+		final ConcurrentMap<String, CompiledTestScript> cache = useRecursion ? RECURSIVE_CACHE : CACHE;
+		CompiledTestScript script = cache.get(command);
+		if (script == null) {
+			script = useRecursion ? compileRecursive(command) : compileCommand(command);
+			if (cache.size() < MAX_CACHE_SIZE) {
+				final CompiledTestScript previous = cache.putIfAbsent(command, script);
+				if (previous != null) {
+					script = previous;
+				}
+			}
+		}
+		return script;
+	}
+
+	/**
+	 * compiles (or uses the cached) script and executes it
+	 * @param command
+	 * @param hstore
+	 * @param object
+	 * @param useRecursion
+	 * @param resultOptions
+	 * @return
+	 */
+	public static Object execute(final String command, final Hstore hstore, final AbstractResult<?> object, final boolean useRecursion, final ResultOptions resultOptions) {
+		return compile(command, useRecursion).execute(hstore, object, resultOptions);
+	}
+
+	/**
+	 *
+	 * @param command
+	 * @param resultOptions
+	 * @return
+	 */
+	public static Object execute(final String command, final ResultOptions resultOptions) {
+		return execute(command, null, null, false, resultOptions);
+	}
+
+	/**
+	 * removes all cached scripts
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+		RECURSIVE_CACHE.clear();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public static int getCacheSize() {
+		return CACHE.size() + RECURSIVE_CACHE.size();
+	}
+
+	/**
+	 * compiles a script that contains (at most) one command
+	 * @param command
+	 * @return
+	 */
+	protected static CompiledTestScript compileCommand(final String command) {
+		final String escaped = command.replace("\\%", PERCENT_PLACEHOLDER);
+		if (TestScriptInterpreter.PATTERN_CONTROL.matcher(escaped).find()) {
+			return new InterpretedScript(command, false);
+		}
+
+		final String unescaped = escaped.replace(PERCENT_PLACEHOLDER, "%");
+		final Matcher m = TestScriptInterpreter.PATTERN_COMMAND.matcher(escaped);
+		if (!m.find()) {
+			return new ConstantScript(command, unescaped);
+		}
+
+		final String scriptCommand = m.group(1);
+		if (TestScriptInterpreter.COMMAND_EVAL.equals(scriptCommand)) {
+			return compileEval(command, m.group(2).trim());
+		}
+
+		final String[] args = m.group(2).trim().split("\\s");
+		try {
+			switch (scriptCommand) {
+			case TestScriptInterpreter.COMMAND_RANDOM:
+				if (args.length == 1) {
+					return new RandomScript(command, 0, Integer.valueOf(args[0]) + 1);
+				}
+				else if (args.length == 2) {
+					final int min = Integer.valueOf(args[0]);
+					return new RandomScript(command, min, Integer.valueOf(args[1]) + 1 - min);
+				}
+				break;
+			case TestScriptInterpreter.COMMAND_RANDOM_URL:
+				if (args.length == 3) {
+					return new RandomUrlScript(command, args[0], args[2], Integer.valueOf(args[1]));
+				}
+				break;
+			case TestScriptInterpreter.COMMAND_PARAM:
+				return new ParamScript(command, args);
+			default:
+				return new ConstantScript(command, unescaped);
+			}
+		}
+		catch (final IllegalArgumentException e) {
+			//bad arguments, the interpreter will report the error on each execution
+		}
+
+		return new InterpretedScript(command, false);
+	}
+
+	/**
+	 * compiles a script that can contain any number of commands
+	 * @param command
+	 * @return
+	 */
+	protected static CompiledTestScript compileRecursive(final String command) {
+		final String escaped = command.replace("\\%", PERCENT_PLACEHOLDER);
+		if (TestScriptInterpreter.PATTERN_CONTROL.matcher(escaped).find()) {
+			return new InterpretedScript(command, true);
+		}
+
+		final List<Object> parts = new ArrayList<>();
+		final List<CompiledTestScript> commandList = new ArrayList<>();
+		final Map<String, Integer> commandIndexMap = new HashMap<>();
+		boolean isConstant = true;
+
+		final Matcher m = TestScriptInterpreter.PATTERN_RECURSIVE_COMMAND.matcher(escaped);
+		int last = 0;
+		while (m.find()) {
+			if (m.start() > last) {
+				parts.add(escaped.substring(last, m.start()).replace(PERCENT_PLACEHOLDER, "%"));
+			}
+
+			//equal commands are only executed once (like the interpreter does)
+			Integer index = commandIndexMap.get(m.group(0));
+			if (index == null) {
+				final CompiledTestScript s = compile(m.group(0), false);
+				isConstant &= s.isConstant();
+				index = commandList.size();
+				commandList.add(s);
+				commandIndexMap.put(m.group(0), index);
+			}
+			parts.add(index);
+			last = m.end();
+		}
+
+		if (last < escaped.length()) {
+			parts.add(escaped.substring(last).replace(PERCENT_PLACEHOLDER, "%"));
+		}
+
+		final CompiledTestScript[] commands = commandList.toArray(new CompiledTestScript[commandList.size()]);
+		final TemplateScript template = new TemplateScript(command, parts.toArray(), commands);
+		if (isConstant) {
+			return new ConstantScript(command, template.execute(null, null, null));
+		}
+		return template;
+	}
+
+	/**
+	 *
+	 * @param command
+	 * @param script
+	 * @return
+	 */
+	protected static CompiledTestScript compileEval(final String command, final String script) {
+		final ScriptEngine engine = TestScriptInterpreter.getJsEngine();
+		if (engine instanceof Compilable) {
+			try {
+				return new EvalScript(command, engine, ((Compilable) engine).compile("var result=null; " + script));
+			}
+			catch (final javax.script.ScriptException e) {
+				//syntax error, the interpreter will report the error on each execution
+			}
+		}
+
+		return new InterpretedScript(command, false);
+	}
+
+	/**
+	 * a script without commands
+	 * @author lb
+	 *
+	 */
+	private static class ConstantScript extends CompiledTestScript {
+		private final Object value;
+
+		ConstantScript(final String source, final Object value) {
+			super(source);
+			this.value = value;
+		}
+
+		@Override
+		public Object execute(final Hstore hstore, final AbstractResult<?> object, final ResultOptions options) {
+			return value;
+		}
+
+		@Override
+		public boolean isConstant() {
+			return true;
+		}
+	}
+
+	/**
+	 * %RANDOM max% or %RANDOM min max%
+	 * @author lb
+	 *
+	 */
+	private static class RandomScript extends CompiledTestScript {
+		private final int min;
+		private final int bound;
+
+		RandomScript(final String source, final int min, final int bound) {
+			super(source);
+			if (bound <= 0) {
+				throw new IllegalArgumentException("bound must be positive");
+			}
+			this.min = min;
+			this.bound = bound;
+		}
+
+		@Override
+		public Object execute(final Hstore hstore, final AbstractResult<?> object, final ResultOptions options) {
+			return ThreadLocalRandom.current().nextInt(bound) + min;
+		}
+	}
+
+	/**
+	 * %RANDOMURL prefix length suffix%
+	 * @author lb
+	 *
+	 */
+	private static class RandomUrlScript extends CompiledTestScript {
+		private final String prefix;
+		private final String suffix;
+		private final int length;
+
+		RandomUrlScript(final String source, final String prefix, final String suffix, final int length) {
+			super(source);
+			this.prefix = prefix;
+			this.suffix = suffix;
+			this.length = length;
+		}
+
+		@Override
+		public Object execute(final Hstore hstore, final AbstractResult<?> object, final ResultOptions options) {
+			return SystemApi.getRandomUrl(prefix, suffix, length);
+		}
+	}
+
+	/**
+	 * %PARAM name [divisor [precision [grouping]]]%
+	 * @author lb
+	 *
+	 */
+	private static class ParamScript extends CompiledTestScript {
+		private final String[] args;
+
+		ParamScript(final String source, final String[] args) {
+			super(source);
+			this.args = args;
+		}
+
+		@Override
+		public Object execute(final Hstore hstore, final AbstractResult<?> object, final ResultOptions options) {
+			try {
+				return TestScriptInterpreter.parse(args, hstore, object, options);
+			}
+			catch (final ScriptException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * %EVAL script%
+	 * @author lb
+	 *
+	 */
+	private static class EvalScript extends CompiledTestScript {
+		private final ScriptEngine engine;
+		private final CompiledScript script;
+
+		EvalScript(final String source, final ScriptEngine engine, final CompiledScript script) {
+			super(source);
+			this.engine = engine;
+			this.script = script;
+		}
+
+		@Override
+		public Object execute(final Hstore hstore, final AbstractResult<?> object, final ResultOptions options) {
+			try {
+				final Bindings bindings = engine.createBindings();
+				bindings.putAll(object.getResultMap());
+				script.eval(bindings);
+				return TestScriptInterpreter.toEvalResult(bindings.get("result"));
+			}
+			catch (final Exception e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * text with embedded commands
+	 * @author lb
+	 *
+	 */
+	private static class TemplateScript extends CompiledTestScript {
+		/**
+		 * literal strings or indexes of the commands
+		 */
+		private final Object[] parts;
+		private final CompiledTestScript[] commands;
+
+		TemplateScript(final String source, final Object[] parts, final CompiledTestScript[] commands) {
+			super(source);
+			this.parts = parts;
+			this.commands = commands;
+		}
+
+		@Override
+		public Object execute(final Hstore hstore, final AbstractResult<?> object, final ResultOptions options) {
+			final String[] values = new String[commands.length];
+			final StringBuilder sb = new StringBuilder();
+			for (final Object part : parts) {
+				if (part instanceof Integer) {
+					final int index = (Integer) part;
+					if (values[index] == null) {
+						values[index] = String.valueOf(commands[index].execute(hstore, object, options));
+					}
+					sb.append(values[index]);
+				}
+				else {
+					sb.append((String) part);
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * fallback for scripts that cannot be compiled
+	 * @author lb
+	 *
+	 */
+	private static class InterpretedScript extends CompiledTestScript {
+		private final boolean useRecursion;
+
+		InterpretedScript(final String source, final boolean useRecursion) {
+			super(source);
+			this.useRecursion = useRecursion;
+		}
+
+		@Override
+		public Object execute(final Hstore hstore, final AbstractResult<?> object, final ResultOptions options) {
+			return TestScriptInterpreter.interprete(getSource(), hstore, object, useRecursion, options);
+		}
+	}
+}
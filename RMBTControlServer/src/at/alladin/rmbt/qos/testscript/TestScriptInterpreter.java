@@ -134,14 +134,7 @@ public class TestScriptInterpreter {
 	 */
 	public static <T> Object interprete(String command, Hstore hstore, AbstractResult<T> object, boolean useRecursion, ResultOptions resultOptions) {
 
-		if (jsEngine == null) {
-			ScriptEngineManager sem = new ScriptEngineManager();
-			jsEngine = sem.getEngineByName("JavaScript");
-			System.out.println("JS Engine: " + jsEngine.getClass().getCanonicalName());
-			Bindings b = jsEngine.createBindings();
-			b.put("nn", new SystemApi());
-			jsEngine.setBindings(b, ScriptContext.GLOBAL_SCOPE);
-		}
+		getJsEngine();
 		
 		command = command.replace("\\%", "{PERCENT}");
 
@@ -235,6 +228,23 @@ public class TestScriptInterpreter {
 		}
 	}
 	
+	/**
+	 * returns the js engine, the engine is created on first use
+	 * @return
+	 */
+	static synchronized ScriptEngine getJsEngine() {
+		if (jsEngine == null) {
+			ScriptEngineManager sem = new ScriptEngineManager();
+			jsEngine = sem.getEngineByName("JavaScript");
+			System.out.println("JS Engine: " + jsEngine.getClass().getCanonicalName());
+			Bindings b = jsEngine.createBindings();
+			b.put("nn", new SystemApi());
+			jsEngine.setBindings(b, ScriptContext.GLOBAL_SCOPE);
+		}
+		
+		return jsEngine;
+	}
+	
 	/**
 	 * 
 	 * @param args
@@ -296,8 +306,6 @@ public class TestScriptInterpreter {
 	 */
 	private static Object eval(String[] args, Hstore hstore, AbstractResult<?> object) throws ScriptException {
 		try {
-			boolean isJsObject = false;
-			
 			final Bindings bindings = jsEngine.createBindings();
 			bindings.putAll(object.getResultMap());
 			//final Bindings bindings = new SimpleBindings(object.getResultMap());
@@ -305,53 +313,63 @@ public class TestScriptInterpreter {
 			//System.out.println(object.getResultMap().toString());
 			jsEngine.eval("var result=null; " + args[0], bindings);
 			
-			EvalResult evalResult = null;
-			final Object result = bindings.get("result");
-			
-			if (result != null) {
-				if (jsEngine.getClass().getCanonicalName().equals("jdk.nashorn.api.scripting.NashornScriptEngine")) {
-					if (result.getClass().getCanonicalName().equals("jdk.nashorn.api.scripting.ScriptObjectMirror")) {
-						isJsObject = true;
-					}
+			return toEvalResult(bindings.get("result"));
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new ScriptException(e.getMessage() + " " + args[0]);
+		}
+	}
+	
+	/**
+	 * converts the "result" variable of an EVAL script
+	 * @param result
+	 * @return an {@link EvalResult} if the script returned a js object, otherwise the result itself or an empty string
+	 * @throws Exception
+	 */
+	static Object toEvalResult(final Object result) throws Exception {
+		boolean isJsObject = false;
+		EvalResult evalResult = null;
+		
+		if (result != null) {
+			if (jsEngine.getClass().getCanonicalName().equals("jdk.nashorn.api.scripting.NashornScriptEngine")) {
+				if (result.getClass().getCanonicalName().equals("jdk.nashorn.api.scripting.ScriptObjectMirror")) {
+					isJsObject = true;
 				}
-				else {
-					if (result.getClass().getCanonicalName().equals("sun.org.mozilla.javascript.NativeObject") 
-							|| result.getClass().getCanonicalName().equals("sun.org.mozilla.javascript.internal.NativeObject")) {
-						isJsObject = true;
-					}
+			}
+			else {
+				if (result.getClass().getCanonicalName().equals("sun.org.mozilla.javascript.NativeObject") 
+						|| result.getClass().getCanonicalName().equals("sun.org.mozilla.javascript.internal.NativeObject")) {
+					isJsObject = true;
 				}
 			}
-			
-			if (isJsObject) {
-				if (!alredayLookedForGetter && jsEngineNativeObjectGetter == null) {
-					alredayLookedForGetter = true;
-					System.out.println("js getter is null, trying to get methody with reflections...");
-					try {
-						jsEngineNativeObjectGetter = result.getClass().getMethod("get", Object.class);
-						System.out.println("method found: " + jsEngineNativeObjectGetter.getName());						
-					}
-					catch (Exception e) {
-						System.out.println("method not found: " + e.getMessage());
-					}
+		}
+		
+		if (isJsObject) {
+			if (!alredayLookedForGetter && jsEngineNativeObjectGetter == null) {
+				alredayLookedForGetter = true;
+				System.out.println("js getter is null, trying to get methody with reflections...");
+				try {
+					jsEngineNativeObjectGetter = result.getClass().getMethod("get", Object.class);
+					System.out.println("method found: " + jsEngineNativeObjectGetter.getName());						
 				}
-				
-				if (jsEngineNativeObjectGetter != null) {
-					final String type = (String) jsEngineNativeObjectGetter.invoke(result, "type");
-					final String key = (String) jsEngineNativeObjectGetter.invoke(result, "key");
-					
-					System.out.println(type + " " + key);
-					
-					evalResult = new EvalResult(EvalResultType.valueOf(type.toUpperCase(Locale.US)), key);
-					
-					//System.out.println("Result: " + evalResult);
+				catch (Exception e) {
+					System.out.println("method not found: " + e.getMessage());
 				}
 			}
 			
-			return evalResult == null ? (result == null ? "" : result) : evalResult;
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new ScriptException(e.getMessage() + " " + args[0]);
+			if (jsEngineNativeObjectGetter != null) {
+				final String type = (String) jsEngineNativeObjectGetter.invoke(result, "type");
+				final String key = (String) jsEngineNativeObjectGetter.invoke(result, "key");
+				
+				System.out.println(type + " " + key);
+				
+				evalResult = new EvalResult(EvalResultType.valueOf(type.toUpperCase(Locale.US)), key);
+				
+				//System.out.println("Result: " + evalResult);
+			}
 		}
+		
+		return evalResult == null ? (result == null ? "" : result) : evalResult;
 	}
 	
 	/**
@@ -360,7 +378,7 @@ public class TestScriptInterpreter {
 	 * @return
 	 * @throws ScriptException
 	 */
-	private static Object parse(String[] args, Hstore hstore, Object object, ResultOptions options) throws ScriptException {
+	static Object parse(String[] args, Hstore hstore, Object object, ResultOptions options) throws ScriptException {
 
 		if (object == null) {
 			throw new ScriptException(ScriptException.ERROR_RESULT_IS_NULL + " PARSE");
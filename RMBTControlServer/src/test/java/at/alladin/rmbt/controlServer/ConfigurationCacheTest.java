@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import at.alladin.rmbt.controlServer.ConfigurationCache.NewsItem;
+import at.alladin.rmbt.controlServer.ConfigurationCache.Snapshot;
+import at.alladin.rmbt.controlServer.ConfigurationCache.TestServer;
+import at.alladin.rmbt.db.QoSTestTypeDesc;
+
+public class ConfigurationCacheTest {
+
+	private static NewsItem news(long uid, boolean force, String plattform, Integer max, Integer min, String uuid) {
+		return new NewsItem(uid, "title " + uid, "Titel " + uid, "text " + uid, "Text " + uid, force, plattform, max, min, uuid);
+	}
+
+	private static Snapshot snapshot(Map<String, Map<String, String>> settings, List<NewsItem> news) {
+		return new Snapshot(1, "fingerprint", 0, settings, news, Collections.<TestServer>emptyList(),
+				Collections.<String, List<QoSTestTypeDesc>>emptyMap());
+	}
+
+	private static List<Long> getUids(List<NewsItem> news) {
+		final List<Long> uids = new ArrayList<>();
+		for (NewsItem item : news) {
+			uids.add(item.getUid());
+		}
+		return uids;
+	}
+
+	@Test
+	public void testNewsPlattformAndUuid() {
+		// null matches every plattform and client
+		final NewsItem all = news(10, false, null, null, null, null);
+		assertTrue(all.matches(0, "Android", 20000, "uuid-a"));
+		assertTrue(all.matches(0, null, 20000, null));
+
+		final NewsItem android = news(10, false, "Android", null, null, null);
+		assertTrue(android.matches(0, "Android", 20000, "uuid-a"));
+		assertFalse(android.matches(0, "iOS", 20000, "uuid-a"));
+		assertFalse(android.matches(0, null, 20000, "uuid-a"));
+
+		final NewsItem client = news(10, false, null, null, null, "uuid-a");
+		assertTrue(client.matches(0, "Android", 20000, "uuid-a"));
+		assertFalse(client.matches(0, "Android", 20000, "uuid-b"));
+		assertFalse(client.matches(0, "Android", 20000, null));
+	}
+
+	@Test
+	public void testNewsUidAndVersion() {
+		final NewsItem item = news(10, false, null, 20000, 10000, null);
+		assertTrue(item.matches(9, "Android", 15000, null));
+		assertFalse(item.matches(10, "Android", 15000, null));
+		// bounds are inclusive
+		assertTrue(item.matches(0, "Android", 20000, null));
+		assertTrue(item.matches(0, "Android", 10000, null));
+		assertFalse(item.matches(0, "Android", 20001, null));
+		assertFalse(item.matches(0, "Android", 9999, null));
+
+		// forced news are sent again
+		assertTrue(news(10, true, null, null, null, null).matches(10, "Android", 15000, null));
+	}
+
+	@Test
+	public void testGetNews() {
+		final Snapshot snapshot = snapshot(new HashMap<String, Map<String, String>>(), Arrays.asList(
+				news(1, false, null, null, null, null),
+				news(2, false, "iOS", null, null, null),
+				news(3, true, "Android", null, null, null),
+				news(4, false, null, null, 30000, null)));
+		assertEquals(Arrays.asList(3L), getUids(snapshot.getNews(3, "Android", 20000, "uuid-a")));
+		assertEquals(Arrays.asList(1L, 3L), getUids(snapshot.getNews(0, "Android", 20000, "uuid-a")));
+		assertEquals(Arrays.asList(1L, 2L, 4L), getUids(snapshot.getNews(0, "iOS", 30000, "uuid-a")));
+	}
+
+	@Test
+	public void testGetSetting() {
+		final Map<String, Map<String, String>> settings = new HashMap<>();
+		Snapshot.addSetting(settings, "tc_url", null, "https://example.com/tc");
+		Snapshot.addSetting(settings, "tc_url", "de ", "https://example.com/agb");
+		Snapshot.addSetting(settings, "tc_version", "en", "3");
+		// the first value of a language is kept
+		Snapshot.addSetting(settings, "tc_url", "de", "https://example.com/other");
+		final Snapshot snapshot = snapshot(settings, Collections.<NewsItem>emptyList());
+
+		assertEquals("https://example.com/agb", snapshot.getSetting("tc_url", "de"));
+		// languages without a value fall back to the value without language
+		assertEquals("https://example.com/tc", snapshot.getSetting("tc_url", "en"));
+		assertEquals("https://example.com/tc", snapshot.getSetting("tc_url", null));
+		assertEquals("3", snapshot.getSetting("tc_version", "en"));
+		assertNull(snapshot.getSetting("tc_version", "de"));
+		assertNull(snapshot.getSetting("unknown", "de"));
+	}
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Path2D;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import at.alladin.rmbt.shared.geo.Polygon;
+import at.alladin.rmbt.shared.geo.WktReader;
+
+public class CountryPolygonIndexTest {
+
+	public final static String COUNTRIES = "at/alladin/rmbt/controlServer/countries.wkt";
+
+	private static CountryPolygonIndex index;
+
+	/**
+	 * reference geometries: country code -&gt; even-odd path of all polygons
+	 */
+	private static Map<String, Path2D> reference;
+
+	private static Reader openCountries() throws Exception {
+		return new InputStreamReader(CountryPolygonIndexTest.class.getClassLoader().getResourceAsStream(COUNTRIES), "UTF-8");
+	}
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		try (Reader reader = openCountries()) {
+			index = CountryPolygonIndex.load(reader);
+		}
+
+		reference = new LinkedHashMap<>();
+		try (BufferedReader reader = new BufferedReader(openCountries())) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				final String[] s = line.split(";");
+				final Path2D path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+				for (Polygon p : WktReader.readPolygons(s[1])) {
+					for (double[] ring : p.getRings()) {
+						path.moveTo(ring[0], ring[1]);
+						for (int i = 2; i < ring.length; i += 2) {
+							path.lineTo(ring[i], ring[i + 1]);
+						}
+						path.closePath();
+					}
+				}
+				reference.put(s[0], path);
+			}
+		}
+	}
+
+	/**
+	 * the home country answer of the former st_contains query: true if the country is unknown
+	 */
+	private static boolean expectedHomeCountry(String countryCode, double lat, double lon) {
+		final Path2D path = reference.get(countryCode);
+		if (path == null) {
+			return true;
+		}
+		return path.contains(CountryPolygonIndex.lonToMeters(lon), CountryPolygonIndex.latToMeters(lat));
+	}
+
+	private static boolean homeCountry(String countryCode, double lat, double lon) {
+		final Boolean contains = index.contains(countryCode, lat, lon);
+		return contains != null ? contains : true;
+	}
+
+	@Test
+	public void testKnownLocations() {
+		//Vienna
+		assertTrue(index.contains("AT", 48.2082, 16.3738));
+		assertFalse(index.contains("DE", 48.2082, 16.3738));
+		//Munich
+		assertTrue(index.contains("DE", 48.1351, 11.5820));
+		assertFalse(index.contains("AT", 48.1351, 11.5820));
+		//Rome, Vatican, San Marino, Palermo (2nd polygon), Cagliari (3rd polygon)
+		assertTrue(index.contains("IT", 41.8919, 12.5113));
+		assertFalse(index.contains("IT", 41.9029, 12.4534));
+		assertTrue(index.contains("VA", 41.9029, 12.4534));
+		assertFalse(index.contains("IT", 43.9424, 12.4578));
+		assertTrue(index.contains("SM", 43.9424, 12.4578));
+		assertTrue(index.contains("IT", 38.1157, 13.3615));
+		assertTrue(index.contains("IT", 39.2238, 9.1217));
+		//Maseru: Lesotho is a hole of South Africa
+		assertFalse(index.contains("ZA", -29.3, 27.9));
+		assertTrue(index.contains("LS", -29.3, 27.9));
+		assertTrue(index.contains("ZA", -26.2041, 28.0473));
+		//empty geometry
+		assertFalse(index.contains("AQ", -80, 0));
+	}
+
+	@Test
+	public void testUnknownCountry() {
+		assertNull(index.contains("XX", 48.2082, 16.3738));
+		assertNull(index.contains("", 48.2082, 16.3738));
+		assertTrue(homeCountry("XX", 48.2082, 16.3738));
+		assertTrue(index.hasCountry("AT"));
+		assertFalse(index.hasCountry("XX"));
+	}
+
+	@Test
+	public void testGrid() {
+		final String[] countryCodes = {"AT", "DE", "IT", "SM", "VA", "ZA", "LS", "AQ", "XX"};
+		int points = 0;
+		int inside = 0;
+		for (double lat = -40; lat <= 56; lat += 0.1) {
+			for (double lon = 4; lon <= 34; lon += 0.1) {
+				for (String countryCode : countryCodes) {
+					final boolean expected = expectedHomeCountry(countryCode, lat, lon);
+					assertEquals(countryCode + " " + lat + "/" + lon, expected, homeCountry(countryCode, lat, lon));
+					if (expected && reference.containsKey(countryCode)) {
+						inside++;
+					}
+					points++;
+				}
+			}
+		}
+		assertTrue("inside: " + inside + " of " + points, inside > 10000);
+	}
+
+	@Test
+	public void testGridNearBorders() {
+		//dense grid around the Vatican and San Marino holes
+		for (double lat = 41.89; lat <= 41.91; lat += 0.0005) {
+			for (double lon = 12.44; lon <= 12.47; lon += 0.0005) {
+				assertEquals(expectedHomeCountry("IT", lat, lon), homeCountry("IT", lat, lon));
+				assertEquals(expectedHomeCountry("VA", lat, lon), homeCountry("VA", lat, lon));
+			}
+		}
+		for (double lat = 43.85; lat <= 44.03; lat += 0.002) {
+			for (double lon = 12.35; lon <= 12.57; lon += 0.002) {
+				assertEquals(expectedHomeCountry("IT", lat, lon), homeCountry("IT", lat, lon));
+				assertEquals(expectedHomeCountry("SM", lat, lon), homeCountry("SM", lat, lon));
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import at.alladin.rmbt.db.QoSTestObjective;
+import at.alladin.rmbt.db.QoSTestResult;
+import at.alladin.rmbt.db.dao.QoSTestResultDao;
+import at.alladin.rmbt.qos.ResultOptions;
+
+public class QualityOfServiceResultResourceTest {
+
+	private final static String TCP_EXPECTED = "[{\"operator\": \"eq\", \"tcp_result_out\": \"OK\", \"on_success\": \"tcp.out.success\", \"on_failure\": \"tcp.out.failure\"},"
+			+ " {\"operator\": \"eq\", \"tcp_result_out_response\": \"PING\", \"on_success\": \"tcp.out.response.success\", \"on_failure\": \"tcp.out.response.failure\"}]";
+
+	private static QoSTestObjective objective(int uid, String testType) {
+		final QoSTestObjective objective = new QoSTestObjective();
+		objective.setUid(uid);
+		objective.setTestType(testType);
+		objective.setResults(TCP_EXPECTED);
+		return objective;
+	}
+
+	private static QoSTestResult result(long objectiveId, JSONObject resultJson) {
+		final QoSTestResult result = new QoSTestResult();
+		result.setTestUid(42L);
+		result.setQoSTestObjectiveId(objectiveId);
+		result.setTestType("tcp");
+		result.setResults(resultJson.toString());
+		return result;
+	}
+
+	/**
+	 * a connection whose prepared statements record the parameters of each batch entry
+	 */
+	private static Connection recordingConnection(final List<List<Object>> rows) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (!"prepareStatement".equals(method.getName())) {
+					return null;
+				}
+				final List<Object> params = new ArrayList<>();
+				return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						final String name = method.getName();
+						if (name.startsWith("set") && args != null && args.length == 2) {
+							params.add(args[1]);
+						}
+						else if ("addBatch".equals(name)) {
+							rows.add(new ArrayList<>(params));
+							params.clear();
+						}
+						else if ("executeBatch".equals(name)) {
+							return new int[0];
+						}
+						return null;
+					}
+				});
+			}
+		});
+	}
+
+	@Test
+	public void testFailedEvaluationKeepsResults() throws Exception {
+		final JSONObject ok = new JSONObject("{\"tcp_result_out\": \"OK\", \"tcp_objective_out_port\": \"33194\", \"tcp_result_out_response\": \"PING\"}");
+		final JSONObject badValue = new JSONObject("{\"tcp_result_out\": \"OK\", \"tcp_objective_out_port\": \"not a port\", \"tcp_result_out_response\": \"PING\"}");
+
+		final Map<Long, QoSTestObjective> objectives = new HashMap<>();
+		objectives.put(1L, objective(1, "tcp"));
+		objectives.put(2L, objective(2, "no_such_test"));
+
+		// unknown test type, valid result, malformed value, unknown objective
+		final List<QoSTestResult> results = Arrays.asList(result(2, ok), result(1, ok), result(1, badValue), result(3, ok));
+		QualityOfServiceResultResource.evaluate(results, Arrays.asList(ok, ok, badValue, ok), objectives, new ResultOptions(Locale.ENGLISH));
+
+		assertEquals(0, results.get(0).getSuccessCounter() + results.get(0).getFailureCounter());
+		assertEquals(2, results.get(1).getSuccessCounter());
+		assertEquals(0, results.get(1).getFailureCounter());
+		assertEquals(0, results.get(2).getSuccessCounter() + results.get(2).getFailureCounter());
+		assertEquals(0, results.get(3).getSuccessCounter() + results.get(3).getFailureCounter());
+
+		// all results are stored, each with its counters
+		final List<List<Object>> rows = new ArrayList<>();
+		new QoSTestResultDao(recordingConnection(rows)).saveAll(results);
+		assertEquals(4, rows.size());
+		for (int i = 0; i < rows.size(); i++) {
+			final List<Object> row = rows.get(i);
+			assertEquals(results.get(i).getQoSTestObjectiveId(), row.get(2));
+			assertEquals(results.get(i).getSuccessCounter(), row.get(3));
+		}
+		assertTrue(rows.get(1).get(1).toString().contains("PING"));
+	}
+}
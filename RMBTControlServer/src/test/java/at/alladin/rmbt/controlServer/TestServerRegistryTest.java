@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import at.alladin.rmbt.controlServer.TestServerRegistry.Server;
+
+public class TestServerRegistryTest {
+
+	/**
+	 * chi-square critical value for 3 degrees of freedom and p = 0.001
+	 */
+	private final static double CHI_SQUARE_3_0001 = 16.266;
+
+	private static Server server(int id, int priority, int weight, String... countries) {
+		return new Server(id, "uuid-" + id, "server " + id, "city", "address", "ipv4", "ipv6", 5233, 443, "key",
+				"RMBT", priority, weight, new HashSet<>(Arrays.asList(countries)));
+	}
+
+	/**
+	 * probability that a server wins the former <code>ORDER BY random() * weight DESC</code>:
+	 * P(i) = integral over u in [0,1] of the product of min(1, u * w_i / w_j) for all j != i
+	 * @param weights
+	 * @return
+	 */
+	private static double[] expectedProbabilities(int[] weights) {
+		final int steps = 100000;
+		final double[] p = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			double sum = 0;
+			for (int k = 0; k < steps; k++) {
+				final double u = (k + 0.5) / steps;
+				double product = 1;
+				for (int j = 0; j < weights.length; j++) {
+					if (j != i) {
+						product *= Math.min(1, u * weights[i] / weights[j]);
+					}
+				}
+				sum += product;
+			}
+			p[i] = sum / steps;
+		}
+		return p;
+	}
+
+	private static double chiSquare(int[] observed, double[] p, int n) {
+		double chiSquare = 0;
+		for (int i = 0; i < observed.length; i++) {
+			final double expected = p[i] * n;
+			chiSquare += (observed[i] - expected) * (observed[i] - expected) / expected;
+		}
+		return chiSquare;
+	}
+
+	@Test
+	public void testPreference() {
+		final Server any = server(1, 0, 1, "any");
+		final Server at = server(2, 1, 1, "AT");
+		final Server atPriority = server(3, 0, 1, "AT", "any");
+		final Server de = server(4, 0, 100, "DE");
+		final List<Server> servers = Arrays.asList(any, at, atPriority, de);
+		final Random random = new Random(1);
+
+		for (int i = 0; i < 100; i++) {
+			//country specific servers first, then by priority
+			assertEquals(atPriority, TestServerRegistry.select(servers, "AT", random));
+			//servers with "any" in their country list are country specific if they list other countries too
+			assertEquals(atPriority, TestServerRegistry.select(servers, "CH", random));
+			//same preference: random by weight
+			final Server selected = TestServerRegistry.select(servers, "DE", random);
+			assertTrue(selected == de || selected == atPriority);
+			assertEquals(atPriority, TestServerRegistry.select(servers, null, random));
+		}
+
+		assertEquals(any, TestServerRegistry.select(Arrays.asList(any, at, de), "CH", random));
+		assertEquals(at, TestServerRegistry.select(Arrays.asList(any, at, de), "AT", random));
+		assertNull(TestServerRegistry.select(Arrays.asList(at, de), "CH", random));
+		assertNull(TestServerRegistry.select(Arrays.asList(at, de), null, random));
+		assertNull(TestServerRegistry.select(new ArrayList<Server>(), "AT", random));
+	}
+
+	@Test
+	public void testWeightedDistribution() {
+		final int[] weights = {1, 2, 3, 4};
+		final List<Server> servers = new ArrayList<>();
+		for (int i = 0; i < weights.length; i++) {
+			servers.add(server(i, 0, weights[i], "any"));
+		}
+		//a server with a lower preference must never be chosen
+		servers.add(server(weights.length, 1, 1000, "any"));
+
+		final int n = 200000;
+		final int[] observed = new int[weights.length];
+		final Random random = new Random(42);
+		for (int i = 0; i < n; i++) {
+			observed[TestServerRegistry.select(servers, "AT", random).getId()]++;
+		}
+
+		final double[] p = expectedProbabilities(weights);
+		double sum = 0;
+		for (double v : p) {
+			sum += v;
+		}
+		assertEquals(1, sum, 1e-6);
+
+		final double chiSquare = chiSquare(observed, p, n);
+		assertTrue("chi-square: " + chiSquare + " observed: " + Arrays.toString(observed), chiSquare < CHI_SQUARE_3_0001);
+
+		//the test is able to detect a different distribution, e.g. proportional to the weights
+		final double chiSquareProportional = chiSquare(observed, new double[] {0.1, 0.2, 0.3, 0.4}, n);
+		assertTrue("chi-square (proportional): " + chiSquareProportional, chiSquareProportional > 100 * CHI_SQUARE_3_0001);
+	}
+
+	@Test
+	public void testEqualWeights() {
+		final List<Server> servers = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			servers.add(server(i, 0, 1, "AT"));
+		}
+
+		final int n = 100000;
+		final int[] observed = new int[4];
+		final Random random = new Random(7);
+		for (int i = 0; i < n; i++) {
+			observed[TestServerRegistry.select(servers, "AT", random).getId()]++;
+		}
+
+		final double chiSquare = chiSquare(observed, new double[] {0.25, 0.25, 0.25, 0.25}, n);
+		assertTrue("chi-square: " + chiSquare + " observed: " + Arrays.toString(observed), chiSquare < CHI_SQUARE_3_0001);
+	}
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestSlotSchedulerTest {
+
+	@Test
+	public void testSlotsPerServer() {
+		final TestSlotScheduler scheduler = new TestSlotScheduler();
+		final int now = 1000;
+		for (int i = 0; i < 3 * TestSlotScheduler.TESTS_PER_SLOT; i++) {
+			//the first slot is one second ago
+			assertEquals(now - 1 + i / TestSlotScheduler.TESTS_PER_SLOT, scheduler.nextSlot(1, now));
+		}
+		//other servers have their own slots
+		assertEquals(now - 1, scheduler.nextSlot(2, now));
+
+		//past slots are not used
+		assertEquals(now + 2, scheduler.nextSlot(1, now + 2));
+		assertEquals(now + 9, scheduler.nextSlot(1, now + 10));
+	}
+
+	@Test
+	public void testMerge() {
+		final TestSlotScheduler scheduler = new TestSlotScheduler();
+		final int now = 1000;
+		//slots used by other control servers
+		scheduler.merge(1, now - 1, TestSlotScheduler.TESTS_PER_SLOT);
+		scheduler.merge(1, now, 3);
+		assertEquals(now, scheduler.nextSlot(1, now));
+		assertEquals(now, scheduler.nextSlot(1, now));
+		assertEquals(now + 1, scheduler.nextSlot(1, now));
+
+		//the higher count is kept
+		scheduler.merge(1, now + 1, 0);
+		for (int i = 1; i < TestSlotScheduler.TESTS_PER_SLOT; i++) {
+			assertEquals(now + 1, scheduler.nextSlot(1, now));
+		}
+		assertEquals(now + 2, scheduler.nextSlot(1, now));
+	}
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+	@Test
+	public void testRequest() throws Exception {
+		final RouteMetrics route = MetricsRegistry.getInstance().getRoute("/test\"route");
+		RequestMetrics.begin(route);
+		RequestMetrics.addDbTime(3000000);
+		RequestMetrics.addDbTime(2000000);
+		RequestMetrics.addConnectionWait(1000000);
+		RequestMetrics.countError("ERROR_DB_CONNECTION");
+		RequestMetrics.end(500);
+		// not measured
+		RequestMetrics.end(200);
+
+		assertEquals(1, route.getDuration().getCount());
+		assertEquals(5000, route.getDbTime().getSum());
+		assertEquals(1000, route.getConnectionWait().getSum());
+		assertEquals(Long.valueOf(1), route.getStatusCounts().get(500));
+		assertEquals(1, route.getStatusCounts().size());
+		assertEquals(Long.valueOf(1), route.getErrorCounts().get("ERROR_DB_CONNECTION"));
+
+		final String text = MetricsRegistry.getInstance().toPrometheus();
+		assertTrue(text.contains("rmbt_control_request_db_seconds_sum{route=\"/test\\\"route\"} 0.005000\n"));
+		assertTrue(text.contains("rmbt_control_responses_total{route=\"/test\\\"route\",status=\"500\"} 1\n"));
+		assertTrue(text.contains("rmbt_control_errors_total{route=\"/test\\\"route\",error=\"ERROR_DB_CONNECTION\"} 1\n"));
+
+		final JSONObject json = MetricsRegistry.getInstance().toJson().getJSONObject("routes").getJSONObject("/test\"route");
+		assertEquals(1, json.getLong("requests"));
+		assertEquals(5, json.getJSONObject("db_ms").getDouble("max"), 0.2);
+	}
+
+	@Test
+	public void testErrorOutsideOfRequest() {
+		RequestMetrics.countError("ERROR_OUTSIDE");
+		assertEquals(Long.valueOf(1), MetricsRegistry.getInstance().getRoute(MetricsRegistry.NO_ROUTE).getErrorCounts().get("ERROR_OUTSIDE"));
+	}
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer.server;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * load benchmark of the {@link ProxyEchoService}: measures the cpu time of the service thread while idle (with and without
+ * pending requests) and the latency percentiles (from the connection until the answer has been received) of echo requests
+ * at a high connection rate.<br>
+ * The log output of the service is discarded, the ports 20000-32000 must be free.<br>
+ * Usage: <code>java at.alladin.rmbt.controlServer.server.ProxyEchoServiceLoadBenchmark [client threads] [seconds of load]</code>
+ * @author lb
+ *
+ */
+public class ProxyEchoServiceLoadBenchmark {
+
+	/**
+	 * the echo ports are taken from this range, below the ephemeral ports used by the client sockets
+	 */
+	private final static int PORT_RANGE_START = 20000;
+
+	private final static int PORTS_PER_CLIENT = 256;
+
+	private final static ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private static long cpuTimeMs(Thread thread) {
+		return TimeUnit.NANOSECONDS.toMillis(THREADS.getThreadCpuTime(thread.getId()));
+	}
+
+	private static void idle(PrintStream out, ProxyEchoService service, String name, long durationMs) throws Exception {
+		final long cpuStart = cpuTimeMs(service);
+		Thread.sleep(durationMs);
+		final long cpu = cpuTimeMs(service) - cpuStart;
+		out.println(String.format(Locale.US, "%-40s cpu: %5d ms in %d ms (%.2f%% of a core)",
+				name, cpu, durationMs, 100.0 * cpu / durationMs));
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		final int durationSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		if (clients * PORTS_PER_CLIENT > 12000) {
+			throw new IllegalArgumentException("max. " + (12000 / PORTS_PER_CLIENT) + " clients");
+		}
+
+		//the log output of the service is discarded
+		final PrintStream out = System.out;
+		final PrintStream discard = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		System.setOut(discard);
+		System.setErr(discard);
+
+		final ProxyEchoService service = new ProxyEchoService();
+		Thread.sleep(500);
+
+		//idle
+		idle(out, service, "idle", 3000);
+
+		//idle with pending requests: the ports are open, but nobody connects
+		final int pendingCount = 500;
+		final List<Future<ProxyEchoResult>> pending = new ArrayList<>();
+		for (int i = 0; i < pendingCount; i++) {
+			pending.add(service.listen(new ProxyEchoRequest(PORT_RANGE_START + i, 60000, null)));
+		}
+		Thread.sleep(500);
+		idle(out, service, "idle, " + service.getConnectionCount() + " pending requests", 3000);
+		service.terminate();
+		service.join();
+		for (Future<ProxyEchoResult> f : pending) {
+			f.get();
+		}
+
+		//load
+		final ProxyEchoService loadService = new ProxyEchoService();
+		final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+		final long[][] latencies = new long[clients][];
+		final int[] counts = new int[clients];
+		final AtomicInteger failures = new AtomicInteger();
+		final List<Thread> threads = new ArrayList<>();
+		final long cpuStart = cpuTimeMs(loadService);
+		final long start = System.nanoTime();
+		for (int i = 0; i < clients; i++) {
+			final int client = i;
+			final long[] clientLatencies = new long[100000];
+			latencies[i] = clientLatencies;
+			final Thread t = new Thread() {
+				@Override
+				public void run() {
+					int n = 0;
+					while (System.nanoTime() < end && n < clientLatencies.length) {
+						try {
+							final int port = PORT_RANGE_START + client * PORTS_PER_CLIENT + n % PORTS_PER_CLIENT;
+							final String message = "probe " + port;
+							final Future<ProxyEchoResult> result = loadService.listen(new ProxyEchoRequest(port, 5000, null));
+							try (Socket socket = connect(port)) {
+								//latency of the echo, from the connection until the answer has been received
+								final long t0 = System.nanoTime();
+								socket.getOutputStream().write(message.getBytes());
+								final String answer = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+								final long latency = System.nanoTime() - t0;
+								if (!message.equals(answer) || !result.get().isSuccess()) {
+									failures.incrementAndGet();
+								}
+								else {
+									clientLatencies[n++] = latency;
+								}
+							}
+						}
+						catch (Exception e) {
+							failures.incrementAndGet();
+						}
+					}
+					counts[client] = n;
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		final long cpu = cpuTimeMs(loadService) - cpuStart;
+
+		int count = 0;
+		for (int n : counts) {
+			count += n;
+		}
+		final long[] all = new long[count];
+		int pos = 0;
+		for (int i = 0; i < clients; i++) {
+			System.arraycopy(latencies[i], 0, all, pos, counts[i]);
+			pos += counts[i];
+		}
+		Arrays.sort(all);
+
+		out.println(String.format(Locale.US, "%-40s %d requests in %d ms (%.0f/s), %d failures",
+				"load, " + clients + " clients", count, elapsedMs, 1000.0 * count / elapsedMs, failures.get()));
+		out.println(String.format(Locale.US, "%-40s cpu: %5d ms (%.2f%% of a core, %.1f us per request)",
+				"", cpu, 100.0 * cpu / elapsedMs, 1000.0 * cpu / Math.max(1, count)));
+		if (count > 0) {
+			out.println(String.format(Locale.US, "%-40s latency p50: %.2f ms, p90: %.2f ms, p99: %.2f ms, max: %.2f ms",
+					"", percentile(all, 50), percentile(all, 90), percentile(all, 99), all[all.length - 1] / 1e6));
+		}
+
+		loadService.terminate();
+		loadService.join();
+		ProxyEchoService.getInstance().terminate();
+	}
+
+	/**
+	 * connects to a port, the port is opened asynchronously by the service
+	 * @param port
+	 * @return
+	 * @throws Exception
+	 */
+	private static Socket connect(int port) throws Exception {
+		while (true) {
+			final Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+				socket.setSoTimeout(5000);
+				return socket;
+			}
+			catch (ConnectException e) {
+				socket.close();
+				Thread.yield();
+			}
+		}
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		final int index = (int) Math.min(sorted.length - 1, Math.ceil(p / 100 * sorted.length) - 1);
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+}
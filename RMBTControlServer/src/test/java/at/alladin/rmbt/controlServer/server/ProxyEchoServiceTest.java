@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.controlServer.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProxyEchoServiceTest {
+
+	private ProxyEchoService service;
+
+	@Before
+	public void setUp() {
+		service = new ProxyEchoService();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		service.terminate();
+		service.join(5000);
+	}
+
+	static int freePort() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * connects to the echo server and sends a message
+	 * @param port
+	 * @param message
+	 * @return the answer
+	 * @throws Exception
+	 */
+	static String echo(int port, String message) throws Exception {
+		Exception lastException = null;
+		//the port is opened asynchronously
+		for (int i = 0; i < 1000; i++) {
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+				socket.setSoTimeout(5000);
+				final OutputStream out = socket.getOutputStream();
+				out.write(message.getBytes());
+				out.flush();
+				return new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+			}
+			catch (java.net.ConnectException e) {
+				lastException = e;
+				Thread.sleep(1);
+			}
+		}
+		throw lastException;
+	}
+
+	@Test
+	public void testEcho() throws Exception {
+		final int port = freePort();
+		final Future<ProxyEchoResult> future = service.listen(new ProxyEchoRequest(port, 5000, null));
+		assertEquals("GET / HTTP/1.1", echo(port, "GET / HTTP/1.1"));
+
+		final ProxyEchoResult result = future.get(5, TimeUnit.SECONDS);
+		assertTrue(result.isSuccess());
+		assertEquals("GET / HTTP/1.1", result.getMessage());
+		assertEquals(0, service.getConnectionCount());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		final long start = System.nanoTime();
+		final Future<ProxyEchoResult> future = service.listen(new ProxyEchoRequest(freePort(), 200, null));
+		assertFalse(future.get(5, TimeUnit.SECONDS).isSuccess());
+		final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("duration: " + duration, duration >= 190 && duration < 2000);
+	}
+
+	@Test
+	public void testConnectionWithoutMessage() throws Exception {
+		final int port = freePort();
+		final Future<ProxyEchoResult> future = service.listen(new ProxyEchoRequest(port, 300, null));
+		Thread.sleep(100);
+		try (Socket socket = new Socket("127.0.0.1", port)) {
+			//the connection has its own deadline
+			assertFalse(future.get(5, TimeUnit.SECONDS).isSuccess());
+			assertEquals(-1, socket.getInputStream().read());
+		}
+	}
+
+	@Test
+	public void testPortInUse() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			final Future<ProxyEchoResult> future = service.listen(new ProxyEchoRequest(socket.getLocalPort(), 5000, null));
+			assertFalse(future.get(5, TimeUnit.SECONDS).isSuccess());
+		}
+	}
+
+	@Test
+	public void testTerminate() throws Exception {
+		final Future<ProxyEchoResult> future = service.listen(new ProxyEchoRequest(freePort(), 0, null));
+		Thread.sleep(100);
+		service.terminate();
+		assertFalse(future.get(5, TimeUnit.SECONDS).isSuccess());
+		assertFalse(service.listen(new ProxyEchoRequest(freePort(), 0, null)).get(5, TimeUnit.SECONDS).isSuccess());
+	}
+}
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.qos;
+
+import java.io.FileReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import at.alladin.rmbt.db.QoSTestResult.TestType;
+import at.alladin.rmbt.shared.hstoreparser.FieldAccessor;
+import at.alladin.rmbt.shared.hstoreparser.HstoreParser;
+
+/**
+ * measures the evaluation of recorded qos_test_result rows (parsing of the result and the expected results and the comparison)
+ * the same way {@link QoSUtil#compareTestResults} does.<br>
+ * Usage: <code>java at.alladin.rmbt.qos.QoSEvaluationBenchmark [seconds] [rows file]</code>
+ * @author lb
+ *
+ */
+public class QoSEvaluationBenchmark {
+
+	public final static String DEFAULT_ROWS = "at/alladin/rmbt/qos/qos_test_results.json";
+
+	/**
+	 * a recorded qos_test_result row
+	 */
+	static class Row {
+		final TestType testType;
+		final JSONObject result;
+		final JSONArray expected;
+
+		Row(JSONObject json) throws Exception {
+			this.testType = TestType.valueOf(json.getString("test"));
+			this.result = json.getJSONObject("result");
+			this.expected = json.getJSONArray("expected");
+		}
+	}
+
+	/**
+	 * keeps the results alive
+	 */
+	static volatile int sink;
+
+	public static void main(String[] args) throws Exception {
+		final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		final List<Row> rows = loadRows(args.length > 1 ? args[1] : DEFAULT_ROWS);
+		final ResultOptions options = new ResultOptions(Locale.ENGLISH);
+
+		System.out.println(String.format(Locale.US, "QoS evaluation benchmark: %d recorded rows, %ds per run", rows.size(), seconds));
+		for (Row row : rows) {
+			System.out.println("\t" + row.testType + ": " + evaluate(row, options));
+		}
+
+		//warm up
+		run(rows, options, Math.max(1, seconds / 2));
+		final double rowsPerSecond = run(rows, options, seconds);
+		System.out.println(String.format(Locale.US, "evaluation: %.0f rows/s, %.2f us/row", rowsPerSecond, 1e6 / rowsPerSecond));
+
+		final double lookupAccessesPerSecond = runFieldAccess(rows, true, seconds);
+		final double cachedAccessesPerSecond = runFieldAccess(rows, false, seconds);
+		System.out.println(String.format(Locale.US, "field access: reflective lookup: %.0f fields/s, cached accessors: %.0f fields/s (%.1fx)",
+				lookupAccessesPerSecond, cachedAccessesPerSecond, cachedAccessesPerSecond / lookupAccessesPerSecond));
+	}
+
+	/**
+	 *
+	 * @param resource resource name or file name
+	 * @return
+	 * @throws Exception
+	 */
+	static List<Row> loadRows(String resource) throws Exception {
+		final List<Row> rows = new ArrayList<>();
+		final InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+		try (Reader reader = in != null ? new InputStreamReader(in, "UTF-8") : new FileReader(resource)) {
+			final JSONArray json = new JSONArray(new JSONTokener(reader));
+			for (int i = 0; i < json.length(); i++) {
+				rows.add(new Row(json.getJSONObject(i)));
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * evaluates a single row
+	 * @param row
+	 * @param options
+	 * @return the status and key of each expected result
+	 * @throws Exception
+	 */
+	static String evaluate(Row row, ResultOptions options) throws Exception {
+		final AbstractResult<?> result = QoSUtil.HSTORE_PARSER.fromJSON(row.result, row.testType.getClazz());
+		result.setResultJson(row.result);
+
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < row.expected.length(); i++) {
+			final AbstractResult<?> expResult = QoSUtil.HSTORE_PARSER.fromJSON(row.expected.getJSONObject(i), row.testType.getClazz());
+			final ResultDesc desc = ResultComparer.compare(result, expResult, QoSUtil.HSTORE_PARSER, options);
+			if (desc != null) {
+				sb.append(desc.getStatusCode()).append('=').append(desc.getKey()).append(' ');
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 *
+	 * @return evaluated rows per second
+	 * @throws Exception
+	 */
+	static double run(List<Row> rows, ResultOptions options, int seconds) throws Exception {
+		final long start = System.nanoTime();
+		final long end = start + seconds * 1000000000L;
+		long count = 0;
+		int hash = 0;
+		while (System.nanoTime() < end) {
+			for (Row row : rows) {
+				hash += evaluate(row, options).length();
+			}
+			count += rows.size();
+		}
+		sink = hash;
+		return count / ((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * reads all annotated fields of the parsed results, either with a reflective lookup of the fields
+	 * (the way the parser and comparer accessed the fields before) or with the cached accessors
+	 * @return field accesses per second
+	 * @throws Exception
+	 */
+	static double runFieldAccess(List<Row> rows, boolean reflectiveLookup, int seconds) throws Exception {
+		final List<AbstractResult<?>> results = new ArrayList<>();
+		final List<HstoreParser<?>> parsers = new ArrayList<>();
+		for (Row row : rows) {
+			results.add(QoSUtil.HSTORE_PARSER.<AbstractResult<?>>fromJSON(row.result, row.testType.getClazz()));
+			parsers.add(QoSUtil.HSTORE_PARSER.getParser(row.testType.getClazz()));
+		}
+
+		final long start = System.nanoTime();
+		final long end = start + seconds * 1000000000L;
+		long count = 0;
+		int hash = 0;
+		while (System.nanoTime() < end) {
+			for (int i = 0; i < results.size(); i++) {
+				if (reflectiveLookup) {
+					for (Field f : parsers.get(i).getAnnotatedFields()) {
+						f.setAccessible(true);
+						final Object o = f.get(results.get(i));
+						hash += o != null ? 1 : 0;
+						count++;
+					}
+				}
+				else {
+					for (FieldAccessor f : parsers.get(i).getFieldAccessors()) {
+						final Object o = f.get(results.get(i));
+						hash += o != null ? 1 : 0;
+						count++;
+					}
+				}
+			}
+		}
+		sink = hash;
+		return count / ((System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.qos.testscript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONObject;
+
+import at.alladin.rmbt.qos.AbstractResult;
+import at.alladin.rmbt.qos.QoSUtil;
+import at.alladin.rmbt.qos.ResultOptions;
+import at.alladin.rmbt.qos.TcpResult;
+
+/**
+ * compares the throughput of the {@link TestScriptInterpreter} and the {@link TestScriptCompiler}.<br>
+ * Usage: <code>java at.alladin.rmbt.qos.testscript.TestScriptBenchmark [seconds per run] [threads]</code>
+ * @author lb
+ *
+ */
+public class TestScriptBenchmark {
+
+	/**
+	 * typical scripts of the qos_test_objective and qos_test_desc tables
+	 */
+	public final static String[][] SCRIPTS = {
+		{"objective", "%RANDOM 20000 20999%", "false"},
+		{"random url", "%RANDOMURL http://www. 20 .example.com%", "false"},
+		{"param", "%PARAM tcp_result_out%", "false"},
+		{"param formatted", "%PARAM tcp_objective_timeout 1000000 0%", "false"},
+		{"eval", "%EVAL if (tcp_result_out == 'OK') result = {type: 'success', key: 'tcp.success'}; else result = {type: 'failure', key: 'tcp.failure'}%", "false"},
+		{"description", "Outgoing TCP connection on port %PARAM tcp_objective_out_port%: %PARAM tcp_result_out%, timeout: %PARAM tcp_objective_timeout 1000000 0% ms", "true"},
+	};
+
+	/**
+	 * keeps the results alive
+	 */
+	static volatile int sink;
+
+	private static abstract class Run {
+		abstract Object run(String script, boolean useRecursion);
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		final JSONObject json = new JSONObject("{\"tcp_result_out\":\"OK\",\"tcp_objective_out_port\":\"33194\","
+				+ "\"tcp_objective_timeout\":\"3000000000\",\"tcp_result_out_response\":\"PING\"}");
+		final AbstractResult<?> result = QoSUtil.HSTORE_PARSER.fromJSON(json, TcpResult.class);
+		result.setResultJson(json);
+		final ResultOptions options = new ResultOptions(Locale.ENGLISH);
+
+		final Run interpreter = new Run() {
+			@Override
+			Object run(String script, boolean useRecursion) {
+				return TestScriptInterpreter.interprete(script, QoSUtil.HSTORE_PARSER, result, useRecursion, options);
+			}
+		};
+
+		final Run compiler = new Run() {
+			@Override
+			Object run(String script, boolean useRecursion) {
+				return TestScriptCompiler.execute(script, QoSUtil.HSTORE_PARSER, result, useRecursion, options);
+			}
+		};
+
+		System.out.println(String.format(Locale.US, "test script benchmark: %ds per run, %d thread(s)", seconds, threads));
+		System.out.println(String.format(Locale.US, "%-16s %16s %16s %14s %14s %8s",
+				"script", "interpreter op/s", "compiler op/s", "interpreter us", "compiler us", "speedup"));
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (String[] s : SCRIPTS) {
+				final String script = s[1];
+				final boolean useRecursion = Boolean.parseBoolean(s[2]);
+				//warm up
+				measure(executor, 1, Math.max(1, seconds / 2), interpreter, script, useRecursion);
+				measure(executor, 1, Math.max(1, seconds / 2), compiler, script, useRecursion);
+
+				final double opsInterpreter = measure(executor, threads, seconds, interpreter, script, useRecursion);
+				final double opsCompiler = measure(executor, threads, seconds, compiler, script, useRecursion);
+				System.out.println(String.format(Locale.US, "%-16s %16.0f %16.0f %14.2f %14.2f %7.1fx",
+						s[0], opsInterpreter, opsCompiler, threads * 1e6 / opsInterpreter, threads * 1e6 / opsCompiler, opsCompiler / opsInterpreter));
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 *
+	 * @return operations per second (all threads)
+	 */
+	private static double measure(ExecutorService executor, int threads, int seconds, final Run run, final String script, final boolean useRecursion) throws Exception {
+		final long end = System.nanoTime() + seconds * 1000000000L;
+		final long start = System.nanoTime();
+		final List<Future<Long>> futures = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			futures.add(executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					long count = 0;
+					int hash = 0;
+					while (System.nanoTime() < end) {
+						for (int j = 0; j < 100; j++) {
+							hash += run.run(script, useRecursion).hashCode();
+						}
+						count += 100;
+					}
+					sink = hash;
+					return count;
+				}
+			}));
+		}
+
+		long count = 0;
+		for (Future<Long> f : futures) {
+			count += f.get();
+		}
+		return count / ((System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.qos.testscript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.alladin.rmbt.qos.AbstractResult;
+import at.alladin.rmbt.qos.QoSUtil;
+import at.alladin.rmbt.qos.ResultOptions;
+import at.alladin.rmbt.qos.TcpResult;
+import at.alladin.rmbt.qos.TracerouteResult;
+
+public class TestScriptCompilerTest {
+
+	public final static String[] SCRIPTS = {
+		"",
+		"plain text",
+		"100\\% done",
+		"a % b",
+		"%UNKNOWN some args%",
+		"%PARAM tcp_result_out%",
+		"%PARAM tcp_objective_out_port%",
+		"%PARAM tcp_objective_timeout 1000%",
+		"%PARAM tcp_objective_timeout 1000000 3%",
+		"%PARAM tcp_objective_timeout 7 4 t%",
+		"%PARAM tcp_objective_timeout not_a_number%",
+		"%PARAM unknown_key%",
+		"before %PARAM tcp_result_out% after",
+		"%PARAM traceroute_result_details[1] host%",
+		"%PARAM traceroute_result_details[0] time 1000000 2%",
+		"%PARAM traceroute_result_hops%",
+		"%RANDOM%",
+		"%RANDOM a b%",
+		"%RANDOM 5 1%",
+		"%RANDOMURL http:// x .com%",
+		"%EVAL result = tcp_result_out == 'OK' ? 'ok' : 'failed';%",
+		"%EVAL result = tcp_objective_out_port + 1%",
+		"%EVAL if (tcp_result_out == 'OK') result = {type: 'success', key: 'tcp.success'}; else result = {type: 'failure', key: 'tcp.failure'}%",
+		"%EVAL result = nn.coalesce(unknown_key, 'fallback')%",
+		"%EVAL result = traceroute_result_hops * 2%",
+		"%EVAL syntax error (%",
+		"%EVAL var x = 1;%",
+	};
+
+	public final static String[] RECURSIVE_SCRIPTS = {
+		"",
+		"plain text without commands",
+		"Port %PARAM tcp_objective_out_port%, result: %PARAM tcp_result_out% (%PARAM tcp_objective_out_port%), 50\\% ok",
+		"Timeout: %PARAM tcp_objective_timeout 1000000 1% ms, %UNKNOWN% and %PARAM unknown_key%",
+		"Hops: %PARAM traceroute_result_hops%\n2nd hop: %PARAM traceroute_result_details[1] host%",
+		"%EVAL result = tcp_result_out == 'OK' ? 'reachable' : 'unreachable'% on port %PARAM tcp_objective_out_port%",
+		"%$IF tcp_result_out == 'OK' %Port %PARAM tcp_objective_out_port% is open%$ENDIF tcp_result_out == 'OK' %",
+		"%$IF tcp_result_out != 'OK' %Port %PARAM tcp_objective_out_port% is closed%$ENDIF tcp_result_out != 'OK' %",
+		"%$SWITCH tcp_result_out%%$CASE 'OK'%open%$ENDCASE 'OK'%%$DEFAULT%closed%$ENDDEFAULT%%$ENDSWITCH tcp_result_out%",
+	};
+
+	private AbstractResult<?> tcpResult;
+	private AbstractResult<?> tracerouteResult;
+	private ResultOptions options;
+
+	@Before
+	public void setUp() throws Exception {
+		final JSONObject tcp = new JSONObject("{\"tcp_result_out\":\"OK\",\"tcp_objective_out_port\":\"33194\","
+				+ "\"tcp_objective_timeout\":\"3000000000\",\"tcp_result_out_response\":\"PING\"}");
+		tcpResult = QoSUtil.HSTORE_PARSER.fromJSON(tcp, TcpResult.class);
+		tcpResult.setResultJson(tcp);
+
+		final JSONObject traceroute = new JSONObject("{\"traceroute_objective_host\":\"example.com\",\"traceroute_result_hops\":\"2\","
+				+ "\"traceroute_result_status\":\"OK\",\"traceroute_result_details\":"
+				+ "[{\"host\":\"10.0.0.1\",\"time\":\"1234567\"},{\"host\":\"192.168.1.1\",\"time\":\"7654321\"}]}");
+		tracerouteResult = QoSUtil.HSTORE_PARSER.fromJSON(traceroute, TracerouteResult.class);
+		tracerouteResult.setResultJson(traceroute);
+
+		options = new ResultOptions(Locale.GERMAN);
+		TestScriptCompiler.clearCache();
+	}
+
+	private static String toString(Object o) {
+		return o instanceof TestScriptInterpreter.EvalResult ? o.toString() : String.valueOf(o);
+	}
+
+	private void assertIdentical(String script, AbstractResult<?> result, boolean useRecursion) {
+		final Object expected = TestScriptInterpreter.interprete(script, QoSUtil.HSTORE_PARSER, result, useRecursion, options);
+		final Object actual = TestScriptCompiler.execute(script, QoSUtil.HSTORE_PARSER, result, useRecursion, options);
+		assertEquals("result of '" + script + "'", toString(expected), toString(actual));
+		if (expected != null && actual != null) {
+			assertEquals("result type of '" + script + "'", expected.getClass(), actual.getClass());
+		}
+	}
+
+	@Test
+	public void testIdenticalResults() {
+		for (String script : SCRIPTS) {
+			assertIdentical(script, tcpResult, false);
+			assertIdentical(script, tracerouteResult, false);
+			//second run uses the cached script
+			assertIdentical(script, tcpResult, false);
+		}
+	}
+
+	@Test
+	public void testIdenticalResultsWithRecursion() {
+		for (String script : RECURSIVE_SCRIPTS) {
+			assertIdentical(script, tcpResult, true);
+			assertIdentical(script, tracerouteResult, true);
+			assertIdentical(script, tcpResult, true);
+		}
+	}
+
+	@Test
+	public void testIdenticalResultsWithoutResult() {
+		final String[] scripts = {"plain text", "50\\%", "%UNKNOWN%", "%RANDOM%", "%RANDOM 1 x%", "%RANDOMURL a%"};
+		for (String script : scripts) {
+			assertEquals(script, TestScriptInterpreter.interprete(script, null), TestScriptCompiler.execute(script, null));
+		}
+	}
+
+	@Test
+	public void testRandom() {
+		for (int i = 0; i < 1000; i++) {
+			final int a = (Integer) TestScriptCompiler.execute("%RANDOM 10%", null);
+			assertTrue("0 <= " + a + " <= 10", a >= 0 && a <= 10);
+			final int b = (Integer) TestScriptCompiler.execute("%RANDOM 5000 5010%", null);
+			assertTrue("5000 <= " + b + " <= 5010", b >= 5000 && b <= 5010);
+			final int c = (Integer) TestScriptCompiler.execute("%RANDOM 7 7%", null);
+			assertEquals(7, c);
+		}
+	}
+
+	@Test
+	public void testRandomUrl() {
+		final Pattern p = Pattern.compile("http://[0-9a-f]{20}\\.example\\.com");
+		for (int i = 0; i < 100; i++) {
+			final String url = (String) TestScriptCompiler.execute("%RANDOMURL http:// 20 .example.com%", null);
+			assertTrue(url, p.matcher(url).matches());
+			assertTrue(p.matcher((String) TestScriptInterpreter.interprete("%RANDOMURL http:// 20 .example.com%", null)).matches());
+		}
+	}
+
+	@Test
+	public void testInvalidScripts() {
+		assertNull(TestScriptCompiler.execute("%RANDOM%", null));
+		assertNull(TestScriptCompiler.execute("%RANDOM 10 1%", null));
+		assertNull(TestScriptCompiler.execute("%RANDOMURL a b c%", null));
+		assertNull(TestScriptCompiler.execute("%EVAL syntax error (%", QoSUtil.HSTORE_PARSER, tcpResult, false, options));
+	}
+
+	@Test
+	public void testCache() {
+		final CompiledTestScript s1 = TestScriptCompiler.compile("%PARAM tcp_result_out%", false);
+		final CompiledTestScript s2 = TestScriptCompiler.compile("%PARAM tcp_result_out%", false);
+		assertSame(s1, s2);
+		assertTrue(TestScriptCompiler.compile("constant %UNKNOWN% text", true).isConstant());
+		assertTrue(!TestScriptCompiler.compile("port %PARAM tcp_objective_out_port%", true).isConstant());
+	}
+
+	@Test
+	public void testConcurrentExecution() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 32; i++) {
+				futures.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						for (int j = 0; j < 200; j++) {
+							for (String script : RECURSIVE_SCRIPTS) {
+								assertIdentical(script, tcpResult, true);
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				assertEquals(Boolean.TRUE, f.get());
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import at.alladin.rmbt.mapServer.png.PngEncoder;
+
+/**
+ * starts and stops the background jobs of the map server.<br>
+ * Tile seeding is configured by context parameters: RMBT_TILE_SEED_BBOX (min. lon,min. lat,max. lon,max. lat; seeding is
+ * disabled if not set), RMBT_TILE_SEED_ZOOM, RMBT_TILE_SEED_THREADS, RMBT_TILE_SEED_MAX_TILES, RMBT_TILE_SEED_COMBINATIONS
+ * and RMBT_TILE_SEED_INTERVAL (minutes), see {@link TileSeeder}. The tile request log is kept in RMBT_TILE_STATS_FILE
+ * across restarts. The png encoding of tiles is configured by RMBT_TILE_PNG_LEVEL (deflate level 0 - 9) and
+ * RMBT_TILE_PNG_FILTER (see {@link PngEncoder.Filter}). RMBT_MARKER_INDEX_DAYS is the number of days of tests kept in the
+ * {@link MarkerIndex} (disabled if not set or 0), which needs about 200 bytes of heap per test and twice that while it is rebuilt
+ * once a day. The rendering of tiles is limited by RMBT_TILE_RENDER_MAX (concurrent renders),
+ * RMBT_TILE_RENDER_QUEUE (waiting renders), RMBT_TILE_RENDER_PER_CLIENT and RMBT_TILE_RENDER_WAIT_MS, see {@link RenderAdmission}.
+ * @author lb
+ *
+ */
+public class ContextListener implements ServletContextListener
+{
+    private static final long DEFAULT_SEED_INTERVAL_MIN = 60;
+    
+    private static final long STATS_SAVE_INTERVAL_MIN = 60;
+    
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    
+    private File statsFile;
+    
+    @Override
+    public void contextInitialized(ServletContextEvent sce)
+    {
+        MapFilterCatalog.getInstance().start();
+        
+        final ServletContext context = sce.getServletContext();
+        final String markerIndexDays = context.getInitParameter("RMBT_MARKER_INDEX_DAYS");
+        final int maxAgeDays = markerIndexDays != null ? Integer.parseInt(markerIndexDays.trim()) : MarkerIndex.DEFAULT_MAX_AGE_DAYS;
+        if (maxAgeDays > 0)
+            MarkerIndex.getInstance().start(maxAgeDays);
+        
+        final String pngLevel = context.getInitParameter("RMBT_TILE_PNG_LEVEL");
+        final String pngFilter = context.getInitParameter("RMBT_TILE_PNG_FILTER");
+        if (pngLevel != null || pngFilter != null)
+            TileRestlet.setPngEncoder(new PngEncoder(
+                    pngLevel != null ? Integer.parseInt(pngLevel.trim()) : PngEncoder.DEFAULT_LEVEL,
+                    pngFilter != null ? PngEncoder.Filter.valueOf(pngFilter.trim().toUpperCase(Locale.US)) : PngEncoder.DEFAULT_FILTER));
+        
+        final String renderMax = context.getInitParameter("RMBT_TILE_RENDER_MAX");
+        final String renderQueue = context.getInitParameter("RMBT_TILE_RENDER_QUEUE");
+        final String renderPerClient = context.getInitParameter("RMBT_TILE_RENDER_PER_CLIENT");
+        final String renderWait = context.getInitParameter("RMBT_TILE_RENDER_WAIT_MS");
+        if (renderMax != null || renderQueue != null || renderPerClient != null || renderWait != null)
+            TileRestlet.setRenderAdmission(new RenderAdmission(
+                    renderMax != null ? Integer.parseInt(renderMax.trim()) : RenderAdmission.DEFAULT_MAX_RENDERS,
+                    renderQueue != null ? Integer.parseInt(renderQueue.trim()) : RenderAdmission.DEFAULT_MAX_QUEUE,
+                    renderPerClient != null ? Integer.parseInt(renderPerClient.trim()) : RenderAdmission.DEFAULT_MAX_PER_CLIENT,
+                    renderWait != null ? Long.parseLong(renderWait.trim()) : RenderAdmission.DEFAULT_MAX_WAIT_MS));
+        
+        final String statsFileName = context.getInitParameter("RMBT_TILE_STATS_FILE");
+        if (statsFileName != null && ! statsFileName.isEmpty())
+        {
+            statsFile = new File(statsFileName);
+            if (statsFile.exists())
+                try
+                {
+                    TileRequestLog.getInstance().load(statsFile);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            
+            scheduler.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    saveStats();
+                }
+            }, STATS_SAVE_INTERVAL_MIN, STATS_SAVE_INTERVAL_MIN, TimeUnit.MINUTES);
+        }
+        
+        final String bbox = context.getInitParameter("RMBT_TILE_SEED_BBOX");
+        if (bbox == null || bbox.isEmpty())
+            return;
+        
+        final TileSeeder seeder = TileSeeder.create(context.getInitParameter("RMBT_TILE_SEED_ZOOM"), bbox,
+                context.getInitParameter("RMBT_TILE_SEED_THREADS"), context.getInitParameter("RMBT_TILE_SEED_MAX_TILES"),
+                context.getInitParameter("RMBT_TILE_SEED_COMBINATIONS"));
+        final String interval = context.getInitParameter("RMBT_TILE_SEED_INTERVAL");
+        final long intervalMin = interval != null ? Long.parseLong(interval.trim()) : DEFAULT_SEED_INTERVAL_MIN;
+        
+        // the first run is delayed, so memcached is connected
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    seeder.run();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                catch (Exception e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }, 1, intervalMin, TimeUnit.MINUTES);
+    }
+    
+    private void saveStats()
+    {
+        if (statsFile != null)
+            try
+            {
+                TileRequestLog.getInstance().save(statsFile);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+    }
+    
+    @Override
+    public void contextDestroyed(ServletContextEvent sce)
+    {
+        scheduler.shutdownNow();
+        MapFilterCatalog.getInstance().stop();
+        MarkerIndex.getInstance().stop();
+        saveStats();
+    }
+}
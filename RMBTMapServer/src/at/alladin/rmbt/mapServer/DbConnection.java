@@ -16,6 +16,7 @@
 package at.alladin.rmbt.mapServer;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 
 import javax.naming.InitialContext;
@@ -40,8 +41,27 @@ public class DbConnection
         ds = _ds;
     }
     
+    private static volatile String jdbcUrl;
+    private static volatile String jdbcUser;
+    private static volatile String jdbcPassword;
+    
+    /**
+     * uses a jdbc url instead of the data source of the container (e.g. for the {@link TileSeeder} on the command line)
+     * @param url
+     * @param user
+     * @param password
+     */
+    public static void setJdbcUrl(final String url, final String user, final String password)
+    {
+        jdbcUser = user;
+        jdbcPassword = password;
+        jdbcUrl = url;
+    }
+    
     public static Connection getConnection() throws NamingException, SQLException
     {
+        if (jdbcUrl != null)
+            return DriverManager.getConnection(jdbcUrl, jdbcUser, jdbcPassword);
         return ds.getConnection();
     }
 }
@@ -60,4 +60,28 @@ public class GeoCalc
         return lon * MAX_EXTENT / 180.0;
     }
     
+    /**
+     * @param lon
+     * @param zoom
+     * @return the x of the tile which contains the longitude
+     */
+    public static int lonToTileX(final double lon, final int zoom)
+    {
+        final int powZoom = 1 << zoom;
+        final int x = (int) Math.floor((lon + 180.0) / 360.0 * powZoom);
+        return Math.max(0, Math.min(powZoom - 1, x));
+    }
+    
+    /**
+     * @param lat
+     * @param zoom
+     * @return the y (counted from the north) of the tile which contains the latitude
+     */
+    public static int latToTileY(final double lat, final int zoom)
+    {
+        final int powZoom = 1 << zoom;
+        final int y = (int) Math.floor((MAX_EXTENT - latToMeters(lat)) / (MAX_EXTENT * 2) * powZoom);
+        return Math.max(0, Math.min(powZoom - 1, y));
+    }
+    
 }
@@ -15,15 +15,12 @@
  ******************************************************************************/
 package at.alladin.rmbt.mapServer;
 
-import java.io.ByteArrayOutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.Arrays;
 import java.util.List;
 
-import javax.imageio.ImageIO;
-
 import org.restlet.data.Form;
 
 import at.alladin.rmbt.mapServer.MapServerOptions.MapOption;
@@ -96,6 +93,17 @@ public class HeatmapTiles extends TileRestlet<HeatmapTileParameters>
         }
     }
     
+    /**
+     * @param zoom
+     * @return log2 of the size of a heatmap cell in pixels
+     */
+    static int getPartSizeFactor(final int zoom)
+    {
+        if (zoom >= ZOOM_TO_PART_FACTOR.length)
+            return ZOOM_TO_PART_FACTOR[ZOOM_TO_PART_FACTOR.length - 1];
+        return ZOOM_TO_PART_FACTOR[zoom];
+    }
+    
     @SuppressWarnings("unchecked")
     private final ThreadLocal<int[]>[] pixelBuffers = new ThreadLocal[TILE_SIZES.length];
     
@@ -115,6 +123,12 @@ public class HeatmapTiles extends TileRestlet<HeatmapTileParameters>
         }
     }
     
+    @Override
+    protected String getType()
+    {
+        return "heatmap";
+    }
+    
     @Override
     protected HeatmapTileParameters getTileParameters(TileParameters.Path path, Form params)
     {
@@ -145,11 +159,7 @@ public class HeatmapTiles extends TileRestlet<HeatmapTileParameters>
                 + " AND location && ST_SetSRID(ST_MakeBox2D(ST_Point(?,?), ST_Point(?,?)), 900913)"
                 + " GROUP BY gx,gy", mo.valueColumnLog, whereSQL);
         
-        final int partSizeFactor;
-        if (zoom >= ZOOM_TO_PART_FACTOR.length)
-            partSizeFactor = ZOOM_TO_PART_FACTOR[ZOOM_TO_PART_FACTOR.length - 1];
-        else
-            partSizeFactor = ZOOM_TO_PART_FACTOR[zoom];
+        final int partSizeFactor = getPartSizeFactor(zoom);
         final int partSizePixels = 1 << partSizeFactor;
         
         final int fetchPartsX = tileSize / partSizePixels + (HORIZON_OFFSET + 2) * 2;
@@ -238,8 +248,6 @@ public class HeatmapTiles extends TileRestlet<HeatmapTileParameters>
             if (_emptyTile)
                 return null;
             
-            final Image img = images[tileSizeIdx].get();
-            
             final int[] pixels = pixelBuffers[tileSizeIdx].get();
             for (int y = 0; y < tileSize; y++)
                 for (int x = 0; x < tileSize; x++)
@@ -290,11 +298,7 @@ public class HeatmapTiles extends TileRestlet<HeatmapTileParameters>
                         if (relX == partSizePixels / 2 || relY == partSizePixels / 2)
                             pixels[x + y * tileSize] = 0xff000000;
                 }
-            img.bi.setRGB(0, 0, tileSize, tileSize, pixels, 0, tileSize);
-            
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(img.bi, "png", baos);
-            return baos.toByteArray();
+            return getPngEncoder().encode(pixels, tileSize, tileSize);
         }
         catch (final Exception e)
         {
@@ -15,8 +15,6 @@
  ******************************************************************************/
 package at.alladin.rmbt.mapServer;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
@@ -26,6 +24,10 @@ import java.util.Map;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.restlet.data.MediaType;
+import org.restlet.data.Tag;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
 import org.restlet.resource.Get;
 import org.restlet.resource.Post;
 
@@ -34,6 +36,8 @@ import at.alladin.rmbt.shared.ResourceManager;
 
 public class InfoResource extends ServerResource
 {
+    private MapFilterCatalog.Snapshot catalog;
+    
     private JSONArray getMapTypeList() throws JSONException
     {
         final JSONArray result = new JSONArray();
@@ -73,7 +77,7 @@ public class InfoResource extends ServerResource
         return result;
     }
     
-    private JSONObject getMapFilterList() throws JSONException, SQLException
+    private JSONObject getMapFilterList() throws JSONException
     {
         final JSONObject result = new JSONObject();
         
@@ -234,7 +238,7 @@ public class InfoResource extends ServerResource
         return result;
     }
     
-    private JSONObject getOperators(final boolean mobile) throws JSONException, SQLException
+    private JSONObject getOperators(final boolean mobile) throws JSONException
     {
         
         final JSONArray options = new JSONArray();
@@ -249,30 +253,18 @@ public class InfoResource extends ServerResource
         else
             obj.put("provider", "");
         
-        final String sql = "SELECT uid,name,mcc_mnc,shortname FROM provider p WHERE p.map_filter=true"
-                + (mobile ? " AND p.mcc_mnc IS NOT NULL" : " ") + " ORDER BY shortname";  // allow mobile networks for wifi/browser
-        
-        final PreparedStatement ps = conn.prepareStatement(sql);
-        
-        final ResultSet rs = ps.executeQuery();
-        if (rs == null)
-            return null;
-        
-        while (rs.next())
+        for (final MapFilterCatalog.Operator operator : catalog.getOperators(mobile))
         {
             final JSONObject obj2 = new JSONObject();
             options.put(obj2);
-            obj2.put("title", rs.getString("shortname"));
-            obj2.put("summary", rs.getString("name"));
+            obj2.put("title", operator.getShortname());
+            obj2.put("summary", operator.getName());
             if (mobile)
-                obj2.put("operator", rs.getLong("uid"));
+                obj2.put("operator", operator.getUid());
             else
-                obj2.put("provider", rs.getLong("uid"));
+                obj2.put("provider", operator.getUid());
         }
         
-        rs.close();
-        ps.close();
-        
 //        if (mobile)
 //        {
 //            obj = new JSONObject();
@@ -290,7 +282,7 @@ public class InfoResource extends ServerResource
         return result;
     }
     
-    private JSONObject getDevices(final String type) throws JSONException, SQLException
+    private JSONObject getDevices(final String type) throws JSONException
     {
         
         final JSONArray options = new JSONArray();
@@ -302,47 +294,16 @@ public class InfoResource extends ServerResource
         obj.put("device", "");
         obj.put("default", true);
         
-        String typeFilter = "";
-        if (type != null)
-            if ("mobile".equals(type))
-                typeFilter = " AND network_type not in (0, 97, 98, 99)";
-            else if ("wifi".equals(type))
-                typeFilter = " AND network_type = 99";
-            else if ("browser".equals(type))
-                typeFilter = " AND network_type = 98";
-        
-        final PreparedStatement ps = conn
-                .prepareStatement(String
-                        .format("SELECT string_agg(DISTINCT s.model,';') keys," +
-                        		" COALESCE(adm.fullname, s.model) val" +
-                        		" FROM" +
-                        		" (SELECT DISTINCT model FROM test t " +
-                        		" WHERE t.deleted = false AND t.implausible = false " +
-                        		" AND t.status = 'FINISHED'" +
-                        		" AND t.model IS NOT NULL" +
-                        		" %s) s" +
-                        		" LEFT JOIN device_map adm ON adm.codename=s.model" +
-                        		" GROUP BY val ORDER BY val ASC",
-                                typeFilter));
-        
-        final ResultSet rs = ps.executeQuery();
-        if (rs == null)
-            return null;
-        
         final String summary = labels.getString("MAP_FILTER_DEVICE_SUMMARY");
-        while (rs.next())
+        for (final MapFilterCatalog.Device device : catalog.getDevices(type))
         {
             final JSONObject obj2 = new JSONObject();
             options.put(obj2);
-            final String modelValue = rs.getString("val");
-            obj2.put("title", modelValue);
-            obj2.put("summary", String.format("%s %s", summary, modelValue));
-            obj2.put("device", rs.getString("keys"));
+            obj2.put("title", device.getTitle());
+            obj2.put("summary", String.format("%s %s", summary, device.getTitle()));
+            obj2.put("device", device.getKeys());
         }
         
-        rs.close();
-        ps.close();
-        
         final JSONObject result = new JSONObject();
         
         result.put("title", labels.getString("MAP_FILTER_DEVICE"));
@@ -353,7 +314,7 @@ public class InfoResource extends ServerResource
     
     @Post("json")
     @Get("json")
-    public String request(final String entity)
+    public Representation request(final String entity)
     {
         addAllowOrigin();
         
@@ -379,8 +340,15 @@ public class InfoResource extends ServerResource
                 
                 if (langs.contains(lang))
                     labels = ResourceManager.getSysMsgBundle(new Locale(lang));
+                else
+                    lang = settings.getString("RMBT_DEFAULT_LANGUAGE");
             }
             
+            catalog = MapFilterCatalog.getInstance().getSnapshot(conn);
+            final Tag tag = new Tag(String.format("v1-%s-%s", catalog.getVersion(), lang), true);
+            if (isNotModified(tag))
+                return null;
+            
             final JSONObject mapFilterObject = new JSONObject();
             
             mapFilterObject.put("mapTypes", getMapTypeList());
@@ -388,7 +356,9 @@ public class InfoResource extends ServerResource
             
             answer.put("mapfilter", mapFilterObject);
             
-            return answer.toString();
+            final Representation result = new StringRepresentation(answer.toString(), MediaType.APPLICATION_JSON);
+            result.setTag(tag);
+            return result;
         }
         catch (final JSONException e)
         {
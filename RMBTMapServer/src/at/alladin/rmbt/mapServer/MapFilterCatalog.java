@@ -0,0 +1,432 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import at.alladin.rmbt.shared.RevisionHelper;
+
+/**
+ * in memory catalog of the values of the map filters (operators and devices per network type), maintained by a background job:
+ * the models of new tests are added incrementally by uid, the whole catalog is rebuilt once a day (e.g. to drop implausible tests).
+ * Each change creates a new immutable {@link Snapshot}, its version is used as ETag by the info resources.
+ * The catalog is only loaded by the background job, requests before its first run get the operators without devices.
+ * @author lb
+ *
+ */
+public class MapFilterCatalog {
+
+	public final static String TYPE_MOBILE = "mobile";
+	
+	public final static String TYPE_WIFI = "wifi";
+	
+	public final static String TYPE_BROWSER = "browser";
+	
+	final static int MASK_MOBILE = 1;
+	
+	final static int MASK_WIFI = 2;
+	
+	final static int MASK_BROWSER = 4;
+	
+	private final static int MASK_ANY = 8;
+	
+	public final static long REFRESH_INTERVAL_S = 60;
+	
+	public final static long REBUILD_INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+	
+	/**
+	 * tests are scanned again until they are older than this, so tests that are finished after the last scan are not missed
+	 */
+	private final static String SETTLE_INTERVAL = "1 hour";
+	
+	private final static String SQL_MODELS = "SELECT DISTINCT model, network_type FROM test t"
+			+ " WHERE t.deleted = false AND t.implausible = false AND t.status = 'FINISHED' AND t.model IS NOT NULL AND t.uid > ?";
+	
+	private final static String SQL_WATERMARK = "SELECT max(uid) FROM test WHERE uid > ? AND time < now() - interval '" + SETTLE_INTERVAL + "'";
+	
+	private final static String SQL_DEVICE_NAMES = "SELECT codename, fullname FROM device_map WHERE codename IS NOT NULL AND fullname IS NOT NULL";
+	
+	private final static String SQL_OPERATORS = "SELECT uid, name, mcc_mnc, shortname FROM provider p WHERE p.map_filter = true ORDER BY shortname";
+	
+	public static class Operator {
+		final long uid;
+		final String name;
+		final String shortname;
+		final boolean mobile;
+		
+		Operator(long uid, String name, String shortname, boolean mobile) {
+			this.uid = uid;
+			this.name = name;
+			this.shortname = shortname;
+			this.mobile = mobile;
+		}
+
+		public long getUid() {
+			return uid;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getShortname() {
+			return shortname;
+		}
+
+		/**
+		 * 
+		 * @return true if the operator has a mcc/mnc
+		 */
+		public boolean isMobile() {
+			return mobile;
+		}
+	}
+	
+	public static class Device {
+		final String title;
+		final String keys;
+		
+		Device(String title, String keys) {
+			this.title = title;
+			this.keys = keys;
+		}
+
+		/**
+		 * 
+		 * @return the full name of the device or the model if there is no full name
+		 */
+		public String getTitle() {
+			return title;
+		}
+
+		/**
+		 * 
+		 * @return all models of the device, separated by ';'
+		 */
+		public String getKeys() {
+			return keys;
+		}
+	}
+	
+	public static class Snapshot {
+		final String version;
+		final List<Operator> mobileOperators;
+		final List<Operator> operators;
+		final Map<Integer, List<Device>> devices;
+		
+		Snapshot(String version, List<Operator> mobileOperators, List<Operator> operators, Map<Integer, List<Device>> devices) {
+			this.version = version;
+			this.mobileOperators = mobileOperators;
+			this.operators = operators;
+			this.devices = devices;
+		}
+		
+		/**
+		 * 
+		 * @return a hash of the catalog and the server revision
+		 */
+		public String getVersion() {
+			return version;
+		}
+		
+		/**
+		 * 
+		 * @param mobile
+		 * @return the operators with a mcc/mnc if mobile is true, all operators otherwise (ordered by short name)
+		 */
+		public List<Operator> getOperators(boolean mobile) {
+			return mobile ? mobileOperators : operators;
+		}
+		
+		/**
+		 * 
+		 * @param type {@link MapFilterCatalog#TYPE_MOBILE}, {@link MapFilterCatalog#TYPE_WIFI}, {@link MapFilterCatalog#TYPE_BROWSER} or null for all
+		 * @return the devices, ordered by title
+		 */
+		public List<Device> getDevices(String type) {
+			return devices.get(getMask(type));
+		}
+	}
+	
+	private final static MapFilterCatalog INSTANCE = new MapFilterCatalog();
+	
+	public static MapFilterCatalog getInstance() {
+		return INSTANCE;
+	}
+	
+	private volatile Snapshot snapshot;
+	
+	// only accessed while holding the lock:
+	
+	private final Map<String, Integer> modelTypes = new HashMap<>();
+	
+	private long watermark = -1;
+	
+	private long lastRebuild;
+	
+	private ScheduledExecutorService scheduler;
+	
+	/**
+	 * starts the background job
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "MapFilterCatalog");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try (final Connection conn = DbConnection.getConnection()) {
+					refresh(conn);
+				}
+				catch (final Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, 0, REFRESH_INTERVAL_S, TimeUnit.SECONDS);
+	}
+	
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+	
+	/**
+	 * returns the current snapshot; until the background job has loaded the catalog, a snapshot with the operators and without devices
+	 * is loaded with the given connection
+	 * @param conn
+	 * @return
+	 * @throws SQLException
+	 */
+	public Snapshot getSnapshot(Connection conn) throws SQLException {
+		final Snapshot current = snapshot;
+		if (current != null) {
+			return current;
+		}
+		return build(Collections.<String, Integer>emptyMap(), Collections.<String, String>emptyMap(), getOperators(conn));
+	}
+	
+	/**
+	 * adds the models of the tests since the last refresh (or rebuilds the catalog once a day) and reloads operators and device names
+	 * @param conn
+	 * @throws SQLException
+	 */
+	synchronized void refresh(Connection conn) throws SQLException {
+		final long now = System.currentTimeMillis();
+		if (watermark < 0 || now - lastRebuild > REBUILD_INTERVAL_MS) {
+			modelTypes.clear();
+			watermark = -1;
+			lastRebuild = now;
+		}
+		
+		long newWatermark = watermark;
+		try (final PreparedStatement ps = conn.prepareStatement(SQL_WATERMARK)) {
+			ps.setLong(1, watermark);
+			try (final ResultSet rs = ps.executeQuery()) {
+				if (rs.next() && rs.getObject(1) != null) {
+					newWatermark = rs.getLong(1);
+				}
+			}
+		}
+		
+		final Map<String, Integer> newModelTypes = new HashMap<>(modelTypes);
+		try (final PreparedStatement ps = conn.prepareStatement(SQL_MODELS)) {
+			ps.setLong(1, watermark);
+			try (final ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					addModel(newModelTypes, rs.getString(1), rs.getInt(2));
+				}
+			}
+		}
+		
+		final Map<String, String> deviceNames = new HashMap<>();
+		try (final PreparedStatement ps = conn.prepareStatement(SQL_DEVICE_NAMES);
+				final ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				deviceNames.put(rs.getString(1), rs.getString(2));
+			}
+		}
+		
+		final List<Operator> operators = getOperators(conn);
+		
+		// the state is only changed if all queries succeeded
+		modelTypes.clear();
+		modelTypes.putAll(newModelTypes);
+		watermark = newWatermark;
+		
+		final Snapshot newSnapshot = build(modelTypes, deviceNames, operators);
+		if (snapshot == null || !snapshot.version.equals(newSnapshot.version)) {
+			snapshot = newSnapshot;
+		}
+	}
+	
+	/**
+	 * 
+	 * @param conn
+	 * @return the operators of the map filter, ordered by short name
+	 * @throws SQLException
+	 */
+	private static List<Operator> getOperators(Connection conn) throws SQLException {
+		final List<Operator> operators = new ArrayList<>();
+		try (final PreparedStatement ps = conn.prepareStatement(SQL_OPERATORS);
+				final ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				operators.add(new Operator(rs.getLong("uid"), rs.getString("name"), rs.getString("shortname"), rs.getString("mcc_mnc") != null));
+			}
+		}
+		return operators;
+	}
+	
+	/**
+	 * 
+	 * @param networkType
+	 * @return the mask of the filter types of a network type
+	 */
+	static int getTypeMask(int networkType) {
+		switch (networkType) {
+		case 0:
+		case 97:
+			return MASK_ANY;
+		case 98:
+			return MASK_ANY | MASK_BROWSER;
+		case 99:
+			return MASK_ANY | MASK_WIFI;
+		default:
+			return MASK_ANY | MASK_MOBILE;
+		}
+	}
+	
+	private static int getMask(String type) {
+		if (TYPE_MOBILE.equals(type)) {
+			return MASK_MOBILE;
+		}
+		else if (TYPE_WIFI.equals(type)) {
+			return MASK_WIFI;
+		}
+		else if (TYPE_BROWSER.equals(type)) {
+			return MASK_BROWSER;
+		}
+		return MASK_ANY;
+	}
+	
+	static void addModel(Map<String, Integer> modelTypes, String model, int networkType) {
+		final Integer mask = modelTypes.get(model);
+		modelTypes.put(model, (mask == null ? 0 : mask) | getTypeMask(networkType));
+	}
+	
+	/**
+	 * 
+	 * @param modelTypes model -&gt; mask of the filter types
+	 * @param deviceNames model -&gt; full name
+	 * @param operators ordered by short name
+	 * @return
+	 */
+	static Snapshot build(Map<String, Integer> modelTypes, Map<String, String> deviceNames, List<Operator> operators) {
+		final MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		md.update(RevisionHelper.getVerboseRevision().getBytes(StandardCharsets.UTF_8));
+		
+		final List<Operator> mobileOperators = new ArrayList<>();
+		for (final Operator operator : operators) {
+			if (operator.mobile) {
+				mobileOperators.add(operator);
+			}
+			update(md, Long.toString(operator.uid), operator.shortname, operator.name, Boolean.toString(operator.mobile));
+		}
+		
+		final Map<Integer, List<Device>> devices = new HashMap<>();
+		for (final int mask : new int[] {MASK_MOBILE, MASK_WIFI, MASK_BROWSER, MASK_ANY}) {
+			// full name -> models
+			final Map<String, Set<String>> groups = new TreeMap<>();
+			for (final Map.Entry<String, Integer> e : modelTypes.entrySet()) {
+				if ((e.getValue() & mask) != 0) {
+					final String fullname = deviceNames.get(e.getKey());
+					final String title = fullname != null ? fullname : e.getKey();
+					Set<String> models = groups.get(title);
+					if (models == null) {
+						models = new TreeSet<>();
+						groups.put(title, models);
+					}
+					models.add(e.getKey());
+				}
+			}
+			
+			final List<Device> list = new ArrayList<>(groups.size());
+			for (final Map.Entry<String, Set<String>> e : groups.entrySet()) {
+				final StringBuilder keys = new StringBuilder();
+				for (final String model : e.getValue()) {
+					if (keys.length() > 0) {
+						keys.append(';');
+					}
+					keys.append(model);
+				}
+				list.add(new Device(e.getKey(), keys.toString()));
+				update(md, Integer.toString(mask), e.getKey(), keys.toString());
+			}
+			devices.put(mask, Collections.unmodifiableList(list));
+		}
+		
+		final StringBuilder version = new StringBuilder();
+		final byte[] digest = md.digest();
+		for (int i = 0; i < 8; i++) {
+			version.append(String.format("%02x", digest[i]));
+		}
+		return new Snapshot(version.toString(), Collections.unmodifiableList(mobileOperators),
+				Collections.unmodifiableList(new ArrayList<>(operators)), devices);
+	}
+	
+	private static void update(MessageDigest md, String... values) {
+		for (final String value : values) {
+			if (value != null) {
+				md.update(value.getBytes(StandardCharsets.UTF_8));
+			}
+			md.update((byte) 0);
+		}
+	}
+}
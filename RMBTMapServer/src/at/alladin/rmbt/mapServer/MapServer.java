@@ -40,6 +40,10 @@ public class MapServer extends Application
         router.attach("/tiles/shapes/{zoom}/{x}/{y}.png", shapeTiles);
         router.attach("/tiles/shapes", shapeTiles);
         
+        final VectorTiles vectorTiles = new VectorTiles();
+        router.attach("/tiles/vector/{zoom}/{x}/{y}.mvt", vectorTiles);
+        router.attach("/tiles/vector", vectorTiles);
+        
         router.attach("/tiles/markers", MarkerResource.class);
         
         router.attach("/tiles/info", InfoResource.class);
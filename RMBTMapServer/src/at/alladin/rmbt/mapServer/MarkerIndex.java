@@ -0,0 +1,754 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import at.alladin.rmbt.mapServer.MapServerOptions.MapOption;
+import at.alladin.rmbt.mapServer.MapServerOptions.SQLFilter;
+
+import com.google.common.base.Strings;
+
+/**
+ * in memory index of the recent plausible tests with the fields of the marker popup, used by the {@link MarkerResource}
+ * to answer map clicks without a database query.<br>
+ * The tests of the last {@link #getMaxAgeDays()} days are kept in a multi level grid over the 900913 coordinates, new tests
+ * are added incrementally by uid (like in the {@link MapFilterCatalog}), the grid is rebuilt once a day.
+ * Each change creates a new immutable {@link Snapshot}. Requests the index cannot answer completely (e.g. highlighted tests,
+ * the filters age and user_server_selection or a result that might contain older tests) return null and are answered by the database.
+ * The tests of an answer are checked with {@link #isValid(Connection, List)}, as they may have been deleted since they have been loaded.<br>
+ * The index is disabled by default: it needs about 200 bytes per test (plus the grid), twice that while it is rebuilt.
+ * @author lb
+ *
+ */
+public class MarkerIndex {
+	
+	public final static int DEFAULT_MAX_AGE_DAYS = 0;
+	
+	public final static long REFRESH_INTERVAL_S = 60;
+	
+	public final static long REBUILD_INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+	
+	/**
+	 * the grid is rebuilt earlier if more tests have been added since the last rebuild
+	 */
+	private final static int MAX_RECENT = 50000;
+	
+	private final static int FETCH_SIZE = 10000;
+	
+	/**
+	 * cell size of the finest grid level in meters, each level has 4 times the cell size of the previous one
+	 */
+	final static double MIN_CELL_SIZE = 256;
+	
+	final static int LEVELS = 9;
+	
+	private final static String SETTLE_INTERVAL = "1 hour";
+	
+	final static int HAS_DOWNLOAD = 1;
+	final static int HAS_UPLOAD = 2;
+	final static int HAS_PING = 4;
+	final static int HAS_MERGED_SIGNAL = 8;
+	final static int HAS_SIGNAL = 16;
+	final static int HAS_LTE_RSRP = 32;
+	final static int HAS_MOBILE_PROVIDER = 64;
+	final static int HAS_PROVIDER = 128;
+	
+	/**
+	 * the columns read by {@link Marker#read(ResultSet, Map)}, the joins are in {@link #SQL_FROM}
+	 */
+	final static String SQL_COLUMNS = "t.uid, ST_X(t.location) x, ST_Y(t.location) y, t.geo_lat, t.geo_long, t.time, t.timezone,"
+			+ " t.speed_download, t.speed_upload, t.ping_median, t.merged_signal, t.signal_strength, t.lte_rsrp, t.network_type,"
+			+ " t.network_operator, t.network_sim_operator, t.roaming_type, t.public_ip_as_name, prov.shortname provider_text,"
+			+ " t.open_test_uuid, COALESCE(mnwk.shortname,mnwk.name) mobile_network_name, COALESCE(msim.shortname,msim.name) mobile_sim_name,"
+			+ " t.mobile_provider_id, t.provider_id";
+	
+	final static String SQL_FROM = " FROM v_test2 t"
+			+ " LEFT JOIN mccmnc2name mnwk ON t.mobile_network_id=mnwk.uid"
+			+ " LEFT JOIN mccmnc2name msim ON t.mobile_sim_id=msim.uid"
+			+ " LEFT JOIN provider prov ON t.provider_id=prov.uid";
+	
+	private final static String SQL_MIN_UID = "SELECT COALESCE(min(uid), (SELECT COALESCE(max(uid), 0) + 1 FROM test))"
+			+ " FROM test WHERE time > now() - CAST(? AS INTERVAL)";
+	
+	private final static String SQL_WATERMARK = "SELECT max(uid) FROM test WHERE uid > ? AND time < now() - interval '" + SETTLE_INTERVAL + "'";
+	
+	private final static String SQL_VALID_UIDS = "SELECT count(*) FROM test WHERE uid = ANY(?) AND NOT deleted AND NOT implausible";
+	
+	private final static String SQL_MARKERS;
+	
+	static {
+		final StringBuilder where = new StringBuilder("t.location IS NOT NULL");
+		for (final SQLFilter filter : MapServerOptions.getDefaultMapFilters()) {
+			where.append(" AND ").append(filter.where);
+		}
+		where.append(" AND ").append(MapServerOptions.getAccuracyMapFilter().where);
+		SQL_MARKERS = "SELECT " + SQL_COLUMNS + SQL_FROM + " WHERE " + where + " AND t.uid > ? AND t.uid <= ? ORDER BY t.uid DESC";
+	}
+	
+	private final static Comparator<Marker> UID_DESC = new Comparator<Marker>() {
+		@Override
+		public int compare(Marker o1, Marker o2) {
+			return o1.uid < o2.uid ? 1 : (o1.uid > o2.uid ? -1 : 0);
+		}
+	};
+	
+	/**
+	 * a test with the fields of the marker popup; the flags HAS_* tell which of the nullable columns are set
+	 */
+	public static class Marker {
+		long uid;
+		double x;
+		double y;
+		double lat;
+		double lon;
+		long time;
+		String timezone;
+		int download;
+		int upload;
+		long ping;
+		int signal;
+		int lteRsrp;
+		int networkType;
+		String networkOperator;
+		String simOperator;
+		int roamingType;
+		String publicIpAsName;
+		String providerText;
+		String mobileNetworkName;
+		String mobileSimName;
+		UUID openTestUuid;
+		int mobileProviderId;
+		int providerId;
+		int flags;
+		
+		// only set for markers read by the MarkerResource, never for markers of the index:
+		
+		boolean highlight;
+		String wifiSsid;
+		
+		/**
+		 * reads the columns {@link MarkerIndex#SQL_COLUMNS} of the current row
+		 * @param rs
+		 * @param strings pool of strings to share equal values between markers, or null
+		 * @return
+		 * @throws SQLException
+		 */
+		static Marker read(ResultSet rs, Map<String, String> strings) throws SQLException {
+			final Marker m = new Marker();
+			m.uid = rs.getLong("uid");
+			m.x = rs.getDouble("x");
+			m.y = rs.getDouble("y");
+			m.lat = rs.getDouble("geo_lat");
+			m.lon = rs.getDouble("geo_long");
+			m.time = rs.getTimestamp("time").getTime();
+			m.timezone = share(strings, rs.getString("timezone"));
+			m.download = rs.getInt("speed_download");
+			m.flags |= rs.wasNull() ? 0 : HAS_DOWNLOAD;
+			m.upload = rs.getInt("speed_upload");
+			m.flags |= rs.wasNull() ? 0 : HAS_UPLOAD;
+			m.ping = rs.getLong("ping_median");
+			m.flags |= rs.wasNull() ? 0 : HAS_PING;
+			rs.getInt("merged_signal");
+			m.flags |= rs.wasNull() ? 0 : HAS_MERGED_SIGNAL;
+			m.signal = rs.getInt("signal_strength");
+			m.flags |= rs.wasNull() ? 0 : HAS_SIGNAL;
+			m.lteRsrp = rs.getInt("lte_rsrp");
+			m.flags |= rs.wasNull() ? 0 : HAS_LTE_RSRP;
+			m.networkType = rs.getInt("network_type");
+			m.networkOperator = share(strings, rs.getString("network_operator"));
+			m.simOperator = share(strings, rs.getString("network_sim_operator"));
+			m.roamingType = rs.getInt("roaming_type");
+			m.publicIpAsName = share(strings, rs.getString("public_ip_as_name"));
+			m.providerText = share(strings, rs.getString("provider_text"));
+			m.mobileNetworkName = share(strings, rs.getString("mobile_network_name"));
+			m.mobileSimName = share(strings, rs.getString("mobile_sim_name"));
+			m.openTestUuid = (UUID) rs.getObject("open_test_uuid");
+			m.mobileProviderId = rs.getInt("mobile_provider_id");
+			m.flags |= rs.wasNull() ? 0 : HAS_MOBILE_PROVIDER;
+			m.providerId = rs.getInt("provider_id");
+			m.flags |= rs.wasNull() ? 0 : HAS_PROVIDER;
+			return m;
+		}
+		
+		private static String share(Map<String, String> strings, String value) {
+			if (strings == null || value == null) {
+				return value;
+			}
+			final String shared = strings.get(value);
+			if (shared != null) {
+				return shared;
+			}
+			strings.put(value, value);
+			return value;
+		}
+		
+		boolean has(int flag) {
+			return (flags & flag) != 0;
+		}
+	}
+	
+	/**
+	 * the map option and the filters of a marker request, evaluated in memory
+	 */
+	public static class Query {
+		private final static Set<String> SUPPORTED_FILTERS = new HashSet<>(Arrays.asList("operator", "provider", "technology", "period"));
+		
+		/**
+		 * 0: all network types, otherwise the network type of wifi or browser tests or -1 for mobile tests
+		 */
+		int optionNetworkType;
+		int valueFlag;
+		int[] technologies;
+		Integer operator;
+		boolean otherOperator;
+		Integer provider;
+		long periodStart = Long.MIN_VALUE;
+		
+		/**
+		 * parses the map option and the filters like the {@link MapServerOptions}
+		 * @param optionName e.g. "mobile/download"
+		 * @param option
+		 * @param filters filter name -&gt; value, without highlight and four_color
+		 * @param now
+		 * @return the query or null if the option or a filter is not supported by the index
+		 */
+		public static Query create(String optionName, MapOption option, Map<String, String> filters, long now) {
+			if (option == null) {
+				return null;
+			}
+			final Query query = new Query();
+			if (optionName.startsWith("mobile/")) {
+				query.optionNetworkType = -1;
+			}
+			else if (optionName.startsWith("wifi/")) {
+				query.optionNetworkType = 99;
+			}
+			else if (optionName.startsWith("browser/")) {
+				query.optionNetworkType = 98;
+			}
+			else if (! optionName.startsWith("all/")) {
+				return null;
+			}
+			
+			switch (option.valueColumn) {
+			case "speed_download":
+				query.valueFlag = HAS_DOWNLOAD;
+				break;
+			case "speed_upload":
+				query.valueFlag = HAS_UPLOAD;
+				break;
+			case "ping_median":
+				query.valueFlag = HAS_PING;
+				break;
+			case "merged_signal":
+				query.valueFlag = HAS_MERGED_SIGNAL;
+				break;
+			case "signal_strength":
+				query.valueFlag = HAS_SIGNAL;
+				break;
+			default:
+				return null;
+			}
+			
+			for (final Map.Entry<String, String> e : filters.entrySet()) {
+				final String name = e.getKey();
+				final String input = e.getValue();
+				if (! MapServerOptions.isValidFilter(name)) {
+					continue;
+				}
+				if (! SUPPORTED_FILTERS.contains(name)) {
+					return null;
+				}
+				if (Strings.isNullOrEmpty(input)) {
+					continue;
+				}
+				try {
+					switch (name) {
+					case "operator":
+						if (input.equals("other")) {
+							query.otherOperator = true;
+						}
+						else {
+							query.operator = Integer.parseInt(input);
+						}
+						break;
+					case "provider":
+						query.provider = Integer.parseInt(input);
+						break;
+					case "technology":
+						query.technologies = getTechnologies(input);
+						break;
+					case "period":
+						int period = Integer.parseInt(input);
+						if (period <= 0 || period > 1460) {
+							period = 1;
+						}
+						query.periodStart = now - TimeUnit.DAYS.toMillis(period);
+						break;
+					}
+				}
+				catch (final NumberFormatException ex) {
+					// technology and period are ignored, operator and provider fail in the database
+					if ("operator".equals(name) || "provider".equals(name)) {
+						return null;
+					}
+				}
+			}
+			return query;
+		}
+		
+		private static int[] getTechnologies(String input) {
+			switch (Integer.parseInt(input)) {
+			case 2:
+				return new int[] {1, 2, 4, 5, 6, 7, 11, 12, 14};
+			case 3:
+				return new int[] {8, 9, 10, 15};
+			case 4:
+				return new int[] {13};
+			case 34:
+				return new int[] {8, 9, 10, 13, 15};
+			default:
+				return null;
+			}
+		}
+		
+		boolean matches(Marker m) {
+			if (! m.has(valueFlag) || m.time <= periodStart) {
+				return false;
+			}
+			final int type = m.networkType;
+			if (optionNetworkType < 0 ? (type == 0 || type == 97 || type == 98 || type == 99) : (optionNetworkType > 0 && type != optionNetworkType)) {
+				return false;
+			}
+			if (technologies != null && Arrays.binarySearch(technologies, type) < 0) {
+				return false;
+			}
+			if (otherOperator ? m.has(HAS_MOBILE_PROVIDER) : (operator != null && (! m.has(HAS_MOBILE_PROVIDER) || m.mobileProviderId != operator))) {
+				return false;
+			}
+			return provider == null || m.has(HAS_PROVIDER) && m.providerId == provider;
+		}
+	}
+	
+	/**
+	 * the grid of the tests up to the last rebuild
+	 */
+	static class Grid {
+		/**
+		 * ordered by uid, descending
+		 */
+		final Marker[] markers;
+		
+		/**
+		 * level -&gt; cell key -&gt; indexes of the markers in the cell (ascending, i.e. by uid descending)
+		 */
+		final List<Map<Long, int[]>> levels = new ArrayList<>(LEVELS);
+		
+		Grid(List<Marker> markers) {
+			this.markers = markers.toArray(new Marker[markers.size()]);
+			Arrays.sort(this.markers, UID_DESC);
+			for (int level = 0; level < LEVELS; level++) {
+				final double cellSize = getCellSize(level);
+				final Map<Long, int[]> counts = new HashMap<>();
+				for (final Marker m : this.markers) {
+					final Long key = getKey(getCell(m.x, cellSize), getCell(m.y, cellSize));
+					final int[] count = counts.get(key);
+					if (count == null) {
+						counts.put(key, new int[] {1});
+					}
+					else {
+						count[0]++;
+					}
+				}
+				
+				final Map<Long, int[]> cells = new HashMap<>(counts.size() * 4 / 3 + 1);
+				for (final Map.Entry<Long, int[]> e : counts.entrySet()) {
+					cells.put(e.getKey(), new int[e.getValue()[0]]);
+					e.getValue()[0] = 0;
+				}
+				for (int i = 0; i < this.markers.length; i++) {
+					final Long key = getKey(getCell(this.markers[i].x, cellSize), getCell(this.markers[i].y, cellSize));
+					cells.get(key)[counts.get(key)[0]++] = i;
+				}
+				levels.add(cells);
+			}
+		}
+	}
+	
+	/**
+	 * the newest markers matching a query, ordered by uid descending
+	 */
+	private static class Result {
+		final Query query;
+		final double x1, y1, x2, y2;
+		final Marker[] markers;
+		int size;
+		
+		Result(Query query, double x1, double y1, double x2, double y2, int limit) {
+			this.query = query;
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
+			this.markers = new Marker[limit];
+		}
+		
+		/**
+		 * 
+		 * @param m
+		 * @return false if the marker and all older markers cannot be part of the result
+		 */
+		boolean offer(Marker m) {
+			if (size == markers.length && m.uid < markers[size - 1].uid) {
+				return false;
+			}
+			if (m.x < x1 || m.x > x2 || m.y < y1 || m.y > y2 || ! query.matches(m)) {
+				return true;
+			}
+			int i = size == markers.length ? size - 1 : size++;
+			while (i > 0 && markers[i - 1].uid < m.uid) {
+				markers[i] = markers[i - 1];
+				i--;
+			}
+			markers[i] = m;
+			return true;
+		}
+	}
+	
+	public static class Snapshot {
+		final Grid grid;
+		
+		/**
+		 * the tests added since the last rebuild, ordered by uid descending
+		 */
+		final Marker[] recent;
+		
+		/**
+		 * all tests since this time (ms) are in the snapshot
+		 */
+		final long coverageStart;
+		
+		Snapshot(Grid grid, List<Marker> recent, long coverageStart) {
+			this.grid = grid;
+			this.recent = recent.toArray(new Marker[recent.size()]);
+			Arrays.sort(this.recent, UID_DESC);
+			this.coverageStart = coverageStart;
+		}
+		
+		/**
+		 * 
+		 * @return the number of tests in the snapshot
+		 */
+		public int size() {
+			return grid.markers.length + recent.length;
+		}
+		
+		/**
+		 * finds the newest tests within a box
+		 * @param query
+		 * @param x1 min. x (900913)
+		 * @param y1 min. y (900913)
+		 * @param x2 max. x (900913)
+		 * @param y2 max. y (900913)
+		 * @param limit max. number of tests
+		 * @return the tests ordered by uid descending or null if the result might be incomplete, i.e. less than limit tests
+		 * have been found and the query includes tests older than the snapshot
+		 */
+		public List<Marker> find(Query query, double x1, double y1, double x2, double y2, int limit) {
+			final Result result = new Result(query, x1, y1, x2, y2, limit);
+			for (final Marker m : recent) {
+				if (! result.offer(m)) {
+					break;
+				}
+			}
+			
+			final int level = getLevel(Math.max(x2 - x1, y2 - y1));
+			final double cellSize = getCellSize(level);
+			final Map<Long, int[]> cells = grid.levels.get(level);
+			final long cx1 = getCell(x1, cellSize), cx2 = getCell(x2, cellSize);
+			final long cy1 = getCell(y1, cellSize), cy2 = getCell(y2, cellSize);
+			if ((cx2 - cx1 + 1) * (cy2 - cy1 + 1) <= cells.size()) {
+				for (long cx = cx1; cx <= cx2; cx++) {
+					for (long cy = cy1; cy <= cy2; cy++) {
+						search(result, cells.get(getKey(cx, cy)));
+					}
+				}
+			}
+			else {
+				// more cells in the box than in the grid
+				for (final Map.Entry<Long, int[]> e : cells.entrySet()) {
+					final long cx = e.getKey() >> 32, cy = (int) e.getKey().longValue();
+					if (cx >= cx1 && cx <= cx2 && cy >= cy1 && cy <= cy2) {
+						search(result, e.getValue());
+					}
+				}
+			}
+			
+			if (result.size < limit && query.periodStart < coverageStart) {
+				return null;
+			}
+			return Arrays.asList(result.markers).subList(0, result.size);
+		}
+		
+		private void search(Result result, int[] cell) {
+			if (cell != null) {
+				for (final int i : cell) {
+					if (! result.offer(grid.markers[i])) {
+						break;
+					}
+				}
+			}
+		}
+	}
+	
+	private final static MarkerIndex INSTANCE = new MarkerIndex();
+	
+	public static MarkerIndex getInstance() {
+		return INSTANCE;
+	}
+	
+	private volatile Snapshot snapshot;
+	
+	// only accessed while holding the lock:
+	
+	private int maxAgeDays = DEFAULT_MAX_AGE_DAYS;
+	
+	private long watermark;
+	
+	private long lastRebuild;
+	
+	private ScheduledExecutorService scheduler;
+	
+	/**
+	 * starts the background job
+	 * @param maxAgeDays tests of this many days are kept in memory, requests with a period up to this are always
+	 * answered by the index
+	 */
+	public synchronized void start(int maxAgeDays) {
+		if (scheduler != null) {
+			return;
+		}
+		this.maxAgeDays = maxAgeDays;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "MarkerIndex");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try (final Connection conn = DbConnection.getConnection()) {
+					refresh(conn);
+				}
+				catch (final Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, 0, REFRESH_INTERVAL_S, TimeUnit.SECONDS);
+	}
+	
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		snapshot = null;
+	}
+	
+	public synchronized int getMaxAgeDays() {
+		return maxAgeDays;
+	}
+	
+	/**
+	 * 
+	 * @return the current snapshot or null if the index has not been loaded (yet)
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * adds the tests since the last refresh or rebuilds the grid once a day
+	 * @param conn
+	 * @throws SQLException
+	 */
+	synchronized void refresh(Connection conn) throws SQLException {
+		final long now = System.currentTimeMillis();
+		final Snapshot current = snapshot;
+		if (current == null || now - lastRebuild > REBUILD_INTERVAL_MS || current.recent.length > MAX_RECENT) {
+			rebuild(conn, now);
+			return;
+		}
+		
+		final long newWatermark = getWatermark(conn, watermark);
+		final List<Marker> recent = new ArrayList<>(current.recent.length);
+		for (final Marker m : current.recent) {
+			// the tests since the last watermark are read again, they might have been changed
+			if (m.uid <= watermark) {
+				recent.add(m);
+			}
+		}
+		recent.addAll(load(conn, watermark, Long.MAX_VALUE));
+		
+		// the state is only changed if all queries succeeded
+		snapshot = new Snapshot(current.grid, recent, current.coverageStart);
+		watermark = newWatermark;
+	}
+	
+	private void rebuild(Connection conn, long now) throws SQLException {
+		// the grid is rebuilt once a day, so one more day is loaded
+		final long coverageStart = now - TimeUnit.DAYS.toMillis(maxAgeDays);
+		final long minUid;
+		try (final PreparedStatement ps = conn.prepareStatement(SQL_MIN_UID)) {
+			ps.setString(1, String.format("%d days", maxAgeDays + 1));
+			try (final ResultSet rs = ps.executeQuery()) {
+				rs.next();
+				minUid = rs.getLong(1);
+			}
+		}
+		
+		final long newWatermark = getWatermark(conn, minUid - 1);
+		final Grid grid = new Grid(load(conn, minUid - 1, newWatermark));
+		final List<Marker> recent = load(conn, newWatermark, Long.MAX_VALUE);
+		
+		snapshot = new Snapshot(grid, recent, coverageStart);
+		watermark = newWatermark;
+		lastRebuild = now;
+	}
+	
+	/**
+	 * 
+	 * @param conn
+	 * @param from
+	 * @return the uid up to which all tests have been finished, at least from
+	 * @throws SQLException
+	 */
+	private static long getWatermark(Connection conn, long from) throws SQLException {
+		try (final PreparedStatement ps = conn.prepareStatement(SQL_WATERMARK)) {
+			ps.setLong(1, from);
+			try (final ResultSet rs = ps.executeQuery()) {
+				if (rs.next() && rs.getObject(1) != null) {
+					return rs.getLong(1);
+				}
+			}
+		}
+		return from;
+	}
+	
+	/**
+	 * 
+	 * @param conn
+	 * @param fromUid exclusive
+	 * @param toUid inclusive
+	 * @return the markers of the plausible tests with a location
+	 * @throws SQLException
+	 */
+	private static List<Marker> load(Connection conn, long fromUid, long toUid) throws SQLException {
+		final List<Marker> markers = new ArrayList<>();
+		if (fromUid >= toUid) {
+			return markers;
+		}
+		final Map<String, String> strings = new HashMap<>();
+		final boolean autoCommit = conn.getAutoCommit();
+		// the result is only fetched in parts within a transaction
+		conn.setAutoCommit(false);
+		try (final PreparedStatement ps = conn.prepareStatement(SQL_MARKERS)) {
+			ps.setFetchSize(FETCH_SIZE);
+			ps.setLong(1, fromUid);
+			ps.setLong(2, toUid);
+			try (final ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					markers.add(Marker.read(rs, strings));
+				}
+			}
+		}
+		finally {
+			conn.setAutoCommit(autoCommit);
+		}
+		return markers;
+	}
+	
+	/**
+	 * checks the markers found in the index with the primary key, as their tests might have been deleted or marked
+	 * as implausible since they have been loaded
+	 * @param conn
+	 * @param markers
+	 * @return true if all tests are still valid
+	 * @throws SQLException
+	 */
+	static boolean isValid(Connection conn, List<Marker> markers) throws SQLException {
+		if (markers.isEmpty()) {
+			return true;
+		}
+		final Long[] uids = new Long[markers.size()];
+		for (int i = 0; i < uids.length; i++) {
+			uids[i] = markers.get(i).uid;
+		}
+		try (final PreparedStatement ps = conn.prepareStatement(SQL_VALID_UIDS)) {
+			ps.setArray(1, conn.createArrayOf("bigint", uids));
+			try (final ResultSet rs = ps.executeQuery()) {
+				return rs.next() && rs.getInt(1) == uids.length;
+			}
+		}
+	}
+	
+	static double getCellSize(int level) {
+		return MIN_CELL_SIZE * (1L << (2 * level));
+	}
+	
+	/**
+	 * 
+	 * @param size width of the searched box in meters
+	 * @return the finest level with cells of at least this size
+	 */
+	static int getLevel(double size) {
+		for (int level = 0; level < LEVELS - 1; level++) {
+			if (getCellSize(level) >= size) {
+				return level;
+			}
+		}
+		return LEVELS - 1;
+	}
+	
+	private static long getCell(double coordinate, double cellSize) {
+		return (long) Math.floor((coordinate + GeoCalc.MAX_EXTENT) / cellSize);
+	}
+	
+	private static Long getKey(long cx, long cy) {
+		return (cx << 32) | (cy & 0xffffffffL);
+	}
+	
+}
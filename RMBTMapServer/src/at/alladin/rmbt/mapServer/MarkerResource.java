@@ -23,9 +23,11 @@ import java.text.Format;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.UUID;
 
@@ -38,6 +40,7 @@ import org.restlet.resource.Post;
 import at.alladin.rmbt.mapServer.MapServerOptions.MapFilter;
 import at.alladin.rmbt.mapServer.MapServerOptions.MapOption;
 import at.alladin.rmbt.mapServer.MapServerOptions.SQLFilter;
+import at.alladin.rmbt.mapServer.MarkerIndex.Marker;
 import at.alladin.rmbt.shared.Classification;
 import at.alladin.rmbt.shared.Helperfunctions;
 import at.alladin.rmbt.shared.ResourceManager;
@@ -51,6 +54,7 @@ public class MarkerResource extends ServerResource
 {
 	private static int MAX_PROVIDER_LENGTH = 22;
 	private static int CLICK_RADIUS = 10;
+	private static int MAX_MARKERS = 5;
 
 	@Post("json")
 	public String request(final String entity)
@@ -165,6 +169,7 @@ public class MarkerResource extends ServerResource
 
 					final List<SQLFilter> filters = new ArrayList<SQLFilter>(MapServerOptions.getDefaultMapFilters());
 					filters.add(MapServerOptions.getAccuracyMapFilter());
+					final Map<String, String> indexFilters = new HashMap<String, String>();
 
 
 					if (request.has("filter")){
@@ -187,7 +192,12 @@ public class MarkerResource extends ServerResource
 								{
 									final MapFilter mapFilter = MapServerOptions.getMapFilterMap().get(key);
 									if (mapFilter != null)
-										filters.add(mapFilter.getFilter(mapFilterObj.getString(key)));
+									{
+										final SQLFilter filter = mapFilter.getFilter(mapFilterObj.getString(key));
+										if (filter != null)
+											filters.add(filter);
+									}
+									indexFilters.put(key, mapFilterObj.getString(key));
 								}
 						}
 					}
@@ -202,11 +212,23 @@ public class MarkerResource extends ServerResource
 						highlightUUID = null;
 					}
 
-					if (conn != null)
+					// common requests are answered by the in memory index
+					List<Marker> markers = null;
+					final MarkerIndex.Snapshot index = MarkerIndex.getInstance().getSnapshot();
+					if (index != null && requestOpenTestUUID == null && highlightUUID == null)
 					{
-						PreparedStatement ps = null;
-						ResultSet rs = null;
+						final MarkerIndex.Query query = MarkerIndex.Query.create(optionStr, mo, indexFilters, System.currentTimeMillis());
+						if (query != null && conn != null)
+						{
+							markers = index.find(query, geo_x_min, geo_y_min, geo_x_max, geo_y_max, MAX_MARKERS);
+							// tests that have been deleted since they have been indexed are answered by the database
+							if (markers != null && ! MarkerIndex.isValid(conn, markers))
+								markers = null;
+						}
+					}
 
+					if (markers == null && conn != null)
+					{
 						final StringBuilder whereSQL = new StringBuilder(mo.sqlFilter);
 						if (requestOpenTestUUID == null)
 							for (final SQLFilter sf : filters)
@@ -215,24 +237,9 @@ public class MarkerResource extends ServerResource
 							whereSQL.setLength(0);
 
 						final String sql = String
-								.format("SELECT"
-										+ (useLatLon ? " geo_lat lat, geo_long lon"
-												: " ST_X(t.location) x, ST_Y(t.location) y")
-												+ ", t.time, t.timezone, t.speed_download, t.speed_upload, t.ping_median, t.network_type,"
-												+ " t.signal_strength, t.lte_rsrp, t.wifi_ssid, t.network_operator_name, t.network_operator,"
-												+ " t.network_sim_operator, t.roaming_type, t.public_ip_as_name, " //TODO: sim_operator obsoleted by sim_name
-												+ " pMob.shortname mobile_provider_name," // TODO: obsoleted by mobile_network_name
-												+ " prov.shortname provider_text, t.open_test_uuid,"
-												+ " COALESCE(mnwk.shortname,mnwk.name) mobile_network_name,"
-												+ " COALESCE(msim.shortname,msim.name) mobile_sim_name"
+								.format("SELECT " + MarkerIndex.SQL_COLUMNS + ", t.wifi_ssid"
 												+ (highlightUUID == null ? "" : " , c.uid, c.uuid")
-												+ " FROM v_test2 t"
-												+ " LEFT JOIN mccmnc2name mnwk ON t.mobile_network_id=mnwk.uid"
-												+ " LEFT JOIN mccmnc2name msim ON t.mobile_sim_id=msim.uid"
-												+ " LEFT JOIN provider prov"
-												+ " ON t.provider_id=prov.uid"
-												+ " LEFT JOIN provider pMob"
-												+ " ON t.mobile_provider_id=pMob.uid"
+												+ MarkerIndex.SQL_FROM
 												+ (highlightUUID == null ? ""
 														: " LEFT JOIN client c ON (t.client_id=c.uid AND t.uuid=?)")
 														+ " WHERE"
@@ -241,253 +248,55 @@ public class MarkerResource extends ServerResource
 																" t.open_test_uuid=? "
 																:" AND location && ST_SetSRID(ST_MakeBox2D(ST_Point(?,?), ST_Point(?,?)), 900913)")
 																+ " ORDER BY" + (highlightUUID == null ? "" : " c.uid ASC,")
-																+ " t.uid DESC" + " LIMIT 5", whereSQL);
+																+ " t.uid DESC" + " LIMIT " + MAX_MARKERS, whereSQL);
 
 						//System.out.println("SQL: " + sql);
-						ps = conn.prepareStatement(sql);
-
-						int i = 1;
-
-						if (highlightUUID != null)
-							ps.setObject(i++, highlightUUID);
-
-						// filter by location if not selected by open_test_uuid
-						if (requestOpenTestUUID == null){ 
-							for (final SQLFilter sf : filters)
-								i = sf.fillParams(i, ps);
-							ps.setDouble(i++, geo_x_min);
-							ps.setDouble(i++, geo_y_min);
-							ps.setDouble(i++, geo_x_max);
-							ps.setDouble(i++, geo_y_max); }
-						else
-							ps.setObject(i++, requestOpenTestUUID);
-
-						//System.out.println("SQL: " + ps.toString());
-
-						if (ps.execute())
+						try (final PreparedStatement ps = conn.prepareStatement(sql))
 						{
+							int i = 1;
 
-							final Locale locale = new Locale(lang);
-							final Format format = new SignificantFormat(2, locale);
+							if (highlightUUID != null)
+								ps.setObject(i++, highlightUUID);
 
-							final JSONArray resultList = new JSONArray();
+							// filter by location if not selected by open_test_uuid
+							if (requestOpenTestUUID == null){ 
+								for (final SQLFilter sf : filters)
+									i = sf.fillParams(i, ps);
+								ps.setDouble(i++, geo_x_min);
+								ps.setDouble(i++, geo_y_min);
+								ps.setDouble(i++, geo_x_max);
+								ps.setDouble(i++, geo_y_max); }
+							else
+								ps.setObject(i++, requestOpenTestUUID);
 
-							rs = ps.getResultSet();
+							//System.out.println("SQL: " + ps.toString());
 
-							while (rs.next())
+							try (final ResultSet rs = ps.executeQuery())
 							{
-								final JSONObject jsonItem = new JSONObject();
-
-								JSONArray jsonItemList = new JSONArray();
-
-								// RMBTClient Info
-								if (highlightUUID != null && rs.getString("uuid") != null)
-									jsonItem.put("highlight", true);
-
-								final double res_x = rs.getDouble(1);
-								final double res_y = rs.getDouble(2);
-								final String openTestUUID = rs.getObject("open_test_uuid").toString();
-
-								jsonItem.put("lat", res_x);
-								jsonItem.put("lon", res_y);
-								jsonItem.put("open_test_uuid", "O" + openTestUUID);
-								// marker.put("uid", uid);
-
-								final Date date = rs.getTimestamp("time");
-								final String tzString = rs.getString("timezone");
-								final TimeZone tz = TimeZone.getTimeZone(tzString);
-								final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM,
-										DateFormat.MEDIUM, locale);
-								dateFormat.setTimeZone(tz);
-								jsonItem.put("time_string", dateFormat.format(date));
-
-								//time as UNIX time (UTC) e.g. 1445361731053
-								final long time = date.getTime();
-								jsonItem.put("time", time);
-
-								final int fieldDown = rs.getInt("speed_download");
-								JSONObject singleItem = new JSONObject();
-								singleItem.put("title", labels.getString("RESULT_DOWNLOAD"));
-								final String downloadString = String.format("%s %s",
-										format.format(fieldDown / 1000d), labels.getString("RESULT_DOWNLOAD_UNIT"));
-								singleItem.put("value", downloadString);
-								singleItem.put("classification",
-										Classification.classify(Classification.THRESHOLD_DOWNLOAD, fieldDown, capabilities.getClassificationCapability().getCount()));
-
-
-								jsonItemList.put(singleItem);
-
-								final int fieldUp = rs.getInt("speed_upload");
-								singleItem = new JSONObject();
-								singleItem.put("title", labels.getString("RESULT_UPLOAD"));
-								final String uploadString = String.format("%s %s", format.format(fieldUp / 1000d),
-										labels.getString("RESULT_UPLOAD_UNIT"));
-								singleItem.put("value", uploadString);
-								singleItem.put("classification",
-										Classification.classify(Classification.THRESHOLD_UPLOAD, fieldUp, capabilities.getClassificationCapability().getCount()));
-
-								jsonItemList.put(singleItem);
-
-								final long fieldPing = rs.getLong("ping_median");
-								final int pingValue = (int) Math.round(rs.getDouble("ping_median") / 1000000d);
-								singleItem = new JSONObject();
-								singleItem.put("title", labels.getString("RESULT_PING"));
-								final String pingString = String.format("%s %s", format.format(pingValue),
-										labels.getString("RESULT_PING_UNIT"));
-								singleItem.put("value", pingString);
-								singleItem.put("classification",
-										Classification.classify(Classification.THRESHOLD_PING, fieldPing, capabilities.getClassificationCapability().getCount()));
-
-								jsonItemList.put(singleItem);
-
-								final int networkType = rs.getInt("network_type");
-
-								final String signalField = rs.getString("signal_strength");
-								if (signalField != null && signalField.length() != 0)
-								{
-									final int signalValue = rs.getInt("signal_strength");
-									final int[] threshold = networkType == 99 || networkType == 0 ? Classification.THRESHOLD_SIGNAL_WIFI
-											: Classification.THRESHOLD_SIGNAL_MOBILE;
-									singleItem = new JSONObject();
-									singleItem.put("title", labels.getString("RESULT_SIGNAL"));
-									singleItem.put("value",
-											signalValue + " " + labels.getString("RESULT_SIGNAL_UNIT"));
-									singleItem.put("classification",
-											Classification.classify(threshold, signalValue, capabilities.getClassificationCapability().getCount()));
-									jsonItemList.put(singleItem);
-								}
-
-								final String lteRsrpField = rs.getString("lte_rsrp");
-								if (lteRsrpField != null && lteRsrpField.length() != 0)
+								markers = new ArrayList<Marker>();
+								while (rs.next())
 								{
-									final int lteRsrpValue = rs.getInt("lte_rsrp");
-									final int[] threshold = Classification.THRESHOLD_SIGNAL_RSRP;
-									singleItem = new JSONObject();
-									singleItem.put("title", labels.getString("RESULT_LTE_RSRP"));
-									singleItem.put("value",
-											lteRsrpValue + " " + labels.getString("RESULT_LTE_RSRP_UNIT"));
-									singleItem.put("classification",
-											Classification.classify(threshold, lteRsrpValue, capabilities.getClassificationCapability().getCount()));
-									jsonItemList.put(singleItem);
+									final Marker marker = Marker.read(rs, null);
+									// RMBTClient Info
+									marker.highlight = highlightUUID != null && rs.getString("uuid") != null;
+									if (marker.highlight)
+										marker.wifiSsid = rs.getString("wifi_ssid");
+									markers.add(marker);
 								}
+							}
+						}
+					}
 
+					if (markers != null)
+					{
+						final Locale locale = new Locale(lang);
+						final Format format = new SignificantFormat(2, locale);
 
-								jsonItem.put("measurement", jsonItemList);
-
-								jsonItemList = new JSONArray();
-
-								singleItem = new JSONObject();
-								singleItem.put("title", labels.getString("RESULT_NETWORK_TYPE"));
-								singleItem.put("value", Helperfunctions.getNetworkTypeName(networkType));
-
-								jsonItemList.put(singleItem);
-
-
-								if (networkType == 98 || networkType == 99) // mobile wifi or browser
-								{
-									String providerText = Objects.firstNonNull(rs.getString("provider_text"),rs.getString("public_ip_as_name"));
-									if (! Strings.isNullOrEmpty(providerText))
-									{
-										if (providerText.length() > (MAX_PROVIDER_LENGTH +3)) {
-											providerText = providerText.substring(0, MAX_PROVIDER_LENGTH) + "...";
-										}
-
-										singleItem = new JSONObject();
-										singleItem.put("title", labels.getString("RESULT_PROVIDER"));
-										singleItem.put("value", providerText);
-										jsonItemList.put(singleItem);
-									}
-									if (networkType == 99)  // mobile wifi
-									{
-										if (highlightUUID != null && rs.getString("uuid") != null) // own test
-										{
-											final String ssid = rs.getString("wifi_ssid");
-											if (ssid != null && ssid.length() != 0)
-											{
-												singleItem = new JSONObject();
-												singleItem.put("title", labels.getString("RESULT_WIFI_SSID"));
-												singleItem.put("value", ssid.toString());
-												jsonItemList.put(singleItem);
-											}
-										}
-									}
-								}
-								else // mobile
-								{
-									String networkOperator = rs.getString("network_operator");
-									String mobileNetworkName = rs.getString("mobile_network_name");
-									String simOperator = rs.getString("network_sim_operator");
-									String mobileSimName = rs.getString("mobile_sim_name");
-									final int roamingType = rs.getInt("roaming_type");
-									//network
-									if (! Strings.isNullOrEmpty(networkOperator))
-									{
-										final String mobileNetworkString;
-										if (roamingType != 2) { //not international roaming - display name of home network
-											if (Strings.isNullOrEmpty(mobileSimName))
-												mobileNetworkString = networkOperator;
-											else
-												mobileNetworkString = String.format("%s (%s)", mobileSimName, networkOperator);
-										}
-										else { //international roaming - display name of network
-											if (Strings.isNullOrEmpty(mobileSimName))
-												mobileNetworkString = networkOperator;
-											else
-												mobileNetworkString = String.format("%s (%s)", mobileNetworkName, networkOperator);
-										}
-
-										singleItem = new JSONObject();
-										singleItem.put("title", labels.getString("RESULT_MOBILE_NETWORK"));
-										singleItem.put("value", mobileNetworkString);
-										jsonItemList.put(singleItem);
-									}
-									//home network (sim)
-									else if (!Strings.isNullOrEmpty(simOperator)) {
-										final String mobileNetworkString;
-
-										if (Strings.isNullOrEmpty(mobileSimName))
-											mobileNetworkString = simOperator;
-										else
-											mobileNetworkString = String.format("%s (%s)", mobileSimName, simOperator);
-
-										/*
-                                        	if (!Strings.isNullOrEmpty(mobileProviderName)) {
-                                        		mobileNetworkString = mobileProviderName;
-                                        	} else {
-                                        		mobileNetworkString = simOperator;
-                                        	}
-										 */
-
-										singleItem = new JSONObject();
-										singleItem.put("title", labels.getString("RESULT_HOME_NETWORK"));
-										singleItem.put("value", mobileNetworkString);
-										jsonItemList.put(singleItem);
-									}
-
-									if (roamingType > 0)
-									{
-										singleItem = new JSONObject();
-										singleItem.put("title", labels.getString("RESULT_ROAMING"));
-										singleItem.put("value", Helperfunctions.getRoamingType(labels, roamingType));
-										jsonItemList.put(singleItem);
-									}
-								}
-
-								jsonItem.put("net", jsonItemList);
-
-								resultList.put(jsonItem);
-
-								if (resultList.length() == 0)
-									System.out.println("Error getting Results.");
-								// errorList.addError(MessageFormat.format(labels.getString("ERROR_DB_GET_CLIENT"),
-								// new Object[] {uuid}));
-
-							}
+						final JSONArray resultList = new JSONArray();
+						for (final Marker marker : markers)
+							resultList.put(toJson(marker, useLatLon, locale, format));
 
-							answer.put("measurements", resultList);
-						}
-						else
-							System.out.println("Error executing SQL.");
+						answer.put("measurements", resultList);
 					}
 					else
 						System.out.println("No Database Connection.");
@@ -512,6 +321,203 @@ public class MarkerResource extends ServerResource
 
 	}
 
+	/**
+	 * formats a marker for the popup
+	 * @param marker
+	 * @param useLatLon
+	 * @param locale
+	 * @param format
+	 * @return
+	 * @throws JSONException
+	 */
+	private JSONObject toJson(final Marker marker, final boolean useLatLon, final Locale locale, final Format format) throws JSONException
+	{
+		final JSONObject jsonItem = new JSONObject();
+
+		JSONArray jsonItemList = new JSONArray();
+
+		// RMBTClient Info
+		if (marker.highlight)
+			jsonItem.put("highlight", true);
+
+		jsonItem.put("lat", useLatLon ? marker.lat : marker.x);
+		jsonItem.put("lon", useLatLon ? marker.lon : marker.y);
+		jsonItem.put("open_test_uuid", "O" + marker.openTestUuid);
+		// marker.put("uid", uid);
+
+		final Date date = new Date(marker.time);
+		final TimeZone tz = TimeZone.getTimeZone(marker.timezone);
+		final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM,
+				DateFormat.MEDIUM, locale);
+		dateFormat.setTimeZone(tz);
+		jsonItem.put("time_string", dateFormat.format(date));
+
+		//time as UNIX time (UTC) e.g. 1445361731053
+		jsonItem.put("time", marker.time);
+
+		final int classificationCount = capabilities.getClassificationCapability().getCount();
+
+		final int fieldDown = marker.download;
+		JSONObject singleItem = new JSONObject();
+		singleItem.put("title", labels.getString("RESULT_DOWNLOAD"));
+		final String downloadString = String.format("%s %s",
+				format.format(fieldDown / 1000d), labels.getString("RESULT_DOWNLOAD_UNIT"));
+		singleItem.put("value", downloadString);
+		singleItem.put("classification",
+				Classification.classify(Classification.THRESHOLD_DOWNLOAD, fieldDown, classificationCount));
+
+		jsonItemList.put(singleItem);
+
+		final int fieldUp = marker.upload;
+		singleItem = new JSONObject();
+		singleItem.put("title", labels.getString("RESULT_UPLOAD"));
+		final String uploadString = String.format("%s %s", format.format(fieldUp / 1000d),
+				labels.getString("RESULT_UPLOAD_UNIT"));
+		singleItem.put("value", uploadString);
+		singleItem.put("classification",
+				Classification.classify(Classification.THRESHOLD_UPLOAD, fieldUp, classificationCount));
+
+		jsonItemList.put(singleItem);
+
+		final long fieldPing = marker.ping;
+		final int pingValue = (int) Math.round(fieldPing / 1000000d);
+		singleItem = new JSONObject();
+		singleItem.put("title", labels.getString("RESULT_PING"));
+		final String pingString = String.format("%s %s", format.format(pingValue),
+				labels.getString("RESULT_PING_UNIT"));
+		singleItem.put("value", pingString);
+		singleItem.put("classification",
+				Classification.classify(Classification.THRESHOLD_PING, fieldPing, classificationCount));
+
+		jsonItemList.put(singleItem);
+
+		final int networkType = marker.networkType;
+
+		if (marker.has(MarkerIndex.HAS_SIGNAL))
+		{
+			final int signalValue = marker.signal;
+			final int[] threshold = networkType == 99 || networkType == 0 ? Classification.THRESHOLD_SIGNAL_WIFI
+					: Classification.THRESHOLD_SIGNAL_MOBILE;
+			singleItem = new JSONObject();
+			singleItem.put("title", labels.getString("RESULT_SIGNAL"));
+			singleItem.put("value",
+					signalValue + " " + labels.getString("RESULT_SIGNAL_UNIT"));
+			singleItem.put("classification",
+					Classification.classify(threshold, signalValue, classificationCount));
+			jsonItemList.put(singleItem);
+		}
+
+		if (marker.has(MarkerIndex.HAS_LTE_RSRP))
+		{
+			final int lteRsrpValue = marker.lteRsrp;
+			final int[] threshold = Classification.THRESHOLD_SIGNAL_RSRP;
+			singleItem = new JSONObject();
+			singleItem.put("title", labels.getString("RESULT_LTE_RSRP"));
+			singleItem.put("value",
+					lteRsrpValue + " " + labels.getString("RESULT_LTE_RSRP_UNIT"));
+			singleItem.put("classification",
+					Classification.classify(threshold, lteRsrpValue, classificationCount));
+			jsonItemList.put(singleItem);
+		}
+
+
+		jsonItem.put("measurement", jsonItemList);
+
+		jsonItemList = new JSONArray();
+
+		singleItem = new JSONObject();
+		singleItem.put("title", labels.getString("RESULT_NETWORK_TYPE"));
+		singleItem.put("value", Helperfunctions.getNetworkTypeName(networkType));
+
+		jsonItemList.put(singleItem);
+
+
+		if (networkType == 98 || networkType == 99) // mobile wifi or browser
+		{
+			String providerText = Objects.firstNonNull(marker.providerText, marker.publicIpAsName);
+			if (! Strings.isNullOrEmpty(providerText))
+			{
+				if (providerText.length() > (MAX_PROVIDER_LENGTH +3)) {
+					providerText = providerText.substring(0, MAX_PROVIDER_LENGTH) + "...";
+				}
+
+				singleItem = new JSONObject();
+				singleItem.put("title", labels.getString("RESULT_PROVIDER"));
+				singleItem.put("value", providerText);
+				jsonItemList.put(singleItem);
+			}
+			if (networkType == 99)  // mobile wifi
+			{
+				if (marker.highlight) // own test
+				{
+					final String ssid = marker.wifiSsid;
+					if (ssid != null && ssid.length() != 0)
+					{
+						singleItem = new JSONObject();
+						singleItem.put("title", labels.getString("RESULT_WIFI_SSID"));
+						singleItem.put("value", ssid.toString());
+						jsonItemList.put(singleItem);
+					}
+				}
+			}
+		}
+		else // mobile
+		{
+			String networkOperator = marker.networkOperator;
+			String mobileNetworkName = marker.mobileNetworkName;
+			String simOperator = marker.simOperator;
+			String mobileSimName = marker.mobileSimName;
+			final int roamingType = marker.roamingType;
+			//network
+			if (! Strings.isNullOrEmpty(networkOperator))
+			{
+				final String mobileNetworkString;
+				if (roamingType != 2) { //not international roaming - display name of home network
+					if (Strings.isNullOrEmpty(mobileSimName))
+						mobileNetworkString = networkOperator;
+					else
+						mobileNetworkString = String.format("%s (%s)", mobileSimName, networkOperator);
+				}
+				else { //international roaming - display name of network
+					if (Strings.isNullOrEmpty(mobileSimName))
+						mobileNetworkString = networkOperator;
+					else
+						mobileNetworkString = String.format("%s (%s)", mobileNetworkName, networkOperator);
+				}
+
+				singleItem = new JSONObject();
+				singleItem.put("title", labels.getString("RESULT_MOBILE_NETWORK"));
+				singleItem.put("value", mobileNetworkString);
+				jsonItemList.put(singleItem);
+			}
+			//home network (sim)
+			else if (!Strings.isNullOrEmpty(simOperator)) {
+				final String mobileNetworkString;
+
+				if (Strings.isNullOrEmpty(mobileSimName))
+					mobileNetworkString = simOperator;
+				else
+					mobileNetworkString = String.format("%s (%s)", mobileSimName, simOperator);
+
+				singleItem = new JSONObject();
+				singleItem.put("title", labels.getString("RESULT_HOME_NETWORK"));
+				singleItem.put("value", mobileNetworkString);
+				jsonItemList.put(singleItem);
+			}
+
+			if (roamingType > 0)
+			{
+				singleItem = new JSONObject();
+				singleItem.put("title", labels.getString("RESULT_ROAMING"));
+				singleItem.put("value", Helperfunctions.getRoamingType(labels, roamingType));
+				jsonItemList.put(singleItem);
+			}
+		}
+
+		jsonItem.put("net", jsonItemList);
+		return jsonItem;
+	}
+
 	@Get("json")
 	public String retrieve(final String entity)
 	{
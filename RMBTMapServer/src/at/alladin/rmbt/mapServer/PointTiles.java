@@ -23,11 +23,12 @@ import java.awt.geom.Ellipse2D;
 import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -35,6 +36,12 @@ import javax.imageio.ImageIO;
 
 import org.restlet.data.Form;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
 import at.alladin.rmbt.mapServer.MapServerOptions.MapOption;
 import at.alladin.rmbt.mapServer.MapServerOptions.SQLFilter;
 import at.alladin.rmbt.mapServer.parameters.PointTileParameters;
@@ -58,6 +65,71 @@ public class PointTiles extends TileRestlet<PointTileParameters>
         final boolean highlight;
     }
     
+    private static final double TRIANGLE_FACTOR = 1.75;
+    
+    /**
+     * upper bound of the number of points per tile
+     */
+    static final int MAX_POINTS = 65536;
+    
+    /**
+     * returns the size of the grid cells for the decimation of the points: only the point with the highest uid
+     * (which would be drawn last) of each cell is drawn. The size is at least a quarter of the point diameter, so
+     * the result is visually equivalent to drawing all points, and large enough to limit the number of points
+     * to {@link #MAX_POINTS}.
+     * @param diameter point diameter in pixels
+     * @param tileSize in pixels
+     * @param margin in pixels
+     * @return the cell size in pixels
+     */
+    static int getCellSize(final double diameter, final int tileSize, final double margin)
+    {
+        final double minSize = (tileSize + 2 * margin) / Math.sqrt(MAX_POINTS);
+        return (int) Math.ceil(Math.max(Math.max(1, diameter / 4), minSize));
+    }
+    
+    /**
+     * decoded base tiles of highlight tiles by the hash of their png, up to 16M pixels (64 MB)
+     */
+    private static final Cache<HashCode, int[]> BASE_TILE_PIXELS = CacheBuilder.newBuilder()
+            .maximumWeight(16 * 1024 * 1024)
+            .weigher(new Weigher<HashCode, int[]>()
+            {
+                @Override
+                public int weigh(HashCode key, int[] value)
+                {
+                    return value.length;
+                }
+            })
+            .build();
+    
+    /**
+     * returns the pixels of a base tile, decoded only if the tile has changed since the last highlight tile
+     * @param baseTile png
+     * @param width
+     * @param height
+     * @return ARGB pixels, must not be modified
+     * @throws IOException
+     */
+    static int[] getBaseTilePixels(final byte[] baseTile, final int width, final int height) throws IOException
+    {
+        final HashCode key = Hashing.murmur3_128().hashBytes(baseTile);
+        int[] pixels = BASE_TILE_PIXELS.getIfPresent(key);
+        if (pixels == null)
+        {
+            final BufferedImage image = ImageIO.read(new ByteArrayInputStream(baseTile));
+            pixels = image.getRGB(0, 0, width, height, null, 0, width);
+            BASE_TILE_PIXELS.put(key, pixels);
+        }
+        return pixels;
+    }
+    
+    @Override
+    protected String getType()
+    {
+        return "points";
+    }
+    
     @Override
     protected PointTileParameters getTileParameters(Path path, Form params)
     {
@@ -70,7 +142,7 @@ public class PointTiles extends TileRestlet<PointTileParameters>
             final MapOption mo, final List<SQLFilter> filters, final float quantile)
     {
         
-        final UUID highlightUUID;
+        final UUID highlightUUID = params.getHighlight();
         final byte[] baseTile;
         
         if (params.getGenericParameters() != null)
@@ -79,14 +151,9 @@ public class PointTiles extends TileRestlet<PointTileParameters>
             
             final PointTileParameters genericParams = params.getGenericParameters();
             baseTile = getTile(genericParams);
-            
-            highlightUUID = params.getHighlight();
         }
         else
-        {
-            highlightUUID = null;
             baseTile = null;
-        }
         
         
         filters.add(MapServerOptions.getAccuracyMapFilter());
@@ -95,21 +162,29 @@ public class PointTiles extends TileRestlet<PointTileParameters>
         for (final SQLFilter sf : filters)
             whereSQL.append(" AND ").append(sf.where);
         
-        final String sql = String.format("SELECT ST_X(t.location) x, ST_Y(t.location) y, \"%s\" val"
+        final boolean noFill = params.isNoFill();
+        
+        // one point per grid cell (the grid is the same for all tiles of a zoom level), unless no_fill is set:
+        // the outlines of the dropped points would not be painted over. The newest points are kept
+        final String sql = String.format("SELECT x, y, val FROM"
+                + (noFill
+                        ? " (SELECT ST_X(t.location) x, ST_Y(t.location) y, \"%s\" val, t.uid"
+                        : " (SELECT DISTINCT ON (gx, gy) ST_X(t.location) x, ST_Y(t.location) y, \"%s\" val, t.uid,"
+                                + " floor((ST_X(t.location) + ?) / ?) gx, floor((ST_Y(t.location) + ?) / ?) gy")
                 + " FROM v_test2 t"
                 + (highlightUUID == null ? "" : " JOIN client c ON (t.client_id=c.uid AND c.uuid=?)")
                 + " WHERE "
                 + " %s"
                 + " AND location && ST_SetSRID(ST_MakeBox2D(ST_Point(?,?), ST_Point(?,?)), 900913)"
+                + (noFill ? "" : " ORDER BY gx, gy, t.uid DESC")
+                + ") p"
                 + " ORDER BY"
-                + " t.uid", mo.valueColumn, whereSQL);
+                + " uid DESC"
+                + " LIMIT ?", mo.valueColumn, whereSQL);
         
         final double diameter = params.getPointDiameter();
-        final double radius = diameter / 2d;
-        final double triangleSide = diameter * 1.75;
-        final double triangleHeight = Math.sqrt(3) / 2d * triangleSide;
+        final double triangleSide = diameter * TRIANGLE_FACTOR;
         final int transparency = (int) Math.round(params.getTransparency() * 255);
-        final boolean noFill = params.isNoFill();
         final boolean noColor = params.isNoColor();
         
         final Color borderColor = new Color(0, 0, 0, transparency);
@@ -127,6 +202,16 @@ public class PointTiles extends TileRestlet<PointTileParameters>
         {
             int i = 1;
             
+            if (!noFill)
+            {
+                final double cellSize = box.res * getCellSize(diameter, TILE_SIZES[tileSizeIdx], triangleSide);
+                for (int j = 0; j < 2; j++)
+                {
+                    ps.setDouble(i++, GeoCalc.MAX_EXTENT);
+                    ps.setDouble(i++, cellSize);
+                }
+            }
+            
             if (highlightUUID != null)
                 ps.setObject(i++, highlightUUID);
             
@@ -138,6 +223,7 @@ public class PointTiles extends TileRestlet<PointTileParameters>
             ps.setDouble(i++, box.y1 - margin);
             ps.setDouble(i++, box.x2 + margin);
             ps.setDouble(i++, box.y2 + margin);
+            ps.setInt(i++, MAX_POINTS);
             
 //            System.out.println(ps);
             
@@ -184,63 +270,25 @@ public class PointTiles extends TileRestlet<PointTileParameters>
                 
                 if (_emptyTile)
                     return baseTile;
+                
+                // newest points last, on top
+                Collections.reverse(dots);
                         
                 final Image img = images[tileSizeIdx].get();
                 final Graphics2D g = img.g;
                 
-                g.setBackground(new Color(0, 0, 0, 0));
-                g.clearRect(0, 0, img.width, img.height);
-                
                 if (baseTile != null)
+                    img.bi.getRaster().setDataElements(0, 0, img.width, img.height,
+                            getBaseTilePixels(baseTile, img.width, img.height));
+                else
                 {
-                    final ByteArrayInputStream bais = new ByteArrayInputStream(baseTile);
-                    final BufferedImage image = ImageIO.read(bais);
-                    g.drawImage(image, 0, 0, null);
+                    g.setBackground(new Color(0, 0, 0, 0));
+                    g.clearRect(0, 0, img.width, img.height);
                 }
                 
-                g.setComposite(AlphaComposite.Src);
-                g.setStroke((new BasicStroke(((float) diameter / 8f))));
-                
-                final Path2D.Double triangle = new Path2D.Double();
-                final Ellipse2D.Double shape = new Ellipse2D.Double(0, 0, diameter, diameter);
-                
-                for (final Dot dot : dots)
-                {
-                    final double relX = (dot.x - box.x1) / box.res;
-                    final double relY = TILE_SIZES[tileSizeIdx] - (dot.y - box.y1) / box.res;
-                    
-                    if (dot.highlight) // triangle
-                    {
-                        triangle.reset();
-                        triangle.moveTo(relX, relY - triangleHeight / 3 * 2);
-                        triangle.lineTo(relX - triangleSide / 2, relY + triangleHeight / 3);
-                        triangle.lineTo(relX + triangleSide / 2, relY + triangleHeight / 3);
-                        triangle.closePath();
-                        if (!noFill)
-                        {
-                            g.setPaint(dot.color);
-                            g.fill(triangle);
-                        }
-                        g.setPaint(highlightBorderColor);
-                        g.draw(triangle);
-                    }
-                    else // circle
-                    {
-                        shape.x = relX - radius;
-                        shape.y = relY - radius;
-                        if (!noFill)
-                        {
-                            g.setPaint(dot.color);
-                            g.fill(shape);
-                        }
-                        g.setPaint(borderColor);
-                        g.draw(shape);
-                    }
-                }
+                drawDots(g, dots, box, TILE_SIZES[tileSizeIdx], diameter, noFill, borderColor, highlightBorderColor);
                 
-                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ImageIO.write(img.bi, "png", baos);
-                final byte[] data = baos.toByteArray();
+                final byte[] data = encodePng(img.bi);
                 return data;
             }
         }
@@ -250,4 +298,63 @@ public class PointTiles extends TileRestlet<PointTileParameters>
             throw new IllegalStateException(e);
         }
     }
+    
+    /**
+     * draws the points, highlighted points as triangles
+     * @param g
+     * @param dots
+     * @param box
+     * @param tileSize
+     * @param diameter
+     * @param noFill
+     * @param borderColor
+     * @param highlightBorderColor
+     */
+    static void drawDots(final Graphics2D g, final List<Dot> dots, final DBox box, final int tileSize,
+            final double diameter, final boolean noFill, final Color borderColor, final Color highlightBorderColor)
+    {
+        final double radius = diameter / 2d;
+        final double triangleSide = diameter * TRIANGLE_FACTOR;
+        final double triangleHeight = Math.sqrt(3) / 2d * triangleSide;
+        
+        g.setComposite(AlphaComposite.Src);
+        g.setStroke((new BasicStroke(((float) diameter / 8f))));
+        
+        final Path2D.Double triangle = new Path2D.Double();
+        final Ellipse2D.Double shape = new Ellipse2D.Double(0, 0, diameter, diameter);
+        
+        for (final Dot dot : dots)
+        {
+            final double relX = (dot.x - box.x1) / box.res;
+            final double relY = tileSize - (dot.y - box.y1) / box.res;
+            
+            if (dot.highlight) // triangle
+            {
+                triangle.reset();
+                triangle.moveTo(relX, relY - triangleHeight / 3 * 2);
+                triangle.lineTo(relX - triangleSide / 2, relY + triangleHeight / 3);
+                triangle.lineTo(relX + triangleSide / 2, relY + triangleHeight / 3);
+                triangle.closePath();
+                if (!noFill)
+                {
+                    g.setPaint(dot.color);
+                    g.fill(triangle);
+                }
+                g.setPaint(highlightBorderColor);
+                g.draw(triangle);
+            }
+            else // circle
+            {
+                shape.x = relX - radius;
+                shape.y = relY - radius;
+                if (!noFill)
+                {
+                    g.setPaint(dot.color);
+                    g.fill(shape);
+                }
+                g.setPaint(borderColor);
+                g.draw(shape);
+            }
+        }
+    }
 }
@@ -0,0 +1,472 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.alladin.rmbt.shared.metrics.LatencyHistogram;
+
+/**
+ * admission control of tile rendering: at most {@link #getMaxRenders()} tiles are rendered at the same time, further
+ * renders wait in a bounded queue. Cache hits do not pass the admission, so they are never queued behind renders.<br>
+ * A free slot is given to the waiting render with the best priority: tiles near the tile last requested by the client
+ * (its viewport), then other tiles of the current zoom of the client, tiles of other zoom levels and finally background
+ * renders (seeding); between renders of the same priority the client with fewer running renders and then the older
+ * render wins. A client never runs more than {@link #getMaxPerClient()} renders at once.<br>
+ * If the queue is full, the waiting render with the worst priority is rejected; renders are also rejected after waiting
+ * {@link #getMaxWaitMs()}. The caller degrades a rejected render, e.g. to a stale or lower resolution tile.<br>
+ * The viewports of the clients are recorded without the lock of the admission, so cache hits never wait for it.
+ * @author lb
+ *
+ */
+public class RenderAdmission {
+	
+	public final static int DEFAULT_MAX_RENDERS = 8;
+	
+	public final static int DEFAULT_MAX_QUEUE = 64;
+	
+	public final static int DEFAULT_MAX_PER_CLIENT = 4;
+	
+	public final static long DEFAULT_MAX_WAIT_MS = 10000;
+	
+	/**
+	 * tiles within this distance (in tiles) of the last requested tile of a client are in its viewport
+	 */
+	final static int VIEWPORT_RADIUS = 4;
+	
+	final static int PRIORITY_VIEWPORT = 0;
+	final static int PRIORITY_ZOOM = 1;
+	final static int PRIORITY_OTHER_ZOOM = 2;
+	final static int PRIORITY_BACKGROUND = 3;
+	
+	/**
+	 * once there are more than {@link #MAX_CLIENTS} clients, the clients idle for this time are forgotten
+	 */
+	private final static long CLIENT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+	
+	/**
+	 * the clients are swept at most once per this interval
+	 */
+	private final static long SWEEP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+	
+	final static int MAX_CLIENTS = 10000;
+	
+	/**
+	 * a granted render, must be closed when the render has finished
+	 */
+	public class Ticket implements AutoCloseable {
+		private final Client client;
+		
+		private Ticket(Client client) {
+			this.client = client;
+		}
+		
+		@Override
+		public void close() {
+			if (client != null) {
+				release(client);
+			}
+		}
+	}
+	
+	private static class Viewport {
+		final int zoom;
+		final int x;
+		final int y;
+		
+		Viewport(int zoom, int x, int y) {
+			this.zoom = zoom;
+			this.x = x;
+			this.y = y;
+		}
+	}
+	
+	private static class Client {
+		volatile Viewport viewport;
+		volatile long lastSeen;
+		// only accessed while holding the lock:
+		int running;
+		int queued;
+	}
+	
+	private static class Waiter {
+		final Client client;
+		final int zoom;
+		final int x;
+		final int y;
+		final boolean background;
+		final long seq;
+		boolean granted;
+		boolean rejected;
+		
+		Waiter(Client client, int zoom, int x, int y, boolean background, long seq) {
+			this.client = client;
+			this.zoom = zoom;
+			this.x = x;
+			this.y = y;
+			this.background = background;
+			this.seq = seq;
+		}
+		
+		int getPriority() {
+			if (background) {
+				return PRIORITY_BACKGROUND;
+			}
+			final Viewport viewport = client.viewport;
+			if (viewport == null || zoom != viewport.zoom) {
+				return PRIORITY_OTHER_ZOOM;
+			}
+			if (Math.abs(x - viewport.x) <= VIEWPORT_RADIUS && Math.abs(y - viewport.y) <= VIEWPORT_RADIUS) {
+				return PRIORITY_VIEWPORT;
+			}
+			return PRIORITY_ZOOM;
+		}
+	}
+	
+	private final int maxRenders;
+	
+	private final int maxQueue;
+	
+	private final int maxPerClient;
+	
+	private final long maxWaitMs;
+	
+	/**
+	 * the ticket of the render on the current thread, so nested renders (e.g. the base tile of a highlight tile) are not admitted again
+	 */
+	private final ThreadLocal<Ticket> current = new ThreadLocal<>();
+	
+	private final Ticket nestedTicket = new Ticket(null);
+	
+	private final ConcurrentMap<String, Client> clients = new ConcurrentHashMap<>();
+	
+	private final AtomicLong nextSweep = new AtomicLong();
+	
+	// only accessed while holding the lock:
+	
+	private final List<Waiter> waiters = new ArrayList<>();
+	
+	private int running;
+	
+	private long seq;
+	
+	// metrics:
+	
+	private final AtomicLong admitted = new AtomicLong();
+	
+	private final AtomicLong rejected = new AtomicLong();
+	
+	private final LatencyHistogram waitTime = new LatencyHistogram();
+	
+	public RenderAdmission() {
+		this(DEFAULT_MAX_RENDERS, DEFAULT_MAX_QUEUE, DEFAULT_MAX_PER_CLIENT, DEFAULT_MAX_WAIT_MS);
+	}
+	
+	/**
+	 * 
+	 * @param maxRenders max. number of concurrent renders
+	 * @param maxQueue max. number of waiting renders
+	 * @param maxPerClient max. number of concurrent renders per client
+	 * @param maxWaitMs max. time a render waits for admission
+	 */
+	public RenderAdmission(int maxRenders, int maxQueue, int maxPerClient, long maxWaitMs) {
+		if (maxRenders < 1 || maxQueue < 0 || maxPerClient < 1 || maxWaitMs < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.maxRenders = maxRenders;
+		this.maxQueue = maxQueue;
+		this.maxPerClient = maxPerClient;
+		this.maxWaitMs = maxWaitMs;
+	}
+	
+	/**
+	 * records the tile requested by a client (cache hits included), the viewport of the client is around its last tile
+	 * @param clientId
+	 * @param zoom
+	 * @param x
+	 * @param y
+	 */
+	public void observe(String clientId, int zoom, int x, int y) {
+		getClient(clientId).viewport = new Viewport(zoom, x, y);
+	}
+	
+	/**
+	 * waits until a tile may be rendered
+	 * @param clientId
+	 * @param zoom
+	 * @param x
+	 * @param y
+	 * @param background true for renders no client is waiting for (e.g. seeding)
+	 * @return the ticket that must be closed after rendering, or null if the render has been rejected
+	 * @throws InterruptedException
+	 */
+	public Ticket acquire(String clientId, int zoom, int x, int y, boolean background) throws InterruptedException {
+		if (current.get() != null) {
+			return nestedTicket;
+		}
+		final long start = System.nanoTime();
+		final Client client = getClient(clientId);
+		final Waiter waiter;
+		synchronized (this) {
+			waiter = new Waiter(client, zoom, x, y, background, seq++);
+			waiters.add(waiter);
+			client.queued++;
+			grant();
+			if (waiters.size() > maxQueue) {
+				reject(getWorst());
+			}
+			
+			final long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+			try {
+				while (! waiter.granted && ! waiter.rejected) {
+					final long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						reject(waiter);
+						break;
+					}
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				}
+			}
+			catch (final InterruptedException e) {
+				if (waiter.granted) {
+					release(client);
+				}
+				else {
+					reject(waiter);
+				}
+				throw e;
+			}
+		}
+		
+		waitTime.record((System.nanoTime() - start) / 1000);
+		if (! waiter.granted) {
+			rejected.incrementAndGet();
+			return null;
+		}
+		admitted.incrementAndGet();
+		return setCurrent(new Ticket(waiter.client));
+	}
+	
+	/**
+	 * admits a render only if a slot is free and no other render is waiting (e.g. the refresh of a stale tile)
+	 * @param clientId
+	 * @return the ticket that must be closed after rendering, or null if the render has been rejected
+	 */
+	public Ticket tryAcquire(String clientId) {
+		if (current.get() != null) {
+			return nestedTicket;
+		}
+		final Client client = getClient(clientId);
+		synchronized (this) {
+			if (running >= maxRenders || ! waiters.isEmpty() || client.running >= maxPerClient) {
+				rejected.incrementAndGet();
+				return null;
+			}
+			running++;
+			client.running++;
+		}
+		admitted.incrementAndGet();
+		return setCurrent(new Ticket(client));
+	}
+	
+	private Ticket setCurrent(Ticket ticket) {
+		current.set(ticket);
+		return ticket;
+	}
+	
+	private synchronized void release(Client client) {
+		current.remove();
+		running--;
+		client.running--;
+		grant();
+	}
+	
+	/**
+	 * gives the free slots to the waiting renders with the best priority
+	 */
+	private void grant() {
+		boolean changed = false;
+		while (running < maxRenders) {
+			Waiter best = null;
+			int bestPriority = 0;
+			for (final Waiter w : waiters) {
+				if (w.client.running >= maxPerClient) {
+					continue;
+				}
+				final int priority = w.getPriority();
+				if (best == null || priority < bestPriority
+						|| priority == bestPriority && (w.client.running < best.client.running
+								|| w.client.running == best.client.running && w.seq < best.seq)) {
+					best = w;
+					bestPriority = priority;
+				}
+			}
+			if (best == null) {
+				break;
+			}
+			waiters.remove(best);
+			best.client.queued--;
+			best.client.running++;
+			best.granted = true;
+			running++;
+			changed = true;
+		}
+		if (changed) {
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * 
+	 * @return the waiting render with the worst priority, the client with the most waiting renders and the oldest render first
+	 */
+	private Waiter getWorst() {
+		Waiter worst = null;
+		int worstPriority = 0;
+		for (final Waiter w : waiters) {
+			final int priority = w.getPriority();
+			if (worst == null || priority > worstPriority
+					|| priority == worstPriority && (w.client.queued > worst.client.queued
+							|| w.client.queued == worst.client.queued && w.seq < worst.seq)) {
+				worst = w;
+				worstPriority = priority;
+			}
+		}
+		return worst;
+	}
+	
+	private void reject(Waiter waiter) {
+		if (waiters.remove(waiter)) {
+			waiter.client.queued--;
+			waiter.rejected = true;
+			notifyAll();
+		}
+	}
+	
+	private Client getClient(String clientId) {
+		final long now = System.currentTimeMillis();
+		Client client = clients.get(clientId);
+		if (client == null) {
+			final Client newClient = new Client();
+			newClient.lastSeen = now;
+			client = clients.putIfAbsent(clientId, newClient);
+			if (client == null) {
+				client = newClient;
+				if (clients.size() > MAX_CLIENTS) {
+					sweep(now);
+				}
+			}
+		}
+		client.lastSeen = now;
+		return client;
+	}
+	
+	/**
+	 * forgets the clients without renders that have been idle for {@link #CLIENT_TIMEOUT_MS} (all clients without renders
+	 * if there are still too many), at most once per {@link #SWEEP_INTERVAL_MS}. A client that is forgotten while it starts
+	 * a render keeps its state for this render.
+	 * @param now
+	 */
+	private void sweep(long now) {
+		final long next = nextSweep.get();
+		if (now < next || ! nextSweep.compareAndSet(next, now + SWEEP_INTERVAL_MS)) {
+			return;
+		}
+		synchronized (this) {
+			for (final boolean idleOnly : new boolean[] {true, false}) {
+				for (final Map.Entry<String, Client> e : clients.entrySet()) {
+					final Client c = e.getValue();
+					if (c.running == 0 && c.queued == 0 && (! idleOnly || now - c.lastSeen > CLIENT_TIMEOUT_MS)) {
+						clients.remove(e.getKey(), c);
+					}
+				}
+				if (clients.size() <= MAX_CLIENTS) {
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @return the number of known clients
+	 */
+	int getClientCount() {
+		return clients.size();
+	}
+	
+	public int getMaxRenders() {
+		return maxRenders;
+	}
+	
+	public int getMaxQueue() {
+		return maxQueue;
+	}
+	
+	public int getMaxPerClient() {
+		return maxPerClient;
+	}
+	
+	public long getMaxWaitMs() {
+		return maxWaitMs;
+	}
+	
+	/**
+	 * 
+	 * @return number of running renders
+	 */
+	public synchronized int getRunning() {
+		return running;
+	}
+	
+	/**
+	 * 
+	 * @return number of waiting renders
+	 */
+	public synchronized int getQueued() {
+		return waiters.size();
+	}
+	
+	/**
+	 * 
+	 * @return number of admitted renders (without nested renders)
+	 */
+	public long getAdmitted() {
+		return admitted.get();
+	}
+	
+	/**
+	 * 
+	 * @return number of rejected renders
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+	
+	/**
+	 * 
+	 * @return the time renders waited for admission in microseconds
+	 */
+	public LatencyHistogram getWaitTime() {
+		return waitTime;
+	}
+}
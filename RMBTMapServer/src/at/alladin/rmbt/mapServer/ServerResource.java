@@ -24,6 +24,8 @@ import javax.naming.NamingException;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
 import org.restlet.engine.header.Header;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Options;
@@ -114,6 +116,22 @@ public class ServerResource extends org.restlet.resource.ServerResource
         responseHeaders.add("Access-Control-Max-Age", "60");
     }
     
+    /**
+     * checks the If-None-Match header of the request, sets the status to 304 if the client already has the tagged representation
+     * @param tag
+     * @return true if the representation has not been modified
+     */
+    protected boolean isNotModified(final Tag tag)
+    {
+        for (final Tag noneMatch : getRequest().getConditions().getNoneMatch())
+            if (Tag.ALL.equals(noneMatch) || tag.getName().equals(noneMatch.getName()))
+            {
+                setStatus(Status.REDIRECTION_NOT_MODIFIED);
+                return true;
+            }
+        return false;
+    }
+    
     @Options
     public void doOptions(final Representation entity)
     {
@@ -0,0 +1,486 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.naming.NamingException;
+
+import at.alladin.rmbt.shared.geo.Envelope;
+import at.alladin.rmbt.shared.geo.Polygon;
+import at.alladin.rmbt.shared.geo.RTree;
+import at.alladin.rmbt.shared.geo.WktReader;
+
+/**
+ * in-memory store of the municipality polygons of <code>kategorisierte_gemeinden</code> (SRID 900913) for the
+ * {@link ShapeTiles}.<br>
+ * The polygons are loaded once and simplified per level (the zoom level of 256 pixel tiles) with Douglas-Peucker and
+ * a tolerance of half a pixel. Vertices where the boundaries of neighbouring polygons meet or part are kept and each
+ * shared boundary is simplified in the same direction, so neighbours keep a common boundary without gaps or overlaps.
+ * The polygons of each level are indexed by an R-tree.
+ * @author lb
+ *
+ */
+public class ShapeStore {
+
+	private final static String SQL = "SELECT gemeinde_i, ST_AsText(the_geom) AS wkt FROM kategorisierte_gemeinden"
+			+ " WHERE the_geom IS NOT NULL";
+
+	/**
+	 * levels above use the original polygons
+	 */
+	final static int MAX_LEVEL = 18;
+
+	private static volatile ShapeStore instance;
+
+	/**
+	 * a single polygon of a municipality
+	 */
+	public static class Shape {
+		private final long id;
+		private final Polygon polygon;
+
+		Shape(long id, Polygon polygon) {
+			this.id = id;
+			this.polygon = polygon;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public Polygon getPolygon() {
+			return polygon;
+		}
+	}
+
+	private final static class Vertex {
+		final double x;
+		final double y;
+
+		Vertex(double x, double y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public int hashCode() {
+			final long bits = Double.doubleToLongBits(x) * 31 + Double.doubleToLongBits(y);
+			return (int) (bits ^ (bits >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Vertex)) {
+				return false;
+			}
+			final Vertex other = (Vertex) obj;
+			return x == other.x && y == other.y;
+		}
+	}
+
+	private final Shape[] shapes;
+
+	/**
+	 * per shape and ring: the vertices which are kept by the simplification
+	 */
+	private final boolean[][][] junctions;
+
+	/**
+	 * R-tree per level, {@link #MAX_LEVEL} + 1 for the original polygons
+	 */
+	private final AtomicReferenceArray<RTree<Shape>> levels = new AtomicReferenceArray<>(MAX_LEVEL + 2);
+
+	/**
+	 *
+	 * @param shapes
+	 */
+	ShapeStore(List<Shape> shapes) {
+		this.shapes = shapes.toArray(new Shape[shapes.size()]);
+		this.junctions = findJunctions(this.shapes);
+	}
+
+	/**
+	 * returns the store, it is loaded from the database on the first call
+	 * @return
+	 * @throws SQLException
+	 * @throws NamingException
+	 */
+	public static ShapeStore getInstance() throws SQLException, NamingException {
+		ShapeStore store = instance;
+		if (store == null) {
+			synchronized (ShapeStore.class) {
+				store = instance;
+				if (store == null) {
+					try (Connection conn = DbConnection.getConnection()) {
+						store = load(conn);
+					}
+					instance = store;
+					System.out.println("shape store loaded: " + store.shapes.length + " polygons");
+				}
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * loads all polygons from the database
+	 * @param conn
+	 * @return
+	 * @throws SQLException
+	 */
+	public static ShapeStore load(Connection conn) throws SQLException {
+		final List<Shape> shapes = new ArrayList<>();
+		try (PreparedStatement ps = conn.prepareStatement(SQL);
+				ResultSet rs = ps.executeQuery())
+		{
+			while (rs.next()) {
+				final long id = rs.getLong("gemeinde_i");
+				for (Polygon p : WktReader.readPolygons(rs.getString("wkt"))) {
+					shapes.add(new Shape(id, p));
+				}
+			}
+		}
+		catch (ParseException e) {
+			throw new SQLException(e);
+		}
+		return new ShapeStore(shapes);
+	}
+
+	/**
+	 *
+	 * @param zoom
+	 * @param tileSize
+	 * @return the level of the tile, i.e. the zoom level of a 256 pixel tile with the same resolution (rounded up)
+	 */
+	public static int getLevel(int zoom, int tileSize) {
+		int level = zoom;
+		for (int size = 256; size < tileSize; size *= 2) {
+			level++;
+		}
+		return Math.min(level, MAX_LEVEL + 1);
+	}
+
+	/**
+	 *
+	 * @param level
+	 * @param envelope
+	 * @return the polygons of a level whose envelope intersects the given envelope
+	 */
+	public List<Shape> search(int level, Envelope envelope) {
+		return getTree(Math.max(0, Math.min(level, MAX_LEVEL + 1))).search(envelope);
+	}
+
+	private RTree<Shape> getTree(int level) {
+		RTree<Shape> tree = levels.get(level);
+		if (tree == null) {
+			// concurrent builds of the same level give the same result
+			final double tolerance = level > MAX_LEVEL ? 0 : GeoCalc.getResFromZoom(256, level) / 2;
+			final RTree.Builder<Shape> builder = new RTree.Builder<>();
+			for (int i = 0; i < shapes.length; i++) {
+				final Shape shape = tolerance == 0 ? shapes[i] : simplify(shapes[i], junctions[i], tolerance);
+				if (shape != null) {
+					builder.add(shape.polygon.getEnvelope(), shape);
+				}
+			}
+			tree = builder.build();
+			levels.set(level, tree);
+		}
+		return tree;
+	}
+
+	/**
+	 *
+	 * @param shape
+	 * @param junctions
+	 * @param tolerance
+	 * @return the simplified polygon or null if its exterior ring collapses
+	 */
+	private static Shape simplify(Shape shape, boolean[][] junctions, double tolerance) {
+		final double[][] rings = shape.polygon.getRings();
+		final List<double[]> result = new ArrayList<>(rings.length);
+		for (int r = 0; r < rings.length; r++) {
+			final double[] ring = simplifyRing(open(rings[r]), junctions[r], tolerance);
+			if (ring != null) {
+				result.add(ring);
+			}
+			else if (r == 0) {
+				return null;
+			}
+		}
+		return new Shape(shape.id, new Polygon(result.toArray(new double[result.size()][])));
+	}
+
+	/**
+	 *
+	 * @param ring
+	 * @return the ring without the closing vertex
+	 */
+	static double[] open(double[] ring) {
+		final int n = ring.length;
+		if (n >= 4 && ring[0] == ring[n - 2] && ring[1] == ring[n - 1]) {
+			final double[] result = new double[n - 2];
+			System.arraycopy(ring, 0, result, 0, n - 2);
+			return result;
+		}
+		return ring;
+	}
+
+	/**
+	 * finds the vertices where boundaries meet or part: a vertex is a junction if one of its edges is not shared by all
+	 * rings which contain the vertex
+	 * @param shapes
+	 * @return per shape and ring the junctions
+	 */
+	static boolean[][][] findJunctions(Shape[] shapes) {
+		final Map<Vertex, int[]> vertexCounts = new HashMap<>();
+		final Map<List<Vertex>, int[]> edgeCounts = new HashMap<>();
+		final Vertex[][][] vertices = new Vertex[shapes.length][][];
+		for (int s = 0; s < shapes.length; s++) {
+			final double[][] rings = shapes[s].polygon.getRings();
+			vertices[s] = new Vertex[rings.length][];
+			for (int r = 0; r < rings.length; r++) {
+				final double[] ring = open(rings[r]);
+				final Vertex[] v = new Vertex[ring.length / 2];
+				for (int i = 0; i < v.length; i++) {
+					v[i] = new Vertex(ring[2 * i], ring[2 * i + 1]);
+					increment(vertexCounts, v[i]);
+				}
+				for (int i = 0; i < v.length; i++) {
+					increment(edgeCounts, edge(v[i], v[(i + 1) % v.length]));
+				}
+				vertices[s][r] = v;
+			}
+		}
+
+		final boolean[][][] result = new boolean[shapes.length][][];
+		for (int s = 0; s < shapes.length; s++) {
+			result[s] = new boolean[vertices[s].length][];
+			for (int r = 0; r < vertices[s].length; r++) {
+				final Vertex[] v = vertices[s][r];
+				final boolean[] junctions = new boolean[v.length];
+				for (int i = 0; i < v.length; i++) {
+					final int count = vertexCounts.get(v[i])[0];
+					junctions[i] = edgeCounts.get(edge(v[(i + v.length - 1) % v.length], v[i]))[0] != count
+							|| edgeCounts.get(edge(v[i], v[(i + 1) % v.length]))[0] != count;
+				}
+				result[s][r] = junctions;
+			}
+		}
+		return result;
+	}
+
+	private static <K> void increment(Map<K, int[]> map, K key) {
+		final int[] count = map.get(key);
+		if (count == null) {
+			map.put(key, new int[] {1});
+		}
+		else {
+			count[0]++;
+		}
+	}
+
+	private static List<Vertex> edge(Vertex a, Vertex b) {
+		final List<Vertex> edge = new ArrayList<>(2);
+		if (compare(a.x, a.y, b.x, b.y) <= 0) {
+			edge.add(a);
+			edge.add(b);
+		}
+		else {
+			edge.add(b);
+			edge.add(a);
+		}
+		return edge;
+	}
+
+	private static int compare(double x1, double y1, double x2, double y2) {
+		final int c = Double.compare(x1, x2);
+		return c != 0 ? c : Double.compare(y1, y2);
+	}
+
+	/**
+	 * simplifies a ring with Douglas-Peucker, the chains between the junctions are simplified in a canonical direction
+	 * @param ring open ring
+	 * @param junctions vertices which are kept
+	 * @param tolerance
+	 * @return the simplified open ring or null if less than 3 vertices remain
+	 */
+	static double[] simplifyRing(double[] ring, boolean[] junctions, double tolerance) {
+		final int n = ring.length / 2;
+		if (n < 3) {
+			return null;
+		}
+		final boolean[] keep = junctions.clone();
+		int fixed = 0;
+		for (boolean j : keep) {
+			if (j) {
+				fixed++;
+			}
+		}
+		if (fixed == 0) {
+			// the smallest vertex is the same for both sides of a shared ring
+			int min = 0;
+			for (int i = 1; i < n; i++) {
+				if (compare(ring[2 * i], ring[2 * i + 1], ring[2 * min], ring[2 * min + 1]) < 0) {
+					min = i;
+				}
+			}
+			keep[min] = true;
+			fixed = 1;
+		}
+		if (fixed == 1) {
+			// split the closed chain at the vertex farthest from the fixed one
+			int start = 0;
+			while (!keep[start]) {
+				start++;
+			}
+			int far = -1;
+			double farDist = -1;
+			for (int i = 0; i < n; i++) {
+				final double dx = ring[2 * i] - ring[2 * start];
+				final double dy = ring[2 * i + 1] - ring[2 * start + 1];
+				final double d = dx * dx + dy * dy;
+				if (d > farDist || (d == farDist && compare(ring[2 * i], ring[2 * i + 1], ring[2 * far], ring[2 * far + 1]) < 0)) {
+					far = i;
+					farDist = d;
+				}
+			}
+			keep[far] = true;
+		}
+
+		int first = 0;
+		while (!keep[first]) {
+			first++;
+		}
+		int a = first;
+		do {
+			int b = (a + 1) % n;
+			while (!keep[b]) {
+				b = (b + 1) % n;
+			}
+			simplifyChain(ring, a, b, n, keep, tolerance);
+			a = b;
+		} while (a != first);
+
+		int count = 0;
+		for (boolean k : keep) {
+			if (k) {
+				count++;
+			}
+		}
+		if (count < 3) {
+			return null;
+		}
+		final double[] result = new double[count * 2];
+		for (int i = 0, o = 0; i < n; i++) {
+			if (keep[i]) {
+				result[o++] = ring[2 * i];
+				result[o++] = ring[2 * i + 1];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * simplifies the chain from vertex a to vertex b (cyclic), starting at the smaller end, so vertices with the same
+	 * distance are chosen the same way on both sides of a shared boundary
+	 */
+	private static void simplifyChain(double[] ring, int a, int b, int n, boolean[] keep, double tolerance) {
+		final int length = (b - a + n) % n + 1;
+		if (length <= 2) {
+			return;
+		}
+		final int[] index = new int[length];
+		for (int i = 0; i < length; i++) {
+			index[i] = (a + i) % n;
+		}
+		if (isReversed(ring, index)) {
+			for (int i = 0; i < length / 2; i++) {
+				final int tmp = index[i];
+				index[i] = index[length - 1 - i];
+				index[length - 1 - i] = tmp;
+			}
+		}
+
+		final double toleranceSq = tolerance * tolerance;
+		final int[] stack = new int[length * 2];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = length - 1;
+		while (top > 0) {
+			final int last = stack[--top];
+			final int start = stack[--top];
+			final double x1 = ring[2 * index[start]];
+			final double y1 = ring[2 * index[start] + 1];
+			final double x2 = ring[2 * index[last]];
+			final double y2 = ring[2 * index[last] + 1];
+			int max = -1;
+			double maxDist = toleranceSq;
+			for (int i = start + 1; i < last; i++) {
+				final double d = distanceSq(ring[2 * index[i]], ring[2 * index[i] + 1], x1, y1, x2, y2);
+				if (d > maxDist) {
+					max = i;
+					maxDist = d;
+				}
+			}
+			if (max >= 0) {
+				keep[index[max]] = true;
+				stack[top++] = start;
+				stack[top++] = max;
+				stack[top++] = max;
+				stack[top++] = last;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return true if the chain has to be reversed to be in canonical direction
+	 */
+	private static boolean isReversed(double[] ring, int[] index) {
+		for (int i = 0, j = index.length - 1; i < j; i++, j--) {
+			final int c = compare(ring[2 * index[i]], ring[2 * index[i] + 1], ring[2 * index[j]], ring[2 * index[j] + 1]);
+			if (c != 0) {
+				return c > 0;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * @return the squared distance of point p to the segment 1 - 2
+	 */
+	private static double distanceSq(double px, double py, double x1, double y1, double x2, double y2) {
+		final double dx = x2 - x1;
+		final double dy = y2 - y1;
+		final double lengthSq = dx * dx + dy * dy;
+		double t = lengthSq == 0 ? 0 : ((px - x1) * dx + (py - y1) * dy) / lengthSq;
+		t = Math.max(0, Math.min(1, t));
+		final double ex = x1 + t * dx - px;
+		final double ey = y1 + t * dy - py;
+		return ex * ex + ey * ey;
+	}
+}
@@ -19,45 +19,62 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.geom.Path2D;
-import java.io.ByteArrayOutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
-import javax.imageio.ImageIO;
-
-import org.postgis.Geometry;
-import org.postgis.MultiPolygon;
-import org.postgis.PGgeometry;
-import org.postgis.Point;
-import org.postgis.Polygon;
 import org.restlet.data.Form;
 
 import at.alladin.rmbt.mapServer.MapServerOptions.MapOption;
 import at.alladin.rmbt.mapServer.MapServerOptions.SQLFilter;
+import at.alladin.rmbt.mapServer.ShapeStore.Shape;
 import at.alladin.rmbt.mapServer.parameters.ShapeTileParameters;
 import at.alladin.rmbt.mapServer.parameters.TileParameters.Path;
+import at.alladin.rmbt.shared.geo.Envelope;
 
-import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
+/**
+ * municipalities colored by the quantile of their measurements. The polygons come from the {@link ShapeStore} and are
+ * clipped and drawn in Java, only the statistics per municipality are queried (and cached per filter).
+ */
 public class ShapeTiles extends TileRestlet<ShapeTileParameters>
 {
+    private static final int STATISTICS_EXPIRE_MIN = 10;
     
-    private static class GeometryColor
+    static class Statistic
     {
-        final Geometry geometry;
-        final Color color;
+        final long count;
+        final double value;
         
-        public GeometryColor(final Geometry geometry, final Color color)
+        Statistic(final long count, final double value)
         {
-            this.geometry = geometry;
-            this.color = color;
+            this.count = count;
+            this.value = value;
         }
     }
     
+    /**
+     * municipality -&gt; statistic by map option, quantile and filters
+     */
+    private static final Cache<String, Map<Long, Statistic>> STATISTICS = CacheBuilder.newBuilder()
+            .expireAfterWrite(STATISTICS_EXPIRE_MIN, TimeUnit.MINUTES)
+            .maximumSize(200)
+            .build();
+    
+    @Override
+    protected String getType()
+    {
+        return "shapes";
+    }
+    
     @Override
     protected ShapeTileParameters getTileParameters(Path path, Form params)
     {
@@ -68,152 +85,85 @@ public class ShapeTiles extends TileRestlet<ShapeTileParameters>
     protected byte[] generateTile(final ShapeTileParameters params, final int tileSizeIdx, final int zoom, final DBox box,
             final MapOption mo, final List<SQLFilter> filters, final float quantile)
     {
-        Connection con = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
-        
-        double _transparency = params.getTransparency();
+        final double _transparency = params.getTransparency();
         
         try
         {
-            con = DbConnection.getConnection();
-            
-            final StringBuilder whereSQL = new StringBuilder(mo.sqlFilter);
-            for (final SQLFilter sf : filters)
-                whereSQL.append(" AND ").append(sf.where);
-            
-            /*
-             * old zip code
-             * 
-            final String sql = String.format(
-                    "WITH box AS" 
-                    + " (SELECT ST_SetSRID(ST_MakeBox2D(ST_Point(?,?),"
-                    + " ST_Point(?,?)), 900913) AS box)" 
-                    + " SELECT"
-                    + " ST_SnapToGrid(ST_intersection(p.the_geom, box.box), ?,?,?,?) AS geom," 
-                    + " count(\"%1$s\") count,"
-                    + " quantile(\"%1$s\",?) val" 
-                    + " FROM box, plz2001 p" 
-                    + " JOIN v_test2 t ON t.zip_code=p.plz_4"
-                    + " WHERE" + " %2$s" 
-                    + " AND p.the_geom && box.box" 
-                    + " AND ST_intersects(p.the_geom, box.box)"
-                    + " GROUP BY p.the_geom, box.box", mo.valueColumnLog, whereSQL);
-            */
-            
-            final String sql = String.format(
-                    "WITH box AS" 
-                    + " (SELECT ST_SetSRID(ST_MakeBox2D(ST_Point(?,?),"
-                    + " ST_Point(?,?)), 900913) AS box)" 
-                    + " SELECT"
-                    + " ST_SnapToGrid(ST_intersection(p.the_geom, box.box), ?,?,?,?) AS geom," 
-                    + " count(\"%1$s\") count,"
-                    + " quantile(\"%1$s\",?) val" 
-                    + " FROM box, kategorisierte_gemeinden p" 
-                    + " JOIN v_test2 t ON t.gkz=p.gemeinde_i"
-                    + " WHERE" + " %2$s" 
-                    + " AND p.the_geom && box.box" 
-                    + " AND ST_intersects(p.the_geom, box.box)"
-                    + " GROUP BY p.the_geom, box.box", mo.valueColumnLog, whereSQL);
-            
-            
-            ps = con.prepareStatement(sql);
-            
-            int idx = 1;
-            
-            /* makeBox2D */
-            final double margin = box.res * 1;
-            ps.setDouble(idx++, box.x1 - margin);
-            ps.setDouble(idx++, box.y1 - margin);
-            ps.setDouble(idx++, box.x2 + margin);
-            ps.setDouble(idx++, box.y2 + margin);
-            
-            /* snapToGrid */
-            ps.setDouble(idx++, box.x1);
-            ps.setDouble(idx++, box.y1);
-            ps.setDouble(idx++, box.res);
-            ps.setDouble(idx++, box.res);
-            
-            ps.setFloat(idx++, quantile);
-            
-            for (final SQLFilter sf : filters)
-                idx = sf.fillParams(idx, ps);
-            
-            rs = ps.executeQuery();
-            if (rs == null)
-                throw new IllegalArgumentException();
-            
-            final List<GeometryColor> geoms = new ArrayList<>();
-            while (rs.next())
+            final String key = params.getMapOption() + "|" + quantile + "|" + new TreeMap<>(params.getFilterMap());
+            final Map<Long, Statistic> statistics = STATISTICS.get(key, new Callable<Map<Long, Statistic>>()
             {
-                final String geomStr = rs.getString("geom");
-                if (! Strings.isNullOrEmpty(geomStr))
+                @Override
+                public Map<Long, Statistic> call() throws Exception
                 {
-                    final Geometry geom = PGgeometry.geomFromString(geomStr);
-                    
-                    final long count = rs.getLong("count");
-                    final double val = rs.getDouble("val");
-                    final int colorInt = valueToColor(mo.colorsSorted, mo.intervalsSorted, val);
-                    double transparency = ((double)count / 20d) * _transparency;
-                    if (transparency > _transparency)
-                        transparency = _transparency;
-                    final int alpha = (int) Math.round(transparency * 255) << 24;
-                    final Color color = new Color(colorInt | alpha, true);
-                    
-                    geoms.add(new GeometryColor(geom, color));
+                    return loadStatistics(mo, filters, quantile);
                 }
-            }
-            
-            if (geoms.isEmpty())
+            });
+            if (statistics.isEmpty())
                 return null;
             
+            final int tileSize = TILE_SIZES[tileSizeIdx];
+            final double margin = box.res * 1;
+            final Envelope clip = new Envelope(box.x1 - margin, box.y1 - margin, box.x2 + margin, box.y2 + margin);
+            final List<Shape> shapes = ShapeStore.getInstance().search(ShapeStore.getLevel(zoom, tileSize), clip);
+            
             final Image img = images[tileSizeIdx].get();
             final Graphics2D g = img.g;
             
             g.setBackground(new Color(0, 0, 0, 0));
             g.clearRect(0, 0, img.width, img.height);
-//                    g.setComposite(AlphaComposite.Src);
             g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
             
-            final Path2D.Double path = new Path2D.Double();
+            final Path2D.Double path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+            final Map<Long, Color> colors = new HashMap<>();
+            boolean emptyTile = true;
             
-            for (final GeometryColor geomColor : geoms)
+            for (final Shape shape : shapes)
             {
-                final Geometry geom = geomColor.geometry;
+                final Statistic statistic = statistics.get(shape.getId());
+                if (statistic == null)
+                    continue;
                 
-                final Polygon[] polys;
-                if (geom instanceof MultiPolygon)
-                    polys = ((MultiPolygon) geom).getPolygons();
-                else if (geom instanceof Polygon)
-                    polys = new Polygon[] { (Polygon) geom };
-                else
-                    polys = new Polygon[] {};
+                Color color = colors.get(shape.getId());
+                if (color == null)
+                {
+                    final int colorInt = valueToColor(mo.colorsSorted, mo.intervalsSorted, statistic.value);
+                    double transparency = ((double) statistic.count / 20d) * _transparency;
+                    if (transparency > _transparency)
+                        transparency = _transparency;
+                    final int alpha = (int) Math.round(transparency * 255) << 24;
+                    color = new Color(colorInt | alpha, true);
+                    colors.put(shape.getId(), color);
+                }
                 
-                for (final Polygon poly : polys)
-                    for (int i = 0; i < poly.numRings(); i++)
+                path.reset();
+                for (final double[] ring : shape.getPolygon().getRings())
+                {
+                    final double[] clipped = clip(ring, clip);
+                    if (clipped.length < 6)
+                        continue;
+                    for (int i = 0; i < clipped.length; i += 2)
                     {
-                        final Point[] points = poly.getRing(i).getPoints();
-                        
-                        path.reset();
-                        boolean initial = true;
-                        for (final Point point : points)
-                        {
-                            final double relX = (point.x - box.x1) / box.res;
-                            final double relY = TILE_SIZES[tileSizeIdx] - (point.y - box.y1) / box.res;
-                            if (initial)
-                            {
-                                initial = false;
-                                path.moveTo(relX, relY);
-                            }
+                        final double relX = (clipped[i] - box.x1) / box.res;
+                        final double relY = tileSize - (clipped[i + 1] - box.y1) / box.res;
+                        if (i == 0)
+                            path.moveTo(relX, relY);
+                        else
                             path.lineTo(relX, relY);
-                        }
-                        g.setPaint(geomColor.color);
-                        g.fill(path);
                     }
+                    path.closePath();
+                }
+                if (path.getCurrentPoint() == null)
+                    continue;
+                
+                emptyTile = false;
+                g.setPaint(color);
+                g.fill(path);
             }
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(img.bi, "png", baos);
-            final byte[] data = baos.toByteArray();
+            
+            if (emptyTile)
+                return null;
+            
+            final byte[] data = encodePng(img.bi);
             return data;
         }
         catch (final Exception e)
@@ -221,23 +171,112 @@ public class ShapeTiles extends TileRestlet<ShapeTileParameters>
             e.printStackTrace();
             throw new IllegalStateException(e);
         }
-        finally
+    }
+    
+    private static Map<Long, Statistic> loadStatistics(final MapOption mo, final List<SQLFilter> filters,
+            final float quantile) throws Exception
+    {
+        final StringBuilder whereSQL = new StringBuilder(mo.sqlFilter);
+        for (final SQLFilter sf : filters)
+            whereSQL.append(" AND ").append(sf.where);
+        
+        final String sql = String.format(
+                "SELECT"
+                + " t.gkz id,"
+                + " count(\"%1$s\") count,"
+                + " quantile(\"%1$s\",?) val"
+                + " FROM v_test2 t"
+                + " WHERE" + " %2$s"
+                + " AND t.gkz IS NOT NULL"
+                + " GROUP BY t.gkz", mo.valueColumnLog, whereSQL);
+        
+        final Map<Long, Statistic> result = new HashMap<>();
+        try (Connection con = DbConnection.getConnection();
+                PreparedStatement ps = con.prepareStatement(sql))
         {
-            try
+            int idx = 1;
+            ps.setFloat(idx++, quantile);
+            for (final SQLFilter sf : filters)
+                idx = sf.fillParams(idx, ps);
+            
+            try (ResultSet rs = ps.executeQuery())
             {
-                if (rs != null)
-                    rs.close();
-                if (ps != null)
-                    ps.close();
-                if (con != null)
-                    con.close();
+                while (rs.next())
+                    result.put(rs.getLong("id"), new Statistic(rs.getLong("count"), rs.getDouble("val")));
             }
-            catch (final SQLException e)
+        }
+        return result;
+    }
+    
+    /**
+     * clips a ring to an envelope (Sutherland-Hodgman)
+     * @param ring x0, y0, x1, y1...
+     * @param envelope
+     * @return the clipped ring, empty if it is outside of the envelope
+     */
+    static double[] clip(final double[] ring, final Envelope envelope)
+    {
+        final Envelope ringEnvelope = Envelope.of(ring);
+        if (!ringEnvelope.intersects(envelope))
+            return new double[0];
+        if (ringEnvelope.getMinX() >= envelope.getMinX() && ringEnvelope.getMaxX() <= envelope.getMaxX()
+                && ringEnvelope.getMinY() >= envelope.getMinY() && ringEnvelope.getMaxY() <= envelope.getMaxY())
+            return ring;
+        
+        double[] coords = ring;
+        int length = ring.length;
+        for (int edge = 0; edge < 4 && length > 0; edge++)
+        {
+            final double[] out = new double[length * 2 + 4];
+            int o = 0;
+            double px = coords[length - 2];
+            double py = coords[length - 1];
+            boolean pIn = isInside(px, py, envelope, edge);
+            for (int i = 0; i < length; i += 2)
             {
-                e.printStackTrace();
-                throw new IllegalStateException(e);
+                final double cx = coords[i];
+                final double cy = coords[i + 1];
+                final boolean cIn = isInside(cx, cy, envelope, edge);
+                if (cIn != pIn)
+                {
+                    // intersection with the clip edge
+                    final double t;
+                    if (edge < 2)
+                        t = ((edge == 0 ? envelope.getMinX() : envelope.getMaxX()) - px) / (cx - px);
+                    else
+                        t = ((edge == 2 ? envelope.getMinY() : envelope.getMaxY()) - py) / (cy - py);
+                    out[o++] = px + t * (cx - px);
+                    out[o++] = py + t * (cy - py);
+                }
+                if (cIn)
+                {
+                    out[o++] = cx;
+                    out[o++] = cy;
+                }
+                px = cx;
+                py = cy;
+                pIn = cIn;
             }
+            coords = out;
+            length = o;
         }
+        final double[] result = new double[length];
+        System.arraycopy(coords, 0, result, 0, length);
+        return result;
     }
     
+    private static boolean isInside(final double x, final double y, final Envelope envelope, final int edge)
+    {
+        switch (edge)
+        {
+        case 0:
+            return x >= envelope.getMinX();
+        case 1:
+            return x <= envelope.getMaxX();
+        case 2:
+            return y >= envelope.getMinY();
+        default:
+            return y <= envelope.getMaxY();
+        }
+    }
 }
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.restlet.data.Form;
+import org.restlet.data.Parameter;
+
+import at.alladin.rmbt.mapServer.parameters.TileParameters;
+import at.alladin.rmbt.mapServer.parameters.TileParameters.Path;
+
+/**
+ * counts the requests of cacheable tiles by tile type, tile and parameters, used to prioritize the {@link TileSeeder}.<br>
+ * The number of entries is limited: if the limit is reached, all counts are halved and entries with a count of 0 are dropped.
+ * @author lb
+ *
+ */
+public class TileRequestLog {
+
+	public final static int MAX_ENTRIES = 50000;
+	
+	public final static class TileRequest {
+		final String type;
+		final int zoom;
+		final int x;
+		final int y;
+		final String query;
+		
+		TileRequest(String type, int zoom, int x, int y, String query) {
+			this.type = type;
+			this.zoom = zoom;
+			this.x = x;
+			this.y = y;
+			this.query = query;
+		}
+
+		/**
+		 * 
+		 * @return points, heatmap or shapes
+		 */
+		public String getType() {
+			return type;
+		}
+		
+		public Path getPath() {
+			return new Path(zoom, x, y);
+		}
+
+		/**
+		 * 
+		 * @return the tile parameters of the request (ordered by name, url encoded)
+		 */
+		public String getQuery() {
+			return query;
+		}
+		
+		@Override
+		public int hashCode() {
+			return ((type.hashCode() * 31 + zoom) * 31 + x) * 31 + y + query.hashCode() * 17;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof TileRequest)) {
+				return false;
+			}
+			final TileRequest o = (TileRequest) obj;
+			return zoom == o.zoom && x == o.x && y == o.y && type.equals(o.type) && query.equals(o.query);
+		}
+	}
+	
+	private final static TileRequestLog INSTANCE = new TileRequestLog();
+	
+	public static TileRequestLog getInstance() {
+		return INSTANCE;
+	}
+	
+	TileRequestLog() {
+	}
+	
+	private final ConcurrentMap<TileRequest, AtomicLong> counts = new ConcurrentHashMap<>();
+	
+	/**
+	 * 
+	 * @param form
+	 * @return the tile parameters of a request, ordered by name and url encoded
+	 */
+	public static String getQuery(Form form) {
+		final Map<String, String> parameters = new TreeMap<>();
+		for (final Parameter parameter : form) {
+			if (TileParameters.isTileParameter(parameter.getName()) && !parameters.containsKey(parameter.getName())) {
+				parameters.put(parameter.getName(), parameter.getValue() == null ? "" : parameter.getValue());
+			}
+		}
+		final StringBuilder sb = new StringBuilder();
+		try {
+			for (final Map.Entry<String, String> e : parameters.entrySet()) {
+				if (sb.length() > 0) {
+					sb.append('&');
+				}
+				sb.append(URLEncoder.encode(e.getKey(), "UTF-8")).append('=').append(URLEncoder.encode(e.getValue(), "UTF-8"));
+			}
+		}
+		catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * 
+	 * @param type
+	 * @param path
+	 * @param form the request parameters
+	 */
+	public void record(String type, Path path, Form form) {
+		record(new TileRequest(type, path.getZoom(), path.getX(), path.getY(), getQuery(form)), 1);
+	}
+	
+	void record(TileRequest request, long n) {
+		AtomicLong count = counts.get(request);
+		if (count == null) {
+			if (counts.size() >= MAX_ENTRIES) {
+				decay();
+			}
+			final AtomicLong newCount = new AtomicLong();
+			count = counts.putIfAbsent(request, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		count.addAndGet(n);
+	}
+	
+	private synchronized void decay() {
+		if (counts.size() < MAX_ENTRIES) {
+			return;
+		}
+		final Iterator<AtomicLong> it = counts.values().iterator();
+		while (it.hasNext()) {
+			final AtomicLong count = it.next();
+			long value;
+			do {
+				value = count.get();
+			}
+			while (!count.compareAndSet(value, value / 2));
+			if (value / 2 == 0) {
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @return a copy of the counts
+	 */
+	public Map<TileRequest, Long> getCounts() {
+		final Map<TileRequest, Long> result = new HashMap<>(counts.size() * 2);
+		for (final Map.Entry<TileRequest, AtomicLong> e : counts.entrySet()) {
+			result.put(e.getKey(), e.getValue().get());
+		}
+		return result;
+	}
+	
+	public void clear() {
+		counts.clear();
+	}
+	
+	/**
+	 * writes the counts to a file (one tab separated line per entry: count, type, zoom, x, y, query)
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		final File tmp = new File(file.getPath() + ".tmp");
+		try (final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+			for (final Map.Entry<TileRequest, Long> e : getCounts().entrySet()) {
+				final TileRequest r = e.getKey();
+				writer.write(e.getValue() + "\t" + r.type + "\t" + r.zoom + "\t" + r.x + "\t" + r.y + "\t" + r.query);
+				writer.newLine();
+			}
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("could not rename " + tmp + " to " + file);
+			}
+		}
+	}
+	
+	/**
+	 * adds the counts of a file written by {@link #save(File)}, invalid lines are ignored
+	 * @param file
+	 * @throws IOException
+	 */
+	public void load(File file) throws IOException {
+		try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = line.split("\t", -1);
+				if (fields.length != 6) {
+					continue;
+				}
+				try {
+					record(new TileRequest(fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+							Integer.parseInt(fields[4]), fields[5]), Long.parseLong(fields[0]));
+				}
+				catch (final NumberFormatException e) {
+				}
+			}
+		}
+	}
+}
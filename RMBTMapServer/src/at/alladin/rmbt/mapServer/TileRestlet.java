@@ -19,28 +19,41 @@ import java.awt.BasicStroke;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.imageio.ImageIO;
 
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.Restlet;
+import org.restlet.data.CacheDirective;
 import org.restlet.data.Form;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
+import org.restlet.representation.EmptyRepresentation;
+import org.restlet.representation.Representation;
 
 import at.alladin.rmbt.mapServer.MapServerOptions.MapFilter;
 import at.alladin.rmbt.mapServer.MapServerOptions.MapOption;
 import at.alladin.rmbt.mapServer.MapServerOptions.SQLFilter;
 import at.alladin.rmbt.mapServer.parameters.TileParameters;
 import at.alladin.rmbt.mapServer.parameters.TileParameters.Path;
+import at.alladin.rmbt.mapServer.png.PngEncoder;
 import at.alladin.rmbt.shared.cache.CacheHelper;
 import at.alladin.rmbt.shared.cache.CacheHelper.ObjectWithTimestamp;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
 public abstract class TileRestlet<Params extends TileParameters> extends Restlet
 {
     protected static final int[] TILE_SIZES = new int[] { 256, 512, 768 };
@@ -49,24 +62,33 @@ public abstract class TileRestlet<Params extends TileParameters> extends Restlet
     
     private static final int CACHE_STALE = 3600;
     private static final int CACHE_EXPIRE = 7200;
+    private static final int CACHE_DATA_EXPIRE = CACHE_EXPIRE + CACHE_STALE;
     private final CacheHelper cache = CacheHelper.getInstance();
     
+    /**
+     * prefix of the cache keys of the tile data, the cache entry of a tile only holds the content hash,
+     * so equal tiles are stored once
+     */
+    private static final String PREFIX_TILE = "tile:";
+    private static final HashFunction CONTENT_HASH = Hashing.sha256();
+    private static final BaseEncoding CONTENT_HASH_ENCODING = BaseEncoding.base64Url().omitPadding();
+    
+    /**
+     * tiles of up to this many zoom levels above are scaled if a tile cannot be rendered due to overload
+     */
+    private static final int MAX_DEGRADE_LEVELS = 2;
+    
+    private static final String LOCAL_CLIENT = "local";
+    private static final String SEEDER_CLIENT = "seeder";
+    
+    private static volatile PngEncoder pngEncoder = new PngEncoder();
+    
+    private static volatile RenderAdmission renderAdmission = new RenderAdmission();
+    
     static
     {
         for (int i = 0; i < TILE_SIZES.length; i++)
-        {
-            final BufferedImage img = new BufferedImage(TILE_SIZES[i], TILE_SIZES[i], BufferedImage.TYPE_INT_ARGB);
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try
-            {
-                ImageIO.write(img, "png", baos);
-            }
-            catch (final IOException e)
-            {
-                e.printStackTrace();
-            }
-            EMPTY_IMAGES[i] = baos.toByteArray();
-        }
+            EMPTY_IMAGES[i] = pngEncoder.encode(new int[TILE_SIZES[i] * TILE_SIZES[i]], TILE_SIZES[i], TILE_SIZES[i]);
     }
     
     protected static class Image
@@ -77,6 +99,39 @@ public abstract class TileRestlet<Params extends TileParameters> extends Restlet
         protected int height;
     }
     
+    /**
+     * a tile and the hash of its content, which is used as strong ETag
+     */
+    protected static class Tile
+    {
+        protected final String hash;
+        /**
+         * null if the client has the tile already
+         */
+        protected final byte[] data;
+        /**
+         * time of rendering in ms, 0 if unknown
+         */
+        protected final long timestamp;
+        /**
+         * true if the tile is a replacement of a tile that could not be rendered
+         */
+        protected final boolean degraded;
+        
+        protected Tile(final String hash, final byte[] data, final long timestamp)
+        {
+            this(hash, data, timestamp, false);
+        }
+        
+        protected Tile(final String hash, final byte[] data, final long timestamp, final boolean degraded)
+        {
+            this.hash = hash;
+            this.data = data;
+            this.timestamp = timestamp;
+            this.degraded = degraded;
+        }
+    }
+    
     static class DPoint
     {
         double x;
@@ -120,6 +175,43 @@ public abstract class TileRestlet<Params extends TileParameters> extends Restlet
         }
     }
     
+    public static PngEncoder getPngEncoder()
+    {
+        return pngEncoder;
+    }
+    
+    /**
+     * sets the encoder of all png tiles
+     * @param encoder
+     */
+    public static void setPngEncoder(final PngEncoder encoder)
+    {
+        pngEncoder = encoder;
+    }
+    
+    public static RenderAdmission getRenderAdmission()
+    {
+        return renderAdmission;
+    }
+    
+    /**
+     * sets the admission control of the rendering of all tiles
+     * @param admission
+     */
+    public static void setRenderAdmission(final RenderAdmission admission)
+    {
+        renderAdmission = admission;
+    }
+    
+    /**
+     * @param image
+     * @return the image as png
+     */
+    protected static byte[] encodePng(final BufferedImage image)
+    {
+        return pngEncoder.encode(image);
+    }
+    
     protected static int valueToColor(final int[] colors, final double[] intervals, final double value)
     {
         int idx = -1;
@@ -156,29 +248,297 @@ public abstract class TileRestlet<Params extends TileParameters> extends Restlet
         final String xStr = (String) req.getAttributes().get("x");
         final String yStr = (String) req.getAttributes().get("y");
         
-        final Path path = new Path(zoomStr, xStr, yStr, req.getResourceRef().getQueryAsForm().getFirstValue("path", true));
-        final Params p = getTileParameters(path, req.getResourceRef().getQueryAsForm());
-        res.setEntity(new PngOutputRepresentation(getTile(p)));
+        final Form form = req.getResourceRef().getQueryAsForm();
+        final Path path = new Path(zoomStr, xStr, yStr, form.getFirstValue("path", true));
+        final Params p = getTileParameters(path, form);
+        if (! p.isNoCache())
+            TileRequestLog.getInstance().record(getType(), path, form);
+        
+        final Set<String> knownHashes = new HashSet<>();
+        for (final Tag tag : req.getConditions().getNoneMatch())
+            knownHashes.add(tag.getName());
+        
+        final String client = req.getClientInfo().getAddress();
+        final Tile tile = serveTile(p, form, knownHashes, client != null ? client : LOCAL_CLIENT);
+        if (tile == null)
+        {
+            res.setCacheDirectives(Collections.singletonList(CacheDirective.noCache()));
+            res.setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+            return;
+        }
+        
+        res.setCacheDirectives(getCacheDirectives(p.isNoCache() || tile.degraded, tile.timestamp, System.currentTimeMillis()));
+        if (isKnown(knownHashes, tile.hash))
+        {
+            // a 304 response must include the ETag
+            final Representation notModified = new EmptyRepresentation();
+            notModified.setTag(new Tag(tile.hash, false));
+            res.setEntity(notModified);
+            res.setStatus(Status.REDIRECTION_NOT_MODIFIED);
+            return;
+        }
+        final Representation representation = getRepresentation(tile.data);
+        representation.setTag(new Tag(tile.hash, false));
+        res.setEntity(representation);
+    }
+    
+    /**
+     * @param p
+     * @param form the request parameters
+     * @param knownHashes the content hashes of the tiles the client has already
+     * @param client
+     * @return the tile, a degraded tile if the render has been rejected by the render admission, or null if there is none
+     */
+    Tile serveTile(final Params p, final Form form, final Set<String> knownHashes, final String client)
+    {
+        final Path path = p.getPath();
+        renderAdmission.observe(client, path.getZoom(), path.getX(), path.getY());
+        final Tile tile = getTile(p, knownHashes, client);
+        if (tile != null)
+            return tile;
+        // overload: the tile has not been rendered
+        return getDegradedTile(path, form, getTileSizeIdx(p));
+    }
+    
+    /**
+     * @param noCache
+     * @param timestamp time of rendering in ms, 0 if unknown
+     * @param now
+     * @return the cache directives of a tile, clients may use it until it is stale in the tile cache
+     */
+    static List<CacheDirective> getCacheDirectives(final boolean noCache, final long timestamp, final long now)
+    {
+        if (noCache)
+            return Collections.singletonList(CacheDirective.noCache());
+        return Arrays.asList(CacheDirective.publicInfo(), CacheDirective.maxAge(getMaxAge(timestamp, now)),
+                new CacheDirective("stale-while-revalidate", Integer.toString(CACHE_EXPIRE - CACHE_STALE)));
+    }
+    
+    /**
+     * @param timestamp time of rendering in ms, 0 if unknown
+     * @param now
+     * @return the seconds until the tile is stale
+     */
+    static int getMaxAge(final long timestamp, final long now)
+    {
+        if (timestamp <= 0)
+            return 0;
+        return (int) Math.max(0, Math.min(CACHE_STALE, CACHE_STALE - (now - timestamp) / 1000));
+    }
+    
+    /**
+     * @param knownHashes the hashes of the If-None-Match header
+     * @param hash
+     * @return true if the client has the tile already
+     */
+    static boolean isKnown(final Set<String> knownHashes, final String hash)
+    {
+        return knownHashes.contains(hash) || knownHashes.contains("*");
+    }
+    
+    /**
+     * @param data
+     * @return the content hash of a tile (url safe base64)
+     */
+    static String getContentHash(final byte[] data)
+    {
+        return CONTENT_HASH_ENCODING.encode(CONTENT_HASH.hashBytes(data).asBytes());
+    }
+    
+    /**
+     * @param tile
+     * @return the response entity of the tile
+     */
+    protected Representation getRepresentation(final byte[] tile)
+    {
+        return new PngOutputRepresentation(tile);
+    }
+    
+    /**
+     * returns a replacement of a tile that could not be rendered: the matching part of a cached tile of a lower zoom level, scaled up
+     * @param path
+     * @param form the request parameters
+     * @param tileSizeIdx
+     * @return the tile (not to be cached) or null if there is no cached tile of a lower zoom level
+     */
+    protected Tile getDegradedTile(final Path path, final Form form, final int tileSizeIdx)
+    {
+        for (int levels = 1; levels <= MAX_DEGRADE_LEVELS && levels <= path.getZoom(); levels++)
+        {
+            final Params parent = getTileParameters(new Path(path.getZoom() - levels, path.getX() >> levels, path.getY() >> levels), form);
+            if (parent.isNoCache())
+                return null;
+            final ObjectWithTimestamp cacheObject = cache.getWithTimestamp(CacheHelper.getHash((TileParameters)parent), CACHE_STALE);
+            final Tile tile = cacheObject != null ? getCachedTile(cacheObject, tileSizeIdx, Collections.<String>emptySet()) : null;
+            if (tile != null)
+            {
+                final byte[] data = Arrays.equals(tile.data, getEmptyTile(tileSizeIdx)) ? tile.data
+                        : scalePart(tile.data, levels, path.getX(), path.getY());
+                if (data != null)
+                    return new Tile(getContentHash(data), data, 0, true);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @param png tile of a lower zoom level
+     * @param levels difference of the zoom levels
+     * @param x x of the tile
+     * @param y y of the tile
+     * @return the part of the tile of the lower zoom level that covers the tile x/y, scaled to the tile size (png)
+     * or null if the tile cannot be decoded
+     */
+    static byte[] scalePart(final byte[] png, final int levels, final int x, final int y)
+    {
+        final BufferedImage source;
+        try
+        {
+            source = ImageIO.read(new ByteArrayInputStream(png));
+        }
+        catch (final IOException e)
+        {
+            return null;
+        }
+        if (source == null)
+            return null;
+        
+        final int n = 1 << levels;
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        final int sx = (x & (n - 1)) * width / n;
+        final int sy = (y & (n - 1)) * height / n;
+        
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, 0, 0, width, height, sx, sy, sx + width / n, sy + height / n, null);
+        g.dispose();
+        return encodePng(image);
+    }
+    
+    /**
+     * @param tileSizeIdx
+     * @return the tile without data
+     */
+    protected byte[] getEmptyTile(final int tileSizeIdx)
+    {
+        return EMPTY_IMAGES[tileSizeIdx];
+    }
+    
+    /**
+     * renders a tile into the cache, unless it is cached already and not stale
+     * @param path
+     * @param form the request parameters
+     * @return
+     */
+    TileSeeder.TileState seedTile(final Path path, final Form form)
+    {
+        final Params p = getTileParameters(path, form);
+        if (p.isNoCache())
+            return TileSeeder.TileState.NOT_CACHEABLE;
+        
+        final String cacheKey = CacheHelper.getHash((TileParameters)p);
+        final ObjectWithTimestamp cacheObject = cache.getWithTimestamp(cacheKey, CACHE_STALE);
+        if (cacheObject != null && ! cacheObject.stale)
+            return TileSeeder.TileState.CACHED;
+        
+        final byte[] data;
+        try (final RenderAdmission.Ticket ticket = renderAdmission.acquire(SEEDER_CLIENT, path.getZoom(), path.getX(), path.getY(), true))
+        {
+            if (ticket == null)
+                return TileSeeder.TileState.BUSY;
+            data = generateTile(p, getTileSizeIdx(p));
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return TileSeeder.TileState.BUSY;
+        }
+        putTile(cacheKey, data, data != null ? getContentHash(data) : null);
+        return data != null ? TileSeeder.TileState.RENDERED : TileSeeder.TileState.EMPTY;
     }
     
+    /**
+     * stores a tile in the cache: the data under its content hash and the hash under the cache key of the tile
+     * @param cacheKey
+     * @param data null for an empty tile
+     * @param hash
+     */
+    private void putTile(final String cacheKey, final byte[] data, final String hash)
+    {
+        if (data == null)
+        {
+            cache.set(cacheKey, CACHE_EXPIRE, EMPTY_MARKER, true);
+            return;
+        }
+        // the data is stored first and expires after the hash
+        cache.set(PREFIX_TILE + hash, CACHE_DATA_EXPIRE, data);
+        cache.set(cacheKey, CACHE_EXPIRE, hash, true);
+    }
+    
+    /**
+     * @param cacheObject
+     * @param tileSizeIdx
+     * @param knownHashes
+     * @return the cached tile, without data if the client has it already, or null if the data has been evicted
+     */
+    private Tile getCachedTile(final ObjectWithTimestamp cacheObject, final int tileSizeIdx, final Set<String> knownHashes)
+    {
+        final long timestamp = cacheObject.ts != null ? cacheObject.ts : 0;
+        if (cacheObject.o instanceof String)
+        {
+            final String hash = (String) cacheObject.o;
+            if (isKnown(knownHashes, hash))
+                return new Tile(hash, null, timestamp);
+            final Object data = cache.get(PREFIX_TILE + hash);
+            return data instanceof byte[] ? new Tile(hash, (byte[]) data, timestamp) : null;
+        }
+        else if (cacheObject.o instanceof byte[])
+        {
+            // empty tile or tile data cached by a previous version
+            byte[] data = (byte[]) cacheObject.o;
+            if (Arrays.equals(EMPTY_MARKER, data))
+                data = getEmptyTile(tileSizeIdx);
+            return new Tile(getContentHash(data), data, timestamp);
+        }
+        return null;
+    }
+    
+    /**
+     * @param p
+     * @return the tile or null if it has been rejected by the render admission
+     */
     protected byte[] getTile(final Params p)
+    {
+        final Tile tile = getTile(p, Collections.<String>emptySet(), LOCAL_CLIENT);
+        return tile != null ? tile.data : null;
+    }
+    
+    /**
+     * @param p
+     * @param knownHashes the content hashes of the tiles the client has already
+     * @param client the client for the render admission
+     * @return the tile from the cache (refreshed in the background if stale and a render slot is free) or rendered,
+     * null if the render has been rejected by the render admission
+     */
+    protected Tile getTile(final Params p, final Set<String> knownHashes, final String client)
     {
         boolean useCache = true;
         if (p.isNoCache())
             useCache = false;
         
         final String cacheKey;
+        final int tileSizeIdx = getTileSizeIdx(p);
         
         if (useCache)
         {
             cacheKey = CacheHelper.getHash((TileParameters)p);
             final ObjectWithTimestamp cacheObject = cache.getWithTimestamp(cacheKey, CACHE_STALE);
-            if (cacheObject != null)
+            final Tile tile = cacheObject != null ? getCachedTile(cacheObject, tileSizeIdx, knownHashes) : null;
+            if (tile != null)
             {
                 System.out.println("cache hit for: " + cacheKey + "; is stale: " + cacheObject.stale);
-                byte[] data = (byte[]) cacheObject.o;
-                if (Arrays.equals(EMPTY_MARKER, data))
-                    data = EMPTY_IMAGES[getTileSizeIdx(p)];
                 if (cacheObject.stale)
                 {
                     final Runnable refreshCacheRunnable = new Runnable()
@@ -186,32 +546,50 @@ public abstract class TileRestlet<Params extends TileParameters> extends Restlet
                         @Override
                         public void run()
                         {
-                            System.out.println("adding in background: " + cacheKey);
-                            final byte[] newData = generateTile(p, getTileSizeIdx(p));
-                            cache.set(cacheKey, CACHE_EXPIRE, newData != null ? newData : EMPTY_MARKER, true);
+                            final byte[] newData;
+                            try (final RenderAdmission.Ticket ticket = renderAdmission.tryAcquire(client))
+                            {
+                                // the stale tile is kept while all render slots are busy
+                                if (ticket == null)
+                                    return;
+                                System.out.println("adding in background: " + cacheKey);
+                                newData = generateTile(p, tileSizeIdx);
+                            }
+                            putTile(cacheKey, newData, newData != null ? getContentHash(newData) : null);
                         }
                     };
                     cache.getExecutor().execute(refreshCacheRunnable);
                 }
-                return data;
+                return tile;
             }
         }
         else
             cacheKey = null;
         
-        final int tileSizeIdx = getTileSizeIdx(p);
-        byte[] data = generateTile(p, tileSizeIdx);
-//        if (data == null)
+        final Path path = p.getPath();
+        byte[] data;
+        try (final RenderAdmission.Ticket ticket = renderAdmission.acquire(client, path.getZoom(), path.getX(), path.getY(), false))
+        {
+            if (ticket == null)
+                return null;
+            data = generateTile(p, tileSizeIdx);
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        final String hash = getContentHash(data != null ? data : getEmptyTile(tileSizeIdx));
         
         if (useCache)
         {
             System.out.println("adding to cache: " + cacheKey);
-            cache.set(cacheKey, CACHE_EXPIRE, data != null ? data : EMPTY_MARKER, true);
+            putTile(cacheKey, data, hash);
         }
         
         if (data == null)
-            data = EMPTY_IMAGES[tileSizeIdx];
-        return data;
+            data = getEmptyTile(tileSizeIdx);
+        return new Tile(hash, data, System.currentTimeMillis());
     }
 
     private int getTileSizeIdx(final Params p)
@@ -258,6 +636,11 @@ public abstract class TileRestlet<Params extends TileParameters> extends Restlet
         return data;
     }
     
+    /**
+     * @return the name of the tile type as used in the url (points, heatmap or shapes)
+     */
+    protected abstract String getType();
+    
     protected abstract Params getTileParameters(TileParameters.Path path, Form params);
     
     protected abstract byte[] generateTile(Params params, int tileSizeIdx, int zoom, DBox box, MapOption mo,
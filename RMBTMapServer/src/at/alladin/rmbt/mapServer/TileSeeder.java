@@ -0,0 +1,442 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.restlet.data.Form;
+
+import at.alladin.rmbt.mapServer.TileRequestLog.TileRequest;
+import at.alladin.rmbt.shared.cache.CacheHelper;
+
+/**
+ * renders the tiles of a zoom range and bounding box into the cache, using the same {@link TileRestlet}s as the requests.<br>
+ * A combination is a tile type and its parameters, e.g. <code>heatmap?map_options=mobile/download&amp;period=180</code>.
+ * Tiles are rendered by a fixed number of threads (each one uses at most one database connection at a time),
+ * tiles with more recorded requests ({@link TileRequestLog}) first, then by zoom level.
+ * @author lb
+ *
+ */
+public class TileSeeder {
+
+	public enum TileState {
+		CACHED,
+		RENDERED,
+		EMPTY,
+		NOT_CACHEABLE,
+		FAILED,
+		/**
+		 * not rendered because the render slots are busy with requested tiles
+		 */
+		BUSY
+	}
+	
+	public final static String DEFAULT_ZOOM = "0-10";
+	
+	public final static int DEFAULT_THREADS = 2;
+	
+	public final static int DEFAULT_MAX_TILES = 20000;
+	
+	/**
+	 * number of combinations taken from the request log, if no combinations are configured
+	 */
+	public final static int DEFAULT_COMBINATIONS = 10;
+	
+	private final static long REPORT_INTERVAL_MS = 10000;
+	
+	public static class Report {
+		final long available;
+		final int planned;
+		final int[] states;
+		final long elapsedMs;
+		
+		Report(long available, int planned, int[] states, long elapsedMs) {
+			this.available = available;
+			this.planned = planned;
+			this.states = states;
+			this.elapsedMs = elapsedMs;
+		}
+		
+		/**
+		 * 
+		 * @return number of tiles of all combinations in the zoom range and bounding box
+		 */
+		public long getAvailable() {
+			return available;
+		}
+		
+		/**
+		 * 
+		 * @return number of tiles that have been selected for seeding (limited by max. tiles)
+		 */
+		public int getPlanned() {
+			return planned;
+		}
+		
+		public int getCount(TileState state) {
+			return states[state.ordinal()];
+		}
+		
+		public long getElapsedMs() {
+			return elapsedMs;
+		}
+		
+		/**
+		 * 
+		 * @return rendered tiles per second
+		 */
+		public double getTilesPerSecond() {
+			return elapsedMs == 0 ? 0 : (getCount(TileState.RENDERED) + getCount(TileState.EMPTY)) * 1000d / elapsedMs;
+		}
+		
+		/**
+		 * 
+		 * @return share of the available tiles that are in the cache (0 - 1)
+		 */
+		public double getCoverage() {
+			final int cached = getCount(TileState.CACHED) + getCount(TileState.RENDERED) + getCount(TileState.EMPTY);
+			return available == 0 ? 0 : (double) cached / available;
+		}
+		
+		@Override
+		public String toString() {
+			int done = 0;
+			for (int count : states) {
+				done += count;
+			}
+			return String.format("%d/%d tiles (%d available), %d rendered, %d empty, %d cached, %d failed, %d busy, %.1f tiles/s, coverage %.1f%%, %ds",
+					done, planned, available, getCount(TileState.RENDERED), getCount(TileState.EMPTY), getCount(TileState.CACHED),
+					getCount(TileState.FAILED), getCount(TileState.BUSY), getTilesPerSecond(), getCoverage() * 100, elapsedMs / 1000);
+		}
+	}
+	
+	private final Map<String, TileRestlet<?>> restlets = new HashMap<>();
+	
+	private final int minZoom;
+	
+	private final int maxZoom;
+	
+	// min. lon, min. lat, max. lon, max. lat
+	private final double[] bbox;
+	
+	private final int threads;
+	
+	private final int maxTiles;
+	
+	private final List<String> combinations;
+	
+	/**
+	 * 
+	 * @param minZoom
+	 * @param maxZoom
+	 * @param bbox min. longitude, min. latitude, max. longitude, max. latitude
+	 * @param threads
+	 * @param maxTiles
+	 * @param combinations if empty, the most requested combinations of the {@link TileRequestLog} are used
+	 */
+	public TileSeeder(int minZoom, int maxZoom, double[] bbox, int threads, int maxTiles, List<String> combinations) {
+		if (minZoom < 0 || maxZoom < minZoom || bbox.length != 4 || threads < 1 || maxTiles < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.minZoom = minZoom;
+		this.maxZoom = maxZoom;
+		this.bbox = bbox;
+		this.threads = threads;
+		this.maxTiles = maxTiles;
+		this.combinations = combinations;
+		
+		restlets.put("points", new PointTiles());
+		restlets.put("heatmap", new HeatmapTiles());
+		restlets.put("shapes", new ShapeTiles());
+		restlets.put("vector", new VectorTiles());
+	}
+	
+	/**
+	 * creates a seeder from configuration values, null values are replaced by the defaults
+	 * @param zoom e.g. "0-10"
+	 * @param bbox "min. lon,min. lat,max. lon,max. lat"
+	 * @param threads
+	 * @param maxTiles
+	 * @param combinations separated by whitespace
+	 * @return
+	 */
+	public static TileSeeder create(String zoom, String bbox, String threads, String maxTiles, String combinations) {
+		final String[] zoomRange = (zoom != null ? zoom : DEFAULT_ZOOM).trim().split("\\s*-\\s*");
+		final String[] bboxValues = bbox.trim().split("\\s*,\\s*");
+		final double[] _bbox = new double[bboxValues.length];
+		for (int i = 0; i < bboxValues.length; i++) {
+			_bbox[i] = Double.parseDouble(bboxValues[i]);
+		}
+		final List<String> _combinations = new ArrayList<>();
+		if (combinations != null) {
+			for (String combination : combinations.trim().split("\\s+")) {
+				if (!combination.isEmpty()) {
+					_combinations.add(combination);
+				}
+			}
+		}
+		return new TileSeeder(Integer.parseInt(zoomRange[0]), Integer.parseInt(zoomRange[zoomRange.length - 1]), _bbox,
+				threads != null ? Integer.parseInt(threads.trim()) : DEFAULT_THREADS,
+				maxTiles != null ? Integer.parseInt(maxTiles.trim()) : DEFAULT_MAX_TILES, _combinations);
+	}
+	
+	/**
+	 * 
+	 * @param counts
+	 * @return the combinations to seed: the configured ones or the most requested ones, or all map options of heatmap and points
+	 */
+	List<String> getCombinations(Map<TileRequest, Long> counts) {
+		if (!combinations.isEmpty()) {
+			return combinations;
+		}
+		final Map<String, Long> combinationCounts = new HashMap<>();
+		for (Map.Entry<TileRequest, Long> e : counts.entrySet()) {
+			final String combination = getCombination(e.getKey());
+			final Long count = combinationCounts.get(combination);
+			combinationCounts.put(combination, (count == null ? 0 : count) + e.getValue());
+		}
+		final List<Map.Entry<String, Long>> sorted = new ArrayList<>(combinationCounts.entrySet());
+		Collections.sort(sorted, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+				return o2.getValue().compareTo(o1.getValue());
+			}
+		});
+		final List<String> result = new ArrayList<>();
+		for (Map.Entry<String, Long> e : sorted.subList(0, Math.min(DEFAULT_COMBINATIONS, sorted.size()))) {
+			result.add(e.getKey());
+		}
+		if (result.isEmpty()) {
+			for (String mapOption : MapServerOptions.getMapOptionMap().keySet()) {
+				result.add("heatmap?" + TileRequestLog.getQuery(new Form("map_options=" + mapOption)));
+				result.add("points?" + TileRequestLog.getQuery(new Form("map_options=" + mapOption)));
+			}
+		}
+		return result;
+	}
+	
+	private static String getCombination(TileRequest request) {
+		return request.getType() + "?" + request.getQuery();
+	}
+	
+	/**
+	 * 
+	 * @param combinations
+	 * @return the number of tiles of the combinations in the zoom range and bounding box
+	 */
+	long getAvailable(List<String> combinations) {
+		long result = 0;
+		for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+			result += (long) (GeoCalc.lonToTileX(bbox[2], zoom) - GeoCalc.lonToTileX(bbox[0], zoom) + 1)
+					* (GeoCalc.latToTileY(bbox[1], zoom) - GeoCalc.latToTileY(bbox[3], zoom) + 1);
+		}
+		return result * combinations.size();
+	}
+	
+	/**
+	 * 
+	 * @param combinations
+	 * @param counts recorded requests
+	 * @return the tiles to seed in the order of their priority: recorded tiles by number of requests, then by zoom level
+	 */
+	List<TileRequest> plan(List<String> combinations, Map<TileRequest, Long> counts) {
+		final Set<String> combinationSet = new LinkedHashSet<>(combinations);
+		
+		final List<Map.Entry<TileRequest, Long>> recorded = new ArrayList<>();
+		for (Map.Entry<TileRequest, Long> e : counts.entrySet()) {
+			final TileRequest r = e.getKey();
+			if (combinationSet.contains(getCombination(r)) && r.zoom >= minZoom && r.zoom <= maxZoom
+					&& r.x >= GeoCalc.lonToTileX(bbox[0], r.zoom) && r.x <= GeoCalc.lonToTileX(bbox[2], r.zoom)
+					&& r.y >= GeoCalc.latToTileY(bbox[3], r.zoom) && r.y <= GeoCalc.latToTileY(bbox[1], r.zoom)) {
+				recorded.add(e);
+			}
+		}
+		Collections.sort(recorded, new Comparator<Map.Entry<TileRequest, Long>>() {
+			@Override
+			public int compare(Map.Entry<TileRequest, Long> o1, Map.Entry<TileRequest, Long> o2) {
+				final int result = o2.getValue().compareTo(o1.getValue());
+				return result != 0 ? result : Integer.compare(o1.getKey().zoom, o2.getKey().zoom);
+			}
+		});
+		
+		final Map<TileRequest, Boolean> result = new LinkedHashMap<>();
+		for (Map.Entry<TileRequest, Long> e : recorded) {
+			if (result.size() >= maxTiles) {
+				break;
+			}
+			result.put(e.getKey(), Boolean.TRUE);
+		}
+		
+		for (int zoom = minZoom; zoom <= maxZoom && result.size() < maxTiles; zoom++) {
+			final int x1 = GeoCalc.lonToTileX(bbox[0], zoom);
+			final int x2 = GeoCalc.lonToTileX(bbox[2], zoom);
+			final int y1 = GeoCalc.latToTileY(bbox[3], zoom);
+			final int y2 = GeoCalc.latToTileY(bbox[1], zoom);
+			for (String combination : combinationSet) {
+				final int split = combination.indexOf('?');
+				final String type = split < 0 ? combination : combination.substring(0, split);
+				final String query = split < 0 ? "" : combination.substring(split + 1);
+				for (int y = y1; y <= y2 && result.size() < maxTiles; y++) {
+					for (int x = x1; x <= x2 && result.size() < maxTiles; x++) {
+						final TileRequest request = new TileRequest(type, zoom, x, y, query);
+						if (!result.containsKey(request)) {
+							result.put(request, Boolean.TRUE);
+						}
+					}
+				}
+			}
+		}
+		return new ArrayList<>(result.keySet());
+	}
+	
+	/**
+	 * seeds the tiles, blocks until all tiles are done or the thread is interrupted
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Report run() throws InterruptedException {
+		final long start = System.currentTimeMillis();
+		final Map<TileRequest, Long> counts = TileRequestLog.getInstance().getCounts();
+		final List<String> combinations = getCombinations(counts);
+		final long available = getAvailable(combinations);
+		final AtomicIntegerArray states = new AtomicIntegerArray(TileState.values().length);
+		
+		if (!CacheHelper.getInstance().isActive()) {
+			System.out.println("tile seeding: cache not active, nothing to do");
+			return new Report(available, 0, new int[states.length()], 0);
+		}
+		
+		final List<TileRequest> tiles = plan(combinations, counts);
+		System.out.println(String.format("tile seeding: %d of %d tiles, zoom %d-%d, bbox %s, %d threads, combinations %s",
+				tiles.size(), available, minZoom, maxZoom, Arrays.toString(bbox), threads, combinations));
+		
+		final AtomicInteger next = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger number = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "TileSeeder-" + number.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		for (int i = 0; i < threads; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					int index;
+					while (!Thread.currentThread().isInterrupted() && (index = next.getAndIncrement()) < tiles.size()) {
+						final TileRequest tile = tiles.get(index);
+						states.incrementAndGet(seed(tile).ordinal());
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		
+		try {
+			while (!executor.awaitTermination(REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+				System.out.println("tile seeding: " + getReport(available, tiles.size(), states, start));
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		
+		final Report report = getReport(available, tiles.size(), states, start);
+		System.out.println("tile seeding finished: " + report);
+		return report;
+	}
+	
+	private TileState seed(TileRequest tile) {
+		final TileRestlet<?> restlet = restlets.get(tile.getType());
+		if (restlet == null) {
+			return TileState.FAILED;
+		}
+		try {
+			return restlet.seedTile(tile.getPath(), new Form(tile.getQuery()));
+		}
+		catch (final Exception e) {
+			System.out.println("tile seeding: " + tile.getType() + "/" + tile.zoom + "/" + tile.x + "/" + tile.y + "?" + tile.getQuery() + ": " + e);
+			return TileState.FAILED;
+		}
+	}
+	
+	private static Report getReport(long available, int planned, AtomicIntegerArray states, long start) {
+		final int[] _states = new int[states.length()];
+		for (int i = 0; i < _states.length; i++) {
+			_states[i] = states.get(i);
+		}
+		return new Report(available, planned, _states, System.currentTimeMillis() - start);
+	}
+	
+	/**
+	 * seeds tiles from the command line, with a database connection by jdbc url:<br>
+	 * <code>--db &lt;jdbc url&gt; --user &lt;user&gt; --password &lt;password&gt; --memcached &lt;addresses&gt; --bbox &lt;bbox&gt;
+	 * [--zoom 0-10] [--threads 2] [--max-tiles 20000] [--stats &lt;request log file&gt;] [combination...]</code>
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		final Map<String, String> options = new HashMap<>();
+		final StringBuilder combinations = new StringBuilder();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].startsWith("--") && i + 1 < args.length) {
+				options.put(args[i].substring(2), args[++i]);
+			}
+			else {
+				combinations.append(args[i]).append(' ');
+			}
+		}
+		if (!options.containsKey("db") || !options.containsKey("memcached") || !options.containsKey("bbox")) {
+			System.out.println("usage: --db <jdbc url> --user <user> --password <password> --memcached <addresses> --bbox <min. lon,min. lat,max. lon,max. lat>"
+					+ " [--zoom " + DEFAULT_ZOOM + "] [--threads " + DEFAULT_THREADS + "] [--max-tiles " + DEFAULT_MAX_TILES + "] [--stats <request log file>]"
+					+ " [combination, e.g. heatmap?map_options=mobile/download ...]");
+			System.exit(1);
+		}
+		
+		DbConnection.setJdbcUrl(options.get("db"), options.get("user"), options.get("password"));
+		CacheHelper.getInstance().initMemcached(options.get("memcached"));
+		for (int i = 0; i < 50 && !CacheHelper.getInstance().isActive(); i++) {
+			Thread.sleep(100);
+		}
+		if (options.containsKey("stats")) {
+			TileRequestLog.getInstance().load(new File(options.get("stats")));
+		}
+		
+		final TileSeeder seeder = create(options.get("zoom"), options.get("bbox"), options.get("threads"), options.get("max-tiles"),
+				combinations.toString());
+		final Report report = seeder.run();
+		System.exit(report.getCount(TileState.FAILED) == 0 ? 0 : 2);
+	}
+}
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.restlet.data.Form;
+import org.restlet.data.MediaType;
+import org.restlet.representation.Representation;
+
+import at.alladin.rmbt.mapServer.MapServerOptions.MapOption;
+import at.alladin.rmbt.mapServer.MapServerOptions.SQLFilter;
+import at.alladin.rmbt.mapServer.mvt.VectorTileEncoder;
+import at.alladin.rmbt.mapServer.parameters.TileParameters.Path;
+import at.alladin.rmbt.mapServer.parameters.VectorTileParameters;
+
+/**
+ * Mapbox vector tiles with the layer "cells" (heatmap grid cells with count, quantile value, quantile of the log value
+ * and classification) and the layer "points" (measurements with value and classification).<br>
+ * The tiles do not depend on the pixel size or the colors, these are up to the client.
+ * @author lb
+ *
+ */
+public class VectorTiles extends TileRestlet<VectorTileParameters>
+{
+    public static final MediaType MEDIA_TYPE = new MediaType("application/vnd.mapbox-vector-tile");
+    
+    /**
+     * cells per tile side are computed for this tile size, the same as for heatmap tiles
+     */
+    private static final int CELL_TILE_SIZE = 256;
+    
+    /**
+     * points up to this distance (in tile coordinates) outside of the tile are included
+     */
+    static final int BUFFER = 64;
+    
+    private static final byte[] EMPTY_TILE = new byte[0];
+    
+    @Override
+    protected String getType()
+    {
+        return "vector";
+    }
+    
+    @Override
+    protected VectorTileParameters getTileParameters(Path path, Form params)
+    {
+        return new VectorTileParameters(path, params);
+    }
+    
+    @Override
+    protected Representation getRepresentation(final byte[] tile)
+    {
+        return new ByteArrayOutputRepresentation(tile, MEDIA_TYPE);
+    }
+    
+    @Override
+    protected byte[] getEmptyTile(final int tileSizeIdx)
+    {
+        return EMPTY_TILE;
+    }
+    
+    @Override
+    protected Tile getDegradedTile(final Path path, final Form form, final int tileSizeIdx)
+    {
+        // vector tiles of lower zoom levels are not scaled
+        return null;
+    }
+    
+    /**
+     * @param zoom
+     * @return the number of heatmap cells per tile side
+     */
+    static int getCellsPerSide(final int zoom)
+    {
+        return CELL_TILE_SIZE >> HeatmapTiles.getPartSizeFactor(zoom);
+    }
+    
+    @Override
+    protected byte[] generateTile(final VectorTileParameters params, final int tileSizeIdx, final int zoom, final DBox box,
+            final MapOption mo, final List<SQLFilter> filters, final float quantile)
+    {
+        filters.add(MapServerOptions.getAccuracyMapFilter());
+        
+        final StringBuilder whereSQL = new StringBuilder(mo.sqlFilter);
+        for (final SQLFilter sf : filters)
+            whereSQL.append(" AND ").append(sf.where);
+        
+        final VectorTileEncoder encoder = new VectorTileEncoder();
+        try (Connection con = DbConnection.getConnection())
+        {
+            if (params.isCells())
+                addCells(con, encoder.getLayer(VectorTileParameters.LAYER_CELLS), zoom, box, mo, filters, whereSQL, quantile);
+            if (params.isPoints())
+                addPoints(con, encoder.getLayer(VectorTileParameters.LAYER_POINTS), box, mo, filters, whereSQL);
+        }
+        catch (final Exception e)
+        {
+            e.printStackTrace();
+            throw new IllegalStateException(e);
+        }
+        
+        final byte[] data = encoder.encode();
+        return data.length == 0 ? null : data;
+    }
+    
+    private static void addCells(final Connection con, final VectorTileEncoder.Layer layer, final int zoom, final DBox box,
+            final MapOption mo, final List<SQLFilter> filters, final CharSequence whereSQL, final float quantile) throws SQLException
+    {
+        final String sql = String.format("SELECT count(\"%1$s\") count," 
+                + " quantile(\"%1$s\",?) val,"
+                + " quantile(\"%2$s\",?) val_log,"
+                + " ST_X(ST_SnapToGrid(location, ?,?,?,?)) gx," 
+                + " ST_Y(ST_SnapToGrid(location, ?,?,?,?)) gy"
+                + " FROM v_test2 t" 
+                + " WHERE " 
+                + " %3$s"
+                + " AND location && ST_SetSRID(ST_MakeBox2D(ST_Point(?,?), ST_Point(?,?)), 900913)"
+                + " GROUP BY gx,gy", mo.valueColumn, mo.valueColumnLog, whereSQL);
+        
+        final int cellsPerSide = getCellsPerSide(zoom);
+        final double cellSize = (box.x2 - box.x1) / cellsPerSide;
+        
+        try (PreparedStatement ps = con.prepareStatement(sql))
+        {
+            int p = 1;
+            ps.setFloat(p++, quantile);
+            ps.setFloat(p++, quantile);
+            // the grid is aligned to the tile, grid points are the centers of the cells
+            for (int j = 0; j < 2; j++)
+            {
+                ps.setDouble(p++, box.x1 + cellSize / 2);
+                ps.setDouble(p++, box.y1 + cellSize / 2);
+                ps.setDouble(p++, cellSize);
+                ps.setDouble(p++, cellSize);
+            }
+            
+            for (final SQLFilter sf : filters)
+                p = sf.fillParams(p, ps);
+            
+            ps.setDouble(p++, box.x1);
+            ps.setDouble(p++, box.y1);
+            ps.setDouble(p++, box.x2);
+            ps.setDouble(p++, box.y2);
+            
+            try (ResultSet rs = ps.executeQuery())
+            {
+                while (rs.next())
+                    addCell(layer, box, cellsPerSide, rs.getDouble("gx"), rs.getDouble("gy"), rs.getLong("count"),
+                            rs.getDouble("val"), rs.getDouble("val_log"), mo);
+            }
+        }
+    }
+    
+    private static void addPoints(final Connection con, final VectorTileEncoder.Layer layer, final DBox box,
+            final MapOption mo, final List<SQLFilter> filters, final CharSequence whereSQL) throws SQLException
+    {
+        final String sql = String.format("SELECT ST_X(t.location) x, ST_Y(t.location) y, \"%s\" val"
+                + " FROM v_test2 t"
+                + " WHERE "
+                + " %s"
+                + " AND location && ST_SetSRID(ST_MakeBox2D(ST_Point(?,?), ST_Point(?,?)), 900913)"
+                + " ORDER BY"
+                + " t.uid", mo.valueColumn, whereSQL);
+        
+        try (PreparedStatement ps = con.prepareStatement(sql))
+        {
+            int p = 1;
+            for (final SQLFilter sf : filters)
+                p = sf.fillParams(p, ps);
+            
+            final double margin = (box.x2 - box.x1) * BUFFER / VectorTileEncoder.DEFAULT_EXTENT;
+            ps.setDouble(p++, box.x1 - margin);
+            ps.setDouble(p++, box.y1 - margin);
+            ps.setDouble(p++, box.x2 + margin);
+            ps.setDouble(p++, box.y2 + margin);
+            
+            try (ResultSet rs = ps.executeQuery())
+            {
+                while (rs.next())
+                    addPoint(layer, box, rs.getDouble(1), rs.getDouble(2), rs.getLong(3), mo);
+            }
+        }
+    }
+    
+    /**
+     * adds a heatmap cell
+     * @param layer
+     * @param box
+     * @param cellsPerSide
+     * @param gx x of the cell center in meters
+     * @param gy y of the cell center in meters
+     * @param count
+     * @param value
+     * @param valueLog
+     * @param mo
+     * @return false if the cell is not within the tile
+     */
+    static boolean addCell(final VectorTileEncoder.Layer layer, final DBox box, final int cellsPerSide,
+            final double gx, final double gy, final long count, final double value, final double valueLog, final MapOption mo)
+    {
+        final double cellSize = (box.x2 - box.x1) / cellsPerSide;
+        final int i = (int) Math.round((gx - box.x1) / cellSize - 0.5);
+        final int j = (int) Math.round((box.y2 - gy) / cellSize - 0.5);
+        if (i < 0 || i >= cellsPerSide || j < 0 || j >= cellsPerSide)
+            return false;
+        
+        final int extent = VectorTileEncoder.DEFAULT_EXTENT;
+        layer.addRectangle(0, i * extent / cellsPerSide, j * extent / cellsPerSide,
+                (i + 1) * extent / cellsPerSide, (j + 1) * extent / cellsPerSide,
+                "count", count, "value", value, "value_log", valueLog,
+                "classification", mo.getClassification(Math.round(value)));
+        return true;
+    }
+    
+    /**
+     * adds a measurement, snapped to the tile coordinates
+     * @param layer
+     * @param box
+     * @param x in meters
+     * @param y in meters
+     * @param value
+     * @param mo
+     * @return false if the point is not within the tile and its buffer
+     */
+    static boolean addPoint(final VectorTileEncoder.Layer layer, final DBox box, final double x, final double y,
+            final long value, final MapOption mo)
+    {
+        final int extent = VectorTileEncoder.DEFAULT_EXTENT;
+        final int tx = (int) Math.round((x - box.x1) / (box.x2 - box.x1) * extent);
+        final int ty = (int) Math.round((box.y2 - y) / (box.y2 - box.y1) * extent);
+        if (tx < -BUFFER || tx > extent + BUFFER || ty < -BUFFER || ty > extent + BUFFER)
+            return false;
+        
+        layer.addPoint(0, tx, ty, "value", value, "classification", mo.getClassification(value));
+        return true;
+    }
+}
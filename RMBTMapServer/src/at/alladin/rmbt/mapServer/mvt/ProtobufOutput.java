@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer.mvt;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * minimal protocol buffers writer into a growing byte array
+ * @author lb
+ *
+ */
+class ProtobufOutput {
+
+	final static int WIRE_VARINT = 0;
+	
+	final static int WIRE_FIXED64 = 1;
+	
+	final static int WIRE_LENGTH_DELIMITED = 2;
+	
+	final static int WIRE_FIXED32 = 5;
+	
+	private byte[] buffer;
+	
+	private int length;
+	
+	ProtobufOutput(int capacity) {
+		buffer = new byte[capacity];
+	}
+	
+	void reset() {
+		length = 0;
+	}
+	
+	int size() {
+		return length;
+	}
+	
+	byte[] toByteArray() {
+		return Arrays.copyOf(buffer, length);
+	}
+	
+	private void ensureCapacity(int additional) {
+		if (length + additional > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+		}
+	}
+	
+	void writeTag(int field, int wireType) {
+		writeVarint((field << 3) | wireType);
+	}
+	
+	void writeVarint(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[length++] = (byte) value;
+	}
+	
+	void writeFixed32(int value) {
+		ensureCapacity(4);
+		for (int i = 0; i < 4; i++) {
+			buffer[length++] = (byte) (value >>> (i * 8));
+		}
+	}
+	
+	void writeFixed64(long value) {
+		ensureCapacity(8);
+		for (int i = 0; i < 8; i++) {
+			buffer[length++] = (byte) (value >>> (i * 8));
+		}
+	}
+	
+	void writeString(int field, String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeTag(field, WIRE_LENGTH_DELIMITED);
+		writeVarint(bytes.length);
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+	
+	/**
+	 * writes the content of another output as embedded message
+	 * @param field
+	 * @param message
+	 */
+	void writeMessage(int field, ProtobufOutput message) {
+		writeTag(field, WIRE_LENGTH_DELIMITED);
+		writeVarint(message.length);
+		write(message);
+	}
+	
+	/**
+	 * appends the content of another output
+	 * @param other
+	 */
+	void write(ProtobufOutput other) {
+		ensureCapacity(other.length);
+		System.arraycopy(other.buffer, 0, buffer, length, other.length);
+		length += other.length;
+	}
+	
+	/**
+	 * writes packed unsigned varints
+	 * @param field
+	 * @param values
+	 * @param count
+	 */
+	void writePacked(int field, int[] values, int count) {
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			size += getVarintSize(values[i] & 0xFFFFFFFFL);
+		}
+		writeTag(field, WIRE_LENGTH_DELIMITED);
+		writeVarint(size);
+		for (int i = 0; i < count; i++) {
+			writeVarint(values[i] & 0xFFFFFFFFL);
+		}
+	}
+	
+	static int getVarintSize(long value) {
+		int size = 1;
+		while ((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+}
@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer.mvt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * encodes Mapbox vector tiles (version 2.1, protocol buffers) with point and rectangle features.<br>
+ * Coordinates are integer tile coordinates (0 - extent, y pointing down), attribute values may be
+ * {@link String}, {@link Double}, {@link Float}, {@link Long}, {@link Integer} or {@link Boolean}.
+ * @author lb
+ *
+ */
+public class VectorTileEncoder {
+
+	public final static int DEFAULT_EXTENT = 4096;
+	
+	final static int GEOM_POINT = 1;
+	
+	final static int GEOM_POLYGON = 3;
+	
+	final static int CMD_MOVE_TO = 1;
+	
+	final static int CMD_LINE_TO = 2;
+	
+	final static int CMD_CLOSE_PATH = 7;
+	
+	private final int extent;
+	
+	private final Map<String, Layer> layers = new LinkedHashMap<>();
+	
+	public class Layer {
+		private final String name;
+		private final Map<String, Integer> keys = new LinkedHashMap<>();
+		private final Map<Object, Integer> values = new LinkedHashMap<>();
+		// encoded features, each one with its field tag and length
+		private final ProtobufOutput features = new ProtobufOutput(1024);
+		private final ProtobufOutput feature = new ProtobufOutput(64);
+		private final int[] geometry = new int[11];
+		private int[] tags = new int[16];
+		private int featureCount;
+		
+		Layer(String name) {
+			this.name = name;
+		}
+		
+		/**
+		 * 
+		 * @param id 0 if the feature has no id
+		 * @param x
+		 * @param y
+		 * @param attributes key, value, key, value...; null values are omitted
+		 */
+		public void addPoint(long id, int x, int y, Object... attributes) {
+			geometry[0] = command(CMD_MOVE_TO, 1);
+			geometry[1] = zigZag(x);
+			geometry[2] = zigZag(y);
+			addFeature(id, GEOM_POINT, 3, attributes);
+		}
+		
+		/**
+		 * adds a rectangle as polygon with a clockwise exterior ring
+		 * @param id 0 if the feature has no id
+		 * @param x1 left
+		 * @param y1 top
+		 * @param x2 right
+		 * @param y2 bottom
+		 * @param attributes key, value, key, value...; null values are omitted
+		 */
+		public void addRectangle(long id, int x1, int y1, int x2, int y2, Object... attributes) {
+			geometry[0] = command(CMD_MOVE_TO, 1);
+			geometry[1] = zigZag(x1);
+			geometry[2] = zigZag(y1);
+			geometry[3] = command(CMD_LINE_TO, 3);
+			geometry[4] = zigZag(x2 - x1);
+			geometry[5] = 0;
+			geometry[6] = 0;
+			geometry[7] = zigZag(y2 - y1);
+			geometry[8] = zigZag(x1 - x2);
+			geometry[9] = 0;
+			geometry[10] = command(CMD_CLOSE_PATH, 1);
+			addFeature(id, GEOM_POLYGON, 11, attributes);
+		}
+		
+		private void addFeature(long id, int type, int geometryLength, Object[] attributes) {
+			if (attributes.length % 2 != 0) {
+				throw new IllegalArgumentException("attributes must be key/value pairs");
+			}
+			if (tags.length < attributes.length) {
+				tags = new int[attributes.length];
+			}
+			int tagCount = 0;
+			for (int i = 0; i < attributes.length; i += 2) {
+				if (attributes[i + 1] == null) {
+					continue;
+				}
+				tags[tagCount++] = index(keys, attributes[i]);
+				tags[tagCount++] = index(values, attributes[i + 1]);
+			}
+			
+			feature.reset();
+			if (id != 0) {
+				feature.writeTag(1, ProtobufOutput.WIRE_VARINT);
+				feature.writeVarint(id);
+			}
+			if (tagCount > 0) {
+				feature.writePacked(2, tags, tagCount);
+			}
+			feature.writeTag(3, ProtobufOutput.WIRE_VARINT);
+			feature.writeVarint(type);
+			feature.writePacked(4, geometry, geometryLength);
+			
+			features.writeMessage(2, feature);
+			featureCount++;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public int getFeatureCount() {
+			return featureCount;
+		}
+		
+		void writeTo(ProtobufOutput out) {
+			out.writeTag(15, ProtobufOutput.WIRE_VARINT);
+			out.writeVarint(2);
+			out.writeString(1, name);
+			out.write(features);
+			for (String key : keys.keySet()) {
+				out.writeString(3, key);
+			}
+			final ProtobufOutput value = new ProtobufOutput(16);
+			for (Object v : values.keySet()) {
+				value.reset();
+				writeValue(value, v);
+				out.writeMessage(4, value);
+			}
+			out.writeTag(5, ProtobufOutput.WIRE_VARINT);
+			out.writeVarint(extent);
+		}
+	}
+	
+	public VectorTileEncoder() {
+		this(DEFAULT_EXTENT);
+	}
+	
+	public VectorTileEncoder(int extent) {
+		this.extent = extent;
+	}
+	
+	public int getExtent() {
+		return extent;
+	}
+	
+	/**
+	 * 
+	 * @param name
+	 * @return the layer with the name, created if necessary
+	 */
+	public Layer getLayer(String name) {
+		Layer layer = layers.get(name);
+		if (layer == null) {
+			layer = new Layer(name);
+			layers.put(name, layer);
+		}
+		return layer;
+	}
+	
+	/**
+	 * 
+	 * @return the encoded tile, layers without features are omitted
+	 */
+	public byte[] encode() {
+		final ProtobufOutput out = new ProtobufOutput(4096);
+		final ProtobufOutput layer = new ProtobufOutput(4096);
+		for (Layer l : layers.values()) {
+			if (l.featureCount == 0) {
+				continue;
+			}
+			layer.reset();
+			l.writeTo(layer);
+			out.writeMessage(3, layer);
+		}
+		return out.toByteArray();
+	}
+	
+	static int command(int id, int count) {
+		return (id & 0x7) | (count << 3);
+	}
+	
+	static int zigZag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static int index(Map<? extends Object, Integer> map, Object key) {
+		final Integer index = map.get(key);
+		if (index != null) {
+			return index;
+		}
+		final int newIndex = map.size();
+		((Map<Object, Integer>) map).put(key, newIndex);
+		return newIndex;
+	}
+	
+	private static void writeValue(ProtobufOutput out, Object value) {
+		if (value instanceof String) {
+			out.writeString(1, (String) value);
+		}
+		else if (value instanceof Float) {
+			out.writeTag(2, ProtobufOutput.WIRE_FIXED32);
+			out.writeFixed32(Float.floatToIntBits((Float) value));
+		}
+		else if (value instanceof Double) {
+			out.writeTag(3, ProtobufOutput.WIRE_FIXED64);
+			out.writeFixed64(Double.doubleToLongBits((Double) value));
+		}
+		else if (value instanceof Long || value instanceof Integer) {
+			final long n = ((Number) value).longValue();
+			if (n >= 0) {
+				out.writeTag(5, ProtobufOutput.WIRE_VARINT);
+				out.writeVarint(n);
+			}
+			else {
+				out.writeTag(6, ProtobufOutput.WIRE_VARINT);
+				out.writeVarint((n << 1) ^ (n >> 63));
+			}
+		}
+		else if (value instanceof Boolean) {
+			out.writeTag(7, ProtobufOutput.WIRE_VARINT);
+			out.writeVarint((Boolean) value ? 1 : 0);
+		}
+		else {
+			throw new IllegalArgumentException("unsupported value: " + value.getClass());
+		}
+	}
+}
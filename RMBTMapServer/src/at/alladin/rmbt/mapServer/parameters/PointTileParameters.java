@@ -28,6 +28,7 @@ public class PointTileParameters extends TileParameters
     protected final boolean noFill;
     protected final boolean noColor;
     protected final UUID highlight;
+    protected final boolean highlightOverlay; // only the highlighted points, to be composited by the client
     protected final PointTileParameters genericParameters; // same without highlight for caching
     
     public PointTileParameters(Path path, Form params)
@@ -82,7 +83,10 @@ public class PointTileParameters extends TileParameters
             highlight = hightlightUUID;
         }
         
-        if (highlight == null)
+        final String highlightOverlayString = params.getFirstValue("highlight_overlay");
+        highlightOverlay = highlight != null && highlightOverlayString != null && Boolean.parseBoolean(highlightOverlayString);
+        
+        if (highlight == null || highlightOverlay)
             genericParameters = null;
         else
             genericParameters = new PointTileParameters(path, params, true);
@@ -108,6 +112,11 @@ public class PointTileParameters extends TileParameters
         return highlight;
     }
     
+    public boolean isHighlightOverlay()
+    {
+        return highlightOverlay;
+    }
+    
     @Override
     public boolean isNoCache()
     {
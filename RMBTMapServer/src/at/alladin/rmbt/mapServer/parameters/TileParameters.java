@@ -18,6 +18,7 @@ package at.alladin.rmbt.mapServer.parameters;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,6 +29,7 @@ import org.restlet.data.Parameter;
 import at.alladin.rmbt.mapServer.MapServerOptions;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Funnel;
 import com.google.common.hash.Funnels;
 import com.google.common.hash.PrimitiveSink;
@@ -37,6 +39,10 @@ public abstract class TileParameters implements Funnel<TileParameters>
     protected static final Pattern PATH_PATTERN = Pattern.compile("(\\d+)/(\\d+)/(\\d+)");
     protected static final int MAX_ZOOM = 21;
     
+    // all parameters (except path, filters and highlight) which are part of the cache key
+    private static final Set<String> PARAMETER_NAMES = ImmutableSet.of("size", "map_options", "statistical_method",
+            "developerCode", "transparency", "point_diameter", "no_fill", "no_color", "layers");
+    
     protected final Path path;
     protected final int size;
     protected final String mapOption;
@@ -173,6 +179,15 @@ public abstract class TileParameters implements Funnel<TileParameters>
         filterMap = Collections.unmodifiableMap(_filterMap);
     }
     
+    /**
+     * @param name
+     * @return true if the request parameter is part of the cache key of a tile
+     */
+    public static boolean isTileParameter(String name)
+    {
+        return PARAMETER_NAMES.contains(name) || MapServerOptions.isValidFilter(name);
+    }
+    
     public Path getPath()
     {
         return path;
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer.parameters;
+
+import org.restlet.data.Form;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.PrimitiveSink;
+
+/**
+ * parameters of a vector tile: independent of size, transparency and style, so a single cached tile serves all of them
+ * @author lb
+ *
+ */
+public class VectorTileParameters extends TileParameters
+{
+    public static final String LAYER_CELLS = "cells";
+    public static final String LAYER_POINTS = "points";
+    
+    /**
+     * points are only included by default from this zoom level on
+     */
+    public static final int DEFAULT_POINTS_MIN_ZOOM = 10;
+    
+    protected final boolean cells;
+    protected final boolean points;
+    
+    public VectorTileParameters(Path path, Form params)
+    {
+        super(path, params, 1);
+        
+        final String layers = params.getFirstValue("layers");
+        if (Strings.isNullOrEmpty(layers))
+        {
+            cells = true;
+            points = path.getZoom() >= DEFAULT_POINTS_MIN_ZOOM;
+        }
+        else
+        {
+            boolean _cells = false;
+            boolean _points = false;
+            for (final String layer : layers.split(","))
+            {
+                if (LAYER_CELLS.equals(layer.trim()))
+                    _cells = true;
+                else if (LAYER_POINTS.equals(layer.trim()))
+                    _points = true;
+            }
+            cells = _cells;
+            points = _points;
+        }
+    }
+    
+    public boolean isCells()
+    {
+        return cells;
+    }
+    
+    public boolean isPoints()
+    {
+        return points;
+    }
+    
+    /**
+     * vector tiles have no pixel size
+     */
+    @Override
+    public int getSize()
+    {
+        return 0;
+    }
+    
+    @Override
+    public boolean isNoCache()
+    {
+        return false;
+    }
+    
+    @Override
+    public void funnel(TileParameters o, PrimitiveSink into)
+    {
+        into
+            .putUnencodedChars(o.getClass().getCanonicalName())
+            .putUnencodedChars(o.mapOption)
+            .putFloat(o.quantile)
+            .putUnencodedChars(Strings.nullToEmpty(o.developerCode));
+        o.path.funnel(o.path, into);
+        FILTER_MAP_FUNNEL.funnel(o.filterMap.entrySet(), into);
+        if (o instanceof VectorTileParameters)
+        {
+            final VectorTileParameters _o = (VectorTileParameters) o;
+            into
+                .putBoolean(_o.cells)
+                .putBoolean(_o.points);
+        }
+    }
+}
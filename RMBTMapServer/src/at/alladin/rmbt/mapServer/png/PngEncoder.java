@@ -0,0 +1,486 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer.png;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder for map tiles.<br>
+ * Images with at most 256 colors are written as indexed images (PLTE/tRNS, 1, 2, 4 or 8 bit), others as 8 bit RGBA.
+ * Fully transparent pixels are treated as one color, fully transparent images are served from a cache.
+ * The deflate level and the scanline filter are configurable, deflaters and buffers are reused per thread.<br>
+ * Instances are thread safe.
+ * @author lb
+ *
+ */
+public class PngEncoder {
+
+	/**
+	 * scanline filter; map tiles are mostly transparent with flat areas, {@link #NONE} gives the smallest and fastest
+	 * result for them (see PngEncoderBenchmark)
+	 */
+	public enum Filter {
+		NONE,
+		SUB,
+		UP,
+		PAETH,
+		/**
+		 * the filter with the smallest sum of absolute differences per row
+		 */
+		ADAPTIVE
+	}
+
+	public final static int DEFAULT_LEVEL = 4;
+
+	public final static Filter DEFAULT_FILTER = Filter.NONE;
+
+	private final static byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+	private final static byte[] IHDR = {'I', 'H', 'D', 'R'};
+	private final static byte[] PLTE = {'P', 'L', 'T', 'E'};
+	private final static byte[] TRNS = {'t', 'R', 'N', 'S'};
+	private final static byte[] IDAT = {'I', 'D', 'A', 'T'};
+	private final static byte[] IEND = {'I', 'E', 'N', 'D'};
+
+	private final static int COLOR_TYPE_RGBA = 6;
+	private final static int COLOR_TYPE_INDEXED = 3;
+
+	private final static int MAX_PALETTE = 256;
+
+	// filter types of none, sub, up and paeth
+	private final static byte[] ADAPTIVE_TYPES = {0, 1, 2, 4};
+
+	// open addressing hash table of the palette
+	private final static int HASH_BITS = 10;
+	private final static int HASH_SIZE = 1 << HASH_BITS;
+
+	private final int level;
+
+	private final Filter filter;
+
+	private final ConcurrentMap<Long, byte[]> emptyImages = new ConcurrentHashMap<>();
+
+	/**
+	 * buffers of a thread
+	 */
+	private class Buffers {
+		final Deflater deflater = new Deflater(level);
+		final CRC32 crc = new CRC32();
+		final int[] hashKeys = new int[HASH_SIZE];
+		final int[] hashValues = new int[HASH_SIZE];
+		final int[] palette = new int[MAX_PALETTE];
+		final int[] paletteOrder = new int[MAX_PALETTE];
+		final int[] sortedPalette = new int[MAX_PALETTE];
+		int[] pixels = new int[0];
+		byte[] indices = new byte[0];
+		byte[] raw = new byte[0];
+		byte[][] rows = new byte[5][0];
+		byte[] out = new byte[16384];
+		int outPos;
+
+		int[] getPixels(int size) {
+			if (pixels.length < size) {
+				pixels = new int[size];
+			}
+			return pixels;
+		}
+
+		void ensureOut(int bytes) {
+			if (outPos + bytes > out.length) {
+				out = Arrays.copyOf(out, Math.max(out.length * 2, outPos + bytes));
+			}
+		}
+
+		void writeInt(int v) {
+			ensureOut(4);
+			out[outPos++] = (byte) (v >>> 24);
+			out[outPos++] = (byte) (v >>> 16);
+			out[outPos++] = (byte) (v >>> 8);
+			out[outPos++] = (byte) v;
+		}
+
+		void write(byte[] b, int off, int len) {
+			ensureOut(len);
+			System.arraycopy(b, off, out, outPos, len);
+			outPos += len;
+		}
+
+		/**
+		 * writes the chunk header, the data has to be written next, followed by {@link #endChunk(int)}
+		 * @return the position of the chunk type
+		 */
+		int beginChunk(byte[] type, int length) {
+			writeInt(length);
+			final int start = outPos;
+			write(type, 0, 4);
+			return start;
+		}
+
+		void endChunk(int start) {
+			crc.reset();
+			crc.update(out, start, outPos - start);
+			writeInt((int) crc.getValue());
+		}
+	}
+
+	private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+
+	public PngEncoder() {
+		this(DEFAULT_LEVEL, DEFAULT_FILTER);
+	}
+
+	/**
+	 *
+	 * @param level deflate level 0 - 9
+	 * @param filter
+	 */
+	public PngEncoder(int level, Filter filter) {
+		if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("illegal deflate level: " + level);
+		}
+		this.level = level;
+		this.filter = filter;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public Filter getFilter() {
+		return filter;
+	}
+
+	/**
+	 *
+	 * @param image
+	 * @return the png, must not be modified
+	 */
+	public byte[] encode(BufferedImage image) {
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		final int[] pixels = buffers.get().getPixels(width * height);
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			image.getRaster().getDataElements(0, 0, width, height, pixels);
+		}
+		else {
+			image.getRGB(0, 0, width, height, pixels, 0, width);
+		}
+		return encode(pixels, width, height);
+	}
+
+	/**
+	 *
+	 * @param argb non premultiplied ARGB pixels, row by row
+	 * @param width
+	 * @param height
+	 * @return the png, must not be modified
+	 */
+	public byte[] encode(int[] argb, int width, int height) {
+		final int size = width * height;
+		if (argb.length < size) {
+			throw new IllegalArgumentException("not enough pixels");
+		}
+
+		boolean empty = true;
+		for (int i = 0; i < size; i++) {
+			if ((argb[i] >>> 24) != 0) {
+				empty = false;
+				break;
+			}
+		}
+		if (empty) {
+			final Long key = ((long) width << 32) | height;
+			byte[] png = emptyImages.get(key);
+			if (png == null) {
+				png = encode(buffers.get(), argb, width, height);
+				emptyImages.putIfAbsent(key, png);
+			}
+			return png;
+		}
+		return encode(buffers.get(), argb, width, height);
+	}
+
+	private byte[] encode(Buffers b, int[] argb, int width, int height) {
+		final int colors = buildPalette(b, argb, width * height);
+		final boolean indexed = colors > 0;
+		final int bitDepth = !indexed ? 8 : (colors <= 2 ? 1 : (colors <= 4 ? 2 : (colors <= 16 ? 4 : 8)));
+		final int bytesPerPixel = indexed ? 1 : 4;
+		final int rowBytes = indexed ? (width * bitDepth + 7) / 8 : width * 4;
+
+		// filtered scanlines, each one with the filter type byte
+		final int rawLength = (rowBytes + 1) * height;
+		if (b.raw.length < rawLength) {
+			b.raw = new byte[rawLength];
+		}
+		if (b.rows[0].length < rowBytes) {
+			for (int i = 0; i < b.rows.length; i++) {
+				b.rows[i] = new byte[rowBytes];
+			}
+		}
+		byte[] prev = b.rows[0];
+		byte[] current = b.rows[1];
+		Arrays.fill(prev, 0, rowBytes, (byte) 0);
+		for (int y = 0; y < height; y++) {
+			if (indexed) {
+				packIndices(b.indices, y * width, width, bitDepth, current);
+			}
+			else {
+				for (int x = 0, i = y * width, o = 0; x < width; x++, i++) {
+					final int p = argb[i];
+					current[o++] = (byte) (p >>> 16);
+					current[o++] = (byte) (p >>> 8);
+					current[o++] = (byte) p;
+					current[o++] = (byte) (p >>> 24);
+				}
+			}
+			filterRow(b, filter, current, prev, rowBytes, bytesPerPixel, y * (rowBytes + 1));
+			final byte[] tmp = prev;
+			prev = current;
+			current = tmp;
+		}
+
+		b.outPos = 0;
+		b.write(SIGNATURE, 0, SIGNATURE.length);
+
+		int start = b.beginChunk(IHDR, 13);
+		b.writeInt(width);
+		b.writeInt(height);
+		b.ensureOut(5);
+		b.out[b.outPos++] = (byte) bitDepth;
+		b.out[b.outPos++] = (byte) (indexed ? COLOR_TYPE_INDEXED : COLOR_TYPE_RGBA);
+		b.out[b.outPos++] = 0; // deflate
+		b.out[b.outPos++] = 0; // adaptive filtering
+		b.out[b.outPos++] = 0; // no interlace
+		b.endChunk(start);
+
+		if (indexed) {
+			start = b.beginChunk(PLTE, colors * 3);
+			b.ensureOut(colors * 3);
+			int transparent = 0;
+			for (int i = 0; i < colors; i++) {
+				final int p = b.palette[i];
+				b.out[b.outPos++] = (byte) (p >>> 16);
+				b.out[b.outPos++] = (byte) (p >>> 8);
+				b.out[b.outPos++] = (byte) p;
+				if ((p >>> 24) != 0xff) {
+					transparent = i + 1;
+				}
+			}
+			b.endChunk(start);
+
+			// the palette is sorted with the translucent colors first, so the tRNS chunk ends with the last of them
+			if (transparent > 0) {
+				start = b.beginChunk(TRNS, transparent);
+				b.ensureOut(transparent);
+				for (int i = 0; i < transparent; i++) {
+					b.out[b.outPos++] = (byte) (b.palette[i] >>> 24);
+				}
+				b.endChunk(start);
+			}
+		}
+
+		final Deflater deflater = b.deflater;
+		deflater.reset();
+		deflater.setInput(b.raw, 0, rawLength);
+		deflater.finish();
+		final int lengthPos = b.outPos;
+		start = b.beginChunk(IDAT, 0);
+		while (!deflater.finished()) {
+			b.ensureOut(Math.max(4096, rawLength / 4));
+			b.outPos += deflater.deflate(b.out, b.outPos, b.out.length - b.outPos);
+		}
+		final int idatLength = b.outPos - start - 4;
+		b.out[lengthPos] = (byte) (idatLength >>> 24);
+		b.out[lengthPos + 1] = (byte) (idatLength >>> 16);
+		b.out[lengthPos + 2] = (byte) (idatLength >>> 8);
+		b.out[lengthPos + 3] = (byte) idatLength;
+		b.endChunk(start);
+
+		start = b.beginChunk(IEND, 0);
+		b.endChunk(start);
+
+		return Arrays.copyOf(b.out, b.outPos);
+	}
+
+	/**
+	 * builds the palette of the image and the palette index of each pixel
+	 * @return the number of colors or 0 if there are too many colors for a palette
+	 */
+	private static int buildPalette(Buffers b, int[] argb, int size) {
+		if (b.indices.length < size) {
+			b.indices = new byte[size];
+		}
+		final int[] keys = b.hashKeys;
+		final int[] values = b.hashValues;
+		final int[] palette = b.palette;
+		Arrays.fill(values, -1);
+
+		int colors = 0;
+		int last = 0;
+		int lastIndex = -1;
+		for (int i = 0; i < size; i++) {
+			int p = argb[i];
+			if ((p >>> 24) == 0) {
+				p = 0;
+			}
+			if (p != last || lastIndex < 0) {
+				int h = (p * 0x9e3779b9) >>> (32 - HASH_BITS);
+				while (values[h] >= 0 && keys[h] != p) {
+					h = (h + 1) & (HASH_SIZE - 1);
+				}
+				if (values[h] < 0) {
+					if (colors == MAX_PALETTE) {
+						return 0;
+					}
+					keys[h] = p;
+					values[h] = colors;
+					palette[colors++] = p;
+				}
+				last = p;
+				lastIndex = values[h];
+			}
+			b.indices[i] = (byte) lastIndex;
+		}
+
+		// translucent colors first, so the tRNS chunk is as short as possible
+		final int[] order = b.paletteOrder;
+		int n = 0;
+		for (int i = 0; i < colors; i++) {
+			if ((palette[i] >>> 24) != 0xff) {
+				order[i] = n++;
+			}
+		}
+		boolean reordered = false;
+		for (int i = 0; i < colors; i++) {
+			if ((palette[i] >>> 24) == 0xff) {
+				reordered |= n != i;
+				order[i] = n++;
+			}
+		}
+		if (reordered) {
+			final int[] sorted = b.sortedPalette;
+			for (int i = 0; i < colors; i++) {
+				sorted[order[i]] = palette[i];
+			}
+			System.arraycopy(sorted, 0, palette, 0, colors);
+			for (int i = 0; i < size; i++) {
+				b.indices[i] = (byte) order[b.indices[i] & 0xff];
+			}
+		}
+		return colors;
+	}
+
+	private static void packIndices(byte[] indices, int offset, int width, int bitDepth, byte[] row) {
+		if (bitDepth == 8) {
+			System.arraycopy(indices, offset, row, 0, width);
+			return;
+		}
+		final int perByte = 8 / bitDepth;
+		final int rowBytes = (width * bitDepth + 7) / 8;
+		for (int o = 0, i = offset, x = 0; o < rowBytes; o++) {
+			int v = 0;
+			for (int k = 0; k < perByte; k++, x++) {
+				v <<= bitDepth;
+				if (x < width) {
+					v |= indices[i++];
+				}
+			}
+			row[o] = (byte) v;
+		}
+	}
+
+	private static void filterRow(Buffers b, Filter filter, byte[] row, byte[] prev, int rowBytes, int bpp, int pos) {
+		final byte[] raw = b.raw;
+		switch (filter) {
+		case SUB:
+			raw[pos] = 1;
+			sub(row, rowBytes, bpp, raw, pos + 1);
+			break;
+		case UP:
+			raw[pos] = 2;
+			up(row, prev, rowBytes, raw, pos + 1);
+			break;
+		case PAETH:
+			raw[pos] = 4;
+			paeth(row, prev, rowBytes, bpp, raw, pos + 1);
+			break;
+		case ADAPTIVE:
+			// rows 2 - 4 hold the candidates
+			sub(row, rowBytes, bpp, b.rows[2], 0);
+			up(row, prev, rowBytes, b.rows[3], 0);
+			paeth(row, prev, rowBytes, bpp, b.rows[4], 0);
+			int best = 0;
+			long bestSum = sum(row, rowBytes);
+			for (int i = 0; i < 3; i++) {
+				final long s = sum(b.rows[i + 2], rowBytes);
+				if (s < bestSum) {
+					bestSum = s;
+					best = i + 1;
+				}
+			}
+			raw[pos] = ADAPTIVE_TYPES[best];
+			System.arraycopy(best == 0 ? row : b.rows[best + 1], 0, raw, pos + 1, rowBytes);
+			break;
+		default:
+			raw[pos] = 0;
+			System.arraycopy(row, 0, raw, pos + 1, rowBytes);
+		}
+	}
+
+	private static long sum(byte[] row, int length) {
+		long sum = 0;
+		for (int i = 0; i < length; i++) {
+			sum += Math.abs(row[i]);
+		}
+		return sum;
+	}
+
+	private static void sub(byte[] row, int length, int bpp, byte[] out, int pos) {
+		for (int i = 0; i < length; i++) {
+			out[pos + i] = (byte) (row[i] - (i >= bpp ? row[i - bpp] : 0));
+		}
+	}
+
+	private static void up(byte[] row, byte[] prev, int length, byte[] out, int pos) {
+		for (int i = 0; i < length; i++) {
+			out[pos + i] = (byte) (row[i] - prev[i]);
+		}
+	}
+
+	private static void paeth(byte[] row, byte[] prev, int length, int bpp, byte[] out, int pos) {
+		for (int i = 0; i < length; i++) {
+			final int a = i >= bpp ? row[i - bpp] & 0xff : 0;
+			final int b = prev[i] & 0xff;
+			final int c = i >= bpp ? prev[i - bpp] & 0xff : 0;
+			final int p = a + b - c;
+			final int pa = Math.abs(p - a);
+			final int pb = Math.abs(p - b);
+			final int pc = Math.abs(p - c);
+			final int predictor = pa <= pb && pa <= pc ? a : (pb <= pc ? b : c);
+			out[pos + i] = (byte) (row[i] - predictor);
+		}
+	}
+}
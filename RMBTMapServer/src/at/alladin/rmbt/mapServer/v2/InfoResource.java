@@ -15,8 +15,6 @@
  ******************************************************************************/
 package at.alladin.rmbt.mapServer.v2;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,9 +24,14 @@ import java.util.Map;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.restlet.data.MediaType;
+import org.restlet.data.Tag;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
 import org.restlet.resource.Get;
 import org.restlet.resource.Post;
 
+import at.alladin.rmbt.mapServer.MapFilterCatalog;
 import at.alladin.rmbt.mapServer.MapServerOptions;
 import at.alladin.rmbt.mapServer.MapServerOptions.MapOption;
 import at.alladin.rmbt.mapServer.ServerResource;
@@ -39,7 +42,9 @@ import at.alladin.rmbt.util.model.shared.MapOptions;
 
 public class InfoResource extends ServerResource
 {
-    private List<ServerOption> getMapFilterList() throws JSONException, SQLException
+    private MapFilterCatalog.Snapshot catalog;
+    
+    private List<ServerOption> getMapFilterList() throws JSONException
     {
     	final double[] statisticalMethodArray = { 0.8, 0.5, 0.2 };
     	final boolean[] defaultArray = {false, true, false};
@@ -291,7 +296,7 @@ public class InfoResource extends ServerResource
     // OPERATORS FILTER
     ///////////////////////////////////////    
     
-    private ServerOption getOperators(final boolean mobile) throws JSONException, SQLException
+    private ServerOption getOperators(final boolean mobile) throws JSONException
     {
     	final ServerOption optionAll = new ServerOption(labels.getString("MAP_FILTER_ALL_OPERATORS"));
    		optionAll.addParameter(mobile ? "operator" : "provider", "");
@@ -302,32 +307,20 @@ public class InfoResource extends ServerResource
    		option.getOptionList().add(optionAll);
    		option.addDependsOn("map_type_is_mobile", mobile);
    		        
-        final String sql = "SELECT uid,name,mcc_mnc,shortname FROM provider p WHERE p.map_filter=true"
-                + (mobile ? " AND p.mcc_mnc IS NOT NULL" : " ") + " ORDER BY shortname";  // allow mobile networks for wifi/browser
-        
-        try (final PreparedStatement ps = conn.prepareStatement(sql)) {
-            try (final ResultSet rs = ps.executeQuery()) {
-	            if (rs == null) {
-	                return null;
-	            }
-	            
-	            while (rs.next()) {
-	            	final ServerOption o = new ServerOption();
-	                o.setTitle(rs.getString("shortname"));
-	                o.setSummary(rs.getString("name"));
-	                o.addParameter(mobile ? "operator" : "provider", rs.getLong("uid"));
-	                option.getOptionList().add(o);
-	            }
-            }
+        for (final MapFilterCatalog.Operator operator : catalog.getOperators(mobile)) {
+        	final ServerOption o = new ServerOption();
+            o.setTitle(operator.getShortname());
+            o.setSummary(operator.getName());
+            o.addParameter(mobile ? "operator" : "provider", operator.getUid());
+            option.getOptionList().add(o);
         }
         
-        
         return option;
     }
     
     @Post("json")
     @Get("json")
-    public String request(final String entity)
+    public Representation request(final String entity)
     {
         addAllowOrigin();
         
@@ -348,12 +341,21 @@ public class InfoResource extends ServerResource
                 
                 if (langs.contains(lang))
                     labels = ResourceManager.getSysMsgBundle(new Locale(lang));
+                else
+                    lang = settings.getString("RMBT_DEFAULT_LANGUAGE");
             }
             
+            catalog = MapFilterCatalog.getInstance().getSnapshot(conn);
+            final Tag tag = new Tag(String.format("v2-%s-%s", catalog.getVersion(), lang), true);
+            if (isNotModified(tag))
+                return null;
+            
             MapOptions filter = new MapOptions();
             filter.setMapFilterList(getMapFilterList());
             
-            return ServerOption.getGson().toJson(filter);
+            final Representation result = new StringRepresentation(ServerOption.getGson().toJson(filter), MediaType.APPLICATION_JSON);
+            result.setTag(tag);
+            return result;
         }
         catch (final JSONException e)
         {
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import at.alladin.rmbt.mapServer.MapFilterCatalog.Device;
+import at.alladin.rmbt.mapServer.MapFilterCatalog.Operator;
+import at.alladin.rmbt.mapServer.MapFilterCatalog.Snapshot;
+
+public class MapFilterCatalogTest {
+
+	private final static List<Operator> OPERATORS = Arrays.asList(
+			new Operator(1, "Operator A", "A", true),
+			new Operator(2, "Fixed B", "B", false),
+			new Operator(3, "Operator C", "C", true));
+
+	private static Map<String, Integer> getModelTypes() {
+		final Map<String, Integer> modelTypes = new HashMap<>();
+		MapFilterCatalog.addModel(modelTypes, "GT-I9505", 13);
+		MapFilterCatalog.addModel(modelTypes, "GT-I9506", 99);
+		MapFilterCatalog.addModel(modelTypes, "Nexus 5", 99);
+		MapFilterCatalog.addModel(modelTypes, "Nexus 5", 3);
+		MapFilterCatalog.addModel(modelTypes, "Chrome", 98);
+		MapFilterCatalog.addModel(modelTypes, "unknown", 0);
+		return modelTypes;
+	}
+
+	private static Map<String, String> getDeviceNames() {
+		final Map<String, String> deviceNames = new HashMap<>();
+		deviceNames.put("GT-I9505", "Samsung Galaxy S4");
+		deviceNames.put("GT-I9506", "Samsung Galaxy S4");
+		return deviceNames;
+	}
+
+	private static String toString(List<Device> devices) {
+		final StringBuilder sb = new StringBuilder();
+		for (Device device : devices) {
+			sb.append(device.getTitle()).append('=').append(device.getKeys()).append('|');
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testDevices() {
+		final Snapshot snapshot = MapFilterCatalog.build(getModelTypes(), getDeviceNames(), OPERATORS);
+		assertEquals("Nexus 5=Nexus 5|Samsung Galaxy S4=GT-I9505|", toString(snapshot.getDevices(MapFilterCatalog.TYPE_MOBILE)));
+		assertEquals("Nexus 5=Nexus 5|Samsung Galaxy S4=GT-I9506|", toString(snapshot.getDevices(MapFilterCatalog.TYPE_WIFI)));
+		assertEquals("Chrome=Chrome|", toString(snapshot.getDevices(MapFilterCatalog.TYPE_BROWSER)));
+		assertEquals("Chrome=Chrome|Nexus 5=Nexus 5|Samsung Galaxy S4=GT-I9505;GT-I9506|unknown=unknown|", toString(snapshot.getDevices(null)));
+	}
+
+	@Test
+	public void testOperators() {
+		final Snapshot snapshot = MapFilterCatalog.build(getModelTypes(), getDeviceNames(), OPERATORS);
+		assertEquals(2, snapshot.getOperators(true).size());
+		assertEquals(3, snapshot.getOperators(false).size());
+		assertEquals("C", snapshot.getOperators(true).get(1).getShortname());
+	}
+
+	@Test
+	public void testVersion() {
+		final String version = MapFilterCatalog.build(getModelTypes(), getDeviceNames(), OPERATORS).getVersion();
+		assertEquals(version, MapFilterCatalog.build(getModelTypes(), getDeviceNames(), OPERATORS).getVersion());
+
+		final Map<String, Integer> modelTypes = getModelTypes();
+		MapFilterCatalog.addModel(modelTypes, "Nexus 5", 98);
+		assertFalse(version.equals(MapFilterCatalog.build(modelTypes, getDeviceNames(), OPERATORS).getVersion()));
+		assertFalse(version.equals(MapFilterCatalog.build(getModelTypes(), getDeviceNames(), OPERATORS.subList(0, 2)).getVersion()));
+		assertFalse(version.equals(MapFilterCatalog.build(getModelTypes(), new HashMap<String, String>(), OPERATORS).getVersion()));
+	}
+}
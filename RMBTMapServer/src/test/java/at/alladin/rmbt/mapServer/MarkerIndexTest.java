@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import at.alladin.rmbt.mapServer.MarkerIndex.Grid;
+import at.alladin.rmbt.mapServer.MarkerIndex.Marker;
+import at.alladin.rmbt.mapServer.MarkerIndex.Query;
+import at.alladin.rmbt.mapServer.MarkerIndex.Snapshot;
+
+public class MarkerIndexTest {
+
+	private final static long NOW = 1500000000000L;
+
+	private final static long DAY = TimeUnit.DAYS.toMillis(1);
+
+	private static Marker marker(long uid, double x, double y, int networkType, long time) {
+		final Marker m = new Marker();
+		m.uid = uid;
+		m.x = x;
+		m.y = y;
+		m.networkType = networkType;
+		m.time = time;
+		m.flags = MarkerIndex.HAS_DOWNLOAD | MarkerIndex.HAS_UPLOAD | MarkerIndex.HAS_PING;
+		return m;
+	}
+
+	private static Query query(String option, String... filters) {
+		final Map<String, String> map = new HashMap<>();
+		for (int i = 0; i < filters.length; i += 2) {
+			map.put(filters[i], filters[i + 1]);
+		}
+		return Query.create(option, MapServerOptions.getMapOptionMap().get(option), map, NOW);
+	}
+
+	private static String uids(List<Marker> markers) {
+		final StringBuilder sb = new StringBuilder();
+		for (Marker m : markers) {
+			sb.append(m.uid).append(',');
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testQuery() {
+		assertNotNull(query("mobile/download", "technology", "", "unknown", "1"));
+		assertNull(query("mobile/download", "age", "30"));
+		assertNull(query("mobile/download", "user_server_selection", "true"));
+		assertNull(query("mobile/download", "operator", "x"));
+		assertNull(query("unknown/download"));
+
+		final Marker m = marker(1, 0, 0, 13, NOW - DAY);
+		m.mobileProviderId = 7;
+		m.flags |= MarkerIndex.HAS_MOBILE_PROVIDER;
+		assertEquals(true, query("mobile/download").matches(m));
+		assertEquals(false, query("wifi/download").matches(m));
+		assertEquals(true, query("all/upload").matches(m));
+		assertEquals(false, query("mobile/signal").matches(m));
+		assertEquals(true, query("mobile/download", "technology", "4").matches(m));
+		assertEquals(true, query("mobile/download", "technology", "34").matches(m));
+		assertEquals(false, query("mobile/download", "technology", "3").matches(m));
+		assertEquals(true, query("mobile/download", "operator", "7").matches(m));
+		assertEquals(false, query("mobile/download", "operator", "8").matches(m));
+		assertEquals(false, query("mobile/download", "operator", "other").matches(m));
+		assertEquals(false, query("mobile/download", "provider", "7").matches(m));
+		assertEquals(true, query("mobile/download", "period", "2").matches(m));
+		assertEquals(false, query("mobile/download", "period", "1").matches(m));
+	}
+
+	@Test
+	public void testFind() {
+		final Random random = new Random(1);
+		final List<Marker> all = new ArrayList<>();
+		for (int uid = 1; uid <= 20000; uid++) {
+			all.add(marker(uid, random.nextGaussian() * 50000, random.nextGaussian() * 50000,
+					random.nextBoolean() ? 99 : 13, NOW - random.nextInt(300) * DAY));
+		}
+		final List<Marker> base = all.subList(0, 19000);
+		final List<Marker> recent = new ArrayList<>(all.subList(19000, all.size()));
+		Collections.shuffle(recent, random);
+		final Snapshot snapshot = new Snapshot(new Grid(base), recent, NOW - 365 * DAY);
+		assertEquals(20000, snapshot.size());
+
+		final Query[] queries = {query("mobile/download"), query("wifi/ping", "period", "30"), query("all/upload", "period", "1")};
+		for (final Query query : queries) {
+			for (int i = 0; i < 200; i++) {
+				final double x = random.nextGaussian() * 50000, y = random.nextGaussian() * 50000;
+				final double radius = Math.pow(10, 1 + random.nextDouble() * 6);
+
+				final List<Marker> expected = new ArrayList<>();
+				for (int j = all.size() - 1; j >= 0 && expected.size() < 5; j--) {
+					final Marker m = all.get(j);
+					if (Math.abs(m.x - x) <= radius && Math.abs(m.y - y) <= radius && query.matches(m)) {
+						expected.add(m);
+					}
+				}
+
+				final List<Marker> found = snapshot.find(query, x - radius, y - radius, x + radius, y + radius, 5);
+				if (expected.size() < 5 && query.periodStart < NOW - 365 * DAY) {
+					// older tests might be missing
+					assertNull(found);
+				}
+				else {
+					assertEquals(uids(expected), uids(found));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLevel() {
+		assertEquals(0, MarkerIndex.getLevel(100));
+		assertEquals(1, MarkerIndex.getLevel(1000));
+		assertEquals(MarkerIndex.LEVELS - 1, MarkerIndex.getLevel(GeoCalc.MAX_EXTENT * 2));
+	}
+}
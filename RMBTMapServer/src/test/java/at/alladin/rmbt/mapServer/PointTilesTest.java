@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import at.alladin.rmbt.mapServer.PointTiles.Dot;
+import at.alladin.rmbt.mapServer.png.PngEncoder;
+
+/**
+ * compares tiles with all points to tiles with the points selected like the query of {@link PointTiles}
+ * (the point with the highest uid per grid cell, drawn in the order of the uids) and checks the cache of
+ * decoded base tiles
+ */
+public class PointTilesTest {
+
+	private final static int TILE_SIZE = 256;
+
+	private final static double DIAMETER = 8;
+
+	private final static Color[] COLORS = {new Color(255, 0, 0, 153), new Color(255, 255, 0, 153), new Color(0, 255, 0, 153)};
+
+	private final static Color BORDER = new Color(0, 0, 0, 153);
+
+	@Test
+	public void testCellSize() {
+		assertEquals(2, PointTiles.getCellSize(DIAMETER, 256, 14));
+		assertEquals(1, PointTiles.getCellSize(2, 128, 0));
+		assertEquals(4, PointTiles.getCellSize(DIAMETER, 768, 14));
+		for (int tileSize : TileRestlet.TILE_SIZES) {
+			for (double diameter = 1; diameter <= 40; diameter++) {
+				final double margin = diameter * 1.75;
+				final double cells = (tileSize + 2 * margin) / PointTiles.getCellSize(diameter, tileSize, margin) + 1;
+				assertTrue(cells * cells <= PointTiles.MAX_POINTS * 1.05);
+			}
+		}
+	}
+
+	@Test
+	public void testBaseTilePixels() throws IOException {
+		final BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		final Graphics2D g = image.createGraphics();
+		g.setPaint(COLORS[0]);
+		g.fillOval(10, 20, 100, 80);
+		g.dispose();
+		final byte[] png = new PngEncoder().encode(image);
+
+		final int[] pixels = PointTiles.getBaseTilePixels(png, TILE_SIZE, TILE_SIZE);
+		assertArrayEquals(image.getRGB(0, 0, TILE_SIZE, TILE_SIZE, null, 0, TILE_SIZE), pixels);
+		// decoded once
+		assertSame(pixels, PointTiles.getBaseTilePixels(Arrays.copyOf(png, png.length), TILE_SIZE, TILE_SIZE));
+	}
+
+	private static BufferedImage draw(List<Dot> dots, TileRestlet.DBox box) {
+		final BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		final Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		PointTiles.drawDots(g, dots, box, TILE_SIZE, DIAMETER, false, BORDER, BORDER);
+		g.dispose();
+		return image;
+	}
+
+	@Test
+	public void testDecimation() {
+		final TileRestlet.DBox box = GeoCalc.xyToMeters(TILE_SIZE, 34, 22, 6);
+		final Random random = new Random(5);
+
+		// dense clusters and sparse points, in the order of the uids
+		final List<Dot> dots = new ArrayList<>();
+		for (int i = 0; i < 100000; i++) {
+			final double x, y;
+			if (i % 10 == 0) {
+				x = box.x1 + random.nextDouble() * (box.x2 - box.x1);
+				y = box.y1 + random.nextDouble() * (box.y2 - box.y1);
+			}
+			else {
+				final int cluster = random.nextInt(5);
+				x = box.x1 + (0.15 + cluster * 0.17 + random.nextGaussian() * 0.03) * (box.x2 - box.x1);
+				y = box.y1 + (0.2 + cluster * 0.15 + random.nextGaussian() * 0.03) * (box.y2 - box.y1);
+			}
+			dots.add(new Dot(x, y, COLORS[random.nextInt(COLORS.length)], false));
+		}
+
+		final double cellSize = box.res * PointTiles.getCellSize(DIAMETER, TILE_SIZE, DIAMETER * 1.75);
+		final Map<String, Integer> lastPerCell = new HashMap<>();
+		for (int uid = 0; uid < dots.size(); uid++) {
+			final Dot dot = dots.get(uid);
+			lastPerCell.put(Math.floor((dot.x + GeoCalc.MAX_EXTENT) / cellSize) + "/"
+					+ Math.floor((dot.y + GeoCalc.MAX_EXTENT) / cellSize), uid);
+		}
+		final List<Integer> uids = new ArrayList<>(lastPerCell.values());
+		Collections.sort(uids);
+		final List<Dot> decimated = new ArrayList<>();
+		for (int uid : uids) {
+			decimated.add(dots.get(uid));
+		}
+		assertTrue(decimated.size() < dots.size() / 4);
+
+		final BufferedImage all = draw(dots, box);
+		final BufferedImage reduced = draw(decimated, box);
+		int different = 0;
+		for (int y = 0; y < TILE_SIZE; y++) {
+			for (int x = 0; x < TILE_SIZE; x++) {
+				final int a = all.getRGB(x, y);
+				final int b = reduced.getRGB(x, y);
+				int maxDiff = 0;
+				for (int shift = 0; shift < 32; shift += 8) {
+					maxDiff = Math.max(maxDiff, Math.abs((a >>> shift & 0xff) - (b >>> shift & 0xff)));
+				}
+				if (maxDiff > 64) {
+					different++;
+				}
+			}
+		}
+		// less than 1% of the pixels differ noticeably, at the borders of the clusters
+		assertTrue(different < TILE_SIZE * TILE_SIZE / 100);
+	}
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import at.alladin.rmbt.mapServer.RenderAdmission.Ticket;
+import at.alladin.rmbt.mapServer.TileLoadDriver.Client;
+import at.alladin.rmbt.mapServer.TileLoadDriver.Result;
+
+public class RenderAdmissionTest {
+
+	/**
+	 * acquires a ticket on a new thread and adds the client (or "-" and the client if rejected) to the result
+	 */
+	private static Thread start(final RenderAdmission admission, final String client, final int zoom, final int x, final int y,
+			final boolean background, final List<String> result) {
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try (Ticket ticket = admission.acquire(client, zoom, x, y, background)) {
+					result.add(ticket != null ? client : "-" + client);
+				}
+				catch (InterruptedException e) {
+					result.add("interrupted");
+				}
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	private static void awaitQueued(RenderAdmission admission, int queued) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (admission.getQueued() != queued) {
+			assertTrue("queued: " + admission.getQueued(), System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	private static void join(Thread... threads) throws InterruptedException {
+		for (Thread thread : threads) {
+			thread.join(5000);
+		}
+	}
+
+	@Test
+	public void testPriority() throws Exception {
+		final RenderAdmission admission = new RenderAdmission(1, 10, 1, 5000);
+		final List<String> result = Collections.synchronizedList(new ArrayList<String>());
+		for (String client : Arrays.asList("viewport", "zoom", "other")) {
+			admission.observe(client, 10, 100, 100);
+		}
+		final Ticket ticket = admission.acquire("holder", 10, 0, 0, false);
+		final Thread background = start(admission, "background", 10, 100, 100, true, result);
+		awaitQueued(admission, 1);
+		final Thread other = start(admission, "other", 11, 200, 200, false, result);
+		awaitQueued(admission, 2);
+		final Thread zoom = start(admission, "zoom", 10, 120, 100, false, result);
+		awaitQueued(admission, 3);
+		final Thread viewport = start(admission, "viewport", 10, 101, 99, false, result);
+		awaitQueued(admission, 4);
+
+		ticket.close();
+		join(background, other, zoom, viewport);
+		assertEquals(Arrays.asList("viewport", "zoom", "other", "background"), result);
+		assertEquals(0, admission.getRunning());
+		assertEquals(5, admission.getAdmitted());
+	}
+
+	@Test
+	public void testQueueOverflow() throws Exception {
+		final RenderAdmission admission = new RenderAdmission(1, 2, 1, 5000);
+		final List<String> result = Collections.synchronizedList(new ArrayList<String>());
+		final Ticket ticket = admission.acquire("holder", 10, 0, 0, false);
+		final Thread background = start(admission, "background", 10, 0, 0, true, result);
+		final Thread a = start(admission, "a", 10, 0, 0, false, result);
+		awaitQueued(admission, 2);
+		final Thread b = start(admission, "b", 10, 0, 0, false, result);
+		background.join(5000);
+		assertEquals(Arrays.asList("-background"), result);
+		assertEquals(2, admission.getQueued());
+
+		ticket.close();
+		join(a, b);
+		assertEquals(3, result.size());
+		assertEquals(1, admission.getRejected());
+	}
+
+	@Test
+	public void testPerClientLimit() throws Exception {
+		final RenderAdmission admission = new RenderAdmission(2, 10, 1, 5000);
+		final List<String> result = Collections.synchronizedList(new ArrayList<String>());
+		final Ticket ticket = admission.acquire("a", 10, 0, 0, false);
+		final Thread a = start(admission, "a", 10, 0, 0, false, result);
+		awaitQueued(admission, 1);
+		// the free slot is given to another client
+		final Thread b = start(admission, "b", 10, 0, 0, false, result);
+		b.join(5000);
+		assertEquals(Arrays.asList("b"), result);
+		assertEquals(1, admission.getQueued());
+
+		ticket.close();
+		a.join(5000);
+		assertEquals(Arrays.asList("b", "a"), result);
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		final RenderAdmission admission = new RenderAdmission(1, 10, 1, 50);
+		final List<String> result = Collections.synchronizedList(new ArrayList<String>());
+		try (Ticket ticket = admission.acquire("a", 10, 0, 0, false)) {
+			assertNotNull(ticket);
+			join(start(admission, "b", 10, 0, 0, false, result));
+		}
+		assertEquals(Arrays.asList("-b"), result);
+		assertEquals(1, admission.getRejected());
+		assertEquals(0, admission.getQueued());
+	}
+
+	@Test
+	public void testNestedAndTry() throws Exception {
+		final RenderAdmission admission = new RenderAdmission(1, 10, 1, 50);
+		try (Ticket ticket = admission.tryAcquire("a")) {
+			assertNotNull(ticket);
+			try (Ticket nested = admission.acquire("a", 10, 0, 0, false)) {
+				assertNotNull(nested);
+				assertSame(nested, admission.tryAcquire("b"));
+			}
+			assertEquals(1, admission.getRunning());
+
+			final Ticket[] other = new Ticket[1];
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					other[0] = admission.tryAcquire("b");
+				}
+			});
+			thread.start();
+			thread.join(5000);
+			assertNull(other[0]);
+		}
+		assertEquals(0, admission.getRunning());
+	}
+
+	@Test
+	public void testClientSweep() throws Exception {
+		final RenderAdmission admission = new RenderAdmission(1, 10, 1, 5000);
+		try (Ticket ticket = admission.acquire("busy", 10, 0, 0, false)) {
+			assertNotNull(ticket);
+			for (int i = 0; i <= RenderAdmission.MAX_CLIENTS; i++) {
+				admission.observe("client" + i, 10, i, 0);
+			}
+			// all clients without renders are forgotten once there are too many
+			assertTrue(admission.getClientCount() <= RenderAdmission.MAX_CLIENTS);
+			assertEquals(1, admission.getRunning());
+		}
+		assertEquals(0, admission.getRunning());
+	}
+
+	@Test
+	public void testOverload() throws Exception {
+		final RenderAdmission admission = new RenderAdmission(2, 8, 1, 2000);
+		final Result result = TileLoadDriver.run(admission, new Client[] {new Client("greedy", 12), new Client("light", 1)}, 10, 2, 1000);
+		assertTrue(result.maxRendering <= 2);
+		assertEquals(0, admission.getRunning());
+		final Client greedy = result.getClient("greedy");
+		final Client light = result.getClient("light");
+		assertTrue(greedy.unavailable.get() > 0);
+		assertTrue(light.served.get() > 10);
+		assertTrue(light.served.get() > 10 * light.unavailable.get());
+	}
+}
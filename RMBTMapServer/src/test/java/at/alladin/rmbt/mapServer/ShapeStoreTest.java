@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import at.alladin.rmbt.mapServer.ShapeStore.Shape;
+import at.alladin.rmbt.shared.geo.Envelope;
+import at.alladin.rmbt.shared.geo.Polygon;
+
+public class ShapeStoreTest {
+
+	private final static Envelope ALL = new Envelope(-1e6, -1e6, 1e6, 1e6);
+
+	/**
+	 * a noisy line from (x1, y1) to (x2, y2) without the end point
+	 */
+	private static void addLine(List<Double> coords, Random random, double x1, double y1, double x2, double y2, int n) {
+		for (int i = 0; i < n; i++) {
+			final double t = (double) i / n;
+			final double noise = i == 0 ? 0 : (random.nextDouble() - 0.5) * 40;
+			coords.add(x1 + t * (x2 - x1) + (y1 == y2 ? 0 : noise));
+			coords.add(y1 + t * (y2 - y1) + (x1 == x2 ? 0 : noise));
+		}
+	}
+
+	private static double[] toRing(List<Double> coords, boolean reverse) {
+		final int n = coords.size() / 2;
+		final double[] ring = new double[n * 2 + 2];
+		for (int i = 0; i < n; i++) {
+			final int j = reverse ? n - 1 - i : i;
+			ring[2 * i] = coords.get(2 * j);
+			ring[2 * i + 1] = coords.get(2 * j + 1);
+		}
+		// closed like WKT rings
+		ring[2 * n] = ring[0];
+		ring[2 * n + 1] = ring[1];
+		return ring;
+	}
+
+	private static Set<String> vertices(double[] ring) {
+		final Set<String> result = new HashSet<>();
+		for (int i = 0; i < ring.length; i += 2) {
+			result.add(ring[i] + "/" + ring[i + 1]);
+		}
+		return result;
+	}
+
+	/**
+	 * municipality 1 and 2 share a noisy boundary, municipality 3 is an enclave of 1
+	 */
+	private static ShapeStore createStore() {
+		final Random random = new Random(7);
+		final List<Double> shared = new ArrayList<>();
+		addLine(shared, random, 10000, 0, 10000, 10000, 200);
+		final List<Double> enclave = new ArrayList<>();
+		addLine(enclave, random, 2000, 2000, 4000, 2000, 50);
+		addLine(enclave, random, 4000, 2000, 4000, 4000, 50);
+		addLine(enclave, random, 4000, 4000, 2000, 4000, 50);
+		addLine(enclave, random, 2000, 4000, 2000, 2000, 50);
+
+		// counterclockwise: bottom, shared boundary upwards, top, left
+		final List<Double> a = new ArrayList<>();
+		addLine(a, random, 0, 0, 10000, 0, 100);
+		a.addAll(shared);
+		addLine(a, random, 10000, 10000, 0, 10000, 100);
+		addLine(a, random, 0, 10000, 0, 0, 100);
+
+		// counterclockwise: bottom, right, top, shared boundary downwards
+		final List<Double> b = new ArrayList<>();
+		addLine(b, random, 10000, 0, 20000, 0, 100);
+		addLine(b, random, 20000, 0, 20000, 10000, 100);
+		addLine(b, random, 20000, 10000, 10000, 10000, 100);
+		b.add(10000.0);
+		b.add(10000.0);
+		final double[] sharedDown = toRing(shared, true);
+		for (int i = 0; i < sharedDown.length - 4; i++) {
+			b.add(sharedDown[i]);
+		}
+
+		final List<Shape> shapes = new ArrayList<>();
+		shapes.add(new Shape(1, new Polygon(toRing(a, false), toRing(enclave, true))));
+		shapes.add(new Shape(2, new Polygon(toRing(b, false))));
+		shapes.add(new Shape(3, new Polygon(toRing(enclave, false))));
+		return new ShapeStore(shapes);
+	}
+
+	@Test
+	public void testSharedBoundaries() {
+		final ShapeStore store = createStore();
+		final Map<Long, Polygon> original = new HashMap<>();
+		for (Shape shape : store.search(ShapeStore.MAX_LEVEL + 1, ALL)) {
+			original.put(shape.getId(), shape.getPolygon());
+		}
+		assertEquals(3, original.size());
+		final Set<String> sharedVertices = vertices(original.get(1L).getRings()[0]);
+		sharedVertices.retainAll(vertices(original.get(2L).getRings()[0]));
+		assertEquals(201, sharedVertices.size());
+
+		for (int level = 8; level <= 14; level++) {
+			final Map<Long, Polygon> simplified = new HashMap<>();
+			for (Shape shape : store.search(level, ALL)) {
+				simplified.put(shape.getId(), shape.getPolygon());
+			}
+			assertEquals(3, simplified.size());
+			final Polygon a = simplified.get(1L);
+			final Polygon b = simplified.get(2L);
+			final Polygon c = simplified.get(3L);
+			assertTrue(a.getVertexCount() < original.get(1L).getVertexCount());
+
+			// the same vertices of the shared boundary remain on both sides, including its end points
+			final Set<String> sharedA = vertices(a.getRings()[0]);
+			sharedA.retainAll(sharedVertices);
+			final Set<String> sharedB = vertices(b.getRings()[0]);
+			sharedB.retainAll(sharedVertices);
+			assertEquals(sharedA, sharedB);
+			assertTrue(sharedA.contains(10000.0 + "/" + 0.0));
+			assertTrue(sharedA.contains(10000.0 + "/" + 10000.0));
+
+			// the hole and the enclave are the same ring
+			assertEquals(2, a.getRings().length);
+			assertEquals(vertices(a.getRings()[1]), vertices(c.getRings()[0]));
+		}
+	}
+
+	@Test
+	public void testSearch() {
+		final ShapeStore store = createStore();
+		final List<Long> ids = new ArrayList<>();
+		for (Shape shape : store.search(10, new Envelope(15000, 5000, 16000, 6000))) {
+			ids.add(shape.getId());
+		}
+		assertEquals(Arrays.asList(2L), ids);
+		assertEquals(10, ShapeStore.getLevel(10, 256));
+		assertEquals(11, ShapeStore.getLevel(10, 512));
+		assertEquals(12, ShapeStore.getLevel(10, 768));
+		assertEquals(ShapeStore.MAX_LEVEL + 1, ShapeStore.getLevel(21, 256));
+	}
+
+	@Test
+	public void testClip() {
+		final double[] square = {0, 0, 10, 0, 10, 10, 0, 10};
+		assertArrayEquals(square, ShapeTiles.clip(square, new Envelope(-1, -1, 11, 11)), 0);
+		assertEquals(0, ShapeTiles.clip(square, new Envelope(20, 20, 30, 30)).length);
+		final double[] clipped = ShapeTiles.clip(square, new Envelope(5, -5, 15, 5));
+		assertEquals(Envelope.of(clipped).toString(), new Envelope(5, 0, 10, 5).toString());
+		assertEquals(8, clipped.length);
+	}
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.restlet.data.Form;
+
+import at.alladin.rmbt.mapServer.MapServerOptions.MapOption;
+import at.alladin.rmbt.mapServer.MapServerOptions.SQLFilter;
+import at.alladin.rmbt.mapServer.parameters.TileParameters;
+import at.alladin.rmbt.mapServer.parameters.TileParameters.Path;
+import at.alladin.rmbt.shared.metrics.LatencyHistogram;
+
+/**
+ * synthetic load on the {@link RenderAdmission} of the tiles: clients pan and zoom their viewport and request the tiles
+ * around it with several connections from a {@link TileRestlet} with a stubbed tile generator, which holds one of a limited
+ * number of database connections for a fixed render time (there is no cache, so every tile is rendered).<br>
+ * A greedy client with many connections competes with light clients with one connection each, once with the default
+ * admission and once with an admission without limits.<br>
+ * Usage: <code>java at.alladin.rmbt.mapServer.TileLoadDriver [seconds per run] [render ms]</code>
+ * @author lb
+ *
+ */
+public class TileLoadDriver {
+
+	static class StubParameters extends TileParameters {
+		private static final long serialVersionUID = 1L;
+
+		StubParameters(Path path, Form form) {
+			super(path, form, 0);
+		}
+
+		@Override
+		public boolean isNoCache() {
+			return true;
+		}
+
+		@Override
+		public String getMapOption() {
+			return "mobile/download";
+		}
+	}
+
+	static class StubTiles extends TileRestlet<StubParameters> {
+		final int renderMs;
+		final Semaphore dbConnections;
+		final AtomicInteger rendering = new AtomicInteger();
+		final AtomicInteger maxRendering = new AtomicInteger();
+
+		StubTiles(int renderMs, int dbConnections) {
+			this.renderMs = renderMs;
+			this.dbConnections = new Semaphore(dbConnections, true);
+		}
+
+		@Override
+		protected String getType() {
+			return "stub";
+		}
+
+		@Override
+		protected StubParameters getTileParameters(Path path, Form params) {
+			return new StubParameters(path, params);
+		}
+
+		@Override
+		protected byte[] generateTile(StubParameters params, int tileSizeIdx, int zoom, DBox box, MapOption mo,
+				List<SQLFilter> filters, float quantile) {
+			final int count = rendering.incrementAndGet();
+			int max;
+			while (count > (max = maxRendering.get()) && ! maxRendering.compareAndSet(max, count)) {
+			}
+			try {
+				dbConnections.acquire();
+				try {
+					Thread.sleep(renderMs);
+				}
+				finally {
+					dbConnections.release();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				rendering.decrementAndGet();
+			}
+			return null;
+		}
+	}
+
+	static class Client {
+		final String name;
+		final int connections;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong served = new AtomicLong();
+		final AtomicLong unavailable = new AtomicLong();
+
+		// the viewport, changed by the first connection
+		volatile int zoom = 12;
+		volatile int x = 2200;
+		volatile int y = 1400;
+
+		Client(String name, int connections) {
+			this.name = name;
+			this.connections = connections;
+		}
+	}
+
+	static class Result {
+		final Client[] clients;
+		final int maxRendering;
+		final RenderAdmission admission;
+
+		Result(Client[] clients, int maxRendering, RenderAdmission admission) {
+			this.clients = clients;
+			this.maxRendering = maxRendering;
+			this.admission = admission;
+		}
+
+		Client getClient(String name) {
+			for (Client client : clients) {
+				if (client.name.equals(name)) {
+					return client;
+				}
+			}
+			return null;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		final int renderMs = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		System.out.println(String.format(Locale.US, "tile load: %ds per run, render %dms, %d db connections, %d render slots",
+				seconds, renderMs, RenderAdmission.DEFAULT_MAX_RENDERS, RenderAdmission.DEFAULT_MAX_RENDERS));
+		System.out.println(String.format(Locale.US, "%-10s %-8s %6s %8s %8s %10s %10s %10s", "admission", "client", "conns",
+				"tiles/s", "503/s", "p50 ms", "p99 ms", "max ms"));
+		final RenderAdmission unbounded = new RenderAdmission(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, RenderAdmission.DEFAULT_MAX_WAIT_MS);
+		print("default", run(new RenderAdmission(), getClients(), renderMs, RenderAdmission.DEFAULT_MAX_RENDERS, seconds * 1000L), seconds);
+		print("unbounded", run(unbounded, getClients(), renderMs, RenderAdmission.DEFAULT_MAX_RENDERS, seconds * 1000L), seconds);
+	}
+
+	static Client[] getClients() {
+		return new Client[] {new Client("greedy", 48), new Client("light1", 1), new Client("light2", 1), new Client("light3", 2)};
+	}
+
+	private static void print(String name, Result result, int seconds) {
+		for (Client client : result.clients) {
+			System.out.println(String.format(Locale.US, "%-10s %-8s %6d %8.1f %8.1f %10.1f %10.1f %10.1f", name, client.name, client.connections,
+					(double) client.served.get() / seconds, (double) client.unavailable.get() / seconds,
+					client.latency.getValueAtPercentile(50) / 1000d, client.latency.getValueAtPercentile(99) / 1000d,
+					client.latency.getMax() / 1000d));
+		}
+		System.out.println(String.format(Locale.US, "%-10s max. concurrent renders %d, admitted %d, rejected %d, wait p99 %.1fms",
+				name, result.maxRendering, result.admission.getAdmitted(), result.admission.getRejected(),
+				result.admission.getWaitTime().getValueAtPercentile(99) / 1000d));
+	}
+
+	/**
+	 * runs the clients against a stubbed tile generator
+	 * @param admission
+	 * @param clients
+	 * @param renderMs render time of a tile
+	 * @param dbConnections number of tiles that can be rendered at the same time
+	 * @param durationMs
+	 * @return
+	 * @throws InterruptedException
+	 */
+	static Result run(RenderAdmission admission, Client[] clients, int renderMs, int dbConnections, long durationMs) throws InterruptedException {
+		final RenderAdmission previous = TileRestlet.getRenderAdmission();
+		TileRestlet.setRenderAdmission(admission);
+		try {
+			final StubTiles tiles = new StubTiles(renderMs, dbConnections);
+			final long end = System.currentTimeMillis() + durationMs;
+			final List<Thread> threads = new ArrayList<>();
+			for (final Client client : clients) {
+				for (int i = 0; i < client.connections; i++) {
+					final boolean first = i == 0;
+					final Random random = new Random(threads.size());
+					threads.add(new Thread(new Runnable() {
+						@Override
+						public void run() {
+							int requests = 0;
+							while (System.currentTimeMillis() < end) {
+								if (first && ++requests % 10 == 0) {
+									// pan or zoom
+									if (random.nextInt(10) == 0) {
+										client.zoom = 11 + random.nextInt(3);
+									}
+									client.x += random.nextInt(5) - 2;
+									client.y += random.nextInt(5) - 2;
+								}
+								final Path path = new Path(client.zoom, client.x + random.nextInt(7) - 3, client.y + random.nextInt(5) - 2);
+								final long start = System.nanoTime();
+								final TileRestlet.Tile tile = tiles.serveTile(tiles.getTileParameters(path, new Form()), new Form(),
+										Collections.<String>emptySet(), client.name);
+								if (tile != null) {
+									client.latency.record((System.nanoTime() - start) / 1000);
+									client.served.incrementAndGet();
+								}
+								else {
+									client.unavailable.incrementAndGet();
+								}
+							}
+						}
+					}));
+				}
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			return new Result(clients, tiles.maxRendering.get(), admission);
+		}
+		finally {
+			TileRestlet.setRenderAdmission(previous);
+		}
+	}
+}
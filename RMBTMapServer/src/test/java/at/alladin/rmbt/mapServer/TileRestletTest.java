@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class TileRestletTest {
+
+	@Test
+	public void testContentHash() {
+		final String hash = TileRestlet.getContentHash(TileRestlet.EMPTY_IMAGES[0]);
+		assertEquals(43, hash.length());
+		assertTrue(hash.matches("[A-Za-z0-9_-]+"));
+		assertEquals(hash, TileRestlet.getContentHash(TileRestlet.EMPTY_IMAGES[0].clone()));
+		assertNotEquals(hash, TileRestlet.getContentHash(TileRestlet.EMPTY_IMAGES[1]));
+	}
+
+	@Test
+	public void testKnown() {
+		assertFalse(TileRestlet.isKnown(Collections.<String>emptySet(), "a"));
+		assertTrue(TileRestlet.isKnown(new HashSet<>(Arrays.asList("b", "a")), "a"));
+		assertFalse(TileRestlet.isKnown(new HashSet<>(Arrays.asList("b")), "a"));
+		assertTrue(TileRestlet.isKnown(new HashSet<>(Arrays.asList("*")), "a"));
+	}
+
+	@Test
+	public void testMaxAge() {
+		final long now = 1500000000000L;
+		assertEquals(3600, TileRestlet.getMaxAge(now, now));
+		assertEquals(3000, TileRestlet.getMaxAge(now - 600000, now));
+		assertEquals(0, TileRestlet.getMaxAge(now - 4000000, now));
+		assertEquals(3600, TileRestlet.getMaxAge(now + 5000, now));
+		// unknown time of rendering
+		assertEquals(0, TileRestlet.getMaxAge(0, now));
+	}
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import at.alladin.rmbt.mapServer.TileRequestLog.TileRequest;
+
+public class TileSeederTest {
+
+	// Austria
+	private final static double[] BBOX = {9.5, 46.3, 17.2, 49.1};
+
+	private final static String HEATMAP = "heatmap?map_options=mobile%2Fdownload";
+
+	private final static String POINTS = "points?map_options=mobile%2Fdownload";
+
+	@Test
+	public void testTiles() {
+		assertEquals(0, GeoCalc.lonToTileX(-180, 0));
+		assertEquals(0, GeoCalc.latToTileY(85, 0));
+		assertEquals(1, GeoCalc.lonToTileX(0.1, 1));
+		assertEquals(1, GeoCalc.latToTileY(-0.1, 1));
+		// Vienna
+		assertEquals(8937, GeoCalc.lonToTileX(16.373, 14));
+		assertEquals(5681, GeoCalc.latToTileY(48.208, 14));
+		// clamped
+		assertEquals(3, GeoCalc.lonToTileX(180, 2));
+		assertEquals(3, GeoCalc.latToTileY(-89, 2));
+	}
+
+	@Test
+	public void testPlan() {
+		final TileSeeder seeder = new TileSeeder(5, 7, BBOX, 1, 1000, Arrays.asList(HEATMAP, POINTS));
+		final List<String> combinations = seeder.getCombinations(new HashMap<TileRequest, Long>());
+		assertEquals(Arrays.asList(HEATMAP, POINTS), combinations);
+
+		final Map<TileRequest, Long> counts = new HashMap<>();
+		counts.put(new TileRequest("points", 7, 69, 44, "map_options=mobile%2Fdownload"), 5L);
+		counts.put(new TileRequest("heatmap", 6, 34, 22, "map_options=mobile%2Fdownload"), 9L);
+		// other combination, zoom and area
+		counts.put(new TileRequest("heatmap", 6, 34, 22, "map_options=wifi%2Fdownload"), 20L);
+		counts.put(new TileRequest("heatmap", 8, 138, 89, "map_options=mobile%2Fdownload"), 20L);
+		counts.put(new TileRequest("heatmap", 6, 10, 22, "map_options=mobile%2Fdownload"), 20L);
+
+		final List<TileRequest> tiles = seeder.plan(combinations, counts);
+		assertEquals(seeder.getAvailable(combinations), tiles.size());
+		assertEquals(new TileRequest("heatmap", 6, 34, 22, "map_options=mobile%2Fdownload"), tiles.get(0));
+		assertEquals(new TileRequest("points", 7, 69, 44, "map_options=mobile%2Fdownload"), tiles.get(1));
+		// then by zoom level
+		assertEquals(5, tiles.get(2).getPath().getZoom());
+		assertEquals(7, tiles.get(tiles.size() - 1).getPath().getZoom());
+	}
+
+	@Test
+	public void testMaxTiles() {
+		final TileSeeder seeder = new TileSeeder(0, 12, BBOX, 1, 100, Arrays.asList(HEATMAP));
+		final Map<TileRequest, Long> counts = new HashMap<>();
+		counts.put(new TileRequest("heatmap", 12, 2200, 1420, "map_options=mobile%2Fdownload"), 1L);
+		final List<TileRequest> tiles = seeder.plan(seeder.getCombinations(counts), counts);
+		assertEquals(100, tiles.size());
+		assertEquals(12, tiles.get(0).getPath().getZoom());
+		assertEquals(0, tiles.get(1).getPath().getZoom());
+	}
+
+	@Test
+	public void testRequestLog() throws Exception {
+		final TileRequestLog log = new TileRequestLog();
+		final TileRequest request = new TileRequest("points", 7, 69, 44, "map_options=mobile%2Fdownload");
+		log.record(request, 3);
+		log.record(request, 1);
+		log.record(new TileRequest("heatmap", 0, 0, 0, ""), 1);
+
+		final File file = File.createTempFile("tiles", ".txt");
+		try {
+			log.save(file);
+			final TileRequestLog loaded = new TileRequestLog();
+			loaded.load(file);
+			assertEquals(log.getCounts(), loaded.getCounts());
+			assertEquals(Long.valueOf(4), loaded.getCounts().get(request));
+		}
+		finally {
+			file.delete();
+		}
+
+		for (int i = 0; i < TileRequestLog.MAX_ENTRIES; i++) {
+			log.record(new TileRequest("shapes", 20, i, 0, ""), 1);
+		}
+		// halved once when the limit has been reached: entries with a count of 1 have been dropped
+		assertEquals(Long.valueOf(2), log.getCounts().get(request));
+		assertEquals(3, log.getCounts().size());
+	}
+}
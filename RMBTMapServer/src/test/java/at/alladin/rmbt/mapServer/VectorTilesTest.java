@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import at.alladin.rmbt.mapServer.MapServerOptions.MapOption;
+import at.alladin.rmbt.mapServer.mvt.VectorTileDecoder;
+import at.alladin.rmbt.mapServer.mvt.VectorTileDecoder.Feature;
+import at.alladin.rmbt.mapServer.mvt.VectorTileDecoder.Layer;
+import at.alladin.rmbt.mapServer.mvt.VectorTileEncoder;
+import at.alladin.rmbt.mapServer.parameters.VectorTileParameters;
+
+/**
+ * checks the features of the vector tiles against aggregates computed the way the database does:
+ * ST_SnapToGrid rounds half to even, quantile() of the quantile extension returns the element at ceil(n * q) - 1
+ * of the sorted values
+ */
+public class VectorTilesTest {
+
+	private final static MapOption DOWNLOAD = MapServerOptions.getMapOptionMap().get("mobile/download");
+
+	private final static int ZOOM = 14;
+
+	// Vienna
+	private final static TileRestlet.DBox BOX = GeoCalc.xyToMeters(256, 8937, 5681, ZOOM);
+
+	private static class Cell {
+		final List<Long> values = new ArrayList<>();
+		final List<Double> logValues = new ArrayList<>();
+	}
+
+	private static <T extends Comparable<T>> T quantile(List<T> values, double q) {
+		final List<T> sorted = new ArrayList<>(values);
+		Collections.sort(sorted);
+		final int idx = q > 0 ? (int) Math.ceil(sorted.size() * q) - 1 : 0;
+		return sorted.get(idx);
+	}
+
+	@Test
+	public void testCells() {
+		final int cellsPerSide = VectorTiles.getCellsPerSide(ZOOM);
+		final double cellSize = (BOX.x2 - BOX.x1) / cellsPerSide;
+		final double originX = BOX.x1 + cellSize / 2;
+		final double originY = BOX.y1 + cellSize / 2;
+
+		// grid point -> measurements, like GROUP BY of the snapped locations
+		final Map<String, Cell> cells = new TreeMap<>();
+		final Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			final double x = BOX.x1 + random.nextDouble() * (BOX.x2 - BOX.x1);
+			final double y = BOX.y1 + random.nextDouble() * (BOX.y2 - BOX.y1);
+			final long value = 1000 + random.nextInt(100000);
+			final double gx = Math.rint((x - originX) / cellSize) * cellSize + originX;
+			final double gy = Math.rint((y - originY) / cellSize) * cellSize + originY;
+			final String key = gx + "/" + gy;
+			Cell cell = cells.get(key);
+			if (cell == null) {
+				cell = new Cell();
+				cells.put(key, cell);
+			}
+			cell.values.add(value);
+			cell.logValues.add(Math.log10(value));
+		}
+
+		final VectorTileEncoder encoder = new VectorTileEncoder();
+		final VectorTileEncoder.Layer layer = encoder.getLayer(VectorTileParameters.LAYER_CELLS);
+		final Map<String, double[]> expected = new TreeMap<>();
+		for (Map.Entry<String, Cell> e : cells.entrySet()) {
+			final String[] gxy = e.getKey().split("/");
+			final double gx = Double.parseDouble(gxy[0]);
+			final double gy = Double.parseDouble(gxy[1]);
+			final Cell cell = e.getValue();
+			final double value = quantile(cell.values, 0.5);
+			final double valueLog = quantile(cell.logValues, 0.5);
+			assertTrue(VectorTiles.addCell(layer, BOX, cellsPerSide, gx, gy, cell.values.size(), value, valueLog, DOWNLOAD));
+
+			final int extent = VectorTileEncoder.DEFAULT_EXTENT;
+			final int left = (int) Math.round((gx - BOX.x1) / (BOX.x2 - BOX.x1) * extent - extent / cellsPerSide / 2.0);
+			final int top = (int) Math.round((BOX.y2 - gy) / (BOX.y2 - BOX.y1) * extent - extent / cellsPerSide / 2.0);
+			expected.put(left + "/" + top, new double[] {cell.values.size(), value, valueLog});
+		}
+		// outside of the tile
+		assertFalse(VectorTiles.addCell(layer, BOX, cellsPerSide, BOX.x2 + cellSize / 2, BOX.y1 + cellSize / 2, 1, 1, 0, DOWNLOAD));
+
+		final Layer decoded = VectorTileDecoder.decode(encoder.encode()).get(VectorTileParameters.LAYER_CELLS);
+		assertNotNull(decoded);
+		assertEquals(cells.size(), decoded.features.size());
+		final int size = VectorTileEncoder.DEFAULT_EXTENT / cellsPerSide;
+		long total = 0;
+		for (Feature f : decoded.features) {
+			final int[] c = VectorTileDecoder.getCoordinates(f.geometry);
+			assertArrayEquals(new int[] {c[0], c[1], c[0] + size, c[1], c[0] + size, c[1] + size, c[0], c[1] + size}, c);
+			final double[] values = expected.get(c[0] + "/" + c[1]);
+			assertNotNull("cell " + c[0] + "/" + c[1], values);
+			assertEquals((long) values[0], f.attributes.get("count"));
+			assertEquals(values[1], (Double) f.attributes.get("value"), 0);
+			assertEquals(values[2], (Double) f.attributes.get("value_log"), 0);
+			assertEquals((long) DOWNLOAD.getClassification(Math.round(values[1])), f.attributes.get("classification"));
+			total += (Long) f.attributes.get("count");
+		}
+		assertEquals(2000, total);
+	}
+
+	@Test
+	public void testPoints() {
+		final VectorTileEncoder encoder = new VectorTileEncoder();
+		final VectorTileEncoder.Layer layer = encoder.getLayer(VectorTileParameters.LAYER_POINTS);
+		final double width = BOX.x2 - BOX.x1;
+		final double pixel = width / VectorTileEncoder.DEFAULT_EXTENT;
+
+		assertTrue(VectorTiles.addPoint(layer, BOX, BOX.x1, BOX.y2, 500, DOWNLOAD));
+		assertTrue(VectorTiles.addPoint(layer, BOX, BOX.x1 + width / 4, BOX.y2 - width / 2, 20000, DOWNLOAD));
+		// within the buffer
+		assertTrue(VectorTiles.addPoint(layer, BOX, BOX.x1 - 10 * pixel, BOX.y1, 80000, DOWNLOAD));
+		// outside of the buffer
+		assertFalse(VectorTiles.addPoint(layer, BOX, BOX.x2 + (VectorTiles.BUFFER + 1) * pixel, BOX.y1, 80000, DOWNLOAD));
+
+		final Layer decoded = VectorTileDecoder.decode(encoder.encode()).get(VectorTileParameters.LAYER_POINTS);
+		assertEquals(3, decoded.features.size());
+		assertArrayEquals(new int[] {0, 0}, VectorTileDecoder.getCoordinates(decoded.features.get(0).geometry));
+		assertArrayEquals(new int[] {1024, 2048}, VectorTileDecoder.getCoordinates(decoded.features.get(1).geometry));
+		assertArrayEquals(new int[] {-10, 4096}, VectorTileDecoder.getCoordinates(decoded.features.get(2).geometry));
+		assertEquals(20000L, decoded.features.get(1).attributes.get("value"));
+		assertEquals((long) DOWNLOAD.getClassification(20000), decoded.features.get(1).attributes.get("classification"));
+	}
+}
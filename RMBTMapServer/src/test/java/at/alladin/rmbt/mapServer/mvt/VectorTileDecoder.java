@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer.mvt;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * minimal decoder of Mapbox vector tiles for tests
+ * @author lb
+ *
+ */
+public class VectorTileDecoder {
+
+	public static class Feature {
+		public long id;
+		public int type;
+		public int[] geometry;
+		public final Map<String, Object> attributes = new LinkedHashMap<>();
+	}
+
+	public static class Layer {
+		public int version;
+		public String name;
+		public int extent;
+		public final List<Feature> features = new ArrayList<>();
+	}
+
+	private final byte[] data;
+	private int pos;
+	private final int end;
+
+	private VectorTileDecoder(byte[] data, int pos, int end) {
+		this.data = data;
+		this.pos = pos;
+		this.end = end;
+	}
+
+	/**
+	 *
+	 * @param tile
+	 * @return layer name -&gt; layer
+	 */
+	public static Map<String, Layer> decode(byte[] tile) {
+		final Map<String, Layer> result = new LinkedHashMap<>();
+		final VectorTileDecoder in = new VectorTileDecoder(tile, 0, tile.length);
+		while (in.pos < in.end) {
+			final long tag = in.readVarint();
+			if (tag >>> 3 == 3) {
+				final Layer layer = in.sub().readLayer();
+				result.put(layer.name, layer);
+			}
+			else {
+				in.skip((int) tag & 7);
+			}
+		}
+		return result;
+	}
+
+	private Layer readLayer() {
+		final Layer layer = new Layer();
+		final List<String> keys = new ArrayList<>();
+		final List<Object> values = new ArrayList<>();
+		final List<int[]> tags = new ArrayList<>();
+		while (pos < end) {
+			final long tag = readVarint();
+			switch ((int) (tag >>> 3)) {
+			case 15:
+				layer.version = (int) readVarint();
+				break;
+			case 1:
+				layer.name = readString();
+				break;
+			case 2:
+				tags.add(sub().readFeature(layer));
+				break;
+			case 3:
+				keys.add(readString());
+				break;
+			case 4:
+				values.add(sub().readValue());
+				break;
+			case 5:
+				layer.extent = (int) readVarint();
+				break;
+			default:
+				skip((int) tag & 7);
+			}
+		}
+		for (int i = 0; i < tags.size(); i++) {
+			final int[] t = tags.get(i);
+			for (int j = 0; j < t.length; j += 2) {
+				layer.features.get(i).attributes.put(keys.get(t[j]), values.get(t[j + 1]));
+			}
+		}
+		return layer;
+	}
+
+	private int[] readFeature(Layer layer) {
+		final Feature feature = new Feature();
+		int[] tags = new int[0];
+		while (pos < end) {
+			final long tag = readVarint();
+			switch ((int) (tag >>> 3)) {
+			case 1:
+				feature.id = readVarint();
+				break;
+			case 2:
+				tags = sub().readPacked();
+				break;
+			case 3:
+				feature.type = (int) readVarint();
+				break;
+			case 4:
+				feature.geometry = sub().readPacked();
+				break;
+			default:
+				skip((int) tag & 7);
+			}
+		}
+		layer.features.add(feature);
+		return tags;
+	}
+
+	private Object readValue() {
+		Object value = null;
+		while (pos < end) {
+			final long tag = readVarint();
+			switch ((int) (tag >>> 3)) {
+			case 1:
+				value = readString();
+				break;
+			case 2:
+				value = Float.intBitsToFloat((int) readFixed(4));
+				break;
+			case 3:
+				value = Double.longBitsToDouble(readFixed(8));
+				break;
+			case 4:
+			case 5:
+				value = readVarint();
+				break;
+			case 6:
+				final long n = readVarint();
+				value = (n >>> 1) ^ -(n & 1);
+				break;
+			case 7:
+				value = readVarint() != 0;
+				break;
+			default:
+				skip((int) tag & 7);
+			}
+		}
+		return value;
+	}
+
+	private int[] readPacked() {
+		final List<Integer> list = new ArrayList<>();
+		while (pos < end) {
+			list.add((int) readVarint());
+		}
+		final int[] result = new int[list.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = list.get(i);
+		}
+		return result;
+	}
+
+	private VectorTileDecoder sub() {
+		final int length = (int) readVarint();
+		final VectorTileDecoder sub = new VectorTileDecoder(data, pos, pos + length);
+		pos += length;
+		return sub;
+	}
+
+	private long readVarint() {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final byte b = data[pos++];
+			result |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return result;
+			}
+		}
+		throw new IllegalStateException("malformed varint");
+	}
+
+	private long readFixed(int bytes) {
+		long result = 0;
+		for (int i = 0; i < bytes; i++) {
+			result |= (long) (data[pos++] & 0xff) << (i * 8);
+		}
+		return result;
+	}
+
+	private String readString() {
+		final int length = (int) readVarint();
+		final String s = new String(data, pos, length, StandardCharsets.UTF_8);
+		pos += length;
+		return s;
+	}
+
+	private void skip(int wireType) {
+		switch (wireType) {
+		case 0:
+			readVarint();
+			break;
+		case 1:
+			pos += 8;
+			break;
+		case 2:
+			pos += (int) readVarint();
+			break;
+		case 5:
+			pos += 4;
+			break;
+		default:
+			throw new IllegalStateException("unsupported wire type " + wireType);
+		}
+	}
+
+	/**
+	 * decodes zigzag encoded geometry parameters to absolute coordinates, ignoring the commands
+	 * @param geometry
+	 * @return x, y, x, y...
+	 */
+	public static int[] getCoordinates(int[] geometry) {
+		final List<Integer> coords = new ArrayList<>();
+		int x = 0, y = 0;
+		int i = 0;
+		while (i < geometry.length) {
+			final int command = geometry[i] & 7;
+			final int count = geometry[i++] >>> 3;
+			if (command == VectorTileEncoder.CMD_CLOSE_PATH) {
+				continue;
+			}
+			for (int c = 0; c < count; c++) {
+				x += (geometry[i] >>> 1) ^ -(geometry[i] & 1);
+				y += (geometry[i + 1] >>> 1) ^ -(geometry[i + 1] & 1);
+				i += 2;
+				coords.add(x);
+				coords.add(y);
+			}
+		}
+		final int[] result = new int[coords.size()];
+		for (int j = 0; j < result.length; j++) {
+			result[j] = coords.get(j);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer.mvt;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * measures the encoding throughput of vector tiles with a full grid of heatmap cells and with points,
+ * compared to the png encoding of a 256x256 raster tile.<br>
+ * Usage: <code>java at.alladin.rmbt.mapServer.mvt.VectorTileEncoderBenchmark [seconds per run]</code>
+ * @author lb
+ *
+ */
+public class VectorTileEncoderBenchmark {
+
+	/**
+	 * keeps the results alive
+	 */
+	static volatile int sink;
+
+	private static abstract class Run {
+		abstract byte[] run() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		final Random random = new Random(1);
+
+		final int cellsPerSide = 64;
+		final long[] cellCounts = new long[cellsPerSide * cellsPerSide];
+		final double[] cellValues = new double[cellCounts.length];
+		for (int i = 0; i < cellCounts.length; i++) {
+			cellCounts[i] = 1 + random.nextInt(100);
+			cellValues[i] = random.nextInt(100000);
+		}
+		final Run cells = new Run() {
+			@Override
+			byte[] run() {
+				final VectorTileEncoder encoder = new VectorTileEncoder();
+				final VectorTileEncoder.Layer layer = encoder.getLayer("cells");
+				final int size = encoder.getExtent() / cellsPerSide;
+				for (int i = 0; i < cellCounts.length; i++) {
+					final int x = (i % cellsPerSide) * size;
+					final int y = (i / cellsPerSide) * size;
+					layer.addRectangle(0, x, y, x + size, y + size, "count", cellCounts[i], "value", cellValues[i],
+							"value_log", Math.log10(cellValues[i] + 1), "classification", (int) (cellValues[i] / 25000) + 1);
+				}
+				return encoder.encode();
+			}
+		};
+
+		final int pointCount = 5000;
+		final int[] pointXY = new int[pointCount * 2];
+		final long[] pointValues = new long[pointCount];
+		for (int i = 0; i < pointCount; i++) {
+			pointXY[2 * i] = random.nextInt(4096);
+			pointXY[2 * i + 1] = random.nextInt(4096);
+			pointValues[i] = random.nextInt(100000);
+		}
+		final Run points = new Run() {
+			@Override
+			byte[] run() {
+				final VectorTileEncoder encoder = new VectorTileEncoder();
+				final VectorTileEncoder.Layer layer = encoder.getLayer("points");
+				for (int i = 0; i < pointCount; i++) {
+					layer.addPoint(0, pointXY[2 * i], pointXY[2 * i + 1], "value", pointValues[i],
+							"classification", (int) (pointValues[i] / 25000) + 1);
+				}
+				return encoder.encode();
+			}
+		};
+
+		final BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+		for (int i = 0; i < cellCounts.length; i++) {
+			final int argb = 0x80000000 | (int) cellValues[i] * 167;
+			for (int y = 0; y < 4; y++) {
+				for (int x = 0; x < 4; x++) {
+					image.setRGB((i % cellsPerSide) * 4 + x, (i / cellsPerSide) * 4 + y, argb);
+				}
+			}
+		}
+		final Run png = new Run() {
+			@Override
+			byte[] run() throws Exception {
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				ImageIO.write(image, "png", out);
+				return out.toByteArray();
+			}
+		};
+
+		System.out.println(String.format(Locale.US, "vector tile benchmark: %ds per run", seconds));
+		System.out.println(String.format(Locale.US, "%-22s %12s %12s %10s %12s", "target", "tiles/s", "us/tile", "bytes", "features/s"));
+		report("mvt 64x64 cells", cells, cellCounts.length, seconds);
+		report("mvt 5000 points", points, pointCount, seconds);
+		report("png 256x256 heatmap", png, 0, seconds);
+	}
+
+	private static void report(String name, Run run, int features, int seconds) throws Exception {
+		//warm up
+		measure(run, Math.max(1, seconds / 2));
+		final double ops = measure(run, seconds);
+		System.out.println(String.format(Locale.US, "%-22s %12.0f %12.1f %10d %12.0f",
+				name, ops, 1e6 / ops, run.run().length, ops * features));
+	}
+
+	/**
+	 *
+	 * @return operations per second
+	 */
+	private static double measure(Run run, int seconds) throws Exception {
+		final long start = System.nanoTime();
+		final long end = start + seconds * 1000000000L;
+		long count = 0;
+		int hash = 0;
+		while (System.nanoTime() < end) {
+			hash += run.run().length;
+			count++;
+		}
+		sink = hash;
+		return count / ((System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer.mvt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import at.alladin.rmbt.mapServer.mvt.VectorTileDecoder.Feature;
+import at.alladin.rmbt.mapServer.mvt.VectorTileDecoder.Layer;
+
+public class VectorTileEncoderTest {
+
+	@Test
+	public void testRoundTrip() {
+		final VectorTileEncoder encoder = new VectorTileEncoder();
+		final VectorTileEncoder.Layer points = encoder.getLayer("points");
+		points.addPoint(7, 10, 4000, "value", 12000L, "name", "a", "ratio", 0.5d, "on", true);
+		points.addPoint(0, -20, 4100, "value", -3, "name", "a", "missing", null);
+		encoder.getLayer("cells").addRectangle(0, 16, 32, 48, 64, "count", 3, "value", 1.25f);
+		encoder.getLayer("empty");
+
+		final Map<String, Layer> layers = VectorTileDecoder.decode(encoder.encode());
+		assertEquals(2, layers.size());
+
+		final Layer p = layers.get("points");
+		assertEquals(2, p.version);
+		assertEquals(VectorTileEncoder.DEFAULT_EXTENT, p.extent);
+		assertEquals(2, p.features.size());
+
+		final Feature f1 = p.features.get(0);
+		assertEquals(7, f1.id);
+		assertEquals(VectorTileEncoder.GEOM_POINT, f1.type);
+		assertArrayEquals(new int[] {10, 4000}, VectorTileDecoder.getCoordinates(f1.geometry));
+		assertEquals(12000L, f1.attributes.get("value"));
+		assertEquals("a", f1.attributes.get("name"));
+		assertEquals(0.5d, f1.attributes.get("ratio"));
+		assertEquals(true, f1.attributes.get("on"));
+
+		final Feature f2 = p.features.get(1);
+		assertEquals(0, f2.id);
+		assertArrayEquals(new int[] {-20, 4100}, VectorTileDecoder.getCoordinates(f2.geometry));
+		assertEquals(-3L, f2.attributes.get("value"));
+		assertEquals(2, f2.attributes.size());
+
+		final Feature cell = layers.get("cells").features.get(0);
+		assertEquals(VectorTileEncoder.GEOM_POLYGON, cell.type);
+		assertArrayEquals(new int[] {16, 32, 48, 32, 48, 64, 16, 64}, VectorTileDecoder.getCoordinates(cell.geometry));
+		assertEquals(3L, cell.attributes.get("count"));
+		assertEquals(1.25f, cell.attributes.get("value"));
+	}
+
+	@Test
+	public void testEmpty() {
+		final VectorTileEncoder encoder = new VectorTileEncoder();
+		encoder.getLayer("points");
+		assertEquals(0, encoder.encode().length);
+	}
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer.png;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * compares the size and the encoding time of {@link PngEncoder} (with several levels and filters) and ImageIO
+ * on 256x256 tiles like the ones rendered by the map server: empty, heatmap, shapes and points.<br>
+ * Usage: <code>java at.alladin.rmbt.mapServer.png.PngEncoderBenchmark [seconds per run]</code>
+ * @author lb
+ *
+ */
+public class PngEncoderBenchmark {
+
+	private final static int SIZE = 256;
+
+	private final static int[] COLORS = {0x600000, 0xff0000, 0xffff00, 0x00ff00, 0x00cbff};
+
+	/**
+	 * keeps the results alive
+	 */
+	static volatile int sink;
+
+	private static abstract class Run {
+		abstract byte[] run(BufferedImage image) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+		final String[] names = {"empty", "heatmap", "shapes", "points"};
+		final BufferedImage[] images = {newImage(), heatmap(), shapes(), points()};
+
+		final String[] encoderNames = {"imageio", "level 1 none", "level 4 none", "level 6 none", "level 4 up", "level 4 adaptive"};
+		final Run[] runs = {
+			new Run() {
+				@Override
+				byte[] run(BufferedImage image) throws Exception {
+					final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					ImageIO.write(image, "png", baos);
+					return baos.toByteArray();
+				}
+			},
+			encoder(new PngEncoder(1, PngEncoder.Filter.NONE)),
+			encoder(new PngEncoder(4, PngEncoder.Filter.NONE)),
+			encoder(new PngEncoder(6, PngEncoder.Filter.NONE)),
+			encoder(new PngEncoder(4, PngEncoder.Filter.UP)),
+			encoder(new PngEncoder(4, PngEncoder.Filter.ADAPTIVE))
+		};
+
+		System.out.println(String.format(Locale.US, "png benchmark: %ds per run, %dx%d tiles", seconds, SIZE, SIZE));
+		System.out.println(String.format(Locale.US, "%-8s %-17s %10s %12s %10s", "tile", "encoder", "bytes", "us/tile", "speedup"));
+		for (int i = 0; i < images.length; i++) {
+			double imageIoUs = 0;
+			for (int j = 0; j < runs.length; j++) {
+				//warm up
+				measure(runs[j], images[i], Math.max(1, seconds / 2));
+				final double us = 1e6 / measure(runs[j], images[i], seconds);
+				if (j == 0) {
+					imageIoUs = us;
+				}
+				System.out.println(String.format(Locale.US, "%-8s %-17s %10d %12.1f %9.1fx",
+						names[i], encoderNames[j], runs[j].run(images[i]).length, us, imageIoUs / us));
+			}
+		}
+	}
+
+	private static Run encoder(final PngEncoder encoder) {
+		return new Run() {
+			@Override
+			byte[] run(BufferedImage image) {
+				return encoder.encode(image);
+			}
+		};
+	}
+
+	private static BufferedImage newImage() {
+		return new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	private static Graphics2D createGraphics(BufferedImage image) {
+		final Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_NORMALIZE);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		return g;
+	}
+
+	/**
+	 * smooth colors and alpha, like {@link at.alladin.rmbt.mapServer.HeatmapTiles}
+	 */
+	private static BufferedImage heatmap() {
+		final BufferedImage image = newImage();
+		final Random random = new Random(1);
+		final double[] centers = new double[30];
+		for (int i = 0; i < centers.length; i++) {
+			centers[i] = random.nextDouble() * SIZE;
+		}
+		for (int y = 0; y < SIZE; y++) {
+			for (int x = 0; x < SIZE; x++) {
+				double density = 0;
+				for (int i = 0; i < centers.length; i += 2) {
+					final double dx = x - centers[i];
+					final double dy = y - centers[i + 1];
+					density += Math.exp(-(dx * dx + dy * dy) / 800);
+				}
+				final int alpha = (int) (Math.min(1, density) * 0.75 * 255);
+				final int color = COLORS[Math.min(COLORS.length - 1, (int) (density * 3))];
+				image.setRGB(x, y, alpha == 0 ? 0 : alpha << 24 | color);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * few colors with anti aliased borders, like {@link at.alladin.rmbt.mapServer.ShapeTiles}
+	 */
+	private static BufferedImage shapes() {
+		final BufferedImage image = newImage();
+		final Graphics2D g = createGraphics(image);
+		final Random random = new Random(2);
+		final Path2D.Double path = new Path2D.Double();
+		for (int i = 0; i < 12; i++) {
+			path.reset();
+			path.moveTo(random.nextInt(SIZE), random.nextInt(SIZE));
+			for (int j = 0; j < 6; j++) {
+				path.lineTo(random.nextInt(SIZE), random.nextInt(SIZE));
+			}
+			path.closePath();
+			g.setPaint(new Color(COLORS[i % COLORS.length] | 0x80000000, true));
+			g.fill(path);
+		}
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * circles with borders, like {@link at.alladin.rmbt.mapServer.PointTiles}
+	 */
+	private static BufferedImage points() {
+		final BufferedImage image = newImage();
+		final Graphics2D g = createGraphics(image);
+		g.setStroke(new BasicStroke(1f));
+		final Random random = new Random(3);
+		final Ellipse2D.Double circle = new Ellipse2D.Double(0, 0, 8, 8);
+		for (int i = 0; i < 300; i++) {
+			circle.x = random.nextInt(SIZE);
+			circle.y = random.nextInt(SIZE);
+			g.setPaint(new Color(COLORS[random.nextInt(COLORS.length)]));
+			g.fill(circle);
+			g.setPaint(Color.BLACK);
+			g.draw(circle);
+		}
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 *
+	 * @return operations per second
+	 */
+	private static double measure(Run run, BufferedImage image, int seconds) throws Exception {
+		final long start = System.nanoTime();
+		final long end = start + seconds * 1000000000L;
+		long count = 0;
+		int hash = 0;
+		while (System.nanoTime() < end) {
+			hash += run.run(image).length;
+			count++;
+		}
+		sink = hash;
+		return count / ((System.nanoTime() - start) / 1e9);
+	}
+}
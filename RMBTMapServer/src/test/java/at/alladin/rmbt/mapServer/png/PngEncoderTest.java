@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.mapServer.png;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class PngEncoderTest {
+
+	private final static int SIZE = 64;
+
+	/**
+	 *
+	 * @param png
+	 * @return the pixels decoded by ImageIO, fully transparent pixels as 0
+	 * @throws IOException
+	 */
+	private static int[] decode(byte[] png) throws IOException {
+		final BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+		assertEquals(SIZE, image.getWidth());
+		assertEquals(SIZE, image.getHeight());
+		final int[] pixels = image.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+		normalize(pixels);
+		return pixels;
+	}
+
+	private static void normalize(int[] pixels) {
+		for (int i = 0; i < pixels.length; i++) {
+			if ((pixels[i] >>> 24) == 0) {
+				pixels[i] = 0;
+			}
+		}
+	}
+
+	private static void assertPixels(int[] expected, byte[] png) throws IOException {
+		final int[] pixels = decode(png);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("pixel " + i, Integer.toHexString(expected[i]), Integer.toHexString(pixels[i]));
+		}
+	}
+
+	private static int getBitDepth(byte[] png) {
+		return png[24];
+	}
+
+	private static int getColorType(byte[] png) {
+		return png[25];
+	}
+
+	private static int[] shapes() {
+		final BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+		final Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+		g.setPaint(new Color(255, 0, 0, 128));
+		g.fillRect(5, 5, 30, 20);
+		g.setPaint(new Color(0, 0, 255));
+		g.fillOval(20, 20, 40, 40);
+		g.dispose();
+		final int[] pixels = image.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+		normalize(pixels);
+		return pixels;
+	}
+
+	@Test
+	public void testIndexed() throws IOException {
+		final int[] pixels = shapes();
+		for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+			final byte[] png = new PngEncoder(6, filter).encode(pixels, SIZE, SIZE);
+			assertEquals(3, getColorType(png));
+			assertEquals(2, getBitDepth(png));
+			assertPixels(pixels, png);
+		}
+	}
+
+	@Test
+	public void testBitDepths() throws IOException {
+		final PngEncoder encoder = new PngEncoder();
+		final int[] colors = new int[256];
+		for (int i = 0; i < colors.length; i++) {
+			colors[i] = 0xff000000 | i * 0x010101;
+		}
+		final int[][] expected = {{2, 1}, {3, 2}, {16, 4}, {17, 8}, {256, 8}};
+		for (int[] e : expected) {
+			final int[] pixels = new int[SIZE * SIZE];
+			for (int i = 0; i < pixels.length; i++) {
+				pixels[i] = colors[(i * 7) % e[0]];
+			}
+			final byte[] png = encoder.encode(pixels, SIZE, SIZE);
+			assertEquals(3, getColorType(png));
+			assertEquals(e[1], getBitDepth(png));
+			assertPixels(pixels, png);
+		}
+	}
+
+	@Test
+	public void testRgba() throws IOException {
+		final Random random = new Random(3);
+		final int[] pixels = new int[SIZE * SIZE];
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = random.nextInt(4) == 0 ? 0 : (random.nextInt(255) + 1) << 24 | (i * 31 + random.nextInt(8));
+		}
+		for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+			for (int level = 0; level <= 9; level += 3) {
+				final byte[] png = new PngEncoder(level, filter).encode(pixels, SIZE, SIZE);
+				assertEquals(6, getColorType(png));
+				assertEquals(8, getBitDepth(png));
+				assertPixels(pixels, png);
+			}
+		}
+	}
+
+	@Test
+	public void testImage() throws IOException {
+		final int[] pixels = shapes();
+		final BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, SIZE, SIZE, pixels, 0, SIZE);
+		assertPixels(pixels, new PngEncoder().encode(image));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		final PngEncoder encoder = new PngEncoder();
+		final int[] pixels = new int[SIZE * SIZE];
+		// transparent pixels with a color are transparent as well
+		pixels[17] = 0x00ff0000;
+		final byte[] png = encoder.encode(pixels, SIZE, SIZE);
+		assertSame(png, encoder.encode(new int[SIZE * SIZE], SIZE, SIZE));
+		assertEquals(1, getBitDepth(png));
+		assertPixels(new int[SIZE * SIZE], png);
+	}
+}
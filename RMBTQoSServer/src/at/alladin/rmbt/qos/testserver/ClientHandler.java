@@ -147,7 +147,9 @@ public class ClientHandler implements Runnable {
 			while(!quit) {
 				try {
 					command = reader.readLine();
-					TestServerConsole.log("COMMAND: " + command + " from: " + socket.getInetAddress().toString(), 0, TestServerServiceEnum.TEST_SERVER);
+					if (TestServerConsole.isLogEnabled(0, TestServerServiceEnum.TEST_SERVER)) {
+						TestServerConsole.log("COMMAND: " + command + " from: " + socket.getInetAddress().toString(), 0, TestServerServiceEnum.TEST_SERVER);
+					}
 					if (command != null) {
 						if (command.startsWith(QoSServiceProtocol.CMD_NON_TRANSPARENT_PROXY_TEXT)) {
 							runNonTransparentProxyTest(command);
@@ -415,7 +417,7 @@ public class ClientHandler implements Runnable {
 		}
 		
 		try {
-			TestServer.registerTcpCandidate(port, socket);
+			TestServer.prepareTcpPort(port, socket);
 						
 			sendCommand(QoSServiceProtocol.RESPONSE_OK, command);
 		}
@@ -495,9 +497,12 @@ public class ClientHandler implements Runnable {
 	    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
 	    DataOutputStream dataOut = new DataOutputStream(byteOut);
 	 
-	    TestServerConsole.log("INIT sending UDP packets (amount = " + numPackets + ") to " + targetHost + " on port " + port
-	    		+ " - using DatagramSocket: " + sock.getLocalAddress() + ":" + sock.getLocalPort(), 
-	    		2, TestServerServiceEnum.UDP_SERVICE);
+	    final boolean isVerboseLogEnabled = TestServerConsole.isLogEnabled(2, TestServerServiceEnum.UDP_SERVICE);
+	    if (isVerboseLogEnabled) {
+		    TestServerConsole.log("INIT sending UDP packets (amount = " + numPackets + ") to " + targetHost + " on port " + port
+		    		+ " - using DatagramSocket: " + sock.getLocalAddress() + ":" + sock.getLocalPort(), 
+		    		2, TestServerServiceEnum.UDP_SERVICE);
+	    }
 
 	    
 	    try {
@@ -539,8 +544,10 @@ public class ClientHandler implements Runnable {
     			    	
 	    				int packetNumber = buffer[1];
 	    				
-	    			    TestServerConsole.log(dp.getAddress() + ": UDP Test received packet: #" + packetNumber + " -> " + buffer, 
-	    			    		2, TestServerServiceEnum.UDP_SERVICE);
+	    				if (isVerboseLogEnabled) {
+		    			    TestServerConsole.log(dp.getAddress() + ": UDP Test received packet: #" + packetNumber + " -> " + buffer, 
+		    			    		2, TestServerServiceEnum.UDP_SERVICE);
+	    				}
 	    			    
 	    				//check udp packet:
 	    				if (buffer[0] != QoSServiceProtocol.UDP_TEST_RESPONSE) {
@@ -571,8 +578,10 @@ public class ClientHandler implements Runnable {
 	    		return clientData;
 	    	}
 	    	
-    		TestServerConsole.log("Sent packet pnum:" + i + " to " + targetHost + ":" + port +", sent message:" + data, 
-    				2, TestServerServiceEnum.TEST_SERVER);
+	    	if (TestServerConsole.isLogEnabled(2, TestServerServiceEnum.TEST_SERVER)) {
+	    		TestServerConsole.log("Sent packet pnum:" + i + " to " + targetHost + ":" + port +", sent message:" + data, 
+	    				2, TestServerServiceEnum.TEST_SERVER);
+	    	}
 	    }
 
 	    try {
@@ -585,8 +594,10 @@ public class ClientHandler implements Runnable {
 	    	sock.close();
 	    }
 	    
-		TestServerConsole.log(socket.getInetAddress() + ": Udp Incoming finished! RCV PACKETS: " + clientData.getPacketsReceived().size() 
-				+ ", DUP: " + clientData.getPacketDuplicates().size(), 2, TestServerServiceEnum.UDP_SERVICE);
+	    if (isVerboseLogEnabled) {
+			TestServerConsole.log(socket.getInetAddress() + ": Udp Incoming finished! RCV PACKETS: " + clientData.getPacketsReceived().size() 
+					+ ", DUP: " + clientData.getPacketDuplicates().size(), 2, TestServerServiceEnum.UDP_SERVICE);
+	    }
 	    
 	    return clientData;
     }
@@ -659,7 +670,9 @@ public class ClientHandler implements Runnable {
 						}
 					}
 					
-					TestServerConsole.log(name + " received regular Packet #"+ packetNumber, 2, TestServerServiceEnum.UDP_SERVICE);
+					if (TestServerConsole.isLogEnabled(2, TestServerServiceEnum.UDP_SERVICE)) {
+						TestServerConsole.log(name + " received regular Packet #"+ packetNumber, 2, TestServerServiceEnum.UDP_SERVICE);
+					}
 					
 					//if all packets have been received and an onComplete callback exists run it and remove the client data
 					//from the udp server
@@ -805,8 +818,10 @@ public class ClientHandler implements Runnable {
 					}
 					
 					RtpPacket rtpPacket = new RtpPacket(data);
-					TestServerConsole.log(getName() + " RTP Packet received. Sequence Number: " 
-							+ rtpPacket.getSequnceNumber() + ", TS: " + timestampNs + ", SSRC: " + rtpPacket.getSsrc(), 1, TestServerServiceEnum.UDP_SERVICE);
+					if (TestServerConsole.isLogEnabled(1, TestServerServiceEnum.UDP_SERVICE)) {
+						TestServerConsole.log(getName() + " RTP Packet received. Sequence Number: " 
+								+ rtpPacket.getSequnceNumber() + ", TS: " + timestampNs + ", SSRC: " + rtpPacket.getSsrc(), 1, TestServerServiceEnum.UDP_SERVICE);
+					}
 					clientVoipData.resetTtl(3000);
 					clientVoipData.addRtpControlData(rtpPacket, timestampNs);
 				} catch (RtpException e) {
@@ -935,7 +950,7 @@ public class ClientHandler implements Runnable {
 		}
 		
 		try {
-			TestServer.registerTcpCandidate(echoPort, socket);
+			TestServer.prepareTcpPort(echoPort, socket);
 			
 			sendCommand(QoSServiceProtocol.RESPONSE_OK, command);
 			TestServerConsole.log("NTP: sendind OK. waiting for request...", 1, TestServerServiceEnum.TCP_SERVICE);
@@ -1030,7 +1045,9 @@ public class ClientHandler implements Runnable {
 			}
     	}
 
-    	TestServerConsole.log(name + " sending answer: [" + outCommand + "] to: [" + inCommand +"] ", 2, TestServerServiceEnum.TEST_SERVER);
+    	if (TestServerConsole.isLogEnabled(2, TestServerServiceEnum.TEST_SERVER)) {
+    		TestServerConsole.log(name + " sending answer: [" + outCommand + "] to: [" + inCommand +"] ", 2, TestServerServiceEnum.TEST_SERVER);
+    	}
 		out.write(getBytesWithNewline(outCommand));
     }
 
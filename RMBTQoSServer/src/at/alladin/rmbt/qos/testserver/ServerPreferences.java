@@ -32,6 +32,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import at.alladin.rmbt.qos.testserver.plugin.rest.RestService;
+import at.alladin.rmbt.qos.testserver.util.AsyncLogWriter;
 
 /**
  * 
@@ -102,11 +103,13 @@ public class ServerPreferences {
 	public static final String PARAM_SERVER_SYSLOG_HOST = "server.syslog.host";
 	public static final String PARAM_SERVER_SYSLOG_PATTERN = "server.syslog.pattern";
 	public static final String PARAM_SERVER_LOG_CONSOLE = "server.log.console";
+	public static final String PARAM_SERVER_LOG_BUFFER_SIZE = "server.log.buffer";
 	public static final String PARAM_SERVER_COMMAND_CONSOLE = "server.console";
 	public static final String PARAM_SERVER_LOG_FILE = "server.log";
 	public static final String PARAM_SERVER_UDP_SERVICE_LOG_FILE = "server.log.udp";
 	public static final String PARAM_SERVER_TCP_SERVICE_LOG_FILE = "server.log.tcp";
 	public static final String PARAM_SERVER_TCP_IP_CHECK = "server.ip.check";
+	public static final String PARAM_SERVER_TCP_NIO = "server.tcp.nio";
 	public static final String PARAM_SERVER_IP = "server.ip";
 	
 	public static final String REGEX_PORT_LIST = "([0-9]+)[,]?";
@@ -125,15 +128,17 @@ public class ServerPreferences {
 	
 	private int maxThreads = 100;
 	private boolean useSsl = false;
-	private int verboseLevel = 0;
+	private volatile int verboseLevel = 0;
 	private String secretKey = null;
 	private boolean isIpCheck = false;
+	private boolean isTcpNio = false;
 	private boolean isLoggingEnabled = true;
 	private String loggingPattern = "%p %d{ISO8601} - %m%n";
 	private boolean isSyslogEnabled = true;
 	private String syslogHost = "localhost";
 	private String syslogPattern = "%p %d{ISO8601} %c - %m%n";
 	private boolean isConsoleLog = false;
+	private int logBufferSize = AsyncLogWriter.DEFAULT_BUFFER_SIZE;
 	private boolean isCommandConsoleEnabled = false;
 	private final TreeMap<TestServerServiceEnum, String> logFileMap = new TreeMap<>();
 	private final Set<InetAddress> inetAddrBindToSet = new HashSet<>();
@@ -262,6 +267,11 @@ public class ServerPreferences {
 		   		isIpCheck = Boolean.parseBoolean(param.trim());
 	   		}
 
+	   		param = prop.getProperty(PARAM_SERVER_TCP_NIO);
+	   		if (param!=null) {
+		   		isTcpNio = Boolean.parseBoolean(param.trim());
+	   		}
+
 	   		param = prop.getProperty(PARAM_SERVER_THREADS);
 	   		if (param!=null) {
 		   		maxThreads = Integer.parseInt(param.trim());	   			
@@ -327,6 +337,11 @@ public class ServerPreferences {
 	   			isConsoleLog = Boolean.parseBoolean(param.trim());
 	   		}
 
+	   		param = prop.getProperty(PARAM_SERVER_LOG_BUFFER_SIZE);
+	   		if (param!=null) {
+	   			logBufferSize = Integer.parseInt(param.trim());
+	   		}
+
 	   		param = prop.getProperty(PARAM_SERVER_LOG_FILE);
 	   		if (param!=null) {
 	   			logFileMap.put(TestServerServiceEnum.TEST_SERVER, param.trim());
@@ -619,6 +634,22 @@ public class ServerPreferences {
 		this.isIpCheck = isIpCheck;
 	}
 
+	/**
+	 * 
+	 * @return true if all TCP test ports are served by a single selector thread
+	 */
+	public boolean isTcpNio() {
+		return isTcpNio;
+	}
+
+	/**
+	 * 
+	 * @param isTcpNio
+	 */
+	public void setTcpNio(boolean isTcpNio) {
+		this.isTcpNio = isTcpNio;
+	}
+
 	public boolean isConsoleLog() {
 		return isConsoleLog;
 	}
@@ -627,6 +658,14 @@ public class ServerPreferences {
 		this.isConsoleLog = isConsoleLog;
 	}
 
+	public int getLogBufferSize() {
+		return logBufferSize;
+	}
+
+	public void setLogBufferSize(int logBufferSize) {
+		this.logBufferSize = logBufferSize;
+	}
+
 	public boolean isCommandConsoleEnabled() {
 		return isCommandConsoleEnabled;
 	}
@@ -677,12 +716,13 @@ public class ServerPreferences {
 				+ udpPortMin + ", udpPortMax=" + udpPortMax + ", udpPortSet="
 				+ udpPortSet + ", maxThreads=" + maxThreads + ", useSsl="
 				+ useSsl + ", verboseLevel=" + verboseLevel + ", secretKey="
-				+ secretKey + ", isIpCheck=" + isIpCheck
+				+ secretKey + ", isIpCheck=" + isIpCheck + ", isTcpNio=" + isTcpNio
 				+ ", isLoggingEnabled=" + isLoggingEnabled
 				+ ", loggingPattern=" + loggingPattern + ", isSyslogEnabled="
 				+ isSyslogEnabled + ", syslogHost=" + syslogHost
 				+ ", syslogPattern=" + syslogPattern + ", isConsoleLog="
-				+ isConsoleLog + ", isCommandConsoleEnabled="
+				+ isConsoleLog + ", logBufferSize=" + logBufferSize 
+				+ ", isCommandConsoleEnabled="
 				+ isCommandConsoleEnabled + ", logFileMap=" + logFileMap
 				+ ", inetAddrBindToSet=" + inetAddrBindToSet
 				+ ", startTimestamp=" + startTimestamp + ", pluginMap="
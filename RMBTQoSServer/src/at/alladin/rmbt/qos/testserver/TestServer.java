@@ -34,6 +34,7 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -59,12 +60,13 @@ import at.alladin.rmbt.qos.testserver.entity.TestCandidate;
 import at.alladin.rmbt.qos.testserver.servers.AbstractUdpServer;
 import at.alladin.rmbt.qos.testserver.service.EventJob.EventType;
 import at.alladin.rmbt.qos.testserver.service.ServiceManager;
+import at.alladin.rmbt.qos.testserver.tcp.NioTcpMultiPortServer;
 import at.alladin.rmbt.qos.testserver.tcp.TcpMultiClientServer;
-import at.alladin.rmbt.qos.testserver.tcp.TcpWatcherRunnable;
 import at.alladin.rmbt.qos.testserver.udp.NioUdpMultiClientServer;
 import at.alladin.rmbt.qos.testserver.udp.UdpMultiClientServer;
 import at.alladin.rmbt.qos.testserver.udp.UdpTestCandidate;
 import at.alladin.rmbt.qos.testserver.udp.UdpWatcherRunnable;
+import at.alladin.rmbt.qos.testserver.util.ExpiryScheduler;
 import at.alladin.rmbt.qos.testserver.util.LoggingService;
 import at.alladin.rmbt.qos.testserver.util.RuntimeGuardService;
 import at.alladin.rmbt.qos.testserver.util.TestServerConsole;
@@ -142,6 +144,11 @@ public class TestServer {
 	public final static ConcurrentHashMap<Integer, List<AbstractUdpServer<?>>> udpServerMap = new ConcurrentHashMap<Integer, List<AbstractUdpServer<?>>>();
 	public final static ConcurrentHashMap<Integer, List<TcpMultiClientServer>> tcpServerMap = new ConcurrentHashMap<Integer, List<TcpMultiClientServer>>();
 	
+	/**
+	 * single threaded tcp server for all tcp test ports (only used if {@link ServerPreferences#isTcpNio()} is set)
+	 */
+	public static NioTcpMultiPortServer nioTcpServer;
+	
 	/**
 	 * server socket list (=awaiting client test requests)
 	 */
@@ -151,13 +158,18 @@ public class TestServer {
 	public static ServerPreferences serverPreferences;
 	public final static ServiceManager serviceManager = new ServiceManager(); 
 	
-	public final static Set<ClientHandler> clientHandlerSet = new HashSet<>();
+	public final static Set<ClientHandler> clientHandlerSet = Collections.newSetFromMap(new ConcurrentHashMap<ClientHandler, Boolean>());
 	
 	/**
 	 * 
 	 */
 	public final static Randomizer randomizer = new Randomizer(8000, 12000, 3);
 	
+	/**
+	 * shared timer wheel for candidate and server ttls
+	 */
+	public final static ExpiryScheduler expiryScheduler = new ExpiryScheduler();
+	
 	/**
 	 * is used for all control connection threads
 	 */
@@ -208,6 +220,9 @@ public class TestServer {
 	    	mainServerPool = Executors.newFixedThreadPool(serverPreferences.getMaxThreads());
 	    }
 	    
+	    //start candidate/server ttl expiry:
+	    expiryScheduler.start();
+	    
 	    try {
 	    	
 		    if (serverPreferences.useSsl()) {
@@ -273,12 +288,15 @@ public class TestServer {
 		    	}
 		    }
 		    
-		    //start UDP watcher service:
+		    //start UDP watcher service (health check only, candidate ttls are handled by the expiry scheduler):
 		    final UdpWatcherRunnable udpWatcherRunnable = new UdpWatcherRunnable();
 		    serviceManager.addService(udpWatcherRunnable);
-		    //start TCP watcher service:
-		    final TcpWatcherRunnable tcpWatcherRunnable = new TcpWatcherRunnable();
-		    serviceManager.addService(tcpWatcherRunnable);
+		    
+		    if (serverPreferences.isTcpNio()) {
+		    	//start NIO TCP server (handles ttls by itself):
+		    	nioTcpServer = new NioTcpMultiPortServer(serverPreferences.getInetAddrBindToSet());
+		    	getCommonThreadPool().execute(nioTcpServer);
+		    }
 		    //register runtime guard service:
 		    final RuntimeGuardService runtimeGuardService = new RuntimeGuardService();
 		    serviceManager.addService(runtimeGuardService);
@@ -332,6 +350,12 @@ public class TestServer {
 			}
 		}
 		
+		if (nioTcpServer != null) {
+			nioTcpServer.quit();
+		}
+		
+		expiryScheduler.stop();
+		
 		mainServerPool.shutdownNow(); 
 		try {
 			mainServerPool.awaitTermination(4L, TimeUnit.SECONDS);
@@ -350,6 +374,9 @@ public class TestServer {
 					}
 				}
 	    	}
+	    	
+	    	//write all pending log entries:
+	    	LoggingService.shutdown();
 	    }
 	}
 	
@@ -538,6 +565,21 @@ public class TestServer {
 	    	}
 	    }
 	    
+	    /**
+	     * opens the tcp test port and registers the candidate, either on the {@link NioTcpMultiPortServer} or on a {@link TcpMultiClientServer} list
+	     * @param port
+	     * @param socket
+	     * @throws Exception
+	     */
+	    public static void prepareTcpPort(Integer port, Socket socket) throws Exception {
+	    	if (nioTcpServer != null) {
+	    		nioTcpServer.prepare(port, socket.getInetAddress());
+	    	}
+	    	else {
+	    		registerTcpCandidate(port, socket);
+	    	}
+	    }
+	    
 	    /**
 	     * 
 	     * @param port
@@ -605,7 +647,7 @@ public class TestServer {
 					if (udpServer.getAddress().equals(localAddr)) {
 						TestServerConsole.log("Registering UDP Candidate on " + localAddr + ":" + port , 0, TestServerServiceEnum.UDP_SERVICE);
 						TestServerConsole.log("Registering UDP Candidate for UdpServer: " + udpServer.toString(), 2, TestServerServiceEnum.UDP_SERVICE);
-						((AbstractUdpServer<T>) udpServer).getIncomingMap().put(uuid, udpData);
+						udpServer.registerCandidate(uuid, udpData);
 						return (AbstractUdpServer<T>) udpServer;
 					}
 				}				
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * collects latencies (in ns) and errors of a single operation type
+ * @author lb
+ *
+ */
+public class LatencyStats {
+
+	/**
+	 *
+	 */
+	private final String name;
+
+	/**
+	 *
+	 */
+	private long[] samples = new long[1024];
+
+	/**
+	 *
+	 */
+	private int count = 0;
+
+	/**
+	 *
+	 */
+	private long errorCount = 0;
+
+	/**
+	 * error reason -> count
+	 */
+	private final Map<String, Long> errorMap = new TreeMap<>();
+
+	/**
+	 *
+	 * @param name
+	 */
+	public LatencyStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 *
+	 * @param latencyNs
+	 */
+	public synchronized void record(long latencyNs) {
+		if (count == samples.length) {
+			samples = Arrays.copyOf(samples, samples.length * 2);
+		}
+		samples[count++] = latencyNs;
+	}
+
+	/**
+	 *
+	 * @param reason
+	 */
+	public synchronized void recordError(String reason) {
+		errorCount++;
+		final Long c = errorMap.get(reason);
+		errorMap.put(reason, c == null ? 1L : c + 1);
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 *
+	 * @return number of successful operations
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public synchronized long getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public synchronized Map<String, Long> getErrorMap() {
+		return new TreeMap<>(errorMap);
+	}
+
+	/**
+	 *
+	 * @return error rate (0..1)
+	 */
+	public synchronized double getErrorRate() {
+		final long total = count + errorCount;
+		return total == 0 ? 0d : (double) errorCount / (double) total;
+	}
+
+	/**
+	 *
+	 * @param percentiles e.g. 50, 99, 99.9
+	 * @return the latencies (ns) at the given percentiles (nearest rank), or an empty array if there are no samples
+	 */
+	public long[] getPercentiles(double... percentiles) {
+		final long[] sorted;
+		synchronized (this) {
+			sorted = Arrays.copyOf(samples, count);
+		}
+		if (sorted.length == 0) {
+			return new long[0];
+		}
+
+		Arrays.sort(sorted);
+		final long[] result = new long[percentiles.length];
+		for (int i = 0; i < percentiles.length; i++) {
+			final int rank = (int) Math.ceil(percentiles[i] / 100d * sorted.length);
+			result[i] = sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return mean latency in ns
+	 */
+	public synchronized double getMean() {
+		if (count == 0) {
+			return 0d;
+		}
+		double sum = 0d;
+		for (int i = 0; i < count; i++) {
+			sum += samples[i];
+		}
+		return sum / count;
+	}
+}
@@ -0,0 +1,446 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.loadtest;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.UUID;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.postgresql.util.Base64;
+
+import at.alladin.rmbt.qos.testserver.QoSServiceProtocol;
+import at.alladin.rmbt.qos.testserver.loadtest.QoSLoadGenerator.LoadTestType;
+import at.alladin.rmbt.util.net.rtp.RealtimeTransportProtocol.PayloadType;
+import at.alladin.rmbt.util.net.rtp.RtpUtil;
+
+/**
+ * a single simulated QoS client: opens control connections, runs test commands and records the results
+ * @author lb
+ *
+ */
+public class LoadSession implements Runnable {
+
+	/**
+	 * protocol violation or failed test
+	 * @author lb
+	 *
+	 */
+	public static class LoadTestException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public LoadTestException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * voip settings (same as the default client settings)
+	 */
+	public final static int VOIP_SAMPLE_RATE = 8000;
+	public final static int VOIP_BITS_PER_SAMPLE = 8;
+	public final static int VOIP_DELAY_MS = 20;
+
+	/**
+	 *
+	 */
+	private final QoSLoadGenerator generator;
+
+	/**
+	 *
+	 */
+	private final QoSLoadSettings settings;
+
+	/**
+	 *
+	 */
+	private final Random random;
+
+	/**
+	 *
+	 */
+	private Socket socket;
+	private BufferedReader reader;
+	private OutputStream out;
+	private String uuid;
+
+	/**
+	 *
+	 * @param generator
+	 * @param seed
+	 */
+	public LoadSession(QoSLoadGenerator generator, long seed) {
+		this.generator = generator;
+		this.settings = generator.getSettings();
+		this.random = new Random(seed);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		generator.getActiveSessions().incrementAndGet();
+		try {
+			while (generator.isRunning()) {
+				final long tsConnect = System.nanoTime();
+				try {
+					connect();
+					generator.getStats(LoadTestType.CONNECT).record(System.nanoTime() - tsConnect);
+				}
+				catch (Exception e) {
+					generator.getStats(LoadTestType.CONNECT).recordError(getReason(e));
+					close();
+					pause(settings.getErrorBackoffMs());
+					continue;
+				}
+
+				try {
+					for (int i = 0; i < settings.getTestsPerConnection() && generator.isRunning(); i++) {
+						final LoadTestType type = settings.nextTestType(random);
+						final long tsStart = System.nanoTime();
+						try {
+							runTest(type);
+							generator.getStats(type).record(System.nanoTime() - tsStart);
+						}
+						catch (Exception e) {
+							generator.getStats(type).recordError(getReason(e));
+							//the control connection is in an undefined state now
+							break;
+						}
+
+						pause(settings.getThinkTimeMs());
+					}
+
+					sendCommand(QoSServiceProtocol.REQUEST_QUIT);
+				}
+				catch (IOException e) {
+					//ignore errors on quit
+				}
+				finally {
+					close();
+				}
+			}
+		}
+		finally {
+			generator.getActiveSessions().decrementAndGet();
+		}
+	}
+
+	/**
+	 * opens the control connection and runs the handshake
+	 * @throws IOException
+	 */
+	protected void connect() throws IOException {
+		socket = settings.isSsl() ? settings.getSslSocketFactory().createSocket() : new Socket();
+		socket.setSoTimeout(settings.getTimeoutMs());
+		socket.connect(new InetSocketAddress(settings.getHost(), settings.getPort()), settings.getTimeoutMs());
+		reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		out = socket.getOutputStream();
+
+		expect(QoSServiceProtocol.RESPONSE_GREETING);
+		expect(QoSServiceProtocol.RESPONSE_ACCEPT_TOKEN);
+
+		uuid = UUID.randomUUID().toString();
+		final long timestamp = System.currentTimeMillis();
+		sendCommand("TOKEN " + uuid + "_" + timestamp + "_" + calculateHmac(settings.getSecretKey(), uuid + "_" + timestamp));
+
+		expect(QoSServiceProtocol.RESPONSE_OK);
+		expect("ACCEPT");
+	}
+
+	/**
+	 *
+	 * @param type
+	 * @throws Exception
+	 */
+	protected void runTest(LoadTestType type) throws Exception {
+		switch (type) {
+		case TCP_OUT:
+			runTcpEcho(QoSServiceProtocol.CMD_TCP_TEST_OUT, "PING " + uuid);
+			break;
+		case NTP:
+			runTcpEcho(QoSServiceProtocol.CMD_NON_TRANSPARENT_PROXY_TEXT, "GET / HTTP/1.1 " + uuid);
+			break;
+		case UDP_OUT:
+			runUdpOut();
+			break;
+		case UDP_IN:
+			runUdpIn();
+			break;
+		case VOIP:
+			runVoip();
+			break;
+		default:
+			throw new IllegalArgumentException("unsupported test type: " + type);
+		}
+	}
+
+	/**
+	 * TCPTEST OUT / NTPTEST: server opens the port, client connects and expects its request to be echoed
+	 * @param cmd
+	 * @param request
+	 * @throws IOException
+	 */
+	protected void runTcpEcho(String cmd, String request) throws IOException {
+		final int port = settings.nextTcpPort(random);
+		sendCommand(cmd + " " + port);
+		expect(QoSServiceProtocol.RESPONSE_OK);
+
+		try (final Socket testSocket = new Socket()) {
+			testSocket.setSoTimeout(settings.getTimeoutMs());
+			testSocket.connect(new InetSocketAddress(settings.getHost(), port), settings.getTimeoutMs());
+			testSocket.getOutputStream().write((request + "\n").getBytes());
+			final String response = new BufferedReader(new InputStreamReader(testSocket.getInputStream())).readLine();
+			if (!request.equals(response)) {
+				throw new LoadTestException("bad echo");
+			}
+		}
+	}
+
+	/**
+	 * UDPTEST OUT: client sends packets to the server which answers each of them
+	 * @throws IOException
+	 */
+	protected void runUdpOut() throws IOException {
+		final int port = getUdpPort();
+		final int numPackets = settings.getUdpPackets();
+		sendCommand(QoSServiceProtocol.CMD_UDP_TEST_OUT + " " + port + " " + numPackets);
+		expect(QoSServiceProtocol.RESPONSE_OK);
+
+		try (final DatagramSocket ds = new DatagramSocket()) {
+			ds.setSoTimeout(settings.getTimeoutMs());
+			final byte[] buffer = new byte[1024];
+			for (int i = 0; i < numPackets; i++) {
+				final ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+				final DataOutputStream dataOut = new DataOutputStream(byteOut);
+				dataOut.writeByte(QoSServiceProtocol.UDP_TEST_AWAIT_RESPONSE_IDENTIFIER);
+				dataOut.writeByte(i);
+				dataOut.write(uuid.getBytes());
+				dataOut.write(String.valueOf(System.currentTimeMillis()).getBytes());
+				final byte[] data = byteOut.toByteArray();
+				ds.send(new DatagramPacket(data, data.length, settings.getHostAddress(), port));
+
+				final DatagramPacket dp = new DatagramPacket(buffer, buffer.length);
+				ds.receive(dp);
+				if (buffer[0] != QoSServiceProtocol.UDP_TEST_RESPONSE) {
+					throw new LoadTestException("bad udp response identifier");
+				}
+			}
+		}
+
+		checkRcv(numPackets);
+	}
+
+	/**
+	 * UDPTEST IN: server sends packets to the client, client answers each of them
+	 * @throws IOException
+	 */
+	protected void runUdpIn() throws IOException {
+		final int numPackets = settings.getUdpPackets();
+		try (final DatagramSocket ds = new DatagramSocket()) {
+			ds.setSoTimeout(settings.getTimeoutMs());
+			sendCommand(QoSServiceProtocol.CMD_UDP_TEST_IN + " " + ds.getLocalPort() + " " + numPackets);
+
+			final byte[] buffer = new byte[1024];
+			for (int i = 0; i < numPackets; i++) {
+				final DatagramPacket dp = new DatagramPacket(buffer, buffer.length);
+				ds.receive(dp);
+				if (buffer[0] != QoSServiceProtocol.UDP_TEST_AWAIT_RESPONSE_IDENTIFIER) {
+					throw new LoadTestException("bad udp packet identifier");
+				}
+				buffer[0] = QoSServiceProtocol.UDP_TEST_RESPONSE;
+				ds.send(new DatagramPacket(buffer, dp.getLength(), dp.getAddress(), dp.getPort()));
+			}
+		}
+
+		checkRcv(numPackets);
+	}
+
+	/**
+	 * VOIPTEST: client sends a rtp stream to the server and requests the result
+	 * @throws Exception
+	 */
+	protected void runVoip() throws Exception {
+		final int port = settings.getVoipPort();
+		final int sequenceNumber = random.nextInt(10000);
+		final int callDuration = settings.getVoipCallDurationMs();
+		sendCommand(QoSServiceProtocol.CMD_VOIP_TEST + " " + port + " " + port + " " + VOIP_SAMPLE_RATE + " " + VOIP_BITS_PER_SAMPLE
+				+ " " + VOIP_DELAY_MS + " " + callDuration + " " + sequenceNumber + " " + PayloadType.PCMA.getValue());
+		final String response = expect(QoSServiceProtocol.RESPONSE_OK);
+		final int ssrc;
+		try {
+			ssrc = Integer.parseInt(response.substring(QoSServiceProtocol.RESPONSE_OK.length()).trim());
+		}
+		catch (NumberFormatException e) {
+			throw new LoadTestException("bad ssrc");
+		}
+
+		RtpUtil.runVoipStream(null, true, settings.getHostAddress(), port, VOIP_SAMPLE_RATE, VOIP_BITS_PER_SAMPLE, PayloadType.PCMA,
+				sequenceNumber, ssrc, callDuration, VOIP_DELAY_MS, settings.getTimeoutMs(), true, null);
+
+		sendCommand(QoSServiceProtocol.REQUEST_VOIP_RESULT + " " + ssrc);
+		final String[] result = expect(QoSServiceProtocol.RESPONSE_VOIP_RESULT).split(" ");
+		if (result.length < 6 || Long.parseLong(result[5]) <= 0) {
+			throw new LoadTestException("no voip packets received");
+		}
+	}
+
+	/**
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	protected int getUdpPort() throws IOException {
+		if (settings.hasUdpPorts()) {
+			return settings.nextUdpPort(random);
+		}
+
+		sendCommand(QoSServiceProtocol.REQUEST_UDP_PORT);
+		try {
+			return Integer.parseInt(readLine().trim());
+		}
+		catch (NumberFormatException e) {
+			throw new LoadTestException("bad udp port");
+		}
+	}
+
+	/**
+	 * reads the RCV line and checks the number of received packets
+	 * @param expectedPackets
+	 * @throws IOException
+	 */
+	protected void checkRcv(int expectedPackets) throws IOException {
+		final String[] rcv = expect(QoSServiceProtocol.RESPONSE_UDP_NUM_PACKETS_RECEIVED).split(" ");
+		if (rcv.length < 2 || Integer.parseInt(rcv[1]) != expectedPackets) {
+			throw new LoadTestException("udp packets lost");
+		}
+	}
+
+	/**
+	 *
+	 * @param command
+	 * @throws IOException
+	 */
+	protected void sendCommand(String command) throws IOException {
+		out.write((command + "\n").getBytes());
+		out.flush();
+	}
+
+	/**
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	protected String readLine() throws IOException {
+		final String line = reader.readLine();
+		if (line == null) {
+			throw new LoadTestException("connection closed");
+		}
+		return line;
+	}
+
+	/**
+	 * reads a line and checks its prefix
+	 * @param prefix
+	 * @return the line
+	 * @throws IOException
+	 */
+	protected String expect(String prefix) throws IOException {
+		final String line = readLine();
+		if (!line.startsWith(prefix)) {
+			throw new LoadTestException("unexpected response (expected: " + prefix + ")");
+		}
+		return line;
+	}
+
+	/**
+	 *
+	 */
+	protected void close() {
+		if (socket != null) {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				//ignore
+			}
+			socket = null;
+		}
+	}
+
+	/**
+	 *
+	 * @param ms
+	 */
+	protected void pause(long ms) {
+		if (ms > 0) {
+			try {
+				Thread.sleep(ms);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param e
+	 * @return
+	 */
+	protected static String getReason(Exception e) {
+		if (e instanceof LoadTestException) {
+			return e.getMessage();
+		}
+		return e.getClass().getSimpleName();
+	}
+
+	/**
+	 * same token hmac as calculated by the control server
+	 * @param secret
+	 * @param data
+	 * @return
+	 */
+	protected static String calculateHmac(String secret, String data) {
+		if (secret == null) {
+			return "-";
+		}
+
+		try {
+			final SecretKeySpec signingKey = new SecretKeySpec(secret.getBytes(), "HmacSHA1");
+			final Mac mac = Mac.getInstance("HmacSHA1");
+			mac.init(signingKey);
+			return Base64.encodeBytes(mac.doFinal(data.getBytes()));
+		}
+		catch (GeneralSecurityException e) {
+			return "-";
+		}
+	}
+}
@@ -0,0 +1,365 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * headless load generator for the QoS test server.<br>
+ * Simulates a configurable number of concurrent clients that speak the QoS control protocol and run a mix of
+ * udp, tcp, non transparent proxy and voip tests. Prints throughput, latency percentiles and error rates of each test type and,
+ * if the rest status url of the server is given, the thread and heap usage of the test server.<br>
+ * Usage: <code>java at.alladin.rmbt.qos.testserver.loadtest.QoSLoadGenerator -h 127.0.0.1 -p 5233 -c 50 -d 60</code>
+ * @author lb
+ *
+ */
+public class QoSLoadGenerator {
+
+	/**
+	 *
+	 * @author lb
+	 *
+	 */
+	public static enum LoadTestType {
+		CONNECT,
+		TCP_OUT,
+		NTP,
+		UDP_OUT,
+		UDP_IN,
+		VOIP
+	}
+
+	/**
+	 * samples of the server status (collected from the rest status resource)
+	 * @author lb
+	 *
+	 */
+	public static class ServerSample {
+		final long threads;
+		final long heapUsed;
+		final long clientHandlers;
+
+		public ServerSample(long threads, long heapUsed, long clientHandlers) {
+			this.threads = threads;
+			this.heapUsed = heapUsed;
+			this.clientHandlers = clientHandlers;
+		}
+	}
+
+	/**
+	 *
+	 */
+	private final QoSLoadSettings settings;
+
+	/**
+	 *
+	 */
+	private final Map<LoadTestType, LatencyStats> statsMap = new EnumMap<>(LoadTestType.class);
+
+	/**
+	 *
+	 */
+	private final AtomicInteger activeSessions = new AtomicInteger(0);
+
+	/**
+	 *
+	 */
+	private volatile boolean isRunning = false;
+
+	/**
+	 *
+	 */
+	private final List<ServerSample> serverSampleList = new ArrayList<>();
+
+	/**
+	 *
+	 */
+	private volatile String lastServerError = null;
+
+	/**
+	 *
+	 */
+	private long tsStart;
+
+	/**
+	 *
+	 * @param settings
+	 */
+	public QoSLoadGenerator(QoSLoadSettings settings) {
+		this.settings = settings;
+		for (LoadTestType type : LoadTestType.values()) {
+			statsMap.put(type, new LatencyStats(type.name()));
+		}
+	}
+
+	/**
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		final QoSLoadSettings settings;
+		try {
+			settings = new QoSLoadSettings(args);
+		}
+		catch (IllegalArgumentException e) {
+			if (e.getMessage() != null) {
+				System.out.println(e.getMessage());
+			}
+			System.out.println(QoSLoadSettings.getUsage());
+			return;
+		}
+
+		System.out.println(settings);
+		final QoSLoadGenerator generator = new QoSLoadGenerator(settings);
+		generator.run();
+		System.out.println(generator.getReport());
+	}
+
+	/**
+	 * runs the load test (blocking)
+	 * @throws InterruptedException
+	 */
+	public void run() throws InterruptedException {
+		final ExecutorService sessionExecutor = Executors.newFixedThreadPool(settings.getSessions());
+		final ScheduledExecutorService reportExecutor = Executors.newSingleThreadScheduledExecutor();
+
+		isRunning = true;
+		tsStart = System.nanoTime();
+
+		reportExecutor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				if (settings.getStatusUrl() != null) {
+					pollServerStatus();
+				}
+				System.out.println(getProgress());
+			}
+		}, settings.getReportIntervalS(), settings.getReportIntervalS(), TimeUnit.SECONDS);
+
+		final long rampUpDelayMs = settings.getSessions() > 1 ? (settings.getRampUpS() * 1000L) / (settings.getSessions() - 1) : 0;
+		final long tsEnd = System.currentTimeMillis() + settings.getDurationS() * 1000L;
+		for (int i = 0; i < settings.getSessions() && System.currentTimeMillis() < tsEnd; i++) {
+			sessionExecutor.execute(new LoadSession(this, System.nanoTime() + i));
+			if (rampUpDelayMs > 0) {
+				Thread.sleep(rampUpDelayMs);
+			}
+		}
+
+		final long remaining = tsEnd - System.currentTimeMillis();
+		if (remaining > 0) {
+			Thread.sleep(remaining);
+		}
+
+		if (settings.getStatusUrl() != null) {
+			pollServerStatus();
+		}
+
+		isRunning = false;
+		reportExecutor.shutdownNow();
+		sessionExecutor.shutdown();
+		if (!sessionExecutor.awaitTermination(settings.getTimeoutMs() * 2, TimeUnit.MILLISECONDS)) {
+			System.out.println("Some sessions did not terminate, remaining: " + activeSessions.get());
+			sessionExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * requests the status json from the rest plugin of the test server
+	 */
+	protected void pollServerStatus() {
+		HttpURLConnection conn = null;
+		try {
+			conn = (HttpURLConnection) new URL(settings.getStatusUrl()).openConnection();
+			conn.setConnectTimeout(settings.getTimeoutMs());
+			conn.setReadTimeout(settings.getTimeoutMs());
+			//the status resource answers with 500 if there are error reports, the body is the same
+			final InputStream in = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream();
+			if (in == null) {
+				lastServerError = "HTTP " + conn.getResponseCode();
+				return;
+			}
+
+			final StringBuilder sb = new StringBuilder();
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+				String line;
+				while ((line = br.readLine()) != null) {
+					sb.append(line);
+				}
+			}
+
+			final JSONObject json = new JSONObject(sb.toString());
+			synchronized (serverSampleList) {
+				serverSampleList.add(new ServerSample(json.optLong("threads", -1), json.optLong("heap_used", -1), json.optLong("client_handlers", -1)));
+			}
+			lastServerError = json.has("errors") ? json.getJSONArray("errors").length() + " error report(s)" : null;
+		}
+		catch (IOException | JSONException e) {
+			lastServerError = e.getClass().getSimpleName() + ": " + e.getMessage();
+		}
+		finally {
+			if (conn != null) {
+				conn.disconnect();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public String getProgress() {
+		final double elapsed = getElapsedSeconds();
+		long ok = 0;
+		long err = 0;
+		for (Entry<LoadTestType, LatencyStats> e : statsMap.entrySet()) {
+			if (e.getKey() != LoadTestType.CONNECT) {
+				ok += e.getValue().getCount();
+				err += e.getValue().getErrorCount();
+			}
+		}
+
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.US, "[%6.1fs] sessions: %d, tests ok: %d, errors: %d, tests/s: %.1f",
+				elapsed, activeSessions.get(), ok, err, elapsed > 0 ? ok / elapsed : 0d));
+
+		synchronized (serverSampleList) {
+			if (!serverSampleList.isEmpty()) {
+				final ServerSample last = serverSampleList.get(serverSampleList.size() - 1);
+				sb.append(String.format(Locale.US, ", server threads: %d, heap: %.1f MB, client handlers: %d",
+						last.threads, last.heapUsed / 1048576d, last.clientHandlers));
+			}
+		}
+
+		if (lastServerError != null) {
+			sb.append(", server status: " + lastServerError);
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public String getReport() {
+		final double elapsed = getElapsedSeconds();
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.US, "\n=== QoS load test report (%.1fs, %d sessions) ===\n", elapsed, settings.getSessions()));
+		sb.append(String.format(Locale.US, "%-8s %8s %6s %7s %8s %9s %9s %9s %9s %9s %9s\n",
+				"type", "ok", "err", "err%", "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+
+		for (LatencyStats stats : statsMap.values()) {
+			final int count = stats.getCount();
+			final long errors = stats.getErrorCount();
+			if (count == 0 && errors == 0) {
+				continue;
+			}
+
+			final long[] p = stats.getPercentiles(50, 90, 99, 99.9, 100);
+			sb.append(String.format(Locale.US, "%-8s %8d %6d %6.2f%% %8.1f %9.2f",
+					stats.getName(), count, errors, stats.getErrorRate() * 100d, elapsed > 0 ? count / elapsed : 0d, stats.getMean() / 1e6));
+			if (p.length > 0) {
+				for (long v : p) {
+					sb.append(String.format(Locale.US, " %9.2f", v / 1e6));
+				}
+			}
+			sb.append("\n");
+		}
+
+		boolean hasErrors = false;
+		for (LatencyStats stats : statsMap.values()) {
+			for (Entry<String, Long> e : stats.getErrorMap().entrySet()) {
+				if (!hasErrors) {
+					sb.append("\nErrors:\n");
+					hasErrors = true;
+				}
+				sb.append("\t" + stats.getName() + ": " + e.getKey() + " = " + e.getValue() + "\n");
+			}
+		}
+
+		synchronized (serverSampleList) {
+			if (!serverSampleList.isEmpty()) {
+				long minThreads = Long.MAX_VALUE, maxThreads = 0, sumThreads = 0;
+				long minHeap = Long.MAX_VALUE, maxHeap = 0, sumHeap = 0;
+				long maxHandlers = 0;
+				for (ServerSample s : serverSampleList) {
+					minThreads = Math.min(minThreads, s.threads);
+					maxThreads = Math.max(maxThreads, s.threads);
+					sumThreads += s.threads;
+					minHeap = Math.min(minHeap, s.heapUsed);
+					maxHeap = Math.max(maxHeap, s.heapUsed);
+					sumHeap += s.heapUsed;
+					maxHandlers = Math.max(maxHandlers, s.clientHandlers);
+				}
+				final int n = serverSampleList.size();
+				sb.append(String.format(Locale.US, "\nServer (%d samples): threads min/avg/max: %d/%d/%d, heap used min/avg/max: %.1f/%.1f/%.1f MB, max client handlers: %d\n",
+						n, minThreads, sumThreads / n, maxThreads, minHeap / 1048576d, sumHeap / n / 1048576d, maxHeap / 1048576d, maxHandlers));
+			}
+		}
+
+		final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		sb.append(String.format(Locale.US, "Load generator: threads peak: %d, heap used: %.1f MB\n",
+				ManagementFactory.getThreadMXBean().getPeakThreadCount(), heap.getUsed() / 1048576d));
+
+		return sb.toString();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	protected double getElapsedSeconds() {
+		return (System.nanoTime() - tsStart) / 1e9;
+	}
+
+	public QoSLoadSettings getSettings() {
+		return settings;
+	}
+
+	public LatencyStats getStats(LoadTestType type) {
+		return statsMap.get(type);
+	}
+
+	public AtomicInteger getActiveSessions() {
+		return activeSessions;
+	}
+
+	public boolean isRunning() {
+		return isRunning;
+	}
+}
@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.loadtest;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import at.alladin.rmbt.qos.testserver.loadtest.QoSLoadGenerator.LoadTestType;
+
+/**
+ * command line settings of the {@link QoSLoadGenerator}
+ * @author lb
+ *
+ */
+public class QoSLoadSettings {
+
+	public final static String ARG_HOST = "-H";
+	public final static String ARG_PORT = "-P";
+	public final static String ARG_SSL = "-SSL";
+	public final static String ARG_SECRET_KEY = "-K";
+	public final static String ARG_SESSIONS = "-C";
+	public final static String ARG_DURATION = "-D";
+	public final static String ARG_RAMP_UP = "-R";
+	public final static String ARG_MIX = "-MIX";
+	public final static String ARG_TESTS_PER_CONNECTION = "-N";
+	public final static String ARG_THINK_TIME = "-THINK";
+	public final static String ARG_TIMEOUT = "-T";
+	public final static String ARG_UDP_PORTS = "-UDP";
+	public final static String ARG_UDP_PACKETS = "-PACKETS";
+	public final static String ARG_TCP_PORTS = "-TCP";
+	public final static String ARG_VOIP_PORT = "-VOIP";
+	public final static String ARG_VOIP_DURATION = "-VOIPDURATION";
+	public final static String ARG_STATUS_URL = "-STATUS";
+	public final static String ARG_REPORT_INTERVAL = "-I";
+	public final static String ARG_HELP = "-HELP";
+
+	private String host = "127.0.0.1";
+	private InetAddress hostAddress;
+	private int port = 5233;
+	private boolean isSsl = false;
+	private SocketFactory sslSocketFactory;
+	private String secretKey = null;
+	private int sessions = 10;
+	private int durationS = 60;
+	private int rampUpS = 0;
+	private int testsPerConnection = 10;
+	private long thinkTimeMs = 0;
+	private long errorBackoffMs = 100;
+	private int timeoutMs = 10000;
+	private final List<Integer> udpPortList = new ArrayList<>();
+	private int udpPackets = 10;
+	private int tcpPortMin = 20000;
+	private int tcpPortMax = 20999;
+	private int voipPort = 5060;
+	private int voipCallDurationMs = 1000;
+	private String statusUrl = null;
+	private int reportIntervalS = 5;
+
+	/**
+	 * test type -> cumulated weight (for weighted random selection)
+	 */
+	private final Map<LoadTestType, Integer> mixMap = new EnumMap<>(LoadTestType.class);
+	private int mixTotal = 0;
+	private String mix = "udp_out=3,udp_in=1,tcp_out=3,ntp=2,voip=1";
+
+	/**
+	 *
+	 * @param args
+	 * @throws IllegalArgumentException
+	 * @throws UnknownHostException
+	 */
+	public QoSLoadSettings(String[] args) throws UnknownHostException {
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i].toUpperCase();
+			if (arg.equals(ARG_HOST)) {
+				host = args[++i];
+			}
+			else if (arg.equals(ARG_PORT)) {
+				port = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals(ARG_SSL)) {
+				isSsl = true;
+			}
+			else if (arg.equals(ARG_SECRET_KEY)) {
+				secretKey = args[++i];
+			}
+			else if (arg.equals(ARG_SESSIONS)) {
+				sessions = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals(ARG_DURATION)) {
+				durationS = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals(ARG_RAMP_UP)) {
+				rampUpS = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals(ARG_MIX)) {
+				mix = args[++i];
+			}
+			else if (arg.equals(ARG_TESTS_PER_CONNECTION)) {
+				testsPerConnection = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals(ARG_THINK_TIME)) {
+				thinkTimeMs = Long.parseLong(args[++i]);
+			}
+			else if (arg.equals(ARG_TIMEOUT)) {
+				timeoutMs = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals(ARG_UDP_PORTS)) {
+				parsePortList(args[++i], udpPortList);
+			}
+			else if (arg.equals(ARG_UDP_PACKETS)) {
+				udpPackets = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals(ARG_TCP_PORTS)) {
+				final List<Integer> tcpPorts = new ArrayList<>();
+				parsePortList(args[++i], tcpPorts);
+				tcpPortMin = tcpPorts.get(0);
+				tcpPortMax = tcpPorts.get(tcpPorts.size() - 1);
+			}
+			else if (arg.equals(ARG_VOIP_PORT)) {
+				voipPort = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals(ARG_VOIP_DURATION)) {
+				voipCallDurationMs = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals(ARG_STATUS_URL)) {
+				statusUrl = args[++i];
+			}
+			else if (arg.equals(ARG_REPORT_INTERVAL)) {
+				reportIntervalS = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals(ARG_HELP)) {
+				throw new IllegalArgumentException();
+			}
+			else {
+				throw new IllegalArgumentException("unknown argument: " + args[i]);
+			}
+		}
+
+		parseMix(mix);
+		hostAddress = InetAddress.getByName(host);
+
+		if (isSsl) {
+			sslSocketFactory = createTrustingSslSocketFactory();
+		}
+	}
+
+	/**
+	 * parses "a-b" (range) or "a,b,c" (list)
+	 * @param value
+	 * @param portList
+	 */
+	private static void parsePortList(String value, List<Integer> portList) {
+		if (value.contains("-")) {
+			final String[] range = value.split("-");
+			for (int p = Integer.parseInt(range[0].trim()); p <= Integer.parseInt(range[1].trim()); p++) {
+				portList.add(p);
+			}
+		}
+		else {
+			for (String p : value.split(",")) {
+				portList.add(Integer.parseInt(p.trim()));
+			}
+		}
+	}
+
+	/**
+	 * parses "type=weight,..."
+	 * @param mix
+	 */
+	private void parseMix(String mix) {
+		final Map<LoadTestType, Integer> weightMap = new EnumMap<>(LoadTestType.class);
+		for (String entry : mix.split(",")) {
+			final String[] kv = entry.split("=");
+			final LoadTestType type = LoadTestType.valueOf(kv[0].trim().toUpperCase());
+			if (type == LoadTestType.CONNECT) {
+				throw new IllegalArgumentException("not a test type: " + kv[0]);
+			}
+			weightMap.put(type, kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1);
+		}
+
+		for (Entry<LoadTestType, Integer> e : weightMap.entrySet()) {
+			if (e.getValue() > 0) {
+				mixTotal += e.getValue();
+				mixMap.put(e.getKey(), mixTotal);
+			}
+		}
+
+		if (mixTotal == 0) {
+			throw new IllegalArgumentException("empty test mix: " + mix);
+		}
+	}
+
+	/**
+	 * the server certificate is not checked (same as the test clients)
+	 * @return
+	 */
+	private static SocketFactory createTrustingSslSocketFactory() {
+		try {
+			final SSLContext sc = SSLContext.getInstance("TLS");
+			sc.init(null, new TrustManager[] {new X509TrustManager() {
+				public X509Certificate[] getAcceptedIssuers() {
+					return new X509Certificate[] {};
+				}
+
+				public void checkClientTrusted(X509Certificate[] certs, String authType) {
+				}
+
+				public void checkServerTrusted(X509Certificate[] certs, String authType) {
+				}
+			}}, new SecureRandom());
+			return sc.getSocketFactory();
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * weighted random test type
+	 * @param random
+	 * @return
+	 */
+	public LoadTestType nextTestType(Random random) {
+		final int r = random.nextInt(mixTotal);
+		for (Entry<LoadTestType, Integer> e : mixMap.entrySet()) {
+			if (r < e.getValue()) {
+				return e.getKey();
+			}
+		}
+		throw new IllegalStateException();
+	}
+
+	public int nextTcpPort(Random random) {
+		return tcpPortMin + random.nextInt(tcpPortMax - tcpPortMin + 1);
+	}
+
+	public boolean hasUdpPorts() {
+		return !udpPortList.isEmpty();
+	}
+
+	public int nextUdpPort(Random random) {
+		return udpPortList.get(random.nextInt(udpPortList.size()));
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public InetAddress getHostAddress() {
+		return hostAddress;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public boolean isSsl() {
+		return isSsl;
+	}
+
+	public SocketFactory getSslSocketFactory() {
+		return sslSocketFactory;
+	}
+
+	public String getSecretKey() {
+		return secretKey;
+	}
+
+	public int getSessions() {
+		return sessions;
+	}
+
+	public int getDurationS() {
+		return durationS;
+	}
+
+	public int getRampUpS() {
+		return rampUpS;
+	}
+
+	public int getTestsPerConnection() {
+		return testsPerConnection;
+	}
+
+	public long getThinkTimeMs() {
+		return thinkTimeMs;
+	}
+
+	public long getErrorBackoffMs() {
+		return errorBackoffMs;
+	}
+
+	public int getTimeoutMs() {
+		return timeoutMs;
+	}
+
+	public int getUdpPackets() {
+		return udpPackets;
+	}
+
+	public int getVoipPort() {
+		return voipPort;
+	}
+
+	public int getVoipCallDurationMs() {
+		return voipCallDurationMs;
+	}
+
+	public String getStatusUrl() {
+		return statusUrl;
+	}
+
+	public int getReportIntervalS() {
+		return reportIntervalS;
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public static String getUsage() {
+		return "QoS test server load generator. Arguments:\n"
+				+ "\t" + ARG_HOST.toLowerCase() + " <host>\t\tqos test server (default: 127.0.0.1)\n"
+				+ "\t" + ARG_PORT.toLowerCase() + " <port>\t\tcontrol port (default: 5233)\n"
+				+ "\t" + ARG_SSL.toLowerCase() + "\t\t\tuse ssl for the control connection\n"
+				+ "\t" + ARG_SECRET_KEY.toLowerCase() + " <key>\t\tsecret key for the token hmac (only needed if the server checks tokens)\n"
+				+ "\t" + ARG_SESSIONS.toLowerCase() + " <n>\t\t\tnumber of concurrent sessions (default: 10)\n"
+				+ "\t" + ARG_DURATION.toLowerCase() + " <s>\t\t\ttest duration in seconds (default: 60)\n"
+				+ "\t" + ARG_RAMP_UP.toLowerCase() + " <s>\t\t\tramp up time in seconds (default: 0)\n"
+				+ "\t" + ARG_MIX.toLowerCase() + " <mix>\t\ttest mix, e.g. udp_out=3,udp_in=1,tcp_out=3,ntp=2,voip=1\n"
+				+ "\t" + ARG_TESTS_PER_CONNECTION.toLowerCase() + " <n>\t\t\ttests per control connection (default: 10)\n"
+				+ "\t" + ARG_THINK_TIME.toLowerCase() + " <ms>\t\tpause between two tests (default: 0)\n"
+				+ "\t" + ARG_TIMEOUT.toLowerCase() + " <ms>\t\t\tsocket timeout (default: 10000)\n"
+				+ "\t" + ARG_UDP_PORTS.toLowerCase() + " <ports>\t\tudp ports, e.g. 10200-10250 or 53,123 (default: GET UDPPORT)\n"
+				+ "\t" + ARG_UDP_PACKETS.toLowerCase() + " <n>\t\tpackets per udp test (default: 10)\n"
+				+ "\t" + ARG_TCP_PORTS.toLowerCase() + " <from-to>\t\ttcp test ports (default: 20000-20999)\n"
+				+ "\t" + ARG_VOIP_PORT.toLowerCase() + " <port>\t\tnio udp port for voip tests (default: 5060)\n"
+				+ "\t" + ARG_VOIP_DURATION.toLowerCase() + " <ms>\tvoip call duration (default: 1000)\n"
+				+ "\t" + ARG_STATUS_URL.toLowerCase() + " <url>\t\trest status url of the server for thread/heap stats, e.g. http://127.0.0.1:10080/\n"
+				+ "\t" + ARG_REPORT_INTERVAL.toLowerCase() + " <s>\t\t\tprogress report interval (default: 5)\n";
+	}
+
+	@Override
+	public String toString() {
+		return "QoSLoadSettings [host=" + host + ", port=" + port + ", isSsl=" + isSsl + ", sessions=" + sessions
+				+ ", durationS=" + durationS + ", rampUpS=" + rampUpS + ", testsPerConnection=" + testsPerConnection
+				+ ", thinkTimeMs=" + thinkTimeMs + ", timeoutMs=" + timeoutMs + ", udpPortList=" + (udpPortList.isEmpty() ? "GET UDPPORT" : udpPortList.size() + " ports")
+				+ ", udpPackets=" + udpPackets + ", tcpPorts=" + tcpPortMin + "-" + tcpPortMax + ", voipPort=" + voipPort
+				+ ", voipCallDurationMs=" + voipCallDurationMs + ", mix=" + mix + ", statusUrl=" + statusUrl + "]";
+	}
+}
@@ -15,6 +15,10 @@
  *******************************************************************************/
 package at.alladin.rmbt.qos.testserver.plugin.rest;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -23,6 +27,7 @@ import org.restlet.resource.Get;
 import org.restlet.resource.ServerResource;
 
 import at.alladin.rmbt.qos.testserver.TestServer;
+import at.alladin.rmbt.qos.testserver.util.LoggingService;
 import at.alladin.rmbt.qos.testserver.util.TestServerConsole;
 import at.alladin.rmbt.qos.testserver.util.TestServerConsole.ErrorReport;
 
@@ -39,6 +44,18 @@ public class StatusResource extends ServerResource {
 		
 		json.put("starttime", TestServer.serverPreferences.getStartTimestamp());
 		json.put("version", TestServer.TEST_SERVER_VERSION_MAJOR + "." + TestServer.TEST_SERVER_VERSION_MINOR + "." + TestServer.TEST_SERVER_VERSION_PATCH);
+		json.put("log_written", LoggingService.ASYNC_LOG_WRITER.getWrittenCount());
+		json.put("log_dropped", LoggingService.ASYNC_LOG_WRITER.getDroppedCount());
+		json.put("client_handlers", TestServer.clientHandlerSet.size());
+		
+		final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		json.put("threads", threadBean.getThreadCount());
+		json.put("threads_peak", threadBean.getPeakThreadCount());
+		
+		final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		json.put("heap_used", heap.getUsed());
+		json.put("heap_committed", heap.getCommitted());
+		json.put("heap_max", heap.getMax());
 		
 		if (TestServerConsole.errorReportMap.size() > 0) {
 			setStatus(Status.SERVER_ERROR_INTERNAL);
@@ -22,6 +22,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import at.alladin.rmbt.qos.testserver.ServerPreferences.TestServerServiceEnum;
+import at.alladin.rmbt.qos.testserver.TestServer;
 import at.alladin.rmbt.qos.testserver.entity.TestCandidate;
 import at.alladin.rmbt.qos.testserver.util.TestServerConsole;
 
@@ -116,7 +117,9 @@ public abstract class AbstractServer<T extends AutoCloseable, H extends TestCand
 	
 	public void refreshTtl(long byValue) {
 		ttlTimestamp.set(System.currentTimeMillis() + byValue);
-		TestServerConsole.log(getName() + " Refreshing TTL to: " + ttlTimestamp.get(), 2, testServerService);
+		if (TestServerConsole.isLogEnabled(2, testServerService)) {
+			TestServerConsole.log(getName() + " Refreshing TTL to: " + ttlTimestamp.get(), 2, testServerService);
+		}
 	}
 
 	public int getPort() {
@@ -178,20 +181,21 @@ public abstract class AbstractServer<T extends AutoCloseable, H extends TestCand
 	@SuppressWarnings("unchecked")
 	public synchronized TestCandidate registerCandidate(InetAddress candidateInetAddress, int resetTtl) {
 		try {
-			TestCandidate candidate = null;
-			if (candidateMap.containsKey(candidateInetAddress)) {
-				candidate = (TestCandidate) candidateMap.get(candidateInetAddress);
+			TestCandidate candidate = candidateMap.get(candidateInetAddress);
+			if (candidate == null) {
+				candidate = clientDataHolderClazz.newInstance();
+				candidate.setResetTtl(resetTtl);
+				candidate.increaseTestCounter(true);
+				candidateMap.put(candidateInetAddress, (H) candidate);
+				//the candidate will be removed by the expiry scheduler once its ttl has been reached
+				TestServer.expiryScheduler.scheduleCandidateExpiry(candidateMap, candidateInetAddress, candidate, resetTtl, 
+						getName() + " Client", testServerService);
 			}
 			else {
-				candidate = clientDataHolderClazz.newInstance();
-				candidate.setTtl(resetTtl);
+				candidate.increaseTestCounter(true);
 			}
 			
-			candidate.increaseTestCounter(true);
-			
 			TestServerConsole.log(getName() + " Registering candidate " + candidateInetAddress + ": " + candidate + ")", 1, testServerService);
-
-			candidateMap.put(candidateInetAddress, (H) candidate);
 			
 			return candidate;			
 		}
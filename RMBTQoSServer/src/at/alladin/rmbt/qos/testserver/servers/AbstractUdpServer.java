@@ -21,6 +21,8 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.util.concurrent.ConcurrentHashMap;
 
+import at.alladin.rmbt.qos.testserver.ServerPreferences.TestServerServiceEnum;
+import at.alladin.rmbt.qos.testserver.TestServer;
 import at.alladin.rmbt.qos.testserver.entity.Observable;
 import at.alladin.rmbt.qos.testserver.entity.TestCandidate;
 import at.alladin.rmbt.qos.testserver.udp.UdpTestCandidate;
@@ -43,7 +45,7 @@ public abstract class AbstractUdpServer<T extends Closeable> implements Runnable
 	 * 
 	 * @param uuid
 	 */
-	public synchronized UdpTestCandidate getClientData(String uuid) {
+	public UdpTestCandidate getClientData(String uuid) {
 		return incomingMap.get(uuid);
 	}
 	
@@ -52,7 +54,7 @@ public abstract class AbstractUdpServer<T extends Closeable> implements Runnable
 	 * @param uuid
 	 * @return
 	 */
-	public synchronized TestCandidate pollClientData(String uuid) {
+	public TestCandidate pollClientData(String uuid) {
 		return incomingMap.remove(uuid);
 	}
 
@@ -60,10 +62,46 @@ public abstract class AbstractUdpServer<T extends Closeable> implements Runnable
 	 * 
 	 * @return
 	 */
-	public synchronized ConcurrentHashMap<String, UdpTestCandidate> getIncomingMap() {
+	public ConcurrentHashMap<String, UdpTestCandidate> getIncomingMap() {
 		return incomingMap;
 	}
 	
+	/**
+	 * registers a candidate and schedules its expiry
+	 * @param uuid
+	 * @param candidate
+	 */
+	public void registerCandidate(String uuid, UdpTestCandidate candidate) {
+		incomingMap.put(uuid, candidate);
+		scheduleCandidateExpiry(uuid, candidate);
+	}
+	
+	/**
+	 * registers the candidate and schedules its expiry if there is no candidate for this uuid yet
+	 * @param uuid
+	 * @param candidate
+	 * @return the candidate registered for this uuid
+	 */
+	public UdpTestCandidate putCandidateIfAbsent(String uuid, UdpTestCandidate candidate) {
+		final UdpTestCandidate current = incomingMap.putIfAbsent(uuid, candidate);
+		if (current != null) {
+			return current;
+		}
+		
+		scheduleCandidateExpiry(uuid, candidate);
+		return candidate;
+	}
+	
+	/**
+	 * 
+	 * @param uuid
+	 * @param candidate
+	 */
+	protected void scheduleCandidateExpiry(String uuid, UdpTestCandidate candidate) {
+		TestServer.expiryScheduler.scheduleCandidateExpiry(incomingMap, uuid, candidate, UdpTestCandidate.TTL, 
+				"UDP Client (ServerPort: " + getLocalPort() + ")", TestServerServiceEnum.UDP_SERVICE);
+	}
+	
 	/**
 	 * 
 	 * @return
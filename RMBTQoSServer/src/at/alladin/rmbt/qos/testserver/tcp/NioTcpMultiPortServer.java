@@ -0,0 +1,620 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.tcp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.alladin.rmbt.qos.testserver.ServerPreferences.TestServerServiceEnum;
+import at.alladin.rmbt.qos.testserver.TestServer;
+import at.alladin.rmbt.qos.testserver.entity.Observable;
+import at.alladin.rmbt.qos.testserver.entity.TestCandidate;
+import at.alladin.rmbt.qos.testserver.util.TestServerConsole;
+import at.alladin.rmbt.qos.testserver.util.TimerWheel;
+import at.alladin.rmbt.qos.testserver.util.TimerWheel.Timeout;
+import at.alladin.rmbt.qos.testserver.util.TimerWheel.TimeoutTask;
+
+/**
+ * Non blocking alternative to {@link TcpMultiClientServer}/{@link TcpClientHandler}:<br>
+ * a single selector thread serves all TCP test ports (TCP out and non transparent proxy tests).
+ * Each accepted connection gets the same treatment as in {@link TcpClientHandler} (candidate check, one line echo)
+ * without a thread per connection. Port TTLs, candidate TTLs and connection deadlines are handled by a {@link TimerWheel}
+ * instead of periodic scans.
+ * @author lb
+ *
+ */
+public class NioTcpMultiPortServer implements Runnable, Observable {
+
+	/**
+	 *
+	 */
+	public final static String TAG = NioTcpMultiPortServer.class.getCanonicalName();
+
+	/**
+	 * max length of a request line, longer requests are cut and echoed as they are
+	 */
+	public final static int MAX_LINE_LENGTH = 8192;
+
+	/**
+	 * resolution of the timer wheel
+	 */
+	public final static long TIMER_TICK_MS = 100;
+
+	/**
+	 * number of timer wheel buckets
+	 */
+	public final static int TIMER_WHEEL_SIZE = 1024;
+
+	/**
+	 * a single TCP test port (bound to all configured addresses)
+	 * @author lb
+	 *
+	 */
+	final class TcpPort implements TimeoutTask {
+		final int port;
+		final List<ServerSocketChannel> channelList = new ArrayList<>();
+		final ConcurrentHashMap<InetAddress, TestCandidate> candidateMap = new ConcurrentHashMap<>();
+		final AtomicLong ttlTimestamp = new AtomicLong(0);
+		boolean isClosed = false;
+
+		TcpPort(int port) {
+			this.port = port;
+		}
+
+		/*
+		 * port ttl check; the timeout is not rescheduled on every refresh,
+		 * instead it reschedules itself if the ttl has been refreshed in the meantime
+		 * (non-Javadoc)
+		 * @see at.alladin.rmbt.qos.testserver.util.TimerWheel.TimeoutTask#onTimeout(at.alladin.rmbt.qos.testserver.util.TimerWheel.Timeout)
+		 */
+		@Override
+		public void onTimeout(Timeout timeout) {
+			final long now = System.currentTimeMillis();
+			synchronized (this) {
+				final long ttl = ttlTimestamp.get();
+				if (now < ttl) {
+					timerWheel.scheduleAt(this, ttl);
+					return;
+				}
+				if (!candidateMap.isEmpty()) {
+					timerWheel.schedule(this, TcpMultiClientServer.TTL);
+					return;
+				}
+				closePort(this, "TTL of " + TcpMultiClientServer.TTL + "ms reached");
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "TcpPort [port=" + port + ", channels=" + channelList.size() + ", candidates=" + candidateMap.keySet()
+					+ ", ttlTimestamp=" + ttlTimestamp + "]";
+		}
+	}
+
+	/**
+	 * candidate ttl check
+	 * @author lb
+	 *
+	 */
+	final class CandidateTimeoutTask implements TimeoutTask {
+		final TcpPort tcpPort;
+		final InetAddress addr;
+
+		CandidateTimeoutTask(TcpPort tcpPort, InetAddress addr) {
+			this.tcpPort = tcpPort;
+			this.addr = addr;
+		}
+
+		@Override
+		public void onTimeout(Timeout timeout) {
+			final TestCandidate candidate = tcpPort.candidateMap.get(addr);
+			if (candidate != null) {
+				synchronized (candidate) {
+					final long now = System.currentTimeMillis();
+					if (candidate.getTtl() > now) {
+						timerWheel.scheduleAt(this, candidate.getTtl());
+					}
+					else if (tcpPort.candidateMap.remove(addr, candidate)) {
+						removedCandidateCounter.incrementAndGet();
+						TestServerConsole.log(TAG + " TCP Client TTL reached and removed: " + addr + " on port " + tcpPort.port, 0, TestServerServiceEnum.TCP_SERVICE);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * state of a single accepted connection
+	 * @author lb
+	 *
+	 */
+	final class Connection implements TimeoutTask {
+		final SocketChannel channel;
+		final TcpPort tcpPort;
+		final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_LINE_LENGTH);
+		ByteBuffer writeBuffer;
+		Timeout deadline;
+
+		Connection(SocketChannel channel, TcpPort tcpPort) {
+			this.channel = channel;
+			this.tcpPort = tcpPort;
+		}
+
+		@Override
+		public void onTimeout(Timeout timeout) {
+			if (channel.isOpen()) {
+				timeoutCounter.incrementAndGet();
+				TestServerConsole.log(TAG + " connection timeout (" + TcpClientHandler.TCP_HANDLER_TIMEOUT + "ms): " + channel, 2, TestServerServiceEnum.TCP_SERVICE);
+				closeConnection(this);
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	private final Selector selector;
+
+	/**
+	 *
+	 */
+	private final TimerWheel timerWheel = new TimerWheel(TIMER_TICK_MS, TIMER_WHEEL_SIZE);
+
+	/**
+	 * all opened ports
+	 */
+	private final ConcurrentHashMap<Integer, TcpPort> portMap = new ConcurrentHashMap<>();
+
+	/**
+	 * server channels waiting for the selector thread to register them
+	 */
+	private final ConcurrentLinkedQueue<Object[]> registerQueue = new ConcurrentLinkedQueue<>();
+
+	/**
+	 *
+	 */
+	private final Collection<InetAddress> inetAddrBindToSet;
+
+	/**
+	 *
+	 */
+	private final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+	/**
+	 *
+	 */
+	private final long startUp = System.currentTimeMillis();
+
+	private final AtomicLong acceptedCounter = new AtomicLong(0);
+	private final AtomicLong rejectedCounter = new AtomicLong(0);
+	private final AtomicLong echoCounter = new AtomicLong(0);
+	private final AtomicLong timeoutCounter = new AtomicLong(0);
+	private final AtomicLong removedCandidateCounter = new AtomicLong(0);
+
+	/**
+	 *
+	 * @param inetAddrBindToSet
+	 * @throws IOException
+	 */
+	public NioTcpMultiPortServer(Collection<InetAddress> inetAddrBindToSet) throws IOException {
+		this.selector = Selector.open();
+		this.inetAddrBindToSet = inetAddrBindToSet;
+	}
+
+	/**
+	 * opens the port (if not already open), refreshes its TTL and registers the candidate if ip check is enabled.<br>
+	 * When this method returns the port is bound and ready to accept the test connection.
+	 * @param port
+	 * @param candidateAddr
+	 * @throws IOException
+	 */
+	public void prepare(int port, InetAddress candidateAddr) throws IOException {
+		while (true) {
+			TcpPort tcpPort = portMap.get(port);
+			if (tcpPort == null) {
+				final TcpPort newPort = new TcpPort(port);
+				tcpPort = portMap.putIfAbsent(port, newPort);
+				if (tcpPort == null) {
+					tcpPort = newPort;
+				}
+			}
+
+			synchronized (tcpPort) {
+				if (tcpPort.isClosed) {
+					//port has been closed concurrently, try again with a new one
+					continue;
+				}
+
+				if (tcpPort.channelList.isEmpty()) {
+					openPort(tcpPort);
+				}
+
+				tcpPort.ttlTimestamp.set(System.currentTimeMillis() + TcpMultiClientServer.TTL);
+
+				if (TestServer.serverPreferences.isIpCheck()) {
+					registerCandidate(tcpPort, candidateAddr);
+				}
+			}
+
+			return;
+		}
+	}
+
+	/**
+	 * binds the port on all addresses (caller must hold the port lock)
+	 * @param tcpPort
+	 * @throws IOException
+	 */
+	private void openPort(TcpPort tcpPort) throws IOException {
+		try {
+			for (InetAddress addr : inetAddrBindToSet) {
+				final ServerSocketChannel ssc = ServerSocketChannel.open();
+				tcpPort.channelList.add(ssc);
+				ssc.socket().setReuseAddress(true);
+				ssc.bind(new InetSocketAddress(addr, tcpPort.port));
+				ssc.configureBlocking(false);
+				registerQueue.add(new Object[] {ssc, tcpPort});
+			}
+		}
+		catch (IOException e) {
+			TestServerConsole.errorReport("TCP " + tcpPort.port, "TCP Socket on port " + tcpPort.port, e, 0, TestServerServiceEnum.TCP_SERVICE);
+			closePort(tcpPort, "could not bind");
+			throw e;
+		}
+
+		timerWheel.schedule(tcpPort, TcpMultiClientServer.TTL);
+		selector.wakeup();
+
+		if (TestServerConsole.isLogEnabled(2, TestServerServiceEnum.TCP_SERVICE)) {
+			TestServerConsole.log(TAG + " port " + tcpPort.port + " has been (re)opened.", 2, TestServerServiceEnum.TCP_SERVICE);
+		}
+	}
+
+	/**
+	 * closes all channels of a port and removes it (caller must hold the port lock)
+	 * @param tcpPort
+	 * @param reason
+	 */
+	private void closePort(TcpPort tcpPort, String reason) {
+		tcpPort.isClosed = true;
+		portMap.remove(tcpPort.port, tcpPort);
+		for (ServerSocketChannel ssc : tcpPort.channelList) {
+			try {
+				ssc.close();
+			}
+			catch (IOException e) {
+				TestServerConsole.error(TAG + " could not close port " + tcpPort.port, e, 2, TestServerServiceEnum.TCP_SERVICE);
+			}
+		}
+		tcpPort.channelList.clear();
+		TestServerConsole.log(TAG + " closed port " + tcpPort.port + "; Reason: " + reason, 2, TestServerServiceEnum.TCP_SERVICE);
+	}
+
+	/**
+	 *
+	 * @param tcpPort
+	 * @param addr
+	 */
+	private void registerCandidate(TcpPort tcpPort, InetAddress addr) {
+		TestCandidate candidate = tcpPort.candidateMap.get(addr);
+		if (candidate == null) {
+			final TestCandidate newCandidate = new TestCandidate();
+			candidate = tcpPort.candidateMap.putIfAbsent(addr, newCandidate);
+			if (candidate == null) {
+				candidate = newCandidate;
+				timerWheel.schedule(new CandidateTimeoutTask(tcpPort, addr), TestCandidate.DEFAULT_TTL);
+			}
+		}
+
+		synchronized (candidate) {
+			candidate.increaseTestCounter(true);
+		}
+
+		if (TestServerConsole.isLogEnabled(1, TestServerServiceEnum.TCP_SERVICE)) {
+			TestServerConsole.log(TAG + " Registering candidate " + addr + " on port " + tcpPort.port + ": " + candidate, 1, TestServerServiceEnum.TCP_SERVICE);
+		}
+	}
+
+	/**
+	 * checks and decreases the test counter of a candidate
+	 * @param tcpPort
+	 * @param addr
+	 * @return false if the address is not a valid candidate
+	 */
+	private boolean consumeCandidate(TcpPort tcpPort, InetAddress addr) {
+		final TestCandidate candidate = tcpPort.candidateMap.get(addr);
+		if (candidate == null) {
+			return false;
+		}
+
+		synchronized (candidate) {
+			if (candidate.decreaseTestCounter(true) <= 0) {
+				tcpPort.candidateMap.remove(addr, candidate);
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		isRunning.set(true);
+		TestServerConsole.log(TAG + " started!", 0, TestServerServiceEnum.TCP_SERVICE);
+
+		try {
+			while (isRunning.get()) {
+				selector.select(TIMER_TICK_MS);
+
+				registerPendingChannels();
+
+				final Set<SelectionKey> readyKeys = selector.selectedKeys();
+				final Iterator<SelectionKey> iterator = readyKeys.iterator();
+				while (iterator.hasNext()) {
+					final SelectionKey key = iterator.next();
+					iterator.remove();
+
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+
+						if (key.isAcceptable()) {
+							accept(key);
+						}
+						else if (key.isReadable()) {
+							read(key);
+						}
+						else if (key.isWritable()) {
+							write(key);
+						}
+					}
+					catch (IOException e) {
+						TestServerConsole.error(TAG, e, 2, TestServerServiceEnum.TCP_SERVICE);
+						if (key.attachment() instanceof Connection) {
+							closeConnection((Connection) key.attachment());
+						}
+					}
+				}
+
+				timerWheel.advance(System.currentTimeMillis());
+			}
+		}
+		catch (Exception e) {
+			TestServerConsole.error(TAG, e, 0, TestServerServiceEnum.TCP_SERVICE);
+		}
+		finally {
+			isRunning.set(false);
+			for (TcpPort tcpPort : portMap.values()) {
+				synchronized (tcpPort) {
+					closePort(tcpPort, "server shutdown");
+				}
+			}
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					closeConnection((Connection) key.attachment());
+				}
+			}
+			try {
+				selector.close();
+			}
+			catch (IOException e) {
+				TestServerConsole.error(TAG, e, 2, TestServerServiceEnum.TCP_SERVICE);
+			}
+		}
+
+		TestServerConsole.log(TAG + " closed!", 0, TestServerServiceEnum.TCP_SERVICE);
+	}
+
+	/**
+	 * registers all newly opened server channels with the selector
+	 */
+	private void registerPendingChannels() {
+		Object[] entry;
+		while ((entry = registerQueue.poll()) != null) {
+			final ServerSocketChannel ssc = (ServerSocketChannel) entry[0];
+			if (ssc.isOpen()) {
+				try {
+					ssc.register(selector, SelectionKey.OP_ACCEPT, entry[1]);
+				}
+				catch (IOException e) {
+					TestServerConsole.error(TAG + " could not register channel", e, 1, TestServerServiceEnum.TCP_SERVICE);
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @throws IOException
+	 */
+	private void accept(SelectionKey key) throws IOException {
+		final TcpPort tcpPort = (TcpPort) key.attachment();
+		final SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+		if (channel == null) {
+			return;
+		}
+
+		acceptedCounter.incrementAndGet();
+		final InetAddress remoteAddr = channel.socket().getInetAddress();
+
+		if (TestServer.serverPreferences.isIpCheck() && !consumeCandidate(tcpPort, remoteAddr)) {
+			rejectedCounter.incrementAndGet();
+			channel.close();
+			TestServerConsole.log(remoteAddr + ": not a valid candidate for TCP/NTP",
+					TcpMultiClientServer.VERBOSE_LEVEL_REQUEST_RESPONSE, TestServerServiceEnum.TCP_SERVICE);
+			return;
+		}
+
+		tcpPort.ttlTimestamp.set(System.currentTimeMillis() + TcpMultiClientServer.TTL);
+
+		channel.configureBlocking(false);
+		final Connection connection = new Connection(channel, tcpPort);
+		channel.register(selector, SelectionKey.OP_READ, connection);
+		connection.deadline = timerWheel.schedule(connection, TcpClientHandler.TCP_HANDLER_TIMEOUT);
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @throws IOException
+	 */
+	private void read(SelectionKey key) throws IOException {
+		final Connection connection = (Connection) key.attachment();
+		final ByteBuffer buffer = connection.readBuffer;
+		final int start = buffer.position();
+		final int read = connection.channel.read(buffer);
+
+		//look for the end of the line (same line terminators as BufferedReader.readLine())
+		int lineEnd = -1;
+		for (int i = start; i < buffer.position(); i++) {
+			final byte b = buffer.get(i);
+			if (b == '\n' || b == '\r') {
+				lineEnd = i;
+				break;
+			}
+		}
+
+		if (lineEnd < 0) {
+			if (read >= 0 && buffer.hasRemaining()) {
+				//wait for more data
+				return;
+			}
+			if (buffer.position() == 0) {
+				//connection closed without request
+				closeConnection(connection);
+				return;
+			}
+			lineEnd = buffer.position();
+		}
+
+		//echo the line with a single newline:
+		final byte[] response = new byte[lineEnd + 1];
+		buffer.flip();
+		buffer.get(response, 0, lineEnd);
+		response[lineEnd] = '\n';
+
+		if (TestServerConsole.isLogEnabled(TcpMultiClientServer.VERBOSE_LEVEL_REQUEST_RESPONSE, TestServerServiceEnum.TCP_SERVICE)) {
+			TestServerConsole.log("TCP/NTP Server (NIO) (:" + connection.tcpPort.port + "), connection from: "
+					+ connection.channel.socket().getInetAddress() + ", request/response: " + new String(response, 0, lineEnd),
+					TcpMultiClientServer.VERBOSE_LEVEL_REQUEST_RESPONSE, TestServerServiceEnum.TCP_SERVICE);
+		}
+
+		connection.writeBuffer = ByteBuffer.wrap(response);
+		key.interestOps(SelectionKey.OP_WRITE);
+		write(key);
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @throws IOException
+	 */
+	private void write(SelectionKey key) throws IOException {
+		final Connection connection = (Connection) key.attachment();
+		connection.channel.write(connection.writeBuffer);
+		if (!connection.writeBuffer.hasRemaining()) {
+			echoCounter.incrementAndGet();
+			closeConnection(connection);
+		}
+	}
+
+	/**
+	 *
+	 * @param connection
+	 */
+	private void closeConnection(Connection connection) {
+		if (connection.deadline != null) {
+			connection.deadline.cancel();
+		}
+		try {
+			connection.channel.close();
+		}
+		catch (IOException e) {
+			TestServerConsole.error(TAG, e, 2, TestServerServiceEnum.TCP_SERVICE);
+		}
+	}
+
+	/**
+	 * stops the selector thread, all ports and connections will be closed
+	 */
+	public void quit() {
+		isRunning.set(false);
+		selector.wakeup();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public boolean getIsRunning() {
+		return isRunning.get();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public ConcurrentHashMap<Integer, TcpPort> getPortMap() {
+		return portMap;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see at.alladin.rmbt.qos.testserver.entity.Observable#isHealthy()
+	 */
+	@Override
+	public boolean isHealthy() {
+		return isRunning.get() && selector.isOpen();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see at.alladin.rmbt.qos.testserver.entity.Observable#getStatusMessage()
+	 */
+	@Override
+	public String getStatusMessage() {
+		return "Server start up: " + DateFormat.getDateTimeInstance().format(new Date(startUp));
+	}
+
+	@Override
+	public String toString() {
+		return "NioTcpMultiPortServer [isRunning=" + isRunning + ", openPorts=" + portMap.size()
+				+ ", accepted=" + acceptedCounter + ", rejected=" + rejectedCounter + ", echoed=" + echoCounter
+				+ ", timeouts=" + timeoutCounter + ", removedCandidates=" + removedCandidateCounter + "]";
+	}
+}
@@ -59,7 +59,9 @@ public class TcpClientHandler implements Runnable {
 	
 	@Override
 	public void run() {
-		TestServerConsole.log("New TCP ClientHander Thread started. Client: " + clientSocket, 1, TestServerServiceEnum.TCP_SERVICE);
+		if (TestServerConsole.isLogEnabled(1, TestServerServiceEnum.TCP_SERVICE)) {
+			TestServerConsole.log("New TCP ClientHander Thread started. Client: " + clientSocket, 1, TestServerServiceEnum.TCP_SERVICE);
+		}
 		
 		try (BufferedReader br = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
 				FilterOutputStream fos = new FilterOutputStream(clientSocket.getOutputStream());) {
@@ -96,14 +98,19 @@ public class TcpClientHandler implements Runnable {
 				
 				String clientRequest = br.readLine();
 				
-				TestServerConsole.log("TCP/NTP Server (" + tcpServer.get().getServerSocket() + ") (:" + tcpServer.get().getPort() + "), connection from: " + clientSocket.getInetAddress().toString() + ", request: " + clientRequest, 
-						TcpMultiClientServer.VERBOSE_LEVEL_REQUEST_RESPONSE, TestServerServiceEnum.TCP_SERVICE);
+				final boolean isLogEnabled = TestServerConsole.isLogEnabled(TcpMultiClientServer.VERBOSE_LEVEL_REQUEST_RESPONSE, TestServerServiceEnum.TCP_SERVICE);
+				if (isLogEnabled) {
+					TestServerConsole.log("TCP/NTP Server (" + tcpServer.get().getServerSocket() + ") (:" + tcpServer.get().getPort() + "), connection from: " + clientSocket.getInetAddress().toString() + ", request: " + clientRequest, 
+							TcpMultiClientServer.VERBOSE_LEVEL_REQUEST_RESPONSE, TestServerServiceEnum.TCP_SERVICE);
+				}
 	
 				//send echo
 				byte[] response = ClientHandler.getBytesWithNewline(clientRequest);
 				
-				TestServerConsole.log("TCP/NTP Server (" + tcpServer.get().getServerSocket() + ") (:" + tcpServer.get().getPort() + "), response: " + new String(response) + " to: " + clientSocket.getInetAddress().toString(), 
-						TcpMultiClientServer.VERBOSE_LEVEL_REQUEST_RESPONSE, TestServerServiceEnum.TCP_SERVICE);
+				if (isLogEnabled) {
+					TestServerConsole.log("TCP/NTP Server (" + tcpServer.get().getServerSocket() + ") (:" + tcpServer.get().getPort() + "), response: " + new String(response) + " to: " + clientSocket.getInetAddress().toString(), 
+							TcpMultiClientServer.VERBOSE_LEVEL_REQUEST_RESPONSE, TestServerServiceEnum.TCP_SERVICE);
+				}
 	
 				fos.write(response);				
 			}
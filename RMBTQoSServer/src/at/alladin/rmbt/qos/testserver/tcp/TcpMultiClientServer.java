@@ -20,11 +20,15 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import at.alladin.rmbt.qos.testserver.ServerPreferences.TestServerServiceEnum;
 import at.alladin.rmbt.qos.testserver.TestServer;
 import at.alladin.rmbt.qos.testserver.servers.AbstractTcpServer;
 import at.alladin.rmbt.qos.testserver.util.TestServerConsole;
+import at.alladin.rmbt.qos.testserver.util.TimerWheel.Timeout;
+import at.alladin.rmbt.qos.testserver.util.TimerWheel.TimeoutTask;
 
 /**
  * 
@@ -72,6 +76,45 @@ public class TcpMultiClientServer extends AbstractTcpServer {
 	 * start up timestamp
 	 */
 	private final long startUp = System.currentTimeMillis();
+	
+	/**
+	 * true if a ttl check of this server is pending in the expiry scheduler
+	 */
+	private final AtomicBoolean isExpiryScheduled = new AtomicBoolean(false);
+	
+	/**
+	 * closes and unregisters this server once the ttl has been reached (only if ip check is disabled,
+	 * otherwise the server is closed as soon as there are no candidates left)
+	 */
+	private final TimeoutTask expiryTask = new TimeoutTask() {
+		
+		@Override
+		public void onTimeout(Timeout timeout) {
+			synchronized (TestServer.tcpServerMap) {
+				final long ttl = ttlTimestamp.get();
+				if (System.currentTimeMillis() < ttl) {
+					//ttl has been refreshed in the meantime
+					TestServer.expiryScheduler.scheduleAt(this, ttl);
+					return;
+				}
+				
+				isExpiryScheduled.set(false);
+				
+				try {
+					if (close()) {
+						final List<TcpMultiClientServer> tcpServerList = TestServer.tcpServerMap.get(port);
+						if (tcpServerList != null) {
+							tcpServerList.remove(TcpMultiClientServer.this);
+						}
+						TestServerConsole.log(getName() + " Removed object: " + getName(), 1, TestServerServiceEnum.TCP_SERVICE);
+					}
+				}
+				catch (IOException e) {
+					TestServerConsole.error(getName(), e, 1, TestServerServiceEnum.TCP_SERVICE);
+				}
+			}
+		}
+	};
 			
 	/**
 	 * 
@@ -105,6 +148,10 @@ public class TcpMultiClientServer extends AbstractTcpServer {
 		
 		//refresh the TTL
 		refreshTtl(TTL);
+		
+		if (!TestServer.serverPreferences.isIpCheck() && isExpiryScheduled.compareAndSet(false, true)) {
+			TestServer.expiryScheduler.scheduleAt(expiryTask, ttlTimestamp.get());
+		}
 
 		if (serverSocket == null) {
 			serverSocket = TestServer.createServerSocket(getPort(), false, getInetAddr());
@@ -149,8 +149,10 @@ public class NioUdpMultiClientServer extends AbstractUdpServer<DatagramChannel>
 										TestServerConsole.error(getName(), e, 1, TestServerServiceEnum.UDP_SERVICE);
 									}
 									
-									TestServerConsole.log("received UDP from: " + dp.getAddress().toString() + ":" + dp.getPort() 
-											+ " (on local port :" + ((InetSocketAddress) channel.getLocalAddress()).getPort() + ") , #" + packetNumber + " TimeStamp: " + timeStamp + ", containing: " + clientUuid, 1, TestServerServiceEnum.UDP_SERVICE);
+									if (TestServerConsole.isLogEnabled(1, TestServerServiceEnum.UDP_SERVICE)) {
+										TestServerConsole.log("received UDP from: " + dp.getAddress().toString() + ":" + dp.getPort() 
+												+ " (on local port :" + ((InetSocketAddress) channel.getLocalAddress()).getPort() + ") , #" + packetNumber + " TimeStamp: " + timeStamp + ", containing: " + clientUuid, 1, TestServerServiceEnum.UDP_SERVICE);
+									}
 									
 								}
 								else {
@@ -159,34 +161,30 @@ public class NioUdpMultiClientServer extends AbstractUdpServer<DatagramChannel>
 								}
 								
 								if (clientUuid != null) {
-									synchronized (incomingMap) {
-										final UdpTestCandidate clientData;
-										final String uuid = clientUuid;
-										if (!incomingMap.containsKey(clientUuid)) {
-											clientData = new UdpTestCandidate();
-											clientData.setNumPackets(Integer.MAX_VALUE);
-											clientData.setRemotePort(dp.getPort());
-											incomingMap.put(clientUuid, clientData);
-										}
-										else {
-											clientData = (UdpTestCandidate) incomingMap.get(clientUuid);
-											if (clientData.isError()) {
-												continue;
+									final String uuid = clientUuid;
+									UdpTestCandidate clientData = incomingMap.get(clientUuid);
+									if (clientData == null) {
+										final UdpTestCandidate newClientData = new UdpTestCandidate();
+										newClientData.setNumPackets(Integer.MAX_VALUE);
+										newClientData.setRemotePort(dp.getPort());
+										clientData = putCandidateIfAbsent(clientUuid, newClientData);
+									}
+									else if (clientData.isError()) {
+										continue;
+									}
+									
+									//if a callback has been provided by the clienthandler run it in the background:
+									final UdpPacketReceivedCallback callback = clientData.getOnUdpPacketReceivedCallback();
+									if (callback != null) {
+										Runnable onReceiveRunnable = new Runnable() {
+											
+											@Override
+											public void run() {
+												callback.onReceive(dp, uuid, NioUdpMultiClientServer.this);
 											}
-										}
+										};
 										
-										//if a callback has been provided by the clienthandler run it in the background:
-										if (clientData.getOnUdpPacketReceivedCallback() != null) {
-											Runnable onReceiveRunnable = new Runnable() {
-												
-												@Override
-												public void run() {
-													clientData.getOnUdpPacketReceivedCallback().onReceive(dp, uuid, NioUdpMultiClientServer.this);									
-												}
-											};
-											
-											TestServer.getCommonThreadPool().submit(onReceiveRunnable);
-										}						
+										TestServer.getCommonThreadPool().submit(onReceiveRunnable);
 									}
 								}
 							}
@@ -296,8 +294,10 @@ public class NioUdpMultiClientServer extends AbstractUdpServer<DatagramChannel>
 		writeBuffer.clear();
 		writeBuffer.put(dp.getData());
 		writeBuffer.flip();
-		TestServerConsole.log(getName() + " sending datagram: length = " 
+		if (TestServerConsole.isLogEnabled(2, TestServerServiceEnum.UDP_SERVICE)) {
+			TestServerConsole.log(getName() + " sending datagram: length = " 
 					+ writeBuffer.array().length + ", to: " + dp.getSocketAddress(), 2, TestServerServiceEnum.UDP_SERVICE);
+		}
 		channel.send(writeBuffer, dp.getSocketAddress());
 	}
 
@@ -144,34 +144,30 @@ public class UdpMultiClientServer extends AbstractUdpServer<DatagramSocket> impl
 				}
 				
 				if (clientUuid != null) {
-					synchronized (incomingMap) {
-						final UdpTestCandidate clientData;
-						final String uuid = clientUuid;
-						if (!incomingMap.containsKey(clientUuid)) {
-							clientData = new UdpTestCandidate();
-							clientData.setNumPackets(Integer.MAX_VALUE);
-							clientData.setRemotePort(dp.getPort());
-							incomingMap.put(clientUuid, clientData);
-						}
-						else {
-							clientData = (UdpTestCandidate) incomingMap.get(clientUuid);
-							if (clientData.isError()) {
-								continue;
+					final String uuid = clientUuid;
+					UdpTestCandidate clientData = incomingMap.get(clientUuid);
+					if (clientData == null) {
+						final UdpTestCandidate newClientData = new UdpTestCandidate();
+						newClientData.setNumPackets(Integer.MAX_VALUE);
+						newClientData.setRemotePort(dp.getPort());
+						clientData = putCandidateIfAbsent(clientUuid, newClientData);
+					}
+					else if (clientData.isError()) {
+						continue;
+					}
+					
+					//if a callback has been provided by the clienthandler run it in the background:
+					final UdpPacketReceivedCallback callback = clientData.getOnUdpPacketReceivedCallback();
+					if (callback != null) {
+						Runnable onReceiveRunnable = new Runnable() {
+							
+							@Override
+							public void run() {
+								callback.onReceive(dp, uuid, UdpMultiClientServer.this);
 							}
-						}
+						};
 						
-						//if a callback has been provided by the clienthandler run it in the background:
-						if (clientData.getOnUdpPacketReceivedCallback() != null) {
-							Runnable onReceiveRunnable = new Runnable() {
-								
-								@Override
-								public void run() {
-									clientData.getOnUdpPacketReceivedCallback().onReceive(dp, uuid, UdpMultiClientServer.this);									
-								}
-							};
-							
-							TestServer.getCommonThreadPool().submit(onReceiveRunnable);
-						}						
+						TestServer.getCommonThreadPool().submit(onReceiveRunnable);
 					}
 				}
 			}		
@@ -15,9 +15,7 @@
  ******************************************************************************/
 package at.alladin.rmbt.qos.testserver.udp;
 
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
 
 import at.alladin.rmbt.qos.testserver.ServerPreferences.TestServerServiceEnum;
 import at.alladin.rmbt.qos.testserver.servers.AbstractUdpServer;
@@ -25,7 +23,7 @@ import at.alladin.rmbt.qos.testserver.TestServer;
 import at.alladin.rmbt.qos.testserver.service.IntervalJob;
 
 /**
- * 
+ * checks the health of all udp servers; candidate ttls are handled by the {@link at.alladin.rmbt.qos.testserver.util.ExpiryScheduler}
  * @author lb
  *
  */
@@ -48,11 +46,6 @@ public class UdpWatcherRunnable extends IntervalJob<String> {
 		super(TestServerServiceEnum.UDP_SERVICE);
 	}
 
-	/**
-	 * 
-	 */
-	protected long removeCounter = 0;
-	
 	/*
 	 * (non-Javadoc)
 	 * @see at.alladin.rmbt.qos.testserver.service.AbstractJob#execute()
@@ -62,36 +55,20 @@ public class UdpWatcherRunnable extends IntervalJob<String> {
 		int healthy = 0;
 		int unhealthy = 0;
 		if (TestServer.udpServerMap != null) {
-			synchronized (TestServer.udpServerMap) {
-				Iterator<List<AbstractUdpServer<?>>> listIterator = TestServer.udpServerMap.values().iterator();
-				while (listIterator.hasNext()) {
-					Iterator<AbstractUdpServer<?>> iterator = listIterator.next().iterator();
-					while (iterator.hasNext()) {
-						AbstractUdpServer<?> udpServer = iterator.next();
-						Iterator<?> incomingMapIterator = udpServer.getIncomingMap().entrySet().iterator();
-						if (!udpServer.isHealthy()) {
-							log("UDP Server " +  udpServer.getAddress() + ":" + udpServer.getLocalPort() + " found HEALTH-ERROR", 0);
-							log("UDP Server " +  udpServer.getAddress() + ":" + udpServer.getLocalPort() + " status: " + udpServer.getStatusMessage(), 0);
-							unhealthy++;
-						}
-						else {
-							healthy++;
-						}
-						
-						while (incomingMapIterator.hasNext()) {
-							@SuppressWarnings("unchecked")
-							Entry<String, UdpTestCandidate> entry = (Entry<String, UdpTestCandidate>) incomingMapIterator.next();
-							if (entry.getValue().getTtl() < System.currentTimeMillis()) {
-								log("UDP Client (ServerPort: " + udpServer.getLocalPort() + ") TTL reached and removed: " + entry.getValue(), 0);
-								incomingMapIterator.remove();
-								removeCounter++;
-							}
-						}
+			for (List<AbstractUdpServer<?>> udpServerList : TestServer.udpServerMap.values()) {
+				for (AbstractUdpServer<?> udpServer : udpServerList) {
+					if (!udpServer.isHealthy()) {
+						log("UDP Server " +  udpServer.getAddress() + ":" + udpServer.getLocalPort() + " found HEALTH-ERROR", 0);
+						log("UDP Server " +  udpServer.getAddress() + ":" + udpServer.getLocalPort() + " status: " + udpServer.getStatusMessage(), 0);
+						unhealthy++;
+					}
+					else {
+						healthy++;
 					}
 				}
 			}
 		}
-		return "healthy servers: " + healthy + ", unhealthy servers: " + unhealthy + "; removed dead candidates: " + removeCounter;
+		return "healthy servers: " + healthy + ", unhealthy servers: " + unhealthy + "; " + TestServer.expiryScheduler.toString();
 	}
 
 	/*
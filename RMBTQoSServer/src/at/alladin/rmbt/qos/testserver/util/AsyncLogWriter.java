@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Decouples the test server threads from the log4j appenders:<br>
+ * log entries are put into a {@link LogRingBuffer} and a single writer thread drains them in batches.
+ * Appenders registered via {@link #addBatchedAppender(BatchedDailyRollingFileAppender)} are flushed once per batch.
+ * If the buffer is full the entry is dropped and counted, test traffic is never blocked by logging.
+ * @author lb
+ *
+ */
+public class AsyncLogWriter implements Runnable {
+
+	/**
+	 * default buffer size (number of log entries)
+	 */
+	public final static int DEFAULT_BUFFER_SIZE = 8192;
+
+	/**
+	 * max number of entries written before the appenders are flushed
+	 */
+	public final static int MAX_BATCH_SIZE = 256;
+
+	/**
+	 * how long the writer sleeps if the buffer is empty
+	 */
+	public final static long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	/**
+	 * fully qualified name passed to log4j (used for location info)
+	 */
+	private final static String FQCN = LoggingService.class.getName();
+
+	/**
+	 * a single log entry, the message is completed by the writer thread
+	 * @author lb
+	 *
+	 */
+	final static class LogEntry {
+		final long timestamp;
+		final Logger logger;
+		final Level level;
+		final String message;
+		final Throwable t;
+		final boolean prefixThrowable;
+
+		LogEntry(Logger logger, Level level, String message, Throwable t, boolean prefixThrowable) {
+			this.timestamp = System.currentTimeMillis();
+			this.logger = logger;
+			this.level = level;
+			this.message = message;
+			this.t = t;
+			this.prefixThrowable = prefixThrowable;
+		}
+
+		String getFormattedMessage() {
+			if (!prefixThrowable) {
+				return message;
+			}
+			if (t != null) {
+				return "[" + t.getClass().getCanonicalName() + ": " + t.getLocalizedMessage() + "] " + message;
+			}
+			return "[unknown Exception] " + message;
+		}
+	}
+
+	/**
+	 *
+	 */
+	private final LogRingBuffer<LogEntry> ringBuffer;
+
+	/**
+	 *
+	 */
+	private final List<BatchedDailyRollingFileAppender> batchedAppenderList = new CopyOnWriteArrayList<>();
+
+	/**
+	 *
+	 */
+	private final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+	/**
+	 *
+	 */
+	private final AtomicLong writtenCounter = new AtomicLong(0);
+
+	/**
+	 *
+	 */
+	private final AtomicLong droppedCounter = new AtomicLong(0);
+
+	/**
+	 *
+	 */
+	private final AtomicLong batchCounter = new AtomicLong(0);
+
+	/**
+	 *
+	 */
+	private volatile Thread writerThread;
+
+	/**
+	 *
+	 * @param bufferSize
+	 */
+	public AsyncLogWriter(int bufferSize) {
+		this.ringBuffer = new LogRingBuffer<>(bufferSize);
+	}
+
+	/**
+	 * starts the writer thread
+	 */
+	public void start() {
+		if (!isRunning.getAndSet(true)) {
+			final Thread t = new Thread(this, "QoS-AsyncLogWriter");
+			t.setDaemon(true);
+			writerThread = t;
+			t.start();
+		}
+	}
+
+	/**
+	 * stops the writer thread after all pending entries have been written
+	 * @param timeoutMs
+	 */
+	public void stop(long timeoutMs) {
+		if (isRunning.getAndSet(false)) {
+			final Thread t = writerThread;
+			if (t != null) {
+				LockSupport.unpark(t);
+				try {
+					t.join(timeoutMs);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param appender
+	 */
+	public void addBatchedAppender(BatchedDailyRollingFileAppender appender) {
+		appender.setImmediateFlush(false);
+		batchedAppenderList.add(appender);
+	}
+
+	/**
+	 * enqueues a log entry; the level check must already have been done by the caller
+	 * @param logger
+	 * @param level
+	 * @param message
+	 * @param t
+	 * @param prefixThrowable
+	 * @return false if the entry has been dropped
+	 */
+	public boolean log(Logger logger, Level level, String message, Throwable t, boolean prefixThrowable) {
+		final LogEntry entry = new LogEntry(logger, level, message, t, prefixThrowable);
+		if (!isRunning.get()) {
+			write(entry);
+			flushAppenders();
+			return true;
+		}
+
+		if (!ringBuffer.offer(entry)) {
+			droppedCounter.incrementAndGet();
+			return false;
+		}
+
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		long lastReportedDrops = 0;
+		while (isRunning.get() || !ringBuffer.isEmpty()) {
+			int written = 0;
+			LogEntry entry;
+			while (written < MAX_BATCH_SIZE && (entry = ringBuffer.poll()) != null) {
+				write(entry);
+				written++;
+			}
+
+			if (written > 0) {
+				writtenCounter.addAndGet(written);
+				batchCounter.incrementAndGet();
+			}
+
+			final long drops = droppedCounter.get();
+			if (drops != lastReportedDrops) {
+				write(new LogEntry(Logger.getRootLogger(), Level.WARN,
+						"AsyncLogWriter: buffer overflow, " + (drops - lastReportedDrops) + " log entries dropped (total: " + drops + ")", null, false));
+				lastReportedDrops = drops;
+				written++;
+			}
+
+			if (written > 0) {
+				flushAppenders();
+			}
+			else {
+				LockSupport.parkNanos(this, IDLE_PARK_NS);
+			}
+		}
+
+		flushAppenders();
+	}
+
+	/**
+	 *
+	 * @param entry
+	 */
+	private void write(LogEntry entry) {
+		try {
+			entry.logger.callAppenders(new LoggingEvent(FQCN, entry.logger, entry.timestamp, entry.level, entry.getFormattedMessage(), entry.t));
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void flushAppenders() {
+		for (BatchedDailyRollingFileAppender appender : batchedAppenderList) {
+			appender.flush();
+		}
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public long getWrittenCount() {
+		return writtenCounter.get();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return droppedCounter.get();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public long getBatchCount() {
+		return batchCounter.get();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public int getPendingCount() {
+		return ringBuffer.size();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public int getCapacity() {
+		return ringBuffer.getCapacity();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "AsyncLogWriter [running=" + isRunning.get() + ", capacity=" + getCapacity()
+				+ ", pending=" + getPendingCount() + ", written=" + getWrittenCount()
+				+ ", dropped=" + getDroppedCount() + ", batches=" + getBatchCount() + "]";
+	}
+}
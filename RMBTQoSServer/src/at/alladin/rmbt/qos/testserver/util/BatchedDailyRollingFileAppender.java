@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.util;
+
+import java.io.IOException;
+
+import org.apache.log4j.DailyRollingFileAppender;
+import org.apache.log4j.Layout;
+
+/**
+ * {@link DailyRollingFileAppender} that can be flushed explicitly.<br>
+ * Used together with the {@link AsyncLogWriter}: immediate flush is disabled and the writer thread flushes
+ * once per batch instead of once per log entry.
+ * @author lb
+ *
+ */
+public class BatchedDailyRollingFileAppender extends DailyRollingFileAppender {
+
+	/**
+	 *
+	 * @param layout
+	 * @param filename
+	 * @param datePattern
+	 * @throws IOException
+	 */
+	public BatchedDailyRollingFileAppender(Layout layout, String filename, String datePattern) throws IOException {
+		super(layout, filename, datePattern);
+	}
+
+	/**
+	 * flushes the underlying writer
+	 */
+	public synchronized void flush() {
+		if (qw != null) {
+			qw.flush();
+		}
+	}
+}
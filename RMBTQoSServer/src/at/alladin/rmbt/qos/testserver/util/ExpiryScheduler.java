@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.util;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import at.alladin.rmbt.qos.testserver.ServerPreferences.TestServerServiceEnum;
+import at.alladin.rmbt.qos.testserver.entity.TestCandidate;
+import at.alladin.rmbt.qos.testserver.util.TimerWheel.Timeout;
+import at.alladin.rmbt.qos.testserver.util.TimerWheel.TimeoutTask;
+
+/**
+ * shared expiry service for test candidates and test servers.<br>
+ * Owns a {@link TimerWheel} that is advanced by a single daemon thread; expired tasks run in that thread and must not block.
+ * Candidate expiry only touches the concurrent candidate map of the affected server, so the packet and accept paths are
+ * never blocked by a scan over all servers.
+ * @author lb
+ *
+ */
+public class ExpiryScheduler implements Runnable {
+
+	/**
+	 * resolution of the wheel
+	 */
+	public final static long TICK_MS = 100;
+
+	/**
+	 * buckets per wheel level
+	 */
+	public final static int WHEEL_SIZE = 256;
+
+	/**
+	 *
+	 */
+	private final TimerWheel timerWheel = new TimerWheel(TICK_MS, WHEEL_SIZE);
+
+	/**
+	 *
+	 */
+	private final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+	/**
+	 *
+	 */
+	private final AtomicLong expiredCandidateCounter = new AtomicLong(0);
+
+	/**
+	 *
+	 */
+	private final AtomicLong expiredCounter = new AtomicLong(0);
+
+	/**
+	 *
+	 */
+	private volatile Thread schedulerThread;
+
+	/**
+	 * expires a test candidate once its ttl has been reached. If the ttl has been reset in the meantime the task reschedules itself,
+	 * so resetting a ttl never has to touch the wheel.
+	 * @author lb
+	 *
+	 * @param <K>
+	 */
+	public final class CandidateExpiryTask<K> implements TimeoutTask {
+		final ConcurrentMap<K, ? extends TestCandidate> candidateMap;
+		final K key;
+		final TestCandidate candidate;
+		final String name;
+		final TestServerServiceEnum service;
+
+		CandidateExpiryTask(ConcurrentMap<K, ? extends TestCandidate> candidateMap, K key, TestCandidate candidate, String name, TestServerServiceEnum service) {
+			this.candidateMap = candidateMap;
+			this.key = key;
+			this.candidate = candidate;
+			this.name = name;
+			this.service = service;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see at.alladin.rmbt.qos.testserver.util.TimerWheel.TimeoutTask#onTimeout(at.alladin.rmbt.qos.testserver.util.TimerWheel.Timeout)
+		 */
+		@Override
+		public void onTimeout(Timeout timeout) {
+			if (candidateMap.get(key) != candidate) {
+				//candidate has already been removed or replaced
+				return;
+			}
+
+			final long ttl = candidate.getTtl();
+			if (ttl > System.currentTimeMillis()) {
+				timerWheel.scheduleAt(this, ttl);
+			}
+			else if (candidateMap.remove(key, candidate)) {
+				expiredCandidateCounter.incrementAndGet();
+				TestServerConsole.log(name + " TTL reached and removed: " + key + " -> " + candidate, 0, service);
+			}
+		}
+	}
+
+	/**
+	 * starts the scheduler thread
+	 */
+	public void start() {
+		if (!isRunning.getAndSet(true)) {
+			final Thread t = new Thread(this, "QoS-ExpiryScheduler");
+			t.setDaemon(true);
+			schedulerThread = t;
+			t.start();
+		}
+	}
+
+	/**
+	 * stops the scheduler thread, pending timeouts will not be executed
+	 */
+	public void stop() {
+		if (isRunning.getAndSet(false)) {
+			final Thread t = schedulerThread;
+			if (t != null) {
+				LockSupport.unpark(t);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		final long tickNs = TimeUnit.MILLISECONDS.toNanos(TICK_MS);
+		while (isRunning.get()) {
+			try {
+				expiredCounter.addAndGet(timerWheel.advance(System.currentTimeMillis()));
+			}
+			catch (Exception e) {
+				TestServerConsole.error("ExpiryScheduler", e, 0, TestServerServiceEnum.TEST_SERVER);
+			}
+			LockSupport.parkNanos(this, tickNs);
+		}
+	}
+
+	/**
+	 * schedules a task (thread safe)
+	 * @param task
+	 * @param delayMs
+	 * @return
+	 */
+	public Timeout schedule(TimeoutTask task, long delayMs) {
+		return timerWheel.schedule(task, delayMs);
+	}
+
+	/**
+	 * schedules a task for an absolute timestamp (thread safe)
+	 * @param task
+	 * @param deadline
+	 * @return
+	 */
+	public Timeout scheduleAt(TimeoutTask task, long deadline) {
+		return timerWheel.scheduleAt(task, deadline);
+	}
+
+	/**
+	 * removes the candidate from the map once its ttl has been reached.<br>
+	 * The first check is done after <code>minTtl</code> ms at the earliest, which protects candidates that have no ttl set yet.
+	 * @param candidateMap
+	 * @param key
+	 * @param candidate
+	 * @param minTtl
+	 * @param name
+	 * @param service
+	 * @return
+	 */
+	public <K> Timeout scheduleCandidateExpiry(ConcurrentMap<K, ? extends TestCandidate> candidateMap, K key, TestCandidate candidate,
+			long minTtl, String name, TestServerServiceEnum service) {
+		final long deadline = Math.max(candidate.getTtl(), System.currentTimeMillis() + minTtl);
+		return timerWheel.scheduleAt(new CandidateExpiryTask<K>(candidateMap, key, candidate, name, service), deadline);
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public long getExpiredCandidateCount() {
+		return expiredCandidateCounter.get();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public long getExpiredCount() {
+		return expiredCounter.get();
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public int getScheduledCount() {
+		return timerWheel.getScheduledCount() + timerWheel.getPendingCount();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ExpiryScheduler [running=" + isRunning.get() + ", scheduled=" + getScheduledCount()
+				+ ", expired=" + getExpiredCount() + ", expiredCandidates=" + getExpiredCandidateCount() + "]";
+	}
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * bounded lock-free ring buffer with many producers and a single consumer.<br>
+ * each slot carries a sequence number: producers claim a slot with a single CAS on the tail counter,
+ * the consumer only reads slots whose sequence shows that they have been published.
+ * if the buffer is full {@link #offer(Object)} returns false immediately and never blocks the caller.
+ * @author lb
+ *
+ * @param <E>
+ */
+public class LogRingBuffer<E> {
+
+	/**
+	 *
+	 */
+	private final int capacity;
+
+	/**
+	 *
+	 */
+	private final int mask;
+
+	/**
+	 *
+	 */
+	private final AtomicReferenceArray<E> buffer;
+
+	/**
+	 * slot sequences (see class description)
+	 */
+	private final AtomicLongArray sequences;
+
+	/**
+	 * next position to be claimed by a producer
+	 */
+	private final AtomicLong tail = new AtomicLong(0);
+
+	/**
+	 * next position to be read by the consumer (only accessed by the consumer thread)
+	 */
+	private long head = 0;
+
+	/**
+	 *
+	 * @param minCapacity will be rounded up to the next power of 2
+	 */
+	public LogRingBuffer(int minCapacity) {
+		int c = 2;
+		while (c < minCapacity) {
+			c <<= 1;
+		}
+		this.capacity = c;
+		this.mask = c - 1;
+		this.buffer = new AtomicReferenceArray<>(c);
+		this.sequences = new AtomicLongArray(c);
+		for (int i = 0; i < c; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * adds an element to the buffer (can be called by any thread)
+	 * @param e
+	 * @return false if the buffer is full
+	 */
+	public boolean offer(E e) {
+		long pos = tail.get();
+		while (true) {
+			final int index = (int) (pos & mask);
+			final long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					buffer.lazySet(index, e);
+					sequences.lazySet(index, pos + 1);
+					return true;
+				}
+				pos = tail.get();
+			}
+			else if (diff < 0) {
+				//slot has not been consumed yet: buffer full
+				return false;
+			}
+			else {
+				//another producer claimed this slot
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * removes the next element (must only be called by the consumer thread)
+	 * @return the next element or null if the buffer is empty
+	 */
+	public E poll() {
+		final int index = (int) (head & mask);
+		if (sequences.get(index) != head + 1) {
+			return null;
+		}
+
+		final E e = buffer.get(index);
+		buffer.lazySet(index, null);
+		sequences.lazySet(index, head + capacity);
+		head++;
+		return e;
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return sequences.get((int) (head & mask)) != head + 1;
+	}
+
+	/**
+	 *
+	 * @return the approximate number of elements in the buffer
+	 */
+	public int size() {
+		final long size = tail.get() - head;
+		return (int) (size < 0 ? 0 : (size > capacity ? capacity : size));
+	}
+
+	/**
+	 *
+	 * @return
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
@@ -21,7 +21,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.log4j.ConsoleAppender;
-import org.apache.log4j.DailyRollingFileAppender;
+import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
@@ -46,6 +46,11 @@ public class LoggingService {
 	 * tells if any logging [syslog, file, console] has been enabled
 	 */
 	public final static boolean IS_LOGGING_AVAILABLE;
+	
+	/**
+	 * the writer thread that passes all log entries to the appenders
+	 */
+	public final static AsyncLogWriter ASYNC_LOG_WRITER;
 
 	static {
 		////////////////////////////////////////
@@ -67,13 +72,18 @@ public class LoggingService {
 		LOGGER_MAP.put(TestServerServiceEnum.UDP_SERVICE, Logger.getLogger("QOS.UDP"));
 		LOGGER_MAP.put(TestServerServiceEnum.TEST_SERVER, Logger.getLogger("QOS.SERVER"));
 		
+		ASYNC_LOG_WRITER = new AsyncLogWriter(TestServer.serverPreferences != null ? 
+				TestServer.serverPreferences.getLogBufferSize() : AsyncLogWriter.DEFAULT_BUFFER_SIZE);
+		
 		//file logging appender:
 		if (TestServer.serverPreferences != null && TestServer.serverPreferences.isLoggingEnabled()) {
 			for (final Entry<TestServerServiceEnum, String> e : TestServer.serverPreferences.getLogFileMap().entrySet()) {
 				final Logger l = LOGGER_MAP.get(e.getKey());
 				try {
-					l.addAppender(new DailyRollingFileAppender(
-							new PatternLayout(TestServer.serverPreferences.getLoggingPattern()), e.getValue(), "_yyyy-MM-dd-a"));
+					final BatchedDailyRollingFileAppender appender = new BatchedDailyRollingFileAppender(
+							new PatternLayout(TestServer.serverPreferences.getLoggingPattern()), e.getValue(), "_yyyy-MM-dd-a");
+					ASYNC_LOG_WRITER.addBatchedAppender(appender);
+					l.addAppender(appender);
 				} catch (IOException ex) {
 					ex.printStackTrace();
 				}
@@ -86,7 +96,28 @@ public class LoggingService {
 		}
 		
 		IS_LOGGING_AVAILABLE = (TestServer.serverPreferences != null 
-				&& (TestServer.serverPreferences.isConsoleLog() || TestServer.serverPreferences.isLoggingEnabled() || TestServer.serverPreferences.isSyslogEnabled()));		
+				&& (TestServer.serverPreferences.isConsoleLog() || TestServer.serverPreferences.isLoggingEnabled() || TestServer.serverPreferences.isSyslogEnabled()));
+		
+		if (IS_LOGGING_AVAILABLE) {
+			ASYNC_LOG_WRITER.start();
+		}
+	}
+	
+	/**
+	 * stops the log writer thread after all pending log entries have been written
+	 */
+	public static void shutdown() {
+		ASYNC_LOG_WRITER.stop(2000);
+	}
+	
+	/**
+	 * checks if a message with the given level would be logged at all
+	 * @param level
+	 * @param service
+	 * @return
+	 */
+	public static boolean isEnabled(Level level, TestServerServiceEnum service) {
+		return IS_LOGGING_AVAILABLE && LOGGER_MAP.get(service).isEnabledFor(level);
 	}
 	
 
@@ -97,13 +128,8 @@ public class LoggingService {
 	 * @param service
 	 */
 	public static void fatal(Throwable t, String message, TestServerServiceEnum service) {
-		if (IS_LOGGING_AVAILABLE) {
-			if (t != null) {
-				LOGGER_MAP.get(service).fatal("[" + t.getClass().getCanonicalName() + ": " + t.getLocalizedMessage() + "] " + message, t);
-			}
-			else {
-				LOGGER_MAP.get(service).fatal("[unknown Exception] " + message);
-			}
+		if (isEnabled(Level.FATAL, service)) {
+			ASYNC_LOG_WRITER.log(LOGGER_MAP.get(service), Level.FATAL, message, t, true);
 		}
 	}
 
@@ -114,13 +140,8 @@ public class LoggingService {
 	 * @param service
 	 */
 	public static void error(Throwable t, String message, TestServerServiceEnum service) {
-		if (IS_LOGGING_AVAILABLE) {
-			if (t != null) {
-				LOGGER_MAP.get(service).error("[" + t.getClass().getCanonicalName() + ": " + t.getLocalizedMessage() + "] " + message, t);
-			}
-			else {
-				LOGGER_MAP.get(service).error("[unknown Exception] " + message);
-			}
+		if (isEnabled(Level.ERROR, service)) {
+			ASYNC_LOG_WRITER.log(LOGGER_MAP.get(service), Level.ERROR, message, t, true);
 		}
 	}
 	
@@ -130,8 +151,8 @@ public class LoggingService {
 	 * @param service
 	 */
 	public static void warn(String message, TestServerServiceEnum service) {
-		if (IS_LOGGING_AVAILABLE) {
-			LOGGER_MAP.get(service).warn(message);
+		if (isEnabled(Level.WARN, service)) {
+			ASYNC_LOG_WRITER.log(LOGGER_MAP.get(service), Level.WARN, message, null, false);
 		}		
 	}
 		
@@ -141,8 +162,8 @@ public class LoggingService {
 	 * @param service
 	 */
 	public static void info(String message, TestServerServiceEnum service) {
-		if (IS_LOGGING_AVAILABLE) {
-			LOGGER_MAP.get(service).info(message);
+		if (isEnabled(Level.INFO, service)) {
+			ASYNC_LOG_WRITER.log(LOGGER_MAP.get(service), Level.INFO, message, null, false);
 		}
 	}
 	
@@ -152,8 +173,8 @@ public class LoggingService {
 	 * @param service
 	 */
 	public static void debug(String message, TestServerServiceEnum service) {
-		if (IS_LOGGING_AVAILABLE) {
-			LOGGER_MAP.get(service).debug(message);
+		if (isEnabled(Level.DEBUG, service)) {
+			ASYNC_LOG_WRITER.log(LOGGER_MAP.get(service), Level.DEBUG, message, null, false);
 		}		
 	}
 }
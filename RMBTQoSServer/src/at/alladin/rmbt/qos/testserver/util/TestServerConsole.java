@@ -16,8 +16,6 @@
 package at.alladin.rmbt.qos.testserver.util;
 
 import java.io.PrintStream;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.net.ServerSocket;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -27,6 +25,7 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import org.apache.log4j.Level;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -87,6 +86,11 @@ public class TestServerConsole extends PrintStream {
 	
 	public final static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 	
+	/**
+	 * pre-formatted timestamps (see {@link #DATE_FORMAT}) used for log prefixes
+	 */
+	public final static TimestampCache TIMESTAMP_CACHE = new TimestampCache("yyyy-MM-dd HH:mm:ss");
+	
 	public final static String HINT_SHOW = "SHOW what? Available options: [tcp] [udp] [info]";
 	
 	public final static String COMMAND_EXIT_COMMAND_PROMPT = "exit";
@@ -174,6 +178,8 @@ public class TestServerConsole extends PrintStream {
 											for (ServerSocket ss : TestServer.serverSocketList) {
 												printlnCommand("\t- " + ss.toString());
 											}
+											printlnCommand("\nLogging: " + LoggingService.ASYNC_LOG_WRITER.toString());
+											printlnCommand("\nTTL expiry: " + TestServer.expiryScheduler.toString());
 											printLine();
 										break;
 										case SUBCOMMAND_SHOW_OPENED_TCP_PORTS:
@@ -182,6 +188,9 @@ public class TestServerConsole extends PrintStream {
 												showTcp = (commands.length > 2 && commands[2].equals(SUBCOMMAND_FORCE));
 											}
 
+											if (TestServer.nioTcpServer != null) {
+												printlnCommand("\nNIO TCP Server: " + TestServer.nioTcpServer.toString());
+											}
 											printlnCommand("\nFound " + TestServer.tcpServerMap.values().size() + " active TCP sockets.");
 											
 											if (showTcp) {
@@ -392,8 +401,6 @@ public class TestServerConsole extends PrintStream {
 	 * @param service
 	 */
 	public static void errorReport(String errorReportKey, String info, Throwable t, int verboseLevelNeeded, TestServerServiceEnum service) {
-		StringWriter stackTrace = new StringWriter();			
-		t.printStackTrace(new PrintWriter(stackTrace));
 		if (!errorReportMap.containsKey(errorReportKey)) {
 			errorReportMap.putIfAbsent(errorReportKey, new ErrorReport(info + ": [" + t.getClass().getCanonicalName() + " - " + t.getMessage() +"]", new Date()));	
 		}
@@ -411,7 +418,22 @@ public class TestServerConsole extends PrintStream {
 	 * @param service
 	 */
 	public static void log(String msg, int verboseLevelNeeded, TestServerServiceEnum service) {
-		LoggingService.info(msg, service);
+		if (isLogEnabled(verboseLevelNeeded, service)) {
+			LoggingService.info(msg, service);
+		}
+	}
+	
+	/**
+	 * checks the verbose level and the logger level; use this before building expensive log messages 
+	 * @param verboseLevelNeeded
+	 * @param service
+	 * @return
+	 */
+	public static boolean isLogEnabled(int verboseLevelNeeded, TestServerServiceEnum service) {
+		if (TestServer.serverPreferences != null && verboseLevelNeeded > TestServer.serverPreferences.getVerboseLevel()) {
+			return false;
+		}
+		return LoggingService.isEnabled(Level.INFO, service);
 	}
 		
 	/**
@@ -420,7 +442,7 @@ public class TestServerConsole extends PrintStream {
 	 * @return
 	 */
 	public static String getFormattedDate(Date date) {
-		return DATE_FORMAT.format(date);
+		return TIMESTAMP_CACHE.format(date.getTime());
 	}
 	
 	/**
@@ -428,6 +450,6 @@ public class TestServerConsole extends PrintStream {
 	 * @return
 	 */
 	public static String getPrefix() {
-		return TestServerConsole.getFormattedDate(new Date()) + " [T-" + Thread.currentThread().getId() +"]: ";
+		return TIMESTAMP_CACHE.now() + " [T-" + Thread.currentThread().getId() +"]: ";
 	}	
 }
@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * hierarchical timer wheel.<br>
+ * Timeouts can be scheduled and cancelled from any thread in O(1). The wheel itself is advanced by a single
+ * owner thread (e.g. a selector loop or the {@link ExpiryScheduler}) calling {@link #advance(long)}, which runs all expired tasks in that thread.
+ * Timeouts further away than one wheel rotation are kept in coarser levels and cascaded down when their slot is reached,
+ * so every timeout is touched at most once per level and expiry cost does not depend on the number of pending timeouts.
+ * @author lb
+ *
+ */
+public class TimerWheel {
+
+	/**
+	 * task executed when a timeout expires
+	 * @author lb
+	 *
+	 */
+	public static interface TimeoutTask {
+		void onTimeout(Timeout timeout);
+	}
+
+	private final static int STATE_PENDING = 0;
+	private final static int STATE_CANCELLED = 1;
+	private final static int STATE_EXPIRED = 2;
+
+	/**
+	 * handle of a scheduled task
+	 * @author lb
+	 *
+	 */
+	public final static class Timeout {
+		final long deadline;
+		final TimeoutTask task;
+		final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+		long deadlineTick;
+		Timeout prev;
+		Timeout next;
+		Bucket bucket;
+
+		Timeout(TimeoutTask task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * cancels this timeout; the task won't be executed if it has not expired yet
+		 * @return false if the timeout has already expired or been cancelled
+		 */
+		public boolean cancel() {
+			return state.compareAndSet(STATE_PENDING, STATE_CANCELLED);
+		}
+
+		public boolean isCancelled() {
+			return state.get() == STATE_CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == STATE_EXPIRED;
+		}
+
+		public long getDeadline() {
+			return deadline;
+		}
+
+		public TimeoutTask getTask() {
+			return task;
+		}
+	}
+
+	/**
+	 * doubly linked list of timeouts (only accessed by the owner thread)
+	 * @author lb
+	 *
+	 */
+	final static class Bucket {
+		Timeout head;
+		Timeout tail;
+
+		void add(Timeout t) {
+			t.bucket = this;
+			if (head == null) {
+				head = tail = t;
+			}
+			else {
+				tail.next = t;
+				t.prev = tail;
+				tail = t;
+			}
+		}
+
+		Timeout remove(Timeout t) {
+			final Timeout next = t.next;
+			if (t.prev != null) {
+				t.prev.next = next;
+			}
+			if (t.next != null) {
+				t.next.prev = t.prev;
+			}
+			if (t == head) {
+				head = next;
+			}
+			if (t == tail) {
+				tail = t.prev;
+			}
+			t.prev = null;
+			t.next = null;
+			t.bucket = null;
+			return next;
+		}
+	}
+
+	/**
+	 * number of wheel levels; with 256 buckets per level and a resolution of 100ms this covers more than 13 years
+	 */
+	public final static int LEVELS = 4;
+
+	/**
+	 *
+	 */
+	private final long tickMs;
+
+	/**
+	 * log2 of the number of buckets per level
+	 */
+	private final int bits;
+
+	/**
+	 *
+	 */
+	private final int mask;
+
+	/**
+	 * max number of ticks a timeout can be placed ahead, timeouts further away are placed at this distance and re-placed when reached
+	 */
+	private final long maxDelta;
+
+	/**
+	 * levels[0] has a resolution of one tick, levels[n] a resolution of 2^(n*bits) ticks
+	 */
+	private final Bucket[][] levels;
+
+	/**
+	 * timeouts scheduled by other threads, transferred into the wheel by the owner thread
+	 */
+	private final ConcurrentLinkedQueue<Timeout> pendingQueue = new ConcurrentLinkedQueue<>();
+
+	/**
+	 *
+	 */
+	private final AtomicInteger pendingCount = new AtomicInteger(0);
+
+	/**
+	 * number of timeouts in the wheel (including cancelled ones that have not been dropped yet)
+	 */
+	private final AtomicInteger scheduledCount = new AtomicInteger(0);
+
+	/**
+	 * start of the wheel (all ticks are relative to this timestamp)
+	 */
+	private final long startTime;
+
+	/**
+	 * the next tick to be processed (only accessed by the owner thread)
+	 */
+	private long tick = 0;
+
+	/**
+	 *
+	 * @param tickMs resolution of the wheel
+	 * @param wheelSize number of buckets per level, will be rounded up to the next power of 2
+	 */
+	public TimerWheel(long tickMs, int wheelSize) {
+		this(tickMs, wheelSize, System.currentTimeMillis());
+	}
+
+	/**
+	 *
+	 * @param tickMs
+	 * @param wheelSize
+	 * @param startTime
+	 */
+	public TimerWheel(long tickMs, int wheelSize, long startTime) {
+		if (tickMs <= 0) {
+			throw new IllegalArgumentException("tickMs must be > 0: " + tickMs);
+		}
+		int bits = 1;
+		while ((1 << bits) < wheelSize) {
+			bits++;
+		}
+		if (bits * LEVELS > 62) {
+			throw new IllegalArgumentException("wheelSize too large: " + wheelSize);
+		}
+		this.tickMs = tickMs;
+		this.bits = bits;
+		this.mask = (1 << bits) - 1;
+		this.maxDelta = (1L << (bits * LEVELS)) - 1;
+		this.levels = new Bucket[LEVELS][1 << bits];
+		for (int l = 0; l < LEVELS; l++) {
+			for (int i = 0; i <= mask; i++) {
+				levels[l][i] = new Bucket();
+			}
+		}
+		this.startTime = startTime;
+	}
+
+	/**
+	 * schedules a task (thread safe)
+	 * @param task
+	 * @param delayMs
+	 * @return
+	 */
+	public Timeout schedule(TimeoutTask task, long delayMs) {
+		return scheduleAt(task, System.currentTimeMillis() + Math.max(0, delayMs));
+	}
+
+	/**
+	 * schedules a task for an absolute timestamp (thread safe)
+	 * @param task
+	 * @param deadline
+	 * @return
+	 */
+	public Timeout scheduleAt(TimeoutTask task, long deadline) {
+		final Timeout timeout = new Timeout(task, deadline);
+		pendingQueue.add(timeout);
+		pendingCount.incrementAndGet();
+		return timeout;
+	}
+
+	/**
+	 * advances the wheel up to the given time and runs all expired tasks (owner thread only)
+	 * @param now
+	 * @return number of expired tasks
+	 */
+	public int advance(long now) {
+		transferPending();
+
+		final long targetTick = (now - startTime) / tickMs;
+		int expired = 0;
+		while (tick <= targetTick) {
+			//cascade all coarser levels whose slot starts with this tick:
+			for (int level = 1; level < LEVELS && (tick & ((1L << (bits * level)) - 1)) == 0; level++) {
+				cascade(levels[level][(int) ((tick >>> (bits * level)) & mask)]);
+			}
+
+			final Bucket bucket = levels[0][(int) (tick & mask)];
+			Timeout t = bucket.head;
+			while (t != null) {
+				final Timeout next = bucket.remove(t);
+				if (t.isCancelled()) {
+					scheduledCount.decrementAndGet();
+				}
+				else if (t.deadlineTick > tick) {
+					//timeout was beyond the max distance of the wheel
+					place(t);
+				}
+				else {
+					scheduledCount.decrementAndGet();
+					if (t.state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+						expired++;
+						try {
+							t.task.onTimeout(t);
+						}
+						catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+				}
+				t = next;
+			}
+			tick++;
+			//tasks may have scheduled new timeouts:
+			transferPending();
+		}
+
+		return expired;
+	}
+
+	/**
+	 * moves all timeouts scheduled since the last call into their buckets
+	 */
+	private void transferPending() {
+		Timeout t;
+		while ((t = pendingQueue.poll()) != null) {
+			pendingCount.decrementAndGet();
+			if (t.isCancelled()) {
+				continue;
+			}
+			//never schedule into the past: the earliest possible bucket is the current one
+			t.deadlineTick = Math.max(tick, (t.deadline - startTime + tickMs - 1) / tickMs);
+			scheduledCount.incrementAndGet();
+			place(t);
+		}
+	}
+
+	/**
+	 * puts a timeout into the finest level that covers its distance to the current tick
+	 * @param t
+	 */
+	private void place(Timeout t) {
+		final long delta = Math.min(t.deadlineTick - tick, maxDelta);
+		final long slotTick = tick + delta;
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= (1L << (bits * (level + 1)))) {
+			level++;
+		}
+		levels[level][(int) ((slotTick >>> (bits * level)) & mask)].add(t);
+	}
+
+	/**
+	 * moves all timeouts of a coarse bucket into finer levels
+	 * @param bucket
+	 */
+	private void cascade(Bucket bucket) {
+		Timeout t = bucket.head;
+		while (t != null) {
+			final Timeout next = bucket.remove(t);
+			if (t.isCancelled()) {
+				scheduledCount.decrementAndGet();
+			}
+			else {
+				place(t);
+			}
+			t = next;
+		}
+	}
+
+	/**
+	 *
+	 * @return the wheel resolution in ms
+	 */
+	public long getTickMs() {
+		return tickMs;
+	}
+
+	/**
+	 *
+	 * @return number of timeouts not yet transferred into the wheel
+	 */
+	public int getPendingCount() {
+		return pendingCount.get();
+	}
+
+	/**
+	 *
+	 * @return number of timeouts in the wheel
+	 */
+	public int getScheduledCount() {
+		return scheduledCount.get();
+	}
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package at.alladin.rmbt.qos.testserver.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * thread safe date formatter with second resolution: the formatted string is only rebuilt once per second,
+ * all other calls return the pre-formatted timestamp
+ * @author lb
+ *
+ */
+public class TimestampCache {
+
+	/**
+	 * immutable holder, replaced atomically when the second changes
+	 * @author lb
+	 *
+	 */
+	private final static class Entry {
+		final long second;
+		final String formatted;
+
+		Entry(long second, String formatted) {
+			this.second = second;
+			this.formatted = formatted;
+		}
+	}
+
+	/**
+	 *
+	 */
+	private final SimpleDateFormat format;
+
+	/**
+	 *
+	 */
+	private volatile Entry current = new Entry(-1, null);
+
+	/**
+	 *
+	 * @param pattern
+	 */
+	public TimestampCache(String pattern) {
+		this.format = new SimpleDateFormat(pattern);
+	}
+
+	/**
+	 *
+	 * @return the current time, formatted
+	 */
+	public String now() {
+		return format(System.currentTimeMillis());
+	}
+
+	/**
+	 *
+	 * @param timestamp
+	 * @return
+	 */
+	public String format(long timestamp) {
+		final long second = timestamp / 1000;
+		final Entry e = current;
+		if (e.second == second) {
+			return e.formatted;
+		}
+
+		final String formatted;
+		synchronized (format) {
+			formatted = format.format(new Date(timestamp));
+		}
+
+		if (second > e.second) {
+			current = new Entry(second, formatted);
+		}
+
+		return formatted;
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.shared.geo;
+
+/**
+ * immutable axis aligned bounding box
+ * @author lb
+ *
+ */
+public final class Envelope {
+
+	private final double minX;
+	private final double minY;
+	private final double maxX;
+	private final double maxY;
+
+	public Envelope(double minX, double minY, double maxX, double maxY) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+	}
+
+	/**
+	 * returns the envelope of the given coordinates
+	 * @param coords x0, y0, x1, y1, ...
+	 * @return
+	 */
+	public static Envelope of(double[] coords) {
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i + 1 < coords.length; i += 2) {
+			minX = Math.min(minX, coords[i]);
+			maxX = Math.max(maxX, coords[i]);
+			minY = Math.min(minY, coords[i + 1]);
+			maxY = Math.max(maxY, coords[i + 1]);
+		}
+		return new Envelope(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * returns the smallest envelope containing this and the other envelope
+	 * @param other
+	 * @return
+	 */
+	public Envelope union(Envelope other) {
+		return new Envelope(Math.min(minX, other.minX), Math.min(minY, other.minY),
+				Math.max(maxX, other.maxX), Math.max(maxY, other.maxY));
+	}
+
+	public boolean contains(double x, double y) {
+		return x >= minX && x <= maxX && y >= minY && y <= maxY;
+	}
+
+	public boolean intersects(Envelope other) {
+		return other.minX <= maxX && other.maxX >= minX && other.minY <= maxY && other.maxY >= minY;
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+
+	public double getCenterX() {
+		return (minX + maxX) / 2;
+	}
+
+	public double getCenterY() {
+		return (minY + maxY) / 2;
+	}
+
+	@Override
+	public String toString() {
+		return "Envelope [minX=" + minX + ", minY=" + minY + ", maxX=" + maxX + ", maxY=" + maxY + "]";
+	}
+}
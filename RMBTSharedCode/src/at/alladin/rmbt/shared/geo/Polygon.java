@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.shared.geo;
+
+/**
+ * immutable polygon with an exterior ring and optional interior rings (holes).<br>
+ * Each ring is stored as a flat coordinate array <code>x0, y0, x1, y1, ...</code>; the rings may be closed or not.
+ * @author lb
+ *
+ */
+public final class Polygon {
+
+	private final double[][] rings;
+
+	private final Envelope envelope;
+
+	/**
+	 *
+	 * @param rings the exterior ring followed by the interior rings
+	 */
+	public Polygon(double[]... rings) {
+		if (rings.length == 0) {
+			throw new IllegalArgumentException("polygon without exterior ring");
+		}
+		this.rings = rings;
+		this.envelope = Envelope.of(rings[0]);
+	}
+
+	/**
+	 * point in polygon test with the semantics of ST_Contains: points on the boundary (including the boundaries of the holes)
+	 * are not contained
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean contains(double x, double y) {
+		if (!envelope.contains(x, y)) {
+			return false;
+		}
+
+		//crossing number of a ray in +x direction over all rings
+		boolean inside = false;
+		for (double[] ring : rings) {
+			final int n = ring.length / 2;
+			if (n == 0) {
+				continue;
+			}
+			double x1 = ring[2 * n - 2];
+			double y1 = ring[2 * n - 1];
+			for (int i = 0; i < n; i++) {
+				final double x2 = ring[2 * i];
+				final double y2 = ring[2 * i + 1];
+				if (x == x2 && y == y2) {
+					//on a vertex
+					return false;
+				}
+				if ((y1 > y) != (y2 > y)) {
+					final double xCross = x1 + (y - y1) * (x2 - x1) / (y2 - y1);
+					if (x == xCross) {
+						return false;
+					}
+					if (x < xCross) {
+						inside = !inside;
+					}
+				}
+				else if (y1 == y && y2 == y && x >= Math.min(x1, x2) && x <= Math.max(x1, x2)) {
+					//on a horizontal edge
+					return false;
+				}
+				x1 = x2;
+				y1 = y2;
+			}
+		}
+		return inside;
+	}
+
+	public Envelope getEnvelope() {
+		return envelope;
+	}
+
+	/**
+	 *
+	 * @return the exterior ring followed by the interior rings
+	 */
+	public double[][] getRings() {
+		return rings;
+	}
+
+	/**
+	 *
+	 * @return the number of vertices of all rings
+	 */
+	public int getVertexCount() {
+		int count = 0;
+		for (double[] ring : rings) {
+			count += ring.length / 2;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.shared.geo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * static R-tree of bounding boxes, bulk loaded with the sort-tile-recursive (STR) algorithm.<br>
+ * The tree cannot be modified after it has been built and can be shared between threads.
+ * @author lb
+ *
+ * @param <T>
+ */
+public final class RTree<T> {
+
+	public final static int DEFAULT_NODE_CAPACITY = 16;
+
+	/**
+	 * receives the items found by a search
+	 * @author lb
+	 *
+	 * @param <T>
+	 */
+	public static interface Visitor<T> {
+		/**
+		 *
+		 * @param item
+		 * @param envelope the envelope of the item
+		 * @return false to stop the search
+		 */
+		boolean visit(T item, Envelope envelope);
+	}
+
+	/**
+	 * collects the items of a tree
+	 * @author lb
+	 *
+	 * @param <T>
+	 */
+	public static class Builder<T> {
+		private final List<Node> entries = new ArrayList<>();
+		private final int nodeCapacity;
+
+		public Builder() {
+			this(DEFAULT_NODE_CAPACITY);
+		}
+
+		/**
+		 *
+		 * @param nodeCapacity max. number of children per node
+		 */
+		public Builder(int nodeCapacity) {
+			if (nodeCapacity < 2) {
+				throw new IllegalArgumentException("node capacity must be >= 2");
+			}
+			this.nodeCapacity = nodeCapacity;
+		}
+
+		public Builder<T> add(Envelope envelope, T item) {
+			entries.add(new Node(envelope, item, null));
+			return this;
+		}
+
+		public RTree<T> build() {
+			return new RTree<>(entries, nodeCapacity);
+		}
+	}
+
+	private final static class Node {
+		final Envelope envelope;
+		final Object item;
+		final Node[] children;
+
+		Node(Envelope envelope, Object item, Node[] children) {
+			this.envelope = envelope;
+			this.item = item;
+			this.children = children;
+		}
+	}
+
+	private final static Comparator<Node> X_COMPARATOR = new Comparator<Node>() {
+		@Override
+		public int compare(Node o1, Node o2) {
+			return Double.compare(o1.envelope.getCenterX(), o2.envelope.getCenterX());
+		}
+	};
+
+	private final static Comparator<Node> Y_COMPARATOR = new Comparator<Node>() {
+		@Override
+		public int compare(Node o1, Node o2) {
+			return Double.compare(o1.envelope.getCenterY(), o2.envelope.getCenterY());
+		}
+	};
+
+	/**
+	 * null if the tree is empty
+	 */
+	private final Node root;
+
+	private final int size;
+
+	private RTree(List<Node> entries, int nodeCapacity) {
+		this.size = entries.size();
+		List<Node> level = new ArrayList<>(entries);
+		while (level.size() > 1) {
+			level = pack(level, nodeCapacity);
+		}
+		this.root = level.isEmpty() ? null : level.get(0);
+	}
+
+	/**
+	 * packs the nodes of one level into parent nodes
+	 * @param nodes
+	 * @param nodeCapacity
+	 * @return
+	 */
+	private static List<Node> pack(List<Node> nodes, int nodeCapacity) {
+		final int parentCount = (nodes.size() + nodeCapacity - 1) / nodeCapacity;
+		final int sliceCount = (int) Math.ceil(Math.sqrt(parentCount));
+		final int sliceSize = sliceCount * nodeCapacity;
+
+		Collections.sort(nodes, X_COMPARATOR);
+		final List<Node> parents = new ArrayList<>(parentCount);
+		for (int sliceStart = 0; sliceStart < nodes.size(); sliceStart += sliceSize) {
+			final List<Node> slice = new ArrayList<>(nodes.subList(sliceStart, Math.min(nodes.size(), sliceStart + sliceSize)));
+			Collections.sort(slice, Y_COMPARATOR);
+			for (int start = 0; start < slice.size(); start += nodeCapacity) {
+				final List<Node> children = slice.subList(start, Math.min(slice.size(), start + nodeCapacity));
+				Envelope envelope = children.get(0).envelope;
+				for (Node child : children) {
+					envelope = envelope.union(child.envelope);
+				}
+				parents.add(new Node(envelope, null, children.toArray(new Node[children.size()])));
+			}
+		}
+		return parents;
+	}
+
+	/**
+	 * visits all items whose envelope contains the given point
+	 * @param x
+	 * @param y
+	 * @param visitor
+	 */
+	public void search(double x, double y, Visitor<? super T> visitor) {
+		if (root != null) {
+			search(root, x, y, visitor);
+		}
+	}
+
+	/**
+	 * visits all items whose envelope intersects the given envelope
+	 * @param envelope
+	 * @param visitor
+	 */
+	public void search(Envelope envelope, Visitor<? super T> visitor) {
+		if (root != null) {
+			search(root, envelope, visitor);
+		}
+	}
+
+	/**
+	 * returns all items whose envelope intersects the given envelope
+	 * @param envelope
+	 * @return
+	 */
+	public List<T> search(Envelope envelope) {
+		final List<T> result = new ArrayList<>();
+		search(envelope, new Visitor<T>() {
+			@Override
+			public boolean visit(T item, Envelope itemEnvelope) {
+				result.add(item);
+				return true;
+			}
+		});
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean search(Node node, double x, double y, Visitor<? super T> visitor) {
+		if (!node.envelope.contains(x, y)) {
+			return true;
+		}
+		if (node.children == null) {
+			return visitor.visit((T) node.item, node.envelope);
+		}
+		for (Node child : node.children) {
+			if (!search(child, x, y, visitor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean search(Node node, Envelope envelope, Visitor<? super T> visitor) {
+		if (!node.envelope.intersects(envelope)) {
+			return true;
+		}
+		if (node.children == null) {
+			return visitor.visit((T) node.item, node.envelope);
+		}
+		for (Node child : node.children) {
+			if (!search(child, envelope, visitor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return number of items
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return the envelope of all items or null if the tree is empty
+	 */
+	public Envelope getEnvelope() {
+		return root != null ? root.envelope : null;
+	}
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.shared.geo;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * reads the polygons of a WKT/EWKT geometry (e.g. the output of <code>ST_AsText</code> or <code>ST_AsEWKT</code>).<br>
+ * Supported are <code>POLYGON</code> and <code>MULTIPOLYGON</code>; z and m values are ignored.
+ * @author lb
+ *
+ */
+public class WktReader {
+
+	private final String wkt;
+
+	private int pos;
+
+	private WktReader(String wkt) {
+		this.wkt = wkt;
+	}
+
+	/**
+	 *
+	 * @param wkt
+	 * @return the polygons of the geometry (empty if the geometry is empty)
+	 * @throws ParseException
+	 */
+	public static List<Polygon> readPolygons(String wkt) throws ParseException {
+		return new WktReader(wkt).read();
+	}
+
+	private List<Polygon> read() throws ParseException {
+		skipWhitespace();
+		if (wkt.regionMatches(true, pos, "SRID=", 0, 5)) {
+			final int semicolon = wkt.indexOf(';', pos);
+			if (semicolon < 0) {
+				throw error("';' expected");
+			}
+			pos = semicolon + 1;
+		}
+
+		final String type = readWord().toUpperCase(Locale.US);
+		//optional dimension: Z, M, ZM
+		final int afterType = pos;
+		final String dimension = readWord().toUpperCase(Locale.US);
+		if (!dimension.equals("Z") && !dimension.equals("M") && !dimension.equals("ZM")) {
+			pos = afterType;
+		}
+
+		final List<Polygon> polygons;
+		if (readEmpty()) {
+			polygons = Collections.emptyList();
+		}
+		else if ("POLYGON".equals(type)) {
+			polygons = Collections.singletonList(readPolygon());
+		}
+		else if ("MULTIPOLYGON".equals(type)) {
+			polygons = new ArrayList<>();
+			expect('(');
+			do {
+				if (!readEmpty()) {
+					polygons.add(readPolygon());
+				}
+			} while (next(','));
+			expect(')');
+		}
+		else {
+			throw error("unsupported geometry type: " + type);
+		}
+
+		skipWhitespace();
+		if (pos < wkt.length()) {
+			throw error("end of geometry expected");
+		}
+		return polygons;
+	}
+
+	private Polygon readPolygon() throws ParseException {
+		final List<double[]> rings = new ArrayList<>();
+		expect('(');
+		do {
+			rings.add(readRing());
+		} while (next(','));
+		expect(')');
+		return new Polygon(rings.toArray(new double[rings.size()][]));
+	}
+
+	private double[] readRing() throws ParseException {
+		double[] coords = new double[64];
+		int length = 0;
+		expect('(');
+		do {
+			if (length + 2 > coords.length) {
+				final double[] c = new double[coords.length * 2];
+				System.arraycopy(coords, 0, c, 0, length);
+				coords = c;
+			}
+			coords[length++] = readNumber();
+			coords[length++] = readNumber();
+			//ignore z/m
+			skipWhitespace();
+			while (pos < wkt.length() && wkt.charAt(pos) != ',' && wkt.charAt(pos) != ')') {
+				readNumber();
+				skipWhitespace();
+			}
+		} while (next(','));
+		expect(')');
+
+		final double[] ring = new double[length];
+		System.arraycopy(coords, 0, ring, 0, length);
+		return ring;
+	}
+
+	private double readNumber() throws ParseException {
+		skipWhitespace();
+		final int start = pos;
+		while (pos < wkt.length()) {
+			final char c = wkt.charAt(pos);
+			if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+				pos++;
+			}
+			else {
+				break;
+			}
+		}
+		try {
+			return Double.parseDouble(wkt.substring(start, pos));
+		}
+		catch (NumberFormatException e) {
+			pos = start;
+			throw error("number expected");
+		}
+	}
+
+	private String readWord() {
+		skipWhitespace();
+		final int start = pos;
+		while (pos < wkt.length() && Character.isLetter(wkt.charAt(pos))) {
+			pos++;
+		}
+		return wkt.substring(start, pos);
+	}
+
+	private boolean readEmpty() {
+		final int start = pos;
+		if ("EMPTY".equalsIgnoreCase(readWord())) {
+			return true;
+		}
+		pos = start;
+		return false;
+	}
+
+	private boolean next(char c) {
+		skipWhitespace();
+		if (pos < wkt.length() && wkt.charAt(pos) == c) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(char c) throws ParseException {
+		if (!next(c)) {
+			throw error("'" + c + "' expected");
+		}
+	}
+
+	private void skipWhitespace() {
+		while (pos < wkt.length() && Character.isWhitespace(wkt.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private ParseException error(String message) {
+		return new ParseException("invalid WKT, " + message + " at position " + pos, pos);
+	}
+}
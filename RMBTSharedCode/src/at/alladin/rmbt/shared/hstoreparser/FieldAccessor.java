@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.shared.hstoreparser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * accessor of a single field. The field is looked up and made accessible only once, values are read and written
+ * with {@link MethodHandle}s instead of reflective calls.<br>
+ * Instances are immutable and can be shared between threads.
+ * @author lb
+ *
+ */
+public class FieldAccessor {
+
+	/**
+	 * the value types that are converted by the hstore parser
+	 * @author lb
+	 *
+	 */
+	public static enum ValueType {
+		INTEGER,
+		LONG,
+		BOOLEAN,
+		FLOAT,
+		DOUBLE,
+		SHORT,
+		STRING,
+		OTHER;
+
+		/**
+		 *
+		 * @param type
+		 * @return
+		 */
+		public static ValueType of(Class<?> type) {
+			if (type.equals(Integer.class) || type.equals(Integer.TYPE)) {
+				return INTEGER;
+			}
+			else if (type.equals(String.class)) {
+				return STRING;
+			}
+			else if (type.equals(Long.class) || type.equals(Long.TYPE)) {
+				return LONG;
+			}
+			else if (type.equals(Boolean.class) || type.equals(Boolean.TYPE)) {
+				return BOOLEAN;
+			}
+			else if (type.equals(Float.class) || type.equals(Float.TYPE)) {
+				return FLOAT;
+			}
+			else if (type.equals(Double.class) || type.equals(Double.TYPE)) {
+				return DOUBLE;
+			}
+			else if (type.equals(Short.class) || type.equals(Short.TYPE)) {
+				return SHORT;
+			}
+			return OTHER;
+		}
+
+		/**
+		 * converts a json value, see {@link HstoreParser#getFromJsonByField(JSONObject, String, Field)}
+		 * @param o
+		 * @return
+		 */
+		public Object fromJson(Object o) {
+			if (o == JSONObject.NULL) {
+				return JSONObject.NULL;
+			}
+
+			switch (this) {
+			case INTEGER:
+				return Integer.parseInt(String.valueOf(o));
+			case LONG:
+				return Long.parseLong(String.valueOf(o));
+			case BOOLEAN:
+				return Boolean.parseBoolean(String.valueOf(o));
+			case FLOAT:
+				return Float.parseFloat(String.valueOf(o));
+			case DOUBLE:
+				return Double.parseDouble(String.valueOf(o));
+			default:
+				return o;
+			}
+		}
+
+		/**
+		 * converts a value to the field type, see {@link HstoreParser#parseFieldValue(Field, Object)}
+		 * @param o
+		 * @return
+		 */
+		public Object parse(Object o) {
+			if (o == JSONObject.NULL) {
+				return null;
+			}
+
+			switch (this) {
+			case INTEGER:
+				return Integer.parseInt(String.valueOf(o));
+			case STRING:
+				return String.valueOf(o);
+			case LONG:
+				return Long.parseLong(String.valueOf(o));
+			case BOOLEAN:
+				return Boolean.parseBoolean(String.valueOf(o));
+			case FLOAT:
+				return Float.parseFloat(String.valueOf(o));
+			case DOUBLE:
+				return Double.parseDouble(String.valueOf(o));
+			case SHORT:
+				return Short.parseShort(String.valueOf(o));
+			default:
+				return o;
+			}
+		}
+	}
+
+	private final static MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private final static MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private final static ClassValue<List<FieldAccessor>> DECLARED_FIELDS = new ClassValue<List<FieldAccessor>>() {
+		@Override
+		protected List<FieldAccessor> computeValue(Class<?> type) {
+			final List<FieldAccessor> list = new ArrayList<>();
+			for (Field f : type.getDeclaredFields()) {
+				list.add(new FieldAccessor(f));
+			}
+			return Collections.unmodifiableList(list);
+		}
+	};
+
+	private final Field field;
+
+	private final Class<?> type;
+
+	private final ValueType valueType;
+
+	private final boolean isCollection;
+
+	private final MethodHandle getter;
+
+	/**
+	 * null if the field cannot be written with a method handle (static final fields)
+	 */
+	private final MethodHandle setter;
+
+	/**
+	 *
+	 * @param field
+	 */
+	public FieldAccessor(Field field) {
+		field.setAccessible(true);
+		this.field = field;
+		this.type = field.getType();
+		this.valueType = ValueType.of(type);
+		this.isCollection = Collection.class.isAssignableFrom(type);
+
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		final boolean isStatic = Modifier.isStatic(field.getModifiers());
+		try {
+			MethodHandle h = lookup.unreflectGetter(field);
+			if (isStatic) {
+				h = MethodHandles.dropArguments(h, 0, Object.class);
+			}
+			this.getter = h.asType(GETTER_TYPE);
+		}
+		catch (IllegalAccessException e) {
+			//cannot happen, the field is accessible
+			throw new IllegalStateException(e);
+		}
+
+		MethodHandle setter = null;
+		try {
+			MethodHandle h = lookup.unreflectSetter(field);
+			if (isStatic) {
+				h = MethodHandles.dropArguments(h, 0, Object.class);
+			}
+			setter = h.asType(SETTER_TYPE);
+		}
+		catch (IllegalAccessException e) {
+			//final field, use the reflective setter
+		}
+		this.setter = setter;
+	}
+
+	/**
+	 * returns the cached accessors of all fields declared by the given class (see {@link Class#getDeclaredFields()})
+	 * @param clazz
+	 * @return
+	 */
+	public static List<FieldAccessor> getDeclaredFields(Class<?> clazz) {
+		return DECLARED_FIELDS.get(clazz);
+	}
+
+	/**
+	 * same as {@link Field#get(Object)}
+	 * @param object
+	 * @return
+	 * @throws IllegalArgumentException if the object is not an instance of the declaring class
+	 */
+	public Object get(Object object) throws IllegalArgumentException {
+		try {
+			return getter.invokeExact(object);
+		}
+		catch (ClassCastException e) {
+			throw new IllegalArgumentException("Can not get " + field + " of " + object.getClass().getCanonicalName(), e);
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	/**
+	 * same as {@link Field#set(Object, Object)}
+	 * @param object
+	 * @param value
+	 * @throws IllegalArgumentException if the object is not an instance of the declaring class or the value cannot be assigned
+	 * @throws IllegalAccessException if the field is final
+	 */
+	public void set(Object object, Object value) throws IllegalArgumentException, IllegalAccessException {
+		if (setter == null) {
+			field.set(object, value);
+			return;
+		}
+
+		if (value == null && type.isPrimitive()) {
+			throw new IllegalArgumentException("Can not set " + field + " to null");
+		}
+
+		try {
+			setter.invokeExact(object, value);
+		}
+		catch (ClassCastException e) {
+			throw new IllegalArgumentException("Can not set " + field + " to " + value.getClass().getCanonicalName(), e);
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	public Class<?> getType() {
+		return type;
+	}
+
+	public ValueType getValueType() {
+		return valueType;
+	}
+
+	/**
+	 * true if the type of the field is a {@link Collection}
+	 * @return
+	 */
+	public boolean isCollection() {
+		return isCollection;
+	}
+
+	@Override
+	public String toString() {
+		return "FieldAccessor [field=" + field + "]";
+	}
+}
@@ -83,6 +83,12 @@ public class Hstore {
 	 * @throws JSONException 
 	 */
 	public <T> T fromString(String object, Class<T> clazz) throws HstoreParseException {
+		final HstoreParser<T> parser = getParser(clazz);
+		if (parser != null && isHstore(object)) {
+			//parse the hstore directly into the object
+			return parser.fromString(object);
+		}
+		
 		Object o = toJson(object, clazz);
 		
 		try {
@@ -158,8 +164,8 @@ public class Hstore {
 				return null;
 			}
 			
-			if (!object.startsWith("{") && !object.startsWith("[")) {
-				return new JSONObject("{" + object.replace("=>", ":") + "}");	
+			if (isHstore(object)) {
+				return HstoreParser.toJsonObject(object);
 			}
 			else if (object.startsWith("{")) {
 				return new JSONObject(object.replace("=>", ":"));
@@ -175,4 +181,13 @@ public class Hstore {
 			throw new HstoreParseException(HstoreParseException.HSTORE_FORMAT_UNSUPPORTED + object, e);
 		}
 	}
-}
+	
+	/**
+	 * 
+	 * @param object
+	 * @return true if the String is neither null nor a json object/array
+	 */
+	private static boolean isHstore(String object) {
+		return object != null && !"null".equals(object) && !object.startsWith("{") && !object.startsWith("[");
+	}
+}
\ No newline at end of file
@@ -15,11 +15,15 @@
  ******************************************************************************/
 package at.alladin.rmbt.shared.hstoreparser;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -43,11 +47,56 @@ import at.alladin.rmbt.shared.hstoreparser.annotation.HstoreKey;
  */
 public class HstoreParser<T> {
 	
+	/**
+	 * an annotated field, all annotations and type information needed by the parser are resolved only once
+	 * @author lb
+	 *
+	 */
+	private static class HstoreField extends FieldAccessor {
+		final String key;
+		final boolean hasCollectionAnnotation;
+		final Class<?> collectionElementClazz;
+		final HstoreCast castDef;
+		final Constructor<?> castConstructor;
+		
+		HstoreField(String key, Field field) {
+			super(field);
+			this.key = key;
+			this.hasCollectionAnnotation = field.isAnnotationPresent(HstoreCollection.class);
+			
+			Class<?> elementClazz = null;
+			if (hasCollectionAnnotation && isCollection() && field.getGenericType() instanceof ParameterizedType) {
+				final Object typeArgument = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+				if (typeArgument instanceof Class) {
+					elementClazz = (Class<?>) typeArgument;
+				}
+			}
+			this.collectionElementClazz = elementClazz;
+			
+			this.castDef = field.getAnnotation(HstoreCast.class);
+			Constructor<?> castConstructor = null;
+			if (castDef != null && !castDef.simpleCast()) {
+				try {
+					castConstructor = castDef.clazz().getConstructor(castDef.constructorParamClazz());
+				} catch (NoSuchMethodException | SecurityException e) {
+					//the error will be reported while parsing
+				}
+			}
+			this.castConstructor = castConstructor;
+		}
+	}
+	
+	private final static MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+	
 	private Class<T> clazz;
 	
-	private HashMap<String, Field> fieldsWithKeys;
+	private HashMap<String, HstoreField> fieldsWithKeys;
+	
+	private Collection<FieldAccessor> fieldAccessors;
 	
-	private Constructor<T> constructor;
+	private Set<Field> annotatedFields;
+	
+	private MethodHandle constructor;
 	
 	private Hstore hstore;
 	
@@ -62,11 +111,19 @@ public class HstoreParser<T> {
 		this.hstore = hstore;
 		//search all fields of all classes for annotated items
 		initFields(clazz);
+		this.fieldAccessors = Collections.<FieldAccessor>unmodifiableCollection(fieldsWithKeys.values());
+		final Set<Field> annotatedFields = new HashSet<>();
+		for (HstoreField f : fieldsWithKeys.values()) {
+			annotatedFields.add(f.getField());
+		}
+		this.annotatedFields = Collections.unmodifiableSet(annotatedFields);
 		
 		//find empty constructor
 		try {
-			constructor = clazz.getConstructor();
-		} catch (NoSuchMethodException | SecurityException e) {
+			final Constructor<T> c = clazz.getConstructor();
+			c.setAccessible(true);
+			constructor = MethodHandles.lookup().unreflectConstructor(c).asType(CONSTRUCTOR_TYPE);
+		} catch (NoSuchMethodException | SecurityException | IllegalAccessException e) {
 			throw new HstoreParseException(HstoreParseException.HSTORE_CONSTRUCTOR_EXCEPTION + clazz.getCanonicalName(), e);
 		}
 	}
@@ -87,7 +144,7 @@ public class HstoreParser<T> {
 				String hstoreKey = ((HstoreKey) f.getAnnotation(HstoreKey.class)).value();
 				//check for duplicates:
 				if (!fieldsWithKeys.containsKey(hstoreKey)) {
-					fieldsWithKeys.put(hstoreKey, f);
+					fieldsWithKeys.put(hstoreKey, new HstoreField(hstoreKey, f));
 				}
 				else {
 					throw new HstoreParseException(HstoreParseException.HSTORE_OBJECT_KEY_ALREADY_IN_USE + hstoreKey);
@@ -106,13 +163,39 @@ public class HstoreParser<T> {
 	}
 	
 	/**
-	 * 
+	 * parses a hstore String, the key/value pairs are written directly into the new object
+	 * (see {@link HstoreTokenizer}). Strings that are not valid hstores are parsed with the json notation.
 	 * @param hstore
 	 * @return
 	 * @throws HstoreParseException
-	 * @throws JSONException
 	 */
-	public T fromString(String hstore) throws HstoreParseException {
+	public T fromString(final String hstore) throws HstoreParseException {
+		final T object = newInstance();
+		final HstoreParseException[] fieldException = new HstoreParseException[1];
+		try {
+			HstoreTokenizer.tokenize(hstore, new HstoreTokenizer.PairHandler() {
+				@Override
+				public void pair(String key, String value) throws HstoreParseException {
+					final HstoreField field = fieldsWithKeys.get(key);
+					if (field != null) {
+						try {
+							setValue(object, field, key, value != null ? value : JSONObject.NULL);
+						}
+						catch (HstoreParseException e) {
+							fieldException[0] = e;
+							throw e;
+						}
+					}
+				}
+			});
+			return object;
+		}
+		catch (HstoreParseException e) {
+			if (fieldException[0] != null) {
+				throw e;
+			}
+		}
+		
 		try {
 			return fromJson(new JSONObject("{" + hstore.replace("=>", ":") + "}"));
 		} catch (JSONException e) {
@@ -126,13 +209,40 @@ public class HstoreParser<T> {
 	 * @return
 	 * @throws HstoreParseException 
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@SuppressWarnings("unchecked")
 	public T fromJson(JSONObject json) throws HstoreParseException {
+		final T object = newInstance();
+		
+		//iterate through all json entries:
+		Iterator<String> jsonKeys = json.keys();
+		while (jsonKeys.hasNext()) {
+			String key = jsonKeys.next();
+
+			//if fieldsWithKeys contain a key (=it was annotated with @HstoreKey) then try to set the value of the field in T object
+			final HstoreField field = fieldsWithKeys.get(key);
+			if (field != null) {
+				try {
+					setValue(object, field, key, json.get(key));
+				} catch (JSONException e) {
+					throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_INSTANTIATE + clazz.getCanonicalName(), e);
+				}
+			}
+		}
+		
+		return object;
+	}
+	
+	/**
+	 * 
+	 * @return
+	 * @throws HstoreParseException
+	 */
+	@SuppressWarnings("unchecked")
+	private T newInstance() throws HstoreParseException {
 		T object;
 		try {
-			object = constructor.newInstance();
-		} catch (InstantiationException | IllegalAccessException
-				| IllegalArgumentException | InvocationTargetException e) {
+			object = (T) constructor.invokeExact();
+		} catch (Throwable e) {
 			throw new HstoreParseException(HstoreParseException.HSTORE_PARSE_EXCEPTION + e.getLocalizedMessage(), e);
 		}
 		
@@ -140,111 +250,110 @@ public class HstoreParser<T> {
 			throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_INSTANTIATE + clazz.getCanonicalName());
 		}
 		
-		//iterate through all json entries:
-		Iterator<String> jsonKeys = json.keys();
-		while (jsonKeys.hasNext()) {
-			String key = jsonKeys.next();
-
-			//if fieldsWithKeys contain a key (=it was annotated with @HstoreKey) then try to set the value of the field in T object
-			if (fieldsWithKeys.containsKey(key)) {
-				final Field field = fieldsWithKeys.get(key);
-				try {
-					Object value = getFromJsonByField(json, key, field);
-					field.setAccessible(true);
-					//cast / new instance needed?
-					if (field.isAnnotationPresent(HstoreCollection.class)) {
-						Class<?> fieldClazz = field.getType();
-						//System.out.println("FieldClazz: " + fieldClazz + " -> " + fieldClazz.isAssignableFrom(Collection.class));
-						if (Collection.class.isAssignableFrom(fieldClazz)) {
-							//get collection and instantiate if necessary
-							Collection collection = (Collection) field.get(object);
-							if (collection == null) {
-								collection = (Collection) fieldClazz.newInstance();
-							}
-							
-							ParameterizedType fieldType = (ParameterizedType) field.getGenericType();
-						    Class<?> genericClazz = (Class<?>) fieldType.getActualTypeArguments()[0];
-						    //System.out.println("genericClazz: " + genericClazz);
-						    
-						    //Object jsonObject = hstore.toJson((String) value, genericClazz);
-						    Object jsonObject = null;
-						    //System.out.println(value);
-						    if (!value.equals(JSONObject.NULL)) {
-						    	if (value instanceof JSONArray || value instanceof JSONObject) {
-						    		jsonObject = hstore.toJson(value.toString(), genericClazz);
-						    	}
-						    	else {
-							    	jsonObject = hstore.toJson((String) value, genericClazz);	
-						    	}
-						    }
-						    else {
-						    	jsonObject = hstore.toJson(null, genericClazz);
-						    }
-						    
-						    if (jsonObject != null) {
-							    if (jsonObject instanceof JSONArray) {
-							    	//System.out.println(jsonObject);
-							    	Object[] array = hstore.fromJSONArray((JSONArray) jsonObject, genericClazz);
-								    for (int i = 0; i < array.length; i++) {
-								    	//System.out.println("Created element: " + array[i]);
-								    	collection.add(array[i]);
-								    }
-							    }						    	
-							    else {
-							    	Object element = hstore.fromString((String) value, genericClazz);
-							    	//System.out.println("Created element: " + element);
-							    	collection.add(element);
-							    }						    	
-						    }
-						    
-						    value = collection;
-						}
-						else {
-							throw new HstoreParseException(HstoreParseException.HSTORE_MUST_BE_A_COLLECTION + field + " - " + clazz.getCanonicalName());
-						}
+		return object;
+	}
+	
+	/**
+	 * sets the value of an annotated field
+	 * @param object
+	 * @param field
+	 * @param key
+	 * @param rawValue the json value or the hstore String ({@link JSONObject#NULL} if the value is null)
+	 * @throws HstoreParseException
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void setValue(T object, HstoreField field, String key, Object rawValue) throws HstoreParseException {
+		try {
+			Object value = field.getValueType().fromJson(rawValue);
+			//cast / new instance needed?
+			if (field.hasCollectionAnnotation) {
+				Class<?> fieldClazz = field.getType();
+				//System.out.println("FieldClazz: " + fieldClazz + " -> " + fieldClazz.isAssignableFrom(Collection.class));
+				if (field.isCollection()) {
+					//get collection and instantiate if necessary
+					Collection collection = (Collection) field.get(object);
+					if (collection == null) {
+						collection = (Collection) fieldClazz.newInstance();
 					}
 					
-					if (field.isAnnotationPresent(HstoreCast.class)) {
-						HstoreCast castDef = field.getAnnotation(HstoreCast.class);
-						if (castDef.simpleCast()) {
-							//simple cast
-							field.set(object, castDef.clazz().cast(value));							
-						}
-						else {
-							//new instance
-							field.set(object, castDef.clazz().getConstructor(castDef.constructorParamClazz()).newInstance(value));
-						}
+					Class<?> genericClazz = field.collectionElementClazz;
+					if (genericClazz == null) {
+						ParameterizedType fieldType = (ParameterizedType) field.getField().getGenericType();
+						genericClazz = (Class<?>) fieldType.getActualTypeArguments()[0];
 					}
-					else {
-						if (JSONObject.NULL.equals(value)) {
-							field.set(object, null);
-						}
-						else {
-							field.set(object, parseFieldValue(field, value));
-						}
-					}
-
-				} catch (IllegalAccessException | IllegalArgumentException | JSONException e) {
-					throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_INSTANTIATE + clazz.getCanonicalName(), e);
-				} catch (InstantiationException e) {
-					throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_INSTANTIATE + clazz.getCanonicalName(), e);
-				} catch (InvocationTargetException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (NoSuchMethodException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (SecurityException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (ClassCastException e) {
-					System.out.println("field: " + field.toString() + ", key: " + key);
-					e.printStackTrace();
+				    //System.out.println("genericClazz: " + genericClazz);
+				    
+				    //Object jsonObject = hstore.toJson((String) value, genericClazz);
+				    Object jsonObject = null;
+				    //System.out.println(value);
+				    if (!value.equals(JSONObject.NULL)) {
+				    	if (value instanceof JSONArray || value instanceof JSONObject) {
+				    		jsonObject = hstore.toJson(value.toString(), genericClazz);
+				    	}
+				    	else {
+					    	jsonObject = hstore.toJson((String) value, genericClazz);	
+				    	}
+				    }
+				    else {
+				    	jsonObject = hstore.toJson(null, genericClazz);
+				    }
+				    
+				    if (jsonObject != null) {
+					    if (jsonObject instanceof JSONArray) {
+					    	//System.out.println(jsonObject);
+					    	Object[] array = hstore.fromJSONArray((JSONArray) jsonObject, genericClazz);
+						    for (int i = 0; i < array.length; i++) {
+						    	//System.out.println("Created element: " + array[i]);
+						    	collection.add(array[i]);
+						    }
+					    }						    	
+					    else {
+					    	Object element = hstore.fromString((String) value, genericClazz);
+					    	//System.out.println("Created element: " + element);
+					    	collection.add(element);
+					    }						    	
+				    }
+				    
+				    value = collection;
+				}
+				else {
+					throw new HstoreParseException(HstoreParseException.HSTORE_MUST_BE_A_COLLECTION + field.getField() + " - " + clazz.getCanonicalName());
+				}
+			}
+			
+			if (field.castDef != null) {
+				HstoreCast castDef = field.castDef;
+				if (castDef.simpleCast()) {
+					//simple cast
+					field.set(object, castDef.clazz().cast(value));							
+				}
+				else {
+					//new instance
+					final Constructor<?> castConstructor = field.castConstructor != null ? 
+							field.castConstructor : castDef.clazz().getConstructor(castDef.constructorParamClazz());
+					field.set(object, castConstructor.newInstance(value));
+				}
+			}
+			else {
+				if (JSONObject.NULL.equals(value)) {
+					field.set(object, null);
+				}
+				else {
+					field.set(object, field.getValueType().parse(value));
 				}
 			}
+
+		} catch (IllegalAccessException | IllegalArgumentException e) {
+			throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_INSTANTIATE + clazz.getCanonicalName(), e);
+		} catch (InstantiationException e) {
+			throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_INSTANTIATE + clazz.getCanonicalName(), e);
+		} catch (InvocationTargetException e) {
+			throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_INSTANTIATE + field.castDef.clazz().getCanonicalName(), e.getCause());
+		} catch (NoSuchMethodException | SecurityException e) {
+			throw new HstoreParseException(HstoreParseException.HSTORE_CONSTRUCTOR_EXCEPTION + field.castDef.clazz().getCanonicalName(), e);
+		} catch (ClassCastException e) {
+			throw new HstoreParseException(HstoreParseException.HSTORE_PARSE_EXCEPTION + field.getField() + ", key: " + key, e);
 		}
-		
-		return object;
 	}
 
 	/**
@@ -255,13 +364,12 @@ public class HstoreParser<T> {
 	 * @throws HstoreParseException
 	 */
 	public <U> Object getValue(String hstoreKey, U object) throws HstoreParseException {
-		Field field = fieldsWithKeys.get(hstoreKey);
+		HstoreField field = fieldsWithKeys.get(hstoreKey);
 		if (field != null) {
 			try {
-				field.setAccessible(true);
 				return field.get(object);
-			} catch (IllegalArgumentException | IllegalAccessException e) {
-				throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_GET_VALUE + clazz.getCanonicalName() + "." + field.getName() + "\n", e);
+			} catch (IllegalArgumentException e) {
+				throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_GET_VALUE + clazz.getCanonicalName() + "." + field.getField().getName() + "\n", e);
 			}
 		}
 		
@@ -273,7 +381,15 @@ public class HstoreParser<T> {
 	 * @return
 	 */
 	public Set<Field> getAnnotatedFields() {
-		return new HashSet<>(fieldsWithKeys.values());
+		return new HashSet<>(annotatedFields);
+	}
+	
+	/**
+	 * returns the (cached) accessors of all annotated fields
+	 * @return
+	 */
+	public Collection<FieldAccessor> getFieldAccessors() {
+		return fieldAccessors;
 	}
 	
 	/**
@@ -283,13 +399,12 @@ public class HstoreParser<T> {
 	 */
 	public <U> Map<String, Object> getValueMap(U object) throws HstoreParseException {
 		HashMap<String, Object> resultMap = new HashMap<>();
-		for (Entry<String, Field> e : fieldsWithKeys.entrySet()) {
+		for (Entry<String, HstoreField> e : fieldsWithKeys.entrySet()) {
 			try {
-				e.getValue().setAccessible(true);
 				resultMap.put(e.getKey(), e.getValue().get(object));
 			} catch (Exception ex) {
 				ex.printStackTrace();
-				throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_GET_VALUE + clazz.getCanonicalName() + "." + e.getValue().getName() + "\n", ex);
+				throw new HstoreParseException(HstoreParseException.HSTORE_COULD_NOT_GET_VALUE + clazz.getCanonicalName() + "." + e.getValue().getField().getName() + "\n", ex);
 			}
 		}
 		
@@ -303,47 +418,47 @@ public class HstoreParser<T> {
 	 */
 	public static JSONObject parseToJson(String hstore) {
 		try {
-			return new JSONObject("{" + hstore.replace("=>", ":") + "}");
-		} catch (JSONException e) {
+			return toJsonObject(hstore);
+		} catch (HstoreParseException e) {
 			return null;
 		}
 	}
 	
 	/**
-	 * 
-	 * @param f
-	 * @param o
+	 * parses a simple hstore String to a JSONObject with String values ({@link JSONObject#NULL} for null values).<br>
+	 * Strings that are not valid hstores are parsed with the json notation.
+	 * @param hstore
 	 * @return
+	 * @throws HstoreParseException
 	 */
-	public static Object parseFieldValue(Field f, Object o) {
-		if (o != JSONObject.NULL) {
-			if (f.getType().equals(Integer.class) || f.getType().equals(Integer.TYPE)) {
-				return Integer.parseInt(String.valueOf(o));
-			}
-			else if (f.getType().equals(String.class)) {
-				return String.valueOf(o);
-			}
-			else if (f.getType().equals(Long.class) || f.getType().equals(Long.TYPE)) {
-				return Long.parseLong(String.valueOf(o));
-			}
-			else if (f.getType().equals(Boolean.class) || f.getType().equals(Boolean.TYPE)) {
-				return Boolean.parseBoolean(String.valueOf(o));
-			}
-			else if (f.getType().equals(Float.class) || f.getType().equals(Float.TYPE)) {
-				return Float.parseFloat(String.valueOf(o));
+	public static JSONObject toJsonObject(String hstore) throws HstoreParseException {
+		try {
+			final Map<String, String> map;
+			try {
+				map = HstoreTokenizer.toMap(hstore);
 			}
-			else if (f.getType().equals(Double.class) || f.getType().equals(Double.TYPE)) {
-				return Double.parseDouble(String.valueOf(o));
+			catch (HstoreParseException e) {
+				return new JSONObject("{" + hstore.replace("=>", ":") + "}");
 			}
-			else if (f.getType().equals(Short.class) || f.getType().equals(Short.TYPE)) {
-				return Short.parseShort(String.valueOf(o));
+			
+			final JSONObject json = new JSONObject();
+			for (Entry<String, String> e : map.entrySet()) {
+				json.put(e.getKey(), e.getValue() != null ? e.getValue() : JSONObject.NULL);
 			}
-			else {
-				return o;
-			}			
+			return json;
+		} catch (JSONException e) {
+			throw new HstoreParseException(HstoreParseException.HSTORE_FORMAT_UNSUPPORTED + hstore, e);
 		}
-		
-		return null;
+	}
+	
+	/**
+	 * 
+	 * @param f
+	 * @param o
+	 * @return
+	 */
+	public static Object parseFieldValue(Field f, Object o) {
+		return FieldAccessor.ValueType.of(f.getType()).parse(o);
 	}
 	
 	/**
@@ -355,32 +470,7 @@ public class HstoreParser<T> {
 	 * @throws JSONException 
 	 */
 	public static Object getFromJsonByField(JSONObject json, String key, Field toField) throws JSONException {
-		final Object o = json.get(key);
-		if (o != JSONObject.NULL) {
-			if (toField.getType().equals(Integer.class) || toField.getType().equals(Integer.TYPE)) {
-				return Integer.parseInt(String.valueOf(o));
-			}
-			else if (toField.getType().equals(String.class)) {
-				return o;
-			}
-			else if (toField.getType().equals(Long.class) || toField.getType().equals(Long.TYPE)) {
-				return Long.parseLong(String.valueOf(o));
-			}
-			else if (toField.getType().equals(Boolean.class) || toField.getType().equals(Boolean.TYPE)) {
-				return Boolean.parseBoolean(String.valueOf(o));
-			}
-			else if (toField.getType().equals(Float.class) || toField.getType().equals(Float.TYPE)) {
-				return Float.parseFloat(String.valueOf(o));
-			}
-			else if (toField.getType().equals(Double.class) || toField.getType().equals(Double.TYPE)) {
-				return Double.parseDouble(String.valueOf(o));
-			}
-			else {
-				return o;
-			}			
-		}
-
-		return JSONObject.NULL;
+		return FieldAccessor.ValueType.of(toField.getType()).fromJson(json.get(key));
 	}
 	
 	/**
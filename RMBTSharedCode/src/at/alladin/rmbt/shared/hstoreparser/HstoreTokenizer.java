@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.shared.hstoreparser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * single pass tokenizer of the PostgreSQL hstore text representation, e.g. <code>"key"=>"value", a=>NULL</code>.<br>
+ * Follows the rules of the hstore input function:
+ * <ul>
+ * <li>keys and values can be double quoted, a backslash escapes the next character (inside and outside of quotes)</li>
+ * <li>unquoted keys end at whitespace or <code>=</code>, unquoted values end at whitespace or <code>,</code></li>
+ * <li>an unquoted <code>NULL</code> (case insensitive) is a null value, a quoted <code>"NULL"</code> is a string</li>
+ * <li>whitespace between the tokens is ignored, a trailing comma is allowed</li>
+ * </ul>
+ * @author lb
+ *
+ */
+public class HstoreTokenizer {
+
+	/**
+	 * receives the key/value pairs in the order of their appearance
+	 * @author lb
+	 *
+	 */
+	public static interface PairHandler {
+		/**
+		 *
+		 * @param key
+		 * @param value the value or null if the value is NULL
+		 * @throws HstoreParseException
+		 */
+		void pair(String key, String value) throws HstoreParseException;
+	}
+
+	private final CharSequence hstore;
+
+	private final int length;
+
+	private int pos = 0;
+
+	private final StringBuilder token = new StringBuilder();
+
+	/**
+	 * true if the last token was quoted
+	 */
+	private boolean quoted;
+
+	private HstoreTokenizer(final CharSequence hstore) {
+		this.hstore = hstore;
+		this.length = hstore.length();
+	}
+
+	/**
+	 * parses the hstore and passes each pair to the handler
+	 * @param hstore
+	 * @param handler
+	 * @throws HstoreParseException if the hstore is malformed
+	 */
+	public static void tokenize(final CharSequence hstore, final PairHandler handler) throws HstoreParseException {
+		new HstoreTokenizer(hstore).run(handler);
+	}
+
+	/**
+	 * parses the hstore into a map, the map preserves the order of the pairs.<br>
+	 * If a key appears more than once only the first value is kept (PostgreSQL keeps only one of them, too).
+	 * @param hstore
+	 * @return
+	 * @throws HstoreParseException
+	 */
+	public static Map<String, String> toMap(final CharSequence hstore) throws HstoreParseException {
+		final Map<String, String> map = new LinkedHashMap<>();
+		tokenize(hstore, new PairHandler() {
+			@Override
+			public void pair(String key, String value) {
+				if (!map.containsKey(key)) {
+					map.put(key, value);
+				}
+			}
+		});
+		return map;
+	}
+
+	/**
+	 * creates the hstore text representation (in the format of the hstore output function)
+	 * @param map
+	 * @return
+	 */
+	public static String toHstore(final Map<String, String> map) {
+		final StringBuilder sb = new StringBuilder();
+		for (final Entry<String, String> e : map.entrySet()) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			appendQuoted(sb, e.getKey());
+			sb.append("=>");
+			if (e.getValue() == null) {
+				sb.append("NULL");
+			}
+			else {
+				appendQuoted(sb, e.getValue());
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * appends the double quoted and escaped string
+	 * @param sb
+	 * @param s
+	 */
+	public static void appendQuoted(final StringBuilder sb, final String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	private void run(final PairHandler handler) throws HstoreParseException {
+		while (true) {
+			skipWhitespace();
+			if (pos >= length) {
+				return;
+			}
+
+			readToken(true);
+			final String key = token.toString();
+
+			skipWhitespace();
+			if (pos + 1 >= length || hstore.charAt(pos) != '=' || hstore.charAt(pos + 1) != '>') {
+				throw error("'=>' expected");
+			}
+			pos += 2;
+
+			skipWhitespace();
+			if (pos >= length) {
+				throw error("value expected");
+			}
+			readToken(false);
+			final String value = (!quoted && token.length() == 4 && "NULL".equalsIgnoreCase(token.toString())) ? null : token.toString();
+
+			handler.pair(key, value);
+
+			skipWhitespace();
+			if (pos >= length) {
+				return;
+			}
+			if (hstore.charAt(pos) != ',') {
+				throw error("',' expected");
+			}
+			pos++;
+		}
+	}
+
+	/**
+	 * reads a quoted or unquoted key/value into {@link #token}
+	 * @param isKey
+	 * @throws HstoreParseException
+	 */
+	private void readToken(final boolean isKey) throws HstoreParseException {
+		token.setLength(0);
+		quoted = hstore.charAt(pos) == '"';
+
+		if (quoted) {
+			pos++;
+			while (true) {
+				if (pos >= length) {
+					throw error("unterminated quoted string");
+				}
+				char c = hstore.charAt(pos++);
+				if (c == '"') {
+					return;
+				}
+				if (c == '\\') {
+					if (pos >= length) {
+						throw error("unterminated escape sequence");
+					}
+					c = hstore.charAt(pos++);
+				}
+				token.append(c);
+			}
+		}
+
+		while (pos < length) {
+			char c = hstore.charAt(pos);
+			if (Character.isWhitespace(c) || (isKey && c == '=') || (!isKey && c == ',')) {
+				break;
+			}
+			pos++;
+			if (c == '\\') {
+				if (pos >= length) {
+					throw error("unterminated escape sequence");
+				}
+				c = hstore.charAt(pos++);
+			}
+			token.append(c);
+		}
+
+		if (isKey && token.length() == 0) {
+			throw error("key expected");
+		}
+	}
+
+	private void skipWhitespace() {
+		while (pos < length && Character.isWhitespace(hstore.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private HstoreParseException error(final String message) {
+		return new HstoreParseException(HstoreParseException.HSTORE_FORMAT_UNSUPPORTED + message + " at position " + pos + ": " + hstore);
+	}
+}
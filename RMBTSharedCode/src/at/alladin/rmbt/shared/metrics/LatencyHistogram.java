@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.shared.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock free histogram of non negative values (e.g. durations in microseconds) with log-linear buckets, similar to an HDR histogram:
+ * values below {@link #SUB_BUCKET_COUNT} * 2 are counted exactly, larger values in buckets with a width of at most
+ * 1/{@link #SUB_BUCKET_COUNT} of their value. Values above {@link #MAX_VALUE} are counted as {@link #MAX_VALUE}.<br>
+ * Recording a value does not allocate memory.
+ * @author lb
+ *
+ */
+public class LatencyHistogram {
+
+	private final static int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * number of buckets per power of two
+	 */
+	public final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	private final static int MAX_MAGNITUDE = 40;
+
+	/**
+	 * about 12.7 days in microseconds
+	 */
+	public final static long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(getIndex(MAX_VALUE) + 1);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 *
+	 * @param value
+	 * @return the bucket of the value
+	 */
+	static int getIndex(long value) {
+		if (value < 2 * SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @return the lowest value of a bucket
+	 */
+	static long getLowestValue(int index) {
+		if (index < 2 * SUB_BUCKET_COUNT) {
+			return index;
+		}
+		final int shift = (index >> SUB_BUCKET_BITS) - 1;
+		return ((long) (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT) << shift;
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @return the width of a bucket
+	 */
+	static long getWidth(int index) {
+		if (index < 2 * SUB_BUCKET_COUNT) {
+			return 1;
+		}
+		return 1L << ((index >> SUB_BUCKET_BITS) - 1);
+	}
+
+	/**
+	 *
+	 * @param value negative values are counted as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		else if (value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+		counts.incrementAndGet(getIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 *
+	 * @return the mean value or 0 if no value has been recorded
+	 */
+	public double getMean() {
+		final long c = count.get();
+		return c == 0 ? 0 : (double) sum.get() / c;
+	}
+
+	/**
+	 * returns the value at a percentile, i.e. the middle of the bucket that contains the value (but not more than the max. value)
+	 * @param percentile 0 - 100
+	 * @return the value or 0 if no value has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(max.get(), getLowestValue(i) + (getWidth(i) - 1) / 2);
+			}
+		}
+		return max.get();
+	}
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.shared.hstoreparser;
+
+import java.util.Locale;
+
+import org.json.JSONObject;
+
+/**
+ * compares the hstore parsing with the json round trip (<code>replace("=>", ":")</code> and {@link JSONObject})
+ * to the {@link HstoreTokenizer}.<br>
+ * Usage: <code>java at.alladin.rmbt.shared.hstoreparser.HstoreBenchmark [seconds per run]</code>
+ * @author lb
+ *
+ */
+public class HstoreBenchmark {
+
+	/**
+	 * a typical qos result in the format written by {@link at.alladin.rmbt.shared.Helperfunctions#json2hstore(JSONObject, java.util.Set)}
+	 */
+	public final static String HSTORE = "\"name\" => \"tcp.success\", \"count\" => \"3000000000\", \"port\" => \"33194\", "
+			+ "\"enabled\" => \"true\", \"rate\" => \"0.8125\", \"tcp_result_out_response\" => \"PING\", "
+			+ "\"tcp_objective_timeout\" => \"3000000000\", \"on_success\" => \"tcp.success\", \"on_failure\" => \"tcp.failure\"";
+
+	/**
+	 * keeps the results alive
+	 */
+	static volatile int sink;
+
+	private static abstract class Run {
+		abstract Object run() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		final HstoreParser<HstoreTokenizerTest.Item> parser = new Hstore(HstoreTokenizerTest.Item.class).getParser(HstoreTokenizerTest.Item.class);
+
+		final Run jsonMap = new Run() {
+			@Override
+			Object run() throws Exception {
+				return new JSONObject("{" + HSTORE.replace("=>", ":") + "}");
+			}
+		};
+
+		final Run tokenizerMap = new Run() {
+			@Override
+			Object run() throws Exception {
+				return HstoreTokenizer.toMap(HSTORE);
+			}
+		};
+
+		final Run jsonObject = new Run() {
+			@Override
+			Object run() throws Exception {
+				return parser.fromJson(new JSONObject("{" + HSTORE.replace("=>", ":") + "}"));
+			}
+		};
+
+		final Run tokenizerObject = new Run() {
+			@Override
+			Object run() throws Exception {
+				return parser.fromString(HSTORE);
+			}
+		};
+
+		System.out.println(String.format(Locale.US, "hstore benchmark: %ds per run, %d chars", seconds, HSTORE.length()));
+		System.out.println(String.format(Locale.US, "%-8s %16s %16s %12s %12s %8s", "target", "json op/s", "tokenizer op/s", "json us", "tokenizer us", "speedup"));
+		compare("map", jsonMap, tokenizerMap, seconds);
+		compare("object", jsonObject, tokenizerObject, seconds);
+	}
+
+	private static void compare(String name, Run json, Run tokenizer, int seconds) throws Exception {
+		//warm up
+		measure(json, Math.max(1, seconds / 2));
+		measure(tokenizer, Math.max(1, seconds / 2));
+
+		final double opsJson = measure(json, seconds);
+		final double opsTokenizer = measure(tokenizer, seconds);
+		System.out.println(String.format(Locale.US, "%-8s %16.0f %16.0f %12.2f %12.2f %7.1fx",
+				name, opsJson, opsTokenizer, 1e6 / opsJson, 1e6 / opsTokenizer, opsTokenizer / opsJson));
+	}
+
+	/**
+	 *
+	 * @return operations per second
+	 */
+	private static double measure(Run run, int seconds) throws Exception {
+		final long start = System.nanoTime();
+		final long end = start + seconds * 1000000000L;
+		long count = 0;
+		int hash = 0;
+		while (System.nanoTime() < end) {
+			for (int i = 0; i < 100; i++) {
+				hash += run.run().hashCode();
+			}
+			count += 100;
+		}
+		sink = hash;
+		return count / ((System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.shared.hstoreparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import at.alladin.rmbt.shared.hstoreparser.annotation.HstoreKey;
+
+public class HstoreTokenizerTest {
+
+	public static class Item {
+		@HstoreKey("name")
+		String name;
+
+		@HstoreKey("count")
+		Long count;
+
+		@HstoreKey("port")
+		int port;
+
+		@HstoreKey("enabled")
+		Boolean enabled;
+
+		@HstoreKey("rate")
+		Double rate;
+
+		public Item() {
+		}
+	}
+
+	/**
+	 * characters with a special meaning in hstores
+	 */
+	private final static String SPECIAL_CHARS = "\"\\=>, \t\n";
+
+	private final static Random RANDOM = new Random(4711);
+
+	private static Map<String, String> map(String... pairs) {
+		final Map<String, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < pairs.length; i += 2) {
+			map.put(pairs[i], pairs[i + 1]);
+		}
+		return map;
+	}
+
+	private static String randomString(int maxLength) {
+		final StringBuilder sb = new StringBuilder();
+		final int length = RANDOM.nextInt(maxLength + 1);
+		for (int i = 0; i < length; i++) {
+			switch (RANDOM.nextInt(4)) {
+			case 0:
+				sb.append(SPECIAL_CHARS.charAt(RANDOM.nextInt(SPECIAL_CHARS.length())));
+				break;
+			case 1:
+				sb.append((char) (0x20 + RANDOM.nextInt(0x5f)));
+				break;
+			case 2:
+				sb.append((char) (0xa0 + RANDOM.nextInt(0x2000)));
+				break;
+			default:
+				sb.append("NULL");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * inserts random whitespace around all tokens of a serialized hstore
+	 * @param hstore output of {@link HstoreTokenizer#toHstore(Map)}
+	 * @return
+	 */
+	private static String addWhitespace(String hstore) {
+		final StringBuilder sb = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < hstore.length(); i++) {
+			final char c = hstore.charAt(i);
+			if (!quoted && (c == '"' || c == ',' || c == '=' || c == 'N')) {
+				sb.append(" \t\n\r".substring(0, RANDOM.nextInt(5)));
+			}
+			sb.append(c);
+			if (!quoted && (c == ',' || c == '>')) {
+				sb.append(" \t\n\r".substring(0, RANDOM.nextInt(5)));
+			}
+			if (c == '\\') {
+				sb.append(hstore.charAt(++i));
+			}
+			else if (c == '"') {
+				quoted = !quoted;
+			}
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testPostgresExamples() throws Exception {
+		assertEquals(map(), HstoreTokenizer.toMap(""));
+		assertEquals(map(), HstoreTokenizer.toMap("  "));
+		assertEquals(map("a", "b"), HstoreTokenizer.toMap("a=>b"));
+		assertEquals(map("a", "1", "b", "2"), HstoreTokenizer.toMap("a=>1,b=>2"));
+		assertEquals(map("a", "1", "b", "2"), HstoreTokenizer.toMap(" a => 1 , b => 2 , "));
+		assertEquals(map("a key", "a value"), HstoreTokenizer.toMap("\"a key\"=>\"a value\""));
+		assertEquals(map("", ""), HstoreTokenizer.toMap("\"\"=>\"\""));
+		assertEquals(map("a\"b", "c\\d"), HstoreTokenizer.toMap("\"a\\\"b\"=>\"c\\\\d\""));
+		assertEquals(map("a b", "c,d"), HstoreTokenizer.toMap("a\\ b=>c\\,d"));
+		assertEquals(map("a", "b=>c"), HstoreTokenizer.toMap("a=>b=>c"));
+		assertEquals(map("a", "b"), HstoreTokenizer.toMap("a=>b, a=>c"));
+		assertEquals(map("ä€", " x"), HstoreTokenizer.toMap("ä€=>\" x\""));
+
+		assertEquals(map("a", null, "b", null, "c", null), HstoreTokenizer.toMap("a=>NULL, b=>null, c=>NuLl"));
+		assertEquals(map("a", "NULL", "b", "NULLx", "c", "NUL"), HstoreTokenizer.toMap("a=>\"NULL\", b=>NULLx, c=>NUL"));
+		assertEquals(map("NULL", "a"), HstoreTokenizer.toMap("NULL=>a"));
+	}
+
+	@Test
+	public void testInvalid() {
+		final String[] invalid = {
+			"a", "a=>", "a =>  ", "a=b", "a>b", "=>b", "\"a=>b", "a=>\"b", "a=>b c=>d",
+			"a b=>c", "\"a\"b=>c", "a=>\"b\"c", "a\\", "a=>b\\", "\"a\\", "a=>b,c"
+		};
+
+		for (String hstore : invalid) {
+			try {
+				HstoreTokenizer.toMap(hstore);
+				fail("hstore should be invalid: " + hstore);
+			}
+			catch (HstoreParseException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith(HstoreParseException.HSTORE_FORMAT_UNSUPPORTED));
+			}
+		}
+	}
+
+	@Test
+	public void testToHstore() {
+		assertEquals("", HstoreTokenizer.toHstore(map()));
+		assertEquals("\"a\"=>\"b\", \"c\"=>NULL, \"d\"=>\"NULL\"", HstoreTokenizer.toHstore(map("a", "b", "c", null, "d", "NULL")));
+		assertEquals("\"a\\\"b\"=>\"c\\\\d\"", HstoreTokenizer.toHstore(map("a\"b", "c\\d")));
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (int i = 0; i < 5000; i++) {
+			final Map<String, String> map = new LinkedHashMap<>();
+			final int size = RANDOM.nextInt(8);
+			for (int j = 0; j < size; j++) {
+				map.put(randomString(12), RANDOM.nextInt(5) == 0 ? null : randomString(20));
+			}
+
+			final String hstore = HstoreTokenizer.toHstore(map);
+			assertEquals(hstore, map, HstoreTokenizer.toMap(hstore));
+
+			final String withWhitespace = addWhitespace(hstore);
+			assertEquals(withWhitespace, map, HstoreTokenizer.toMap(withWhitespace));
+		}
+	}
+
+	@Test
+	public void testFuzz() throws Exception {
+		final String alphabet = "ab \"\\=>,NUL";
+		int valid = 0;
+		for (int i = 0; i < 100000; i++) {
+			final StringBuilder sb = new StringBuilder();
+			final int length = RANDOM.nextInt(16);
+			for (int j = 0; j < length; j++) {
+				sb.append(alphabet.charAt(RANDOM.nextInt(alphabet.length())));
+			}
+
+			final Map<String, String> map;
+			try {
+				map = HstoreTokenizer.toMap(sb);
+			}
+			catch (HstoreParseException e) {
+				continue;
+			}
+
+			valid++;
+			final String hstore = HstoreTokenizer.toHstore(map);
+			assertEquals(sb.toString(), map, HstoreTokenizer.toMap(hstore));
+			assertEquals(sb.toString(), hstore, HstoreTokenizer.toHstore(HstoreTokenizer.toMap(hstore)));
+		}
+		assertTrue("valid hstores: " + valid, valid > 1000);
+	}
+
+	@Test
+	public void testFromString() throws Exception {
+		final Hstore hstore = new Hstore(Item.class);
+		final HstoreParser<Item> parser = hstore.getParser(Item.class);
+
+		final String s = "\"name\"=>\"a \\\"quoted\\\" => name, with comma\", \"count\"=>\"3000000000\", \"port\"=>\"443\", "
+				+ "\"enabled\"=>\"true\", \"rate\"=>\"0.25\", \"unknown\"=>\"x\"";
+		final Item item = parser.fromString(s);
+		assertEquals("a \"quoted\" => name, with comma", item.name);
+		assertEquals(Long.valueOf(3000000000L), item.count);
+		assertEquals(443, item.port);
+		assertEquals(Boolean.TRUE, item.enabled);
+		assertEquals(Double.valueOf(0.25), item.rate);
+
+		final Item fromHstore = hstore.fromString("name=>abc, count=>NULL, port=>80", Item.class);
+		assertEquals("abc", fromHstore.name);
+		assertNull(fromHstore.count);
+		assertEquals(80, fromHstore.port);
+
+		//json notation is still supported
+		final Item fromJson = parser.fromString("\"name\":\"json\", \"port\":8080");
+		assertEquals("json", fromJson.name);
+		assertEquals(8080, fromJson.port);
+
+		try {
+			parser.fromString("port=>not_a_number");
+			fail();
+		}
+		catch (HstoreParseException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(HstoreParseException.HSTORE_COULD_NOT_INSTANTIATE));
+		}
+	}
+
+	@Test
+	public void testParseToJson() throws Exception {
+		final JSONObject json = HstoreParser.parseToJson("a=>1, \"b\"=>\"x=>y\", c=>NULL");
+		assertEquals("1", json.getString("a"));
+		assertEquals("x=>y", json.getString("b"));
+		assertTrue(json.isNull("c"));
+		assertFalse(json.has("d"));
+		assertNull(HstoreParser.parseToJson("a=>\"unterminated"));
+	}
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2016 Specure GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package at.alladin.rmbt.shared.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBuckets() {
+		for (long value = 0; value < 1 << 20; value++) {
+			final int index = LatencyHistogram.getIndex(value);
+			final long lowest = LatencyHistogram.getLowestValue(index);
+			assertTrue(value >= lowest);
+			assertTrue(value < lowest + LatencyHistogram.getWidth(index));
+			assertTrue(LatencyHistogram.getWidth(index) == 1 || LatencyHistogram.getWidth(index) * LatencyHistogram.SUB_BUCKET_COUNT <= lowest);
+		}
+		final int last = LatencyHistogram.getIndex(LatencyHistogram.MAX_VALUE);
+		assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.getLowestValue(last) + LatencyHistogram.getWidth(last) - 1);
+	}
+
+	@Test
+	public void testEmpty() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		assertEquals(0, histogram.getMean(), 0);
+	}
+
+	@Test
+	public void testPercentiles() {
+		final Random random = new Random(42);
+		final LatencyHistogram histogram = new LatencyHistogram();
+		final long[] values = new long[100000];
+		long sum = 0;
+		for (int i = 0; i < values.length; i++) {
+			// log-normal, median about 20ms
+			values[i] = (long) Math.exp(Math.log(20000) + random.nextGaussian());
+			histogram.record(values[i]);
+			sum += values[i];
+		}
+		Arrays.sort(values);
+
+		assertEquals(values.length, histogram.getCount());
+		assertEquals(sum, histogram.getSum());
+		assertEquals(values[values.length - 1], histogram.getMax());
+		for (double percentile : new double[] {1, 50, 90, 99, 99.9, 100}) {
+			final long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+			final long actual = histogram.getValueAtPercentile(percentile);
+			assertEquals("p" + percentile, expected, actual, expected * 1.5 / LatencyHistogram.SUB_BUCKET_COUNT);
+		}
+	}
+
+	@Test
+	public void testLimits() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(2, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getValueAtPercentile(100), LatencyHistogram.MAX_VALUE / LatencyHistogram.SUB_BUCKET_COUNT);
+	}
+}
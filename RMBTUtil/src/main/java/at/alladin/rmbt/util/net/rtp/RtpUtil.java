@@ -120,7 +120,9 @@ public class RtpUtil {
 
 			@Override
 			public void onBind(Integer port) throws IOException {
-				receiveCallback.onBind(incomingPort);
+				if (receiveCallback != null) {
+					receiveCallback.onBind(incomingPort);
+				}
 			}
 		};
 		